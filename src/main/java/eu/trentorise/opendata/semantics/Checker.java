@@ -25,6 +25,8 @@ import java.util.Iterator;
 
 import javax.annotation.Nullable;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
@@ -44,6 +46,11 @@ import eu.trentorise.opendata.semantics.services.AssignmentResult;
 import eu.trentorise.opendata.semantics.services.AttrMapping;
 import eu.trentorise.opendata.semantics.services.IdResult;
 import eu.trentorise.opendata.semantics.services.Schemas;
+import eu.trentorise.opendata.semantics.validation.AttrTypeValidator;
+import eu.trentorise.opendata.semantics.validation.CompiledRegex;
+import eu.trentorise.opendata.semantics.validation.LazyMessage;
+import eu.trentorise.opendata.semantics.validation.ValidationContext;
+import eu.trentorise.opendata.semantics.validation.ValidationResult;
 import eu.trentorise.opendata.traceprov.types.Concept;
 
 /**
@@ -53,8 +60,22 @@ import eu.trentorise.opendata.traceprov.types.Concept;
  */
 public final class Checker {
 
+    /**
+     * Maximum number of validation contexts kept by
+     * {@link #validateEntity(Entity, boolean)} and
+     * {@link #validateStruct(AStruct, boolean)}
+     */
+    public static final int MAX_CACHED_CONTEXTS = 100;
+
     private IEkb ekb;
 
+    /**
+     * Validation contexts by etype id
+     */
+    private final Cache<String, ValidationContext> contexts = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_CONTEXTS)
+            .build();
+
     private Checker(IEkb ekb) {
         checkNotNull(ekb);
         this.ekb = ekb;
@@ -164,6 +185,18 @@ public final class Checker {
 
         }
 
+        if (!attrDef.getType()
+                    .getRegularExpression()
+                    .isEmpty()) {
+            try {
+                CompiledRegex.of(attrDef.getType()
+                                        .getRegularExpression());
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("Found invalid regular expression for attr def " + attrDef.getId(),
+                        ex);
+            }
+        }
+
         try {
             checkNotNull(attrDef.getConceptId());
         } catch (Exception ex) {
@@ -289,7 +322,7 @@ public final class Checker {
         }
 
         if (!synthetic) {
-            checkNotDirtyUrl(entity.getId(), "Found invalid URL in entity " + entity);
+            checkNotDirtyUrl(entity.getId(), LazyMessage.of("Found invalid URL in entity %s", entity));
         }
 
         try {
@@ -306,6 +339,63 @@ public final class Checker {
 
     }
 
+    /**
+     * Checks provided entity like {@link #checkEntity(Entity, boolean)} does,
+     * without throwing exceptions: the first violation found is returned in
+     * the result, with its message formatted only on request. Like
+     * {@link #checkEntity(Entity, boolean)}, missing values of mandatory
+     * attributes are not reported, see
+     * {@link ValidationContext#withoutMandatoryChecks()}.
+     *
+     * The {@link ValidationContext} of each etype is created on first use and
+     * then reused by the following calls on this checker, so changes to
+     * etypes made after that are not seen. To see them, create a new checker.
+     */
+    public ValidationResult validateEntity(Entity entity, boolean synthetic) {
+        if (entity == null) {
+            return ValidationResult.invalid("", "Found null entity!");
+        }
+        ValidationContext context = context(entity.getEtypeId());
+        if (context == null) {
+            return ValidationResult.invalid("", "Found null etype!");
+        }
+        return context.validateEntity(entity, synthetic);
+    }
+
+    /**
+     * Checks provided struct like {@link #checkStruct(AStruct, boolean)} does,
+     * without throwing exceptions, see {@link #validateEntity(Entity, boolean)}
+     */
+    public ValidationResult validateStruct(AStruct struct, boolean synthetic) {
+        if (struct == null) {
+            return ValidationResult.invalid("", "Found null struct!");
+        }
+        ValidationContext context = context(struct.getEtypeId());
+        if (context == null) {
+            return ValidationResult.invalid("", "Found null etype!");
+        }
+        return context.validateStruct(struct, synthetic);
+    }
+
+    /**
+     * Returns the cached validation context of the etype, creating it if
+     * needed, or null if the etype can't be found.
+     */
+    @Nullable
+    private ValidationContext context(String etypeId) {
+        ValidationContext ret = contexts.getIfPresent(etypeId);
+        if (ret == null) {
+            IEtypeService ets = ekb.getEtypeService();
+            Etype etype = ets.readEtype(etypeId);
+            if (etype == null) {
+                return null;
+            }
+            ret = ValidationContext.of(etype, ets).withoutMandatoryChecks();
+            contexts.put(etypeId, ret);
+        }
+        return ret;
+    }
+
     /**
      * Checks if provided struct complies with open entity specs.
      *
@@ -342,12 +432,12 @@ public final class Checker {
             throw new IllegalArgumentException("Found null etype!");
         }
 
-        checkNotDirtyUrl(struct.getEtypeId(), "Found invalid entity type URL in struct " + struct.getId());
+        checkNotDirtyUrl(struct.getEtypeId(), LazyMessage.of("Found invalid entity type URL in struct %s", struct.getId()));
 
         checkArgument(etype.getId()
                            .equals(struct.getEtypeId()),
-                "Provided etype " + etype.getId() + " is not the one referenced by the struct, which is "
-                        + struct.getEtypeId());
+                "Provided etype %s is not the one referenced by the struct, which is %s", etype.getId(),
+                struct.getEtypeId());
 
         if (struct.getAttrs() == null) {
             throw new IllegalArgumentException("Found null attributes in struct " + struct.getId());
@@ -426,6 +516,7 @@ public final class Checker {
      * @param obj
      *            an object that can be stored inside a value. NOTE: in case it
      *            is a structure or entity, subvalues are *NOT* checked.
+     * @see AttrTypeValidator
      */
     public static void checkObj(Object obj, AttrType type, boolean synthetic) {
 
@@ -436,31 +527,7 @@ public final class Checker {
             throw new IllegalArgumentException("Found null type!");
         }
 
-        if (DataTypes.getDataTypes()
-                     .get(type.getDatatype()) == null) {
-            throw new IllegalArgumentException("Found unsupported datatype " + type.getDatatype() + " in value " + obj
-                    + ". Its class is " + obj.getClass()
-                                             .getName());
-        }
-
-        if (!(DataTypes.getDataTypes()
-                       .get(type.getDatatype())
-                       .isInstance(obj))) {
-
-            if ((type.getDatatype()
-                     .equals(DataTypes.STRUCTURE)
-                    || type.getDatatype()
-                           .equals(DataTypes.ENTITY))
-                    && obj instanceof String) {
-                checkNotDirtyUrl((String) obj,
-                        "Found invalid " + type.getDatatype() + " URL for referenced structure!!");
-            } else {
-                throw new IllegalArgumentException("Found value not corresponding to its datatype " + type.getDatatype()
-                        + ". Value is " + obj + ". Its class is " + obj.getClass()
-                                                                       .getName());
-            }
-        }
-
+        AttrTypeValidator.of(type).checkWithRegex(obj, AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR);
     }
 
     /**
@@ -486,17 +553,6 @@ public final class Checker {
             throw new IllegalArgumentException("Found negative local ID in value " + value);
         }
 
-        AttrType type;
-        if (attrDef.getType()
-                   .isList()) {
-            type = AttrType.builder()
-                           .from(attrDef.getType())
-                           .setMandatory(false)
-                           .setList(false)
-                           .build();
-        } else {
-            type = attrDef.getType();
-        }
         Object obj = value.getObj();
         checkObj(obj, attrDef.getType(), synthetic);
 
@@ -548,7 +604,7 @@ public final class Checker {
             throw new IllegalArgumentException("Found null concept!");
         }
 
-        checkNotDirtyUrl(concept.getId(), "Found invalid URL in concept " + concept);
+        checkNotDirtyUrl(concept.getId(), LazyMessage.of("Found invalid URL in concept %s", concept));
 
         try {
             checkNotNull(concept.getDescription());
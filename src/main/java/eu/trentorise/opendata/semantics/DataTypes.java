@@ -111,6 +111,7 @@ public final class DataTypes {
     private static final Map<String, String> DATATYPE_PRETTY_NAMES_EN = new HashMap();
     private static final Map<Locale, Map<String, String>> DATATYPE_PRETTY_NAMES_MAP = new HashMap();
     private static final Map<String,  Class> JAVA_DATATYPES = new HashMap();
+    private static final Map<String, Class> JAVA_DATATYPES_VIEW = Collections.unmodifiableMap(JAVA_DATATYPES);
 
     static {
 
@@ -166,7 +167,7 @@ public final class DataTypes {
      * @return an unmodifiable map of the supported data types
      */
     public static Map<String, Class> getDataTypes() {
-        return Collections.unmodifiableMap(JAVA_DATATYPES);
+        return JAVA_DATATYPES_VIEW;
     }
 
     /**
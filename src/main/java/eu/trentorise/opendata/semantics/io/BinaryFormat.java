@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Constants of the binary format written by {@link EntityBinaryWriter}.
+ *
+ * A stream starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * records each starting with a record tag. Ids, urls, datatypes and locales
+ * are written as references into a string table built while the stream is
+ * written: a reference is the unsigned varint {@code index + 1} of an already
+ * seen string, or 0 followed by the new string, which then gets the next
+ * index. Free text is always written inline as a varint length followed by
+ * UTF-8 bytes. Local ids and integral numbers are zigzag varints.
+ *
+ * @author David Leoni
+ */
+final class BinaryFormat {
+
+    static final byte[] MAGIC = { 'O', 'E', 'B' };
+    static final int VERSION = 1;
+
+    /**
+     * Maximum number of strings kept in the string table. Strings seen after
+     * the table is full are always written inline.
+     */
+    static final int MAX_STRING_TABLE_SIZE = 1 << 16;
+
+    /**
+     * Maximum length in bytes of inline strings and JSON values. Readers
+     * reject longer lengths as corrupted instead of allocating them.
+     */
+    static final int MAX_BYTES_LENGTH = 64 << 20;
+
+    /**
+     * Readers grow buffers by at most this number of bytes at a time, so a
+     * length beyond the end of a truncated stream is not allocated.
+     */
+    static final int READ_CHUNK = 1 << 16;
+
+    static final int RECORD_ENTITY = 1;
+    static final int RECORD_STRUCT = 2;
+    static final int RECORD_ETYPE = 3;
+    static final int RECORD_ATTR_DEF = 4;
+
+    static final int VALUE_STRING = 1;
+    static final int VALUE_FALSE = 2;
+    static final int VALUE_TRUE = 3;
+    static final int VALUE_INTEGER = 4;
+    static final int VALUE_LONG = 5;
+    static final int VALUE_FLOAT = 6;
+    static final int VALUE_DATE = 7;
+    static final int VALUE_LOCALIZED_STRING = 8;
+    static final int VALUE_DICT = 9;
+    static final int VALUE_CONCEPT = 10;
+    static final int VALUE_SEMANTIC_TEXT = 11;
+    static final int VALUE_STRUCT = 12;
+    static final int VALUE_ENTITY = 13;
+
+    static final int FLAG_LIST = 1;
+    static final int FLAG_MANDATORY = 2;
+
+    /**
+     * Used for types without a native encoding, like semantic texts. Object
+     * mappers are thread safe once configured.
+     */
+    static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
+    private BinaryFormat() {
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.IEntityService;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports entities of a given etype as CSV according to RFC 4180. The column
+ * layout is derived once from the etype: first comes the entity id, then one
+ * column for each attribute definition, sorted by attribute definition id so
+ * the layout doesn't depend on how the etype was built. Attributes of
+ * {@link DataTypes#STRUCTURE} datatype are flattened into one column per
+ * nested attribute, with dotted headers like
+ * {@code address-attr-id.municipality-attr-id}. Recursive structs are
+ * flattened only once, after that the struct ids are written. Multiple values
+ * are joined with the list separator. In columns which may hold multiple
+ * values, backslashes and list separators occurring inside a value are
+ * escaped with a backslash, so values can be split back unambiguously.
+ *
+ * Rows are composed in reusable buffers, so exporting more entities doesn't
+ * require more memory.
+ *
+ * @author David Leoni
+ */
+public class CsvExporter extends EntityExporter {
+
+    public static final char DEFAULT_SEPARATOR = ',';
+    public static final char DEFAULT_LIST_SEPARATOR = '|';
+
+    /**
+     * Header of the first column, holding entity ids.
+     */
+    public static final String ID_HEADER = "id";
+
+    private static final String LINE_END = "\r\n";
+
+    private static final Ordering<AttrDef> BY_ID = new Ordering<AttrDef>() {
+        @Override
+        public int compare(AttrDef left, AttrDef right) {
+            return left.getId().compareTo(right.getId());
+        }
+    };
+
+    private final Etype etype;
+    private final ImmutableList<AttrDef[]> columns;
+    /**
+     * For each column, whether some attribute definition along its path is a
+     * list
+     */
+    private final boolean[] listColumns;
+    private final ImmutableList<String> headers;
+    private final char separator;
+    private final char listSeparator;
+
+    private final LexicalFormatter formatter = new LexicalFormatter();
+    private final StringBuilder row = new StringBuilder();
+    private final StringBuilder cell = new StringBuilder();
+    private final StringBuilder value = new StringBuilder();
+
+    /**
+     * Creates an exporter with default separators and page size.
+     *
+     * @param entityService
+     *            the service entities are read from
+     * @param etype
+     *            the etype of the entities to export
+     * @param ets
+     *            used to resolve etypes of nested structs
+     */
+    public CsvExporter(IEntityService entityService, Etype etype, IEtypeService ets) {
+        this(entityService, Entities.resolveEtypeClosure(etype, ets), etype.getId(), DEFAULT_SEPARATOR,
+                DEFAULT_LIST_SEPARATOR, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param entityService
+     *            the service entities are read from
+     * @param etypes
+     *            the etype of the entities to export together with all the
+     *            etypes of nested structs, see
+     *            {@link Entities#resolveEtypeClosure(Etype, IEtypeService)}
+     * @param etypeId
+     *            the id of the etype of the entities to export
+     * @param separator
+     *            the separator of cells, by default
+     *            {@link #DEFAULT_SEPARATOR}. Can't be a double quote or a line
+     *            break.
+     * @param listSeparator
+     *            the separator of multiple values in the same cell, by
+     *            default {@link #DEFAULT_LIST_SEPARATOR}. Must differ from
+     *            the separator and can't be a backslash.
+     * @param pageSize
+     *            the number of entities read at each call to the entity
+     *            service, by default {@link EntityExporter#DEFAULT_PAGE_SIZE}
+     */
+    public CsvExporter(IEntityService entityService, Map<String, Etype> etypes, String etypeId, char separator,
+            char listSeparator, int pageSize) {
+        super(entityService, pageSize);
+        checkNotNull(etypes);
+        checkArgument(separator != '"' && separator != '\r' && separator != '\n', "Invalid separator: %s",
+                separator);
+        checkArgument(listSeparator != separator, "List separator must differ from separator %s", separator);
+        checkArgument(listSeparator != '\\', "List separator can't be a backslash!");
+
+        this.etype = etypes.get(etypeId);
+        checkArgument(etype != null, "Couldn't find etype %s among provided etypes!", etypeId);
+        this.separator = separator;
+        this.listSeparator = listSeparator;
+
+        List<AttrDef[]> cols = new ArrayList();
+        Set<String> visiting = new HashSet();
+        visiting.add(etype.getId());
+        addColumns(etype, new ArrayList<AttrDef>(), etypes, visiting, cols);
+        this.columns = ImmutableList.copyOf(cols);
+        this.listColumns = new boolean[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            for (AttrDef attrDef : columns.get(i)) {
+                listColumns[i] |= attrDef.getType().isList();
+            }
+        }
+
+        ImmutableList.Builder<String> hb = ImmutableList.builder();
+        hb.add(ID_HEADER);
+        StringBuilder sb = new StringBuilder();
+        for (AttrDef[] path : columns) {
+            sb.setLength(0);
+            for (int i = 0; i < path.length; i++) {
+                if (i > 0) {
+                    sb.append('.');
+                }
+                sb.append(path[i].getId());
+            }
+            hb.add(sb.toString());
+        }
+        this.headers = hb.build();
+    }
+
+    private static void addColumns(Etype curEtype, List<AttrDef> prefix, Map<String, Etype> etypes,
+            Set<String> visiting, List<AttrDef[]> cols) {
+        for (AttrDef attrDef : BY_ID.sortedCopy(curEtype.getAttrDefs().values())) {
+            List<AttrDef> path = new ArrayList(prefix);
+            path.add(attrDef);
+
+            Etype subEtype = null;
+            if (DataTypes.STRUCTURE.equals(attrDef.getType().getDatatype())) {
+                subEtype = etypes.get(attrDef.getType().getEtypeId());
+            }
+
+            if (subEtype == null || subEtype.getAttrDefs().isEmpty() || visiting.contains(subEtype.getId())) {
+                cols.add(path.toArray(new AttrDef[path.size()]));
+            } else {
+                visiting.add(subEtype.getId());
+                addColumns(subEtype, path, etypes, visiting, cols);
+                visiting.remove(subEtype.getId());
+            }
+        }
+    }
+
+    /**
+     * The column headers, starting with {@link #ID_HEADER}
+     */
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * The etype of exported entities.
+     */
+    public Etype getEtype() {
+        return etype;
+    }
+
+    @Override
+    public void writeHeader(Writer writer) throws IOException {
+        row.setLength(0);
+        for (int i = 0; i < headers.size(); i++) {
+            if (i > 0) {
+                row.append(separator);
+            }
+            appendEscaped(headers.get(i), row);
+        }
+        row.append(LINE_END);
+        write(row, writer);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException
+     *             if the entity is not of the etype this exporter was created
+     *             for.
+     */
+    @Override
+    public void writeEntity(Entity entity, Writer writer) throws IOException {
+        checkArgument(etype.getId().equals(entity.getEtypeId()),
+                "Tried to export entity %s of etype %s with exporter for etype %s", entity.getId(),
+                entity.getEtypeId(), etype.getId());
+
+        row.setLength(0);
+        appendEscaped(entity.getId(), row);
+        for (int i = 0; i < columns.size(); i++) {
+            row.append(separator);
+            cell.setLength(0);
+            appendValues(entity, columns.get(i), listColumns[i], 0, 0);
+            appendEscaped(cell, row);
+        }
+        row.append(LINE_END);
+        write(row, writer);
+    }
+
+    @Override
+    public void writeFooter(Writer writer) throws IOException {
+    }
+
+    /**
+     * Appends to {@link #cell} all the values found at the end of the path,
+     * fanning out on multiple values.
+     *
+     * @param list
+     *            whether the path may lead to multiple values, so list
+     *            separators inside values must be escaped
+     * @return the total number of values appended so far
+     */
+    private int appendValues(AStruct struct, AttrDef[] path, boolean list, int depth, int count) {
+        Attr attr = struct.getAttrs().get(path[depth].getId());
+        if (attr == null) {
+            return count;
+        }
+        boolean last = depth == path.length - 1;
+        int ret = count;
+        for (Val val : attr.getValues()) {
+            Object obj = val.getObj();
+            if (last) {
+                if (ret > 0) {
+                    cell.append(listSeparator);
+                }
+                if (list) {
+                    value.setLength(0);
+                    formatter.append(obj, value);
+                    appendListEscaped(value, cell);
+                } else {
+                    formatter.append(obj, cell);
+                }
+                ret++;
+            } else if (obj instanceof AStruct) {
+                ret = appendValues((AStruct) obj, path, list, depth + 1, ret);
+            }
+        }
+        return ret;
+    }
+
+    private void appendListEscaped(CharSequence s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == listSeparator || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+    private void appendEscaped(CharSequence s, StringBuilder sb) {
+        boolean quote = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == separator || c == '"' || c == '\r' || c == '\n') {
+                quote = true;
+                break;
+            }
+        }
+        if (!quote) {
+            sb.append(s);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static eu.trentorise.opendata.semantics.io.BinaryFormat.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Canonicals;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semtext.SemText;
+import eu.trentorise.opendata.traceprov.types.Concept;
+import eu.trentorise.opendata.traceprov.types.UniqueIndex;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads records written by {@link EntityBinaryWriter}, one at a time. Ids and
+ * the names and types of etypes and attribute definitions are returned as
+ * their {@link Canonicals canonical} instances.
+ *
+ * Not thread safe.
+ *
+ * @author David Leoni
+ */
+public class EntityBinaryReader implements Closeable {
+
+    private final InputStream in;
+    private final ObjectMapper mapper;
+    private final List<String> stringTable = new ArrayList();
+    private boolean headerRead;
+
+    /**
+     * Creates a reader which will fail on semantic texts and unique indexes if
+     * their Jackson modules are not registered in the default mapper. Prefer
+     * {@link #EntityBinaryReader(InputStream, ObjectMapper)} if records may
+     * contain them.
+     */
+    public EntityBinaryReader(InputStream in) {
+        this(in, DEFAULT_MAPPER);
+    }
+
+    /**
+     * @param mapper
+     *            mapper used for semantic texts and unique indexes, which are
+     *            stored as JSON. It must have the needed Jackson modules
+     *            registered.
+     */
+    public EntityBinaryReader(InputStream in, ObjectMapper mapper) {
+        checkNotNull(in);
+        checkNotNull(mapper);
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+        this.mapper = mapper;
+    }
+
+    /**
+     * Reads next record.
+     *
+     * @return either an {@link Entity}, a {@link Struct}, an {@link Etype} or
+     *         an {@link AttrDef}, or null if the stream has ended.
+     * @throws IOException
+     *             if the stream is malformed or an i/o error occurs.
+     */
+    @Nullable
+    public Object read() throws IOException {
+        if (!headerRead) {
+            byte[] magic = new byte[MAGIC.length];
+            for (int i = 0; i < magic.length; i++) {
+                int b = in.read();
+                if (b == -1) {
+                    if (i == 0) {
+                        return null;
+                    }
+                    throw new EOFException("Stream ended while reading header!");
+                }
+                magic[i] = (byte) b;
+            }
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Not an entity binary stream!");
+            }
+            int version = readVarInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary format version " + version + ", expected " + VERSION);
+            }
+            headerRead = true;
+        }
+
+        int recordTag = in.read();
+        switch (recordTag) {
+        case -1:
+            return null;
+        case RECORD_ENTITY:
+            return readEntityBody();
+        case RECORD_STRUCT:
+            return readStructBody();
+        case RECORD_ETYPE:
+            return readEtypeBody();
+        case RECORD_ATTR_DEF:
+            return readAttrDefBody();
+        default:
+            throw new IOException("Unknown record tag " + recordTag);
+        }
+    }
+
+    /**
+     * Reads next record, which must be an entity.
+     *
+     * @return the entity, or null if the stream has ended.
+     * @throws IOException
+     *             if next record is not an entity or the stream is malformed.
+     */
+    @Nullable
+    public Entity readEntity() throws IOException {
+        return readRecord(Entity.class);
+    }
+
+    /**
+     * Reads next record, which must be an etype.
+     *
+     * @return the etype, or null if the stream has ended.
+     * @throws IOException
+     *             if next record is not an etype or the stream is malformed.
+     */
+    @Nullable
+    public Etype readEtype() throws IOException {
+        return readRecord(Etype.class);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    @Nullable
+    private <T> T readRecord(Class<T> clazz) throws IOException {
+        Object ret = read();
+        if (ret == null || clazz.isInstance(ret)) {
+            return (T) ret;
+        }
+        throw new IOException("Expected a record of class " + clazz.getSimpleName() + ", found instead "
+                + ret.getClass().getSimpleName());
+    }
+
+    private Entity readEntityBody() throws IOException {
+        Entity.Builder b = Entity.builder();
+        b.setId(readRef());
+        b.setEtypeId(readRef());
+        readAttrs(b);
+        b.setName(readDict());
+        b.setDescription(readDict());
+        return b.build();
+    }
+
+    private Struct readStructBody() throws IOException {
+        Struct.Builder b = Struct.builder();
+        b.setId(readRef());
+        b.setEtypeId(readRef());
+        readAttrs(b);
+        return b.build();
+    }
+
+    private void readAttrs(AStruct.Builder<?> b) throws IOException {
+        int attrCount = readVarInt();
+        for (int i = 0; i < attrCount; i++) {
+            String key = readRef();
+            Attr.Builder ab = Attr.builder();
+            ab.setLocalId(unZigZag(readVarLong()));
+            ab.setAttrDefId(readRef());
+            int valueCount = readVarInt();
+            for (int j = 0; j < valueCount; j++) {
+                long localId = unZigZag(readVarLong());
+                ab.addValues(Val.of(localId, readValue()));
+            }
+            b.putAttrs(key, ab.build());
+        }
+    }
+
+    private Etype readEtypeBody() throws IOException {
+        Etype.Builder b = Etype.builder();
+        b.setId(readRef());
+        b.setName(Canonicals.dict(readDict()));
+        b.setDescription(Canonicals.dict(readDict()));
+        b.setConceptId(readRef());
+        b.setStruct(readByte() != 0);
+        b.setNameAttrDefId(readRef());
+        b.setDescrAttrDefId(readRef());
+        int attrDefCount = readVarInt();
+        for (int i = 0; i < attrDefCount; i++) {
+            AttrDef attrDef = readAttrDefBody();
+            b.putAttrDefs(attrDef.getId(), attrDef);
+        }
+        int uniqueIndexCount = readVarInt();
+        for (int i = 0; i < uniqueIndexCount; i++) {
+            b.addUniqueIndexes(mapper.readValue(readBytes(), UniqueIndex.class));
+        }
+        return b.build();
+    }
+
+    @SuppressWarnings("deprecation")
+    private AttrDef readAttrDefBody() throws IOException {
+        AttrDef.Builder b = AttrDef.builder();
+        b.setId(readRef());
+        b.setName(Canonicals.dict(readDict()));
+        b.setDescription(Canonicals.dict(readDict()));
+        b.setConceptId(readRef());
+
+        AttrType.Builder tb = AttrType.builder();
+        tb.setDatatype(readRef());
+        int flags = readByte();
+        tb.setList((flags & FLAG_LIST) != 0);
+        tb.setMandatory((flags & FLAG_MANDATORY) != 0);
+        tb.setEtypeId(readRef());
+        tb.setEtypeName(Canonicals.dict(readDict()));
+        tb.setRegularExpression(readString());
+        b.setType(Canonicals.attrType(tb.build()));
+        return b.build();
+    }
+
+    private Object readValue() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+        case VALUE_STRING:
+            return readString();
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_INTEGER:
+            return (int) unZigZag(readVarLong());
+        case VALUE_LONG:
+            return unZigZag(readVarLong());
+        case VALUE_FLOAT:
+            int bits = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+            return Float.intBitsToFloat(bits);
+        case VALUE_DATE:
+            return new Date(unZigZag(readVarLong()));
+        case VALUE_LOCALIZED_STRING:
+            Locale locale = readLocale();
+            return LocalizedString.of(locale, readString());
+        case VALUE_DICT:
+            return readDict();
+        case VALUE_CONCEPT:
+            return Concept.builder().setId(readRef()).setName(readDict()).setDescription(readDict()).build();
+        case VALUE_SEMANTIC_TEXT:
+            return mapper.readValue(readBytes(), SemText.class);
+        case VALUE_ENTITY:
+            return readEntityBody();
+        case VALUE_STRUCT:
+            return readStructBody();
+        default:
+            throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private Dict readDict() throws IOException {
+        int n = readVarInt();
+        if (n == 0) {
+            return Dict.of();
+        }
+        Dict.Builder b = Dict.builder();
+        for (int i = 0; i < n; i++) {
+            Locale locale = readLocale();
+            b.put(locale, readString());
+        }
+        return b.build();
+    }
+
+    private Locale readLocale() throws IOException {
+        return Locale.forLanguageTag(readRef());
+    }
+
+    private String readRef() throws IOException {
+        int ref = readVarInt();
+        if (ref == 0) {
+            String s = Canonicals.id(readString());
+            if (stringTable.size() < MAX_STRING_TABLE_SIZE) {
+                stringTable.add(s);
+            }
+            return s;
+        }
+        if (ref > stringTable.size()) {
+            throw new IOException("Invalid string reference " + ref + ", string table has size "
+                    + stringTable.size());
+        }
+        return stringTable.get(ref - 1);
+    }
+
+    private String readString() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes() throws IOException {
+        int len = readVarInt();
+        if (len < 0 || len > MAX_BYTES_LENGTH) {
+            throw new IOException("Invalid length " + len + ", maximum is " + MAX_BYTES_LENGTH);
+        }
+        // grown while reading, so a truncated stream fails before the whole length is allocated
+        byte[] ret = new byte[Math.min(len, READ_CHUNK)];
+        int off = 0;
+        while (off < len) {
+            if (off == ret.length) {
+                ret = Arrays.copyOf(ret, (int) Math.min(len, (long) ret.length * 2));
+            }
+            int n = in.read(ret, off, ret.length - off);
+            if (n == -1) {
+                throw new EOFException("Stream ended while reading " + len + " bytes!");
+            }
+            off += n;
+        }
+        return ret;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of stream!");
+        }
+        return b;
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private int readVarInt() throws IOException {
+        long ret = readVarLong();
+        if (ret < 0 || ret > Integer.MAX_VALUE) {
+            throw new IOException("Invalid size " + ret);
+        }
+        return (int) ret;
+    }
+
+    private long readVarLong() throws IOException {
+        long ret = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            ret |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        throw new IOException("Malformed varint!");
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static eu.trentorise.opendata.semantics.io.BinaryFormat.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.semantics.model.entity.AEntity;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semtext.SemText;
+import eu.trentorise.opendata.traceprov.types.Concept;
+import eu.trentorise.opendata.traceprov.types.UniqueIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes entities, structs, etypes and attribute definitions in a compact
+ * binary format, see {@link BinaryFormat}. Ids repeated across records are
+ * written only once per stream. Read the stream back with
+ * {@link EntityBinaryReader}.
+ *
+ * Not thread safe.
+ *
+ * @author David Leoni
+ */
+public class EntityBinaryWriter implements Closeable, Flushable {
+
+    private final OutputStream out;
+    private final ObjectMapper mapper;
+    private final Map<String, Integer> stringTable = new HashMap();
+    private boolean headerWritten;
+
+    /**
+     * Creates a writer which will fail on semantic texts and unique indexes if
+     * their Jackson modules are not registered in the default mapper. Prefer
+     * {@link #EntityBinaryWriter(OutputStream, ObjectMapper)} if records may
+     * contain them.
+     */
+    public EntityBinaryWriter(OutputStream out) {
+        this(out, DEFAULT_MAPPER);
+    }
+
+    /**
+     * @param mapper
+     *            mapper used for semantic texts and unique indexes, which are
+     *            stored as JSON. It must have the needed Jackson modules
+     *            registered.
+     */
+    public EntityBinaryWriter(OutputStream out, ObjectMapper mapper) {
+        checkNotNull(out);
+        checkNotNull(mapper);
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out);
+        this.mapper = mapper;
+    }
+
+    /**
+     * Writes an entity record.
+     */
+    public void writeEntity(AEntity entity) throws IOException {
+        startRecord(RECORD_ENTITY);
+        writeEntityBody(entity);
+    }
+
+    /**
+     * Writes a struct record. If the struct is an entity, writes an entity
+     * record instead.
+     */
+    public void writeStruct(AStruct struct) throws IOException {
+        if (struct instanceof AEntity) {
+            writeEntity((AEntity) struct);
+        } else {
+            startRecord(RECORD_STRUCT);
+            writeStructBody(struct);
+        }
+    }
+
+    /**
+     * Writes an etype record, including its attribute definitions.
+     */
+    public void writeEtype(Etype etype) throws IOException {
+        startRecord(RECORD_ETYPE);
+        writeRef(etype.getId());
+        writeDict(etype.getName());
+        writeDict(etype.getDescription());
+        writeRef(etype.getConceptId());
+        out.write(etype.isStruct() ? 1 : 0);
+        writeRef(etype.getNameAttrDefId());
+        writeRef(etype.getDescrAttrDefId());
+        writeVarInt(etype.getAttrDefs().size());
+        for (AttrDef attrDef : etype.getAttrDefs().values()) {
+            writeAttrDefBody(attrDef);
+        }
+        List<UniqueIndex> uniqueIndexes = etype.getUniqueIndexes();
+        writeVarInt(uniqueIndexes.size());
+        for (UniqueIndex uniqueIndex : uniqueIndexes) {
+            writeBytes(mapper.writeValueAsBytes(uniqueIndex));
+        }
+    }
+
+    /**
+     * Writes an attribute definition record.
+     */
+    public void writeAttrDef(AttrDef attrDef) throws IOException {
+        startRecord(RECORD_ATTR_DEF);
+        writeAttrDefBody(attrDef);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void startRecord(int recordTag) throws IOException {
+        if (!headerWritten) {
+            out.write(MAGIC);
+            writeVarInt(VERSION);
+            headerWritten = true;
+        }
+        out.write(recordTag);
+    }
+
+    private void writeEntityBody(AEntity entity) throws IOException {
+        writeStructBody(entity);
+        writeDict(entity.getName());
+        writeDict(entity.getDescription());
+    }
+
+    private void writeStructBody(AStruct struct) throws IOException {
+        writeRef(struct.getId());
+        writeRef(struct.getEtypeId());
+        Map<String, Attr> attrs = struct.getAttrs();
+        writeVarInt(attrs.size());
+        for (Map.Entry<String, Attr> entry : attrs.entrySet()) {
+            Attr attr = entry.getValue();
+            writeRef(entry.getKey());
+            writeVarLong(zigZag(attr.getLocalId()));
+            writeRef(attr.getAttrDefId());
+            List<Val> values = attr.getValues();
+            writeVarInt(values.size());
+            for (Val val : values) {
+                writeVarLong(zigZag(val.getLocalId()));
+                writeValue(val.getObj());
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void writeAttrDefBody(AttrDef attrDef) throws IOException {
+        writeRef(attrDef.getId());
+        writeDict(attrDef.getName());
+        writeDict(attrDef.getDescription());
+        writeRef(attrDef.getConceptId());
+
+        AttrType type = attrDef.getType();
+        writeRef(type.getDatatype());
+        out.write((type.isList() ? FLAG_LIST : 0) | (type.isMandatory() ? FLAG_MANDATORY : 0));
+        writeRef(type.getEtypeId());
+        writeDict(type.getEtypeName());
+        writeString(type.getRegularExpression());
+    }
+
+    private void writeValue(Object obj) throws IOException {
+        if (obj instanceof String) {
+            out.write(VALUE_STRING);
+            writeString((String) obj);
+        } else if (obj instanceof Boolean) {
+            out.write((Boolean) obj ? VALUE_TRUE : VALUE_FALSE);
+        } else if (obj instanceof Integer) {
+            out.write(VALUE_INTEGER);
+            writeVarLong(zigZag((Integer) obj));
+        } else if (obj instanceof Long) {
+            out.write(VALUE_LONG);
+            writeVarLong(zigZag((Long) obj));
+        } else if (obj instanceof Float) {
+            out.write(VALUE_FLOAT);
+            int bits = Float.floatToIntBits((Float) obj);
+            out.write(bits >>> 24);
+            out.write(bits >>> 16);
+            out.write(bits >>> 8);
+            out.write(bits);
+        } else if (obj instanceof Date) {
+            out.write(VALUE_DATE);
+            writeVarLong(zigZag(((Date) obj).getTime()));
+        } else if (obj instanceof LocalizedString) {
+            LocalizedString ls = (LocalizedString) obj;
+            out.write(VALUE_LOCALIZED_STRING);
+            writeLocale(ls.getLocale());
+            writeString(ls.str());
+        } else if (obj instanceof Dict) {
+            out.write(VALUE_DICT);
+            writeDict((Dict) obj);
+        } else if (obj instanceof Concept) {
+            Concept concept = (Concept) obj;
+            out.write(VALUE_CONCEPT);
+            writeRef(concept.getId());
+            writeDict(concept.getName());
+            writeDict(concept.getDescription());
+        } else if (obj instanceof SemText) {
+            out.write(VALUE_SEMANTIC_TEXT);
+            writeBytes(mapper.writeValueAsBytes(obj));
+        } else if (obj instanceof AEntity) {
+            out.write(VALUE_ENTITY);
+            writeEntityBody((AEntity) obj);
+        } else if (obj instanceof AStruct) {
+            out.write(VALUE_STRUCT);
+            writeStructBody((AStruct) obj);
+        } else {
+            throw new IllegalArgumentException("Unsupported value of class " + obj.getClass().getName() + ": " + obj);
+        }
+    }
+
+    private void writeDict(Dict dict) throws IOException {
+        List<LocalizedString> strings = dict.asLocalizedStrings();
+        writeVarInt(strings.size());
+        for (LocalizedString ls : strings) {
+            writeLocale(ls.getLocale());
+            writeString(ls.str());
+        }
+    }
+
+    private void writeLocale(Locale locale) throws IOException {
+        writeRef(locale.toLanguageTag());
+    }
+
+    /**
+     * Writes a string using the string table.
+     */
+    private void writeRef(String s) throws IOException {
+        Integer index = stringTable.get(s);
+        if (index == null) {
+            writeVarInt(0);
+            writeString(s);
+            if (stringTable.size() < MAX_STRING_TABLE_SIZE) {
+                stringTable.put(s, stringTable.size());
+            }
+        } else {
+            writeVarInt(index + 1);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        writeBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > MAX_BYTES_LENGTH) {
+            throw new IllegalArgumentException("Found string or JSON value of " + bytes.length
+                    + " bytes, maximum is " + MAX_BYTES_LENGTH);
+        }
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private void writeVarInt(int n) throws IOException {
+        writeVarLong(n & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long n) throws IOException {
+        long v = n;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Iterables;
+
+import eu.trentorise.opendata.semantics.exceptions.OpenEntityException;
+import eu.trentorise.opendata.semantics.exceptions.OpenEntityNotFoundException;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.services.IEntityService;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Streams entities to a writer in some format. Entities are read from the
+ * entity service in pages of {@link #getPageSize()} and each one is written
+ * as soon as it is read, so memory usage doesn't depend on the number of
+ * exported entities.
+ *
+ * Exporters keep per-stream state and are not thread safe.
+ *
+ * @author David Leoni
+ */
+public abstract class EntityExporter {
+
+    /**
+     * Default number of entities fetched with each call to
+     * {@link IEntityService#readEntities(Iterable)}
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final IEntityService entityService;
+    @Nullable
+    private final IEtypeService etypeService;
+    private final int pageSize;
+    private char[] outBuffer = new char[256];
+
+    /**
+     * For each etype id, the map from attribute definition ids to datatypes.
+     * Etypes are read at most once, so the size is bounded by the size of the
+     * schema.
+     */
+    private final Map<String, Map<String, String>> datatypesByEtype = new HashMap();
+
+    protected EntityExporter(IEntityService entityService, int pageSize) {
+        this(entityService, null, pageSize);
+    }
+
+    /**
+     * @param etypeService
+     *            used to find out datatypes of attribute definitions. If null,
+     *            datatypes are never known.
+     */
+    protected EntityExporter(IEntityService entityService, @Nullable IEtypeService etypeService, int pageSize) {
+        checkNotNull(entityService);
+        checkArgument(pageSize > 0, "Page size must be positive, found %s", pageSize);
+        this.entityService = entityService;
+        this.etypeService = etypeService;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * The service entities are read from.
+     */
+    public IEntityService getEntityService() {
+        return entityService;
+    }
+
+    /**
+     * The service used to find out datatypes of attribute definitions, if any.
+     */
+    @Nullable
+    public IEtypeService getEtypeService() {
+        return etypeService;
+    }
+
+    /**
+     * The number of entities read at each call to the entity service.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Writes whatever must precede the first entity.
+     */
+    public abstract void writeHeader(Writer writer) throws IOException;
+
+    /**
+     * Writes a single entity.
+     */
+    public abstract void writeEntity(Entity entity, Writer writer) throws IOException;
+
+    /**
+     * Writes whatever must be put between two consecutive entities. By default
+     * writes nothing.
+     */
+    public void writeSeparator(Writer writer) throws IOException {
+    }
+
+    /**
+     * Writes whatever must follow the last entity.
+     */
+    public abstract void writeFooter(Writer writer) throws IOException;
+
+    /**
+     * Writes the content of the builder through a reusable buffer, to avoid
+     * creating a string at each write.
+     */
+    protected void write(StringBuilder sb, Writer writer) throws IOException {
+        int len = sb.length();
+        if (outBuffer.length < len) {
+            outBuffer = new char[Math.max(len, outBuffer.length * 2)];
+        }
+        sb.getChars(0, len, outBuffer, 0);
+        writer.write(outBuffer, 0, len);
+    }
+
+    /**
+     * Writes the given entities into the provided writer. The writer is
+     * flushed but not closed.
+     *
+     * @param entityIds
+     *            the URLs of the entities to export. If empty, an exception is
+     *            thrown.
+     * @throws IllegalArgumentException
+     *             if entityIds is empty
+     * @throws OpenEntityException
+     *             if an error occurs while writing.
+     */
+    public void export(Iterable<String> entityIds, Writer writer) {
+        checkNotNull(entityIds);
+        checkNotNull(writer);
+        checkArgument(!Iterables.isEmpty(entityIds), "Tried to export an empty list of entities!");
+
+        try {
+            writeHeader(writer);
+            writeEntities(entityIds, true, writer);
+            writeFooter(writer);
+            writer.flush();
+        } catch (IOException ex) {
+            throw new OpenEntityException("Error while exporting entities!", ex);
+        }
+    }
+
+    /**
+     * Reads the entities page by page and writes them with separators in
+     * between, without header and footer.
+     *
+     * @param first
+     *            whether no entity has been written yet before these ones
+     * @return true if no entity was written so far
+     */
+    boolean writeEntities(Iterable<String> entityIds, boolean first, Writer writer) throws IOException {
+        boolean ret = first;
+        for (List<String> page : Iterables.partition(entityIds, pageSize)) {
+            for (Entity entity : entityService.readEntities(page)) {
+                if (ret) {
+                    ret = false;
+                } else {
+                    writeSeparator(writer);
+                }
+                writeEntity(entity, writer);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the datatype of an attribute definition of given etype, reading
+     * the etype from the etype service the first time it is needed.
+     *
+     * @return the datatype, or null if there is no etype service or the etype
+     *         or the attribute definition can't be found.
+     */
+    @Nullable
+    protected String datatype(String etypeId, String attrDefId) {
+        if (etypeService == null || etypeId.isEmpty()) {
+            return null;
+        }
+        Map<String, String> datatypes = datatypesByEtype.get(etypeId);
+        if (datatypes == null) {
+            datatypes = new HashMap();
+            Etype etype;
+            try {
+                etype = etypeService.readEtype(etypeId);
+            } catch (OpenEntityNotFoundException ex) {
+                etype = null;
+            }
+            if (etype != null) {
+                for (AttrDef attrDef : etype.getAttrDefs().values()) {
+                    datatypes.put(attrDef.getId(), attrDef.getType().getDatatype());
+                }
+            }
+            datatypesByEtype.put(etypeId, datatypes);
+        }
+        return datatypes.get(attrDefId);
+    }
+
+    /**
+     * Called by {@link ParallelExporter} before writing a partition with this
+     * exporter. Exporters generating local identifiers, like blank node labels,
+     * must make them unique across partitions. By default does nothing.
+     *
+     * @param partition
+     *            the index of the partition in the output
+     */
+    void startPartition(int partition) {
+    }
+}
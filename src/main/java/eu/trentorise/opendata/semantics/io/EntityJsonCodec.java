@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import eu.trentorise.opendata.semantics.model.entity.AEntity;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Reads and writes JSON arrays of entities one element at a time, so memory
+ * usage doesn't depend on the length of the array. Reader and writer for
+ * entities are created once from the provided mapper and shared by all the
+ * streams, so the codec is thread safe and should be reused.
+ *
+ * @author David Leoni
+ */
+public class EntityJsonCodec {
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    /**
+     * @param mapper
+     *            a mapper with the Jackson modules needed by entity values
+     *            registered. It is not modified.
+     */
+    public EntityJsonCodec(ObjectMapper mapper) {
+        checkNotNull(mapper);
+        this.reader = mapper.readerFor(Entity.class);
+        this.writer = mapper.writerFor(Entity.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Returns a codec decoding attribute values into the Java classes declared
+     * by their datatypes, see {@link EtypeAwareDeserializer}
+     *
+     * @param mapper
+     *            a mapper with the Jackson modules needed by entity values
+     *            registered. It is not modified.
+     * @param etypes
+     *            map from etype id to etype
+     */
+    public static EntityJsonCodec etypeAware(ObjectMapper mapper, Map<String, Etype> etypes) {
+        checkNotNull(mapper);
+        ObjectMapper copy = mapper.copy();
+        copy.registerModule(EtypeAwareDeserializer.module(etypes));
+        return new EntityJsonCodec(copy);
+    }
+
+    /**
+     * Reads a JSON array of entities, passing each entity to the sink as soon
+     * as it has been parsed. The stream is not closed.
+     *
+     * @return the number of read entities
+     * @throws IOException
+     *             if the input is not an array of entities or an i/o error
+     *             occurs.
+     */
+    public long readArray(InputStream in, Sink<? super Entity> sink) throws IOException {
+        checkNotNull(in);
+        JsonParser parser = reader.getFactory().createParser(in);
+        try {
+            return readArray(parser, sink);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * See {@link #readArray(InputStream, Sink)}
+     */
+    public long readArray(Reader in, Sink<? super Entity> sink) throws IOException {
+        checkNotNull(in);
+        JsonParser parser = reader.getFactory().createParser(in);
+        try {
+            return readArray(parser, sink);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads a JSON array of entities starting at the current or next token of
+     * the parser, passing each entity to the sink as soon as it has been
+     * parsed. When the method returns the parser is positioned at the end of
+     * the array.
+     *
+     * @return the number of read entities
+     */
+    public long readArray(JsonParser parser, Sink<? super Entity> sink) throws IOException {
+        checkNotNull(parser);
+        checkNotNull(sink);
+
+        JsonToken token = parser.getCurrentToken() == null ? parser.nextToken() : parser.getCurrentToken();
+        if (token != JsonToken.START_ARRAY) {
+            throw new JsonMappingException("Expected an array of entities, found instead " + token,
+                    parser.getCurrentLocation());
+        }
+        long count = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Entity entity = reader.readValue(parser);
+            sink.accept(entity);
+            count++;
+        }
+        if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new JsonMappingException("Expected an entity object, found instead " + parser.getCurrentToken(),
+                    parser.getCurrentLocation());
+        }
+        return count;
+    }
+
+    /**
+     * Opens a writer of a JSON array of entities. The array is ended when the
+     * array writer is closed. The output stream is not closed.
+     */
+    public ArrayWriter openArray(OutputStream out) throws IOException {
+        checkNotNull(out);
+        return new ArrayWriter(writer.getFactory().createGenerator(out));
+    }
+
+    /**
+     * Opens a writer of a JSON array of entities. The array is ended when the
+     * array writer is closed. The writer is not closed.
+     */
+    public ArrayWriter openArray(Writer out) throws IOException {
+        checkNotNull(out);
+        return new ArrayWriter(writer.getFactory().createGenerator(out));
+    }
+
+    /**
+     * Writes the entities as a JSON array. The writer is flushed but not
+     * closed.
+     */
+    public void writeArray(Iterable<? extends AEntity> entities, Writer out) throws IOException {
+        checkNotNull(entities);
+        ArrayWriter arrayWriter = openArray(out);
+        try {
+            for (AEntity entity : entities) {
+                arrayWriter.write(entity);
+            }
+        } finally {
+            arrayWriter.close();
+        }
+    }
+
+    /**
+     * Writes entities into a JSON array one at a time.
+     */
+    public class ArrayWriter implements Closeable, Flushable {
+
+        private final JsonGenerator generator;
+
+        private ArrayWriter(JsonGenerator generator) throws IOException {
+            this.generator = generator;
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+        }
+
+        /**
+         * Writes the entity as next element of the array.
+         */
+        public void write(AEntity entity) throws IOException {
+            checkNotNull(entity);
+            writer.writeValue(generator, entity);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        /**
+         * Ends the array and flushes it, without closing the target.
+         */
+        @Override
+        public void close() throws IOException {
+            generator.writeEndArray();
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.collect.ImmutableMap;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Canonicals;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Deserializes entities and structs decoding each attribute value straight
+ * into the Java class that {@link DataTypes#getDataTypes()} declares for the
+ * datatype of its attribute definition, so integers don't come back as longs,
+ * floats as doubles, dates as numbers and structs as maps. Values are decoded
+ * in a single pass over the parser tokens.
+ *
+ * Attribute definitions are looked up in the etypes given at construction,
+ * see {@link Entities#resolveEtypeClosure(Etype, IEtypeService)}. Values of
+ * attributes whose etype or attribute definition is not known are decoded as
+ * Jackson would normally do. If attributes come before the etype id in a JSON
+ * object and the etype can't be inferred from the parent attribute, their
+ * tokens are buffered until the end of the object.
+ *
+ * Etype and attribute definition ids are returned as their
+ * {@link Canonicals canonical} instances.
+ *
+ * @author David Leoni
+ */
+public class EtypeAwareDeserializer<T extends AStruct> extends StdDeserializer<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ImmutableMap<String, Etype> etypes;
+
+    /**
+     * @param clazz
+     *            either {@link Entity} or {@link Struct}
+     * @param etypes
+     *            map from etype id to etype
+     */
+    public EtypeAwareDeserializer(Class<T> clazz, Map<String, Etype> etypes) {
+        super(clazz);
+        checkNotNull(etypes);
+        if (!Entity.class.equals(clazz) && !Struct.class.equals(clazz)) {
+            throw new IllegalArgumentException("Expected either Entity or Struct class, found instead " + clazz);
+        }
+        this.etypes = ImmutableMap.copyOf(etypes);
+    }
+
+    /**
+     * Returns a module registering etype aware deserializers for both
+     * {@link Entity} and {@link Struct}
+     *
+     * @param etypes
+     *            map from etype id to etype
+     */
+    public static SimpleModule module(Map<String, Etype> etypes) {
+        SimpleModule ret = new SimpleModule("open-entity-etype-aware");
+        ret.addDeserializer(Entity.class, new EtypeAwareDeserializer<Entity>(Entity.class, etypes));
+        ret.addDeserializer(Struct.class, new EtypeAwareDeserializer<Struct>(Struct.class, etypes));
+        return ret;
+    }
+
+    @Override
+    public T deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return (T) readStruct(p, ctxt, null, Entity.class.equals(handledType()));
+    }
+
+    /**
+     * Reads a struct or entity object, with parser positioned at its start or
+     * at its first field.
+     *
+     * @param expectedEtypeId
+     *            the etype id declared by the attribute holding the struct, if
+     *            any
+     */
+    private AStruct readStruct(JsonParser p, DeserializationContext ctxt, @Nullable String expectedEtypeId,
+            boolean entity) throws IOException {
+        JsonToken t = p.getCurrentToken();
+        if (t == JsonToken.START_OBJECT) {
+            t = p.nextToken();
+        }
+
+        String id = null;
+        String etypeId = expectedEtypeId;
+        Dict name = null;
+        Dict description = null;
+        Map<String, Attr> attrs = null;
+        TokenBuffer pendingAttrs = null;
+
+        for (; t == JsonToken.FIELD_NAME; t = p.nextToken()) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("id".equals(field)) {
+                id = p.getValueAsString();
+            } else if ("etypeId".equals(field)) {
+                String value = p.getValueAsString();
+                etypeId = value == null ? null : Canonicals.id(value);
+            } else if ("attrs".equals(field)) {
+                if (etypeId == null) {
+                    pendingAttrs = new TokenBuffer(p);
+                    pendingAttrs.copyCurrentStructure(p);
+                } else {
+                    attrs = readAttrs(p, ctxt, etypeId);
+                }
+            } else if (entity && "name".equals(field)) {
+                name = ctxt.readValue(p, Dict.class);
+            } else if (entity && "description".equals(field)) {
+                description = ctxt.readValue(p, Dict.class);
+            } else {
+                p.skipChildren();
+            }
+        }
+        if (t != JsonToken.END_OBJECT) {
+            throw new JsonMappingException("Expected end of struct object, found instead " + t,
+                    p.getCurrentLocation());
+        }
+
+        if (pendingAttrs != null) {
+            JsonParser bp = pendingAttrs.asParser(p.getCodec());
+            bp.nextToken();
+            attrs = readAttrs(bp, ctxt, etypeId);
+            bp.close();
+        }
+
+        if (entity) {
+            Entity.Builder b = Entity.builder();
+            if (id != null) {
+                b.setId(id);
+            }
+            if (etypeId != null) {
+                b.setEtypeId(etypeId);
+            }
+            if (name != null) {
+                b.setName(name);
+            }
+            if (description != null) {
+                b.setDescription(description);
+            }
+            if (attrs != null) {
+                b.putAllAttrs(attrs);
+            }
+            return b.build();
+        } else {
+            Struct.Builder b = Struct.builder();
+            if (id != null) {
+                b.setId(id);
+            }
+            if (etypeId != null) {
+                b.setEtypeId(etypeId);
+            }
+            if (attrs != null) {
+                b.putAllAttrs(attrs);
+            }
+            return b.build();
+        }
+    }
+
+    /**
+     * Reads the map of attributes, with parser positioned at its start.
+     */
+    private Map<String, Attr> readAttrs(JsonParser p, DeserializationContext ctxt, @Nullable String etypeId)
+            throws IOException {
+        if (p.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return ImmutableMap.of();
+        }
+        expect(p, JsonToken.START_OBJECT);
+        Etype etype = etypeId == null ? null : etypes.get(etypeId);
+
+        ImmutableMap.Builder<String, Attr> ret = ImmutableMap.builder();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String key = Canonicals.id(p.getCurrentName());
+            p.nextToken();
+            AttrDef attrDef = etype == null ? null : etype.getAttrDefs().get(key);
+            ret.put(key, readAttr(p, ctxt, attrDef == null ? null : attrDef.getType()));
+        }
+        return ret.build();
+    }
+
+    private Attr readAttr(JsonParser p, DeserializationContext ctxt, @Nullable AttrType attrType)
+            throws IOException {
+        expect(p, JsonToken.START_OBJECT);
+        Attr.Builder b = Attr.builder();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("localId".equals(field)) {
+                b.setLocalId(p.getLongValue());
+            } else if ("attrDefId".equals(field)) {
+                b.setAttrDefId(Canonicals.id(p.getValueAsString()));
+            } else if ("values".equals(field)) {
+                expect(p, JsonToken.START_ARRAY);
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    b.addValues(readVal(p, ctxt, attrType));
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return b.build();
+    }
+
+    private Val readVal(JsonParser p, DeserializationContext ctxt, @Nullable AttrType attrType)
+            throws IOException {
+        expect(p, JsonToken.START_OBJECT);
+        long localId = -1;
+        Object obj = "";
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("localId".equals(field)) {
+                localId = p.getLongValue();
+            } else if ("obj".equals(field)) {
+                obj = readObj(p, ctxt, attrType);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return Val.of(localId, obj);
+    }
+
+    /**
+     * Reads the object of a value according to the datatype of the attribute
+     * type, if known.
+     */
+    private Object readObj(JsonParser p, DeserializationContext ctxt, @Nullable AttrType attrType)
+            throws IOException {
+        if (attrType == null || p.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return ctxt.readValue(p, Object.class);
+        }
+
+        String datatype = attrType.getDatatype();
+        JsonToken t = p.getCurrentToken();
+        if (DataTypes.STRING.equals(datatype)) {
+            expectValue(p, datatype, t == JsonToken.VALUE_STRING);
+            return p.getText();
+        } else if (DataTypes.INTEGER.equals(datatype)) {
+            expectValue(p, datatype, t == JsonToken.VALUE_NUMBER_INT);
+            return p.getIntValue();
+        } else if (DataTypes.LONG.equals(datatype)) {
+            expectValue(p, datatype, t == JsonToken.VALUE_NUMBER_INT);
+            return p.getLongValue();
+        } else if (DataTypes.FLOAT.equals(datatype)) {
+            expectValue(p, datatype, t == JsonToken.VALUE_NUMBER_FLOAT || t == JsonToken.VALUE_NUMBER_INT);
+            return p.getFloatValue();
+        } else if (DataTypes.BOOLEAN.equals(datatype)) {
+            expectValue(p, datatype, t == JsonToken.VALUE_TRUE || t == JsonToken.VALUE_FALSE);
+            return p.getBooleanValue();
+        } else if (DataTypes.DATE.equals(datatype)) {
+            expectValue(p, datatype, t == JsonToken.VALUE_STRING || t == JsonToken.VALUE_NUMBER_INT);
+            if (t == JsonToken.VALUE_STRING) {
+                return ctxt.parseDate(p.getText());
+            } else {
+                return new Date(p.getLongValue());
+            }
+        } else if (DataTypes.STRUCTURE.equals(datatype) || DataTypes.ENTITY.equals(datatype)) {
+            // structs and entities may also be referenced by URL
+            if (t == JsonToken.VALUE_STRING) {
+                return p.getText();
+            }
+            expectValue(p, datatype, t == JsonToken.START_OBJECT);
+            return readStruct(p, ctxt, attrType.getEtypeId(), DataTypes.ENTITY.equals(datatype));
+        } else if (DataTypes.DICT.equals(datatype)) {
+            return ctxt.readValue(p, Dict.class);
+        } else {
+            Class clazz = DataTypes.getDataTypes().get(datatype);
+            return ctxt.readValue(p, clazz == null ? Object.class : clazz);
+        }
+    }
+
+    /**
+     * Throws an exception if the current token can't hold a value of the
+     * datatype
+     */
+    private static void expectValue(JsonParser p, String datatype, boolean ok) throws JsonMappingException {
+        if (!ok) {
+            throw new JsonMappingException("Found " + p.getCurrentToken() + " where a value of datatype " + datatype
+                    + " was expected", p.getCurrentLocation());
+        }
+    }
+
+    private static void expect(JsonParser p, JsonToken expected) throws JsonMappingException {
+        if (p.getCurrentToken() != expected) {
+            throw new JsonMappingException("Expected " + expected + ", found instead " + p.getCurrentToken(),
+                    p.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.AEntity;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.IEntityService;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semtext.SemText;
+import eu.trentorise.opendata.traceprov.types.Concept;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Exports entities as a JSON-LD document. The {@code @context} declaring
+ * {@code oe:} and {@code xsd:} prefixes is written once at the beginning,
+ * followed by a {@code @graph} array holding one node object per entity.
+ * Values are mapped as in {@link RdfExporter}: primitive values become typed
+ * value objects, multilingual values become language tagged value objects,
+ * concepts and entities become node references and structs become nested
+ * node objects. Strings under attribute definitions of datatype
+ * {@link DataTypes#ENTITY} or {@link DataTypes#STRUCTURE} become node
+ * references too, provided an etype service is given to tell them apart from
+ * plain strings.
+ *
+ * Property keys are computed once for each etype and then reused. Output is
+ * written attribute by attribute as entities are walked.
+ *
+ * @author David Leoni
+ */
+public class JsonLdExporter extends EntityExporter {
+
+    private final LexicalFormatter formatter = new LexicalFormatter();
+    private final StringBuilder sb = new StringBuilder();
+    private final StringBuilder lexical = new StringBuilder();
+
+    /**
+     * For each etype id, the map from attribute definition ids to the
+     * corresponding quoted JSON keys
+     */
+    private final Map<String, Map<String, String>> keysByEtype = new HashMap();
+
+    /**
+     * Quoted compact IRIs of etypes and datatypes
+     */
+    private final Map<String, String> schemaIris = new HashMap();
+
+    /**
+     * Creates an exporter with default page size. Without an etype service,
+     * string references to entities and structs are written as plain strings.
+     */
+    public JsonLdExporter(IEntityService entityService) {
+        this(entityService, null, DEFAULT_PAGE_SIZE);
+    }
+
+    public JsonLdExporter(IEntityService entityService, int pageSize) {
+        this(entityService, null, pageSize);
+    }
+
+    /**
+     * Creates an exporter with default page size.
+     *
+     * @param etypeService
+     *            used to tell string references to entities and structs
+     *            apart from plain strings
+     */
+    public JsonLdExporter(IEntityService entityService, IEtypeService etypeService) {
+        this(entityService, checkNotNull(etypeService), DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param etypeService
+     *            used to tell string references to entities and structs
+     *            apart from plain strings. If null, they are all written as
+     *            plain strings.
+     */
+    public JsonLdExporter(IEntityService entityService, @Nullable IEtypeService etypeService, int pageSize) {
+        super(entityService, etypeService, pageSize);
+    }
+
+    @Override
+    public void writeHeader(Writer writer) throws IOException {
+        sb.setLength(0);
+        sb.append("{\"@context\":{\"");
+        sb.append(DataTypes.OPEN_ENTITY_PREFIX, 0, DataTypes.OPEN_ENTITY_PREFIX.length() - 1);
+        sb.append("\":");
+        appendString(DataTypes.OPEN_ENTITY_URL, sb);
+        sb.append(",\"");
+        sb.append(RdfSyntax.XSD_PREFIX, 0, RdfSyntax.XSD_PREFIX.length() - 1);
+        sb.append("\":");
+        appendString(RdfSyntax.XSD_URL, sb);
+        sb.append("},\n\"@graph\":[\n");
+        write(sb, writer);
+    }
+
+    @Override
+    public void writeEntity(Entity entity, Writer writer) throws IOException {
+        sb.setLength(0);
+        sb.append("{\"@id\":");
+        appendIri(entity.getId(), sb);
+        writeNodeBody(entity, true, writer);
+    }
+
+    @Override
+    public void writeSeparator(Writer writer) throws IOException {
+        writer.write(",\n");
+    }
+
+    @Override
+    public void writeFooter(Writer writer) throws IOException {
+        writer.write("\n]}\n");
+    }
+
+    /**
+     * Writes type and properties of a node object whose opening has already
+     * been put in {@link #sb}, and closes it.
+     *
+     * @param hasMembers
+     *            whether some member has already been written in the node
+     *            object
+     */
+    private void writeNodeBody(AStruct struct, boolean hasMembers, Writer writer) throws IOException {
+        boolean comma = hasMembers;
+        String etypeId = struct.getEtypeId();
+        if (!etypeId.isEmpty()) {
+            if (comma) {
+                sb.append(',');
+            }
+            sb.append("\"@type\":").append(schemaIri(etypeId));
+            comma = true;
+        }
+        Map<String, String> keys = keysByEtype.get(etypeId);
+        if (keys == null) {
+            keys = new HashMap();
+            keysByEtype.put(etypeId, keys);
+        }
+
+        for (Attr attr : struct.getAttrs().values()) {
+            if (attr.getValues().isEmpty()) {
+                continue;
+            }
+            String key = keys.get(attr.getAttrDefId());
+            if (key == null) {
+                StringBuilder kb = new StringBuilder();
+                appendIri(attr.getAttrDefId(), kb);
+                kb.append(':');
+                key = kb.toString();
+                keys.put(attr.getAttrDefId(), key);
+            }
+            if (comma) {
+                sb.append(',');
+            }
+            comma = true;
+            sb.append(key).append('[');
+            boolean reference = RdfSyntax.isReference(datatype(etypeId, attr.getAttrDefId()));
+            boolean first = true;
+            for (Val val : attr.getValues()) {
+                first = appendValue(val.getObj(), reference, first, writer);
+            }
+            sb.append(']');
+            write(sb, writer);
+            sb.setLength(0);
+        }
+        sb.append('}');
+        write(sb, writer);
+        sb.setLength(0);
+    }
+
+    /**
+     * Appends the JSON-LD representation of the object to the array being
+     * written.
+     *
+     * @param reference
+     *            whether the attribute holds entities or structs, so strings
+     *            must be written as node references
+     * @return true if nothing has been written to the array yet
+     */
+    private boolean appendValue(Object obj, boolean reference, boolean first, Writer writer) throws IOException {
+        if (obj instanceof Dict) {
+            boolean ret = first;
+            for (LocalizedString ls : ((Dict) obj).asLocalizedStrings()) {
+                ret = appendValue(ls, reference, ret, writer);
+            }
+            return ret;
+        }
+
+        if (!first) {
+            sb.append(',');
+        }
+
+        if (reference && obj instanceof String) {
+            sb.append("{\"@id\":");
+            appendIri((String) obj, sb);
+            sb.append('}');
+        } else if (obj instanceof AEntity) {
+            sb.append("{\"@id\":");
+            appendIri(((AEntity) obj).getId(), sb);
+            sb.append('}');
+        } else if (obj instanceof AStruct) {
+            sb.append('{');
+            writeNodeBody((AStruct) obj, false, writer);
+        } else if (obj instanceof Concept) {
+            sb.append("{\"@id\":");
+            appendIri(((Concept) obj).getId(), sb);
+            sb.append('}');
+        } else if (obj instanceof LocalizedString) {
+            LocalizedString ls = (LocalizedString) obj;
+            appendLangValue(ls.str(), ls.getLocale());
+        } else if (obj instanceof SemText) {
+            SemText st = (SemText) obj;
+            appendLangValue(st.getText(), st.getLocale());
+        } else if (obj instanceof Boolean) {
+            sb.append(obj);
+        } else {
+            lexical.setLength(0);
+            formatter.append(obj, lexical);
+            String datatype = RdfSyntax.xsdDatatype(obj);
+            if (datatype == null) {
+                appendString(lexical, sb);
+            } else {
+                sb.append("{\"@value\":");
+                appendString(lexical, sb);
+                sb.append(",\"@type\":").append(schemaIri(datatype)).append('}');
+            }
+        }
+        return false;
+    }
+
+    private void appendLangValue(String text, Locale locale) {
+        String tag = RdfSyntax.languageTag(locale);
+        if (tag.isEmpty()) {
+            appendString(text, sb);
+        } else {
+            sb.append("{\"@value\":");
+            appendString(text, sb);
+            sb.append(",\"@language\":\"").append(tag).append("\"}");
+        }
+    }
+
+    private String schemaIri(String id) {
+        String ret = schemaIris.get(id);
+        if (ret == null) {
+            StringBuilder ib = new StringBuilder();
+            appendIri(id, ib);
+            ret = ib.toString();
+            schemaIris.put(id, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Appends the id as a quoted IRI, compacted with {@code oe:} or
+     * {@code xsd:} prefix when possible.
+     */
+    private static void appendIri(String id, StringBuilder target) {
+        String iri = RdfSyntax.expand(id);
+        String prefixed = RdfSyntax.compact(iri, false);
+        appendString(prefixed == null ? iri : prefixed, target);
+    }
+
+    private static void appendString(CharSequence s, StringBuilder target) {
+        target.append('"');
+        RdfSyntax.appendJsonEscaped(s, target);
+        target.append('"');
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semtext.SemText;
+import eu.trentorise.opendata.traceprov.types.Concept;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Writes the lexical form of objects stored in
+ * {@link eu.trentorise.opendata.semantics.model.entity.Val} according to xsd
+ * conventions, i.e. dates are written in ISO 8601 UTC format.
+ *
+ * Not thread safe.
+ *
+ * @author David Leoni
+ */
+final class LexicalFormatter {
+
+    private final SimpleDateFormat dateFormat;
+
+    LexicalFormatter() {
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Appends the lexical form of provided object to {@code sb}. Structs,
+     * entities and concepts are represented by their ids, multilingual values
+     * by their text in some locale.
+     */
+    void append(Object obj, StringBuilder sb) {
+        if (obj instanceof String) {
+            sb.append((String) obj);
+        } else if (obj instanceof Date) {
+            sb.append(dateFormat.format((Date) obj));
+        } else if (obj instanceof Float) {
+            appendFloat((Float) obj, sb);
+        } else if (obj instanceof LocalizedString) {
+            sb.append(((LocalizedString) obj).str());
+        } else if (obj instanceof Dict) {
+            sb.append(((Dict) obj).some().str());
+        } else if (obj instanceof SemText) {
+            sb.append(((SemText) obj).getText());
+        } else if (obj instanceof Concept) {
+            sb.append(((Concept) obj).getId());
+        } else if (obj instanceof AStruct) {
+            sb.append(((AStruct) obj).getId());
+        } else {
+            sb.append(obj);
+        }
+    }
+
+    private static void appendFloat(Float f, StringBuilder sb) {
+        if (f.isNaN()) {
+            sb.append("NaN");
+        } else if (f.isInfinite()) {
+            sb.append(f > 0 ? "INF" : "-INF");
+        } else {
+            sb.append(f.floatValue());
+        }
+    }
+}
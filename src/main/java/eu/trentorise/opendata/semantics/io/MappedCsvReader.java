@@ -0,0 +1,446 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads CSV files according to RFC 4180 by memory mapping them, without
+ * decoding whole lines. Records are tokenized into field offsets over the
+ * mapped bytes, and a field is decoded into a {@code String} only when it is
+ * requested, so a consumer reading few columns, like a
+ * {@link eu.trentorise.opendata.semantics.services.matching.CompiledMapping}
+ * with its {@code getUsedColumns()}, pays only for them. The first record is
+ * the header.
+ *
+ * The charset must encode separators, quotes and line ends as the single
+ * ASCII bytes, as UTF-8 and ISO-8859-1 do. Lines may end with LF or CRLF,
+ * quoted fields may hold separators, line ends and doubled quotes. Blank lines
+ * are skipped.
+ *
+ * Files can be divided into {@link Split}s at record boundaries, to be parsed
+ * in parallel. A line end starts a new record only if it is preceded by an
+ * even number of quotes, so boundaries are found from the quote parity of the
+ * preceding bytes.
+ *
+ * Readers are thread safe, while each split must be read by one thread at a
+ * time.
+ *
+ * @author David Leoni
+ */
+public final class MappedCsvReader implements Closeable {
+
+    public static final char DEFAULT_SEPARATOR = ',';
+
+    /**
+     * Maximum number of bytes of a split, as a single mapping can't exceed 2
+     * GB
+     */
+    public static final long MAX_SPLIT_SIZE = 1L << 30;
+
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final byte separator;
+    private final Charset charset;
+    private final ImmutableList<String> header;
+    /**
+     * Offset of the first byte after the header
+     */
+    private final long dataStart;
+
+    private MappedCsvReader(RandomAccessFile file, byte separator, Charset charset) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.size = channel.size();
+        this.separator = separator;
+        this.charset = charset;
+
+        long headerEnd = recordEnd(0);
+        if (headerEnd == 0) {
+            this.header = ImmutableList.of();
+            this.dataStart = 0;
+        } else {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd);
+            Record record = new Record(buffer, charset);
+            int end = parseRecord(buffer, 0, (int) headerEnd, separator, record);
+            this.header = ImmutableList.copyOf(new ArrayList<String>(record));
+            this.dataStart = end;
+        }
+    }
+
+    /**
+     * Opens a UTF-8 file separated by commas
+     */
+    public static MappedCsvReader open(File file) throws IOException {
+        return open(file, DEFAULT_SEPARATOR, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param separator
+     *            an ASCII character other than quote and line ends
+     * @throws IOException
+     *             if the file can't be opened or its header can't be read
+     */
+    public static MappedCsvReader open(File file, char separator, Charset charset) throws IOException {
+        checkNotNull(file);
+        checkNotNull(charset);
+        checkArgument(separator < 128 && separator != QUOTE && separator != LF && separator != CR,
+                "Invalid separator %s", separator);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new MappedCsvReader(raf, (byte) separator, charset);
+        } catch (IOException | RuntimeException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * The names of the columns, or an empty list if the file is empty
+     */
+    public List<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * The size of the file in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads all the records after the header, in file order. The record
+     * passed to the sink is reused, see {@link Record}.
+     *
+     * @return the number of read records
+     */
+    public long read(Sink<? super Record> sink) throws IOException {
+        checkNotNull(sink);
+        long ret = 0;
+        for (Split split : split(1)) {
+            ret += split.read(sink);
+        }
+        return ret;
+    }
+
+    /**
+     * Divides the records after the header into about {@code count} splits of
+     * similar size, more if needed to keep each split within
+     * {@link #MAX_SPLIT_SIZE}. Splits are returned in file order and never
+     * divide a record. Finding the boundaries scans the file once counting
+     * quotes.
+     */
+    public List<Split> split(int count) throws IOException {
+        checkArgument(count > 0, "Number of splits must be positive, found instead %s", count);
+        long dataSize = size - dataStart;
+        int n = (int) Math.max(count, (dataSize + MAX_SPLIT_SIZE - 1) / MAX_SPLIT_SIZE);
+        if (dataSize == 0) {
+            return ImmutableList.of();
+        }
+        long[] targets = new long[n + 1];
+        for (int i = 0; i <= n; i++) {
+            targets[i] = dataStart + dataSize * i / n;
+        }
+
+        // quotes counted from the start of the data to each target, then
+        // the first line end with even quotes after each target is a boundary
+        List<Split> ret = new ArrayList();
+        long start = dataStart;
+        long quotes = 0;
+        long scanned = dataStart;
+        for (int i = 1; i < n; i++) {
+            // targets already passed by a previous boundary are skipped, so
+            // the quote count always refers to scanned
+            if (targets[i] <= scanned) {
+                continue;
+            }
+            quotes += countQuotes(scanned, targets[i]);
+            scanned = targets[i];
+            long boundary = nextBoundary(targets[i], (quotes & 1) == 1);
+            if (boundary >= size) {
+                break;
+            }
+            ret.add(new Split(start, boundary));
+            start = boundary;
+            quotes += countQuotes(scanned, boundary);
+            scanned = boundary;
+        }
+        ret.add(new Split(start, size));
+        return ret;
+    }
+
+    private long countQuotes(long from, long to) throws IOException {
+        long ret = 0;
+        for (long pos = from; pos < to; pos += MAX_SPLIT_SIZE) {
+            long length = Math.min(MAX_SPLIT_SIZE, to - pos);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) == QUOTE) {
+                    ret++;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the offset after the first line end found from {@code from}
+     * outside quotes, or the file size if there is none
+     *
+     * @param inQuotes
+     *            whether {@code from} is inside a quoted field
+     */
+    private long nextBoundary(long from, boolean inQuotes) throws IOException {
+        boolean quoted = inQuotes;
+        long pos = from;
+        while (pos < size) {
+            long length = Math.min(MAX_SPLIT_SIZE, size - pos);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            for (int i = 0; i < length; i++) {
+                byte b = buffer.get(i);
+                if (b == QUOTE) {
+                    quoted = !quoted;
+                } else if (b == LF && !quoted) {
+                    return pos + i + 1;
+                }
+            }
+            pos += length;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the end offset of the record starting at {@code from}
+     */
+    private long recordEnd(long from) throws IOException {
+        return nextBoundary(from, false);
+    }
+
+    /**
+     * Parses the record starting at {@code pos} into the record offsets.
+     *
+     * @return the offset after the record
+     */
+    private static int parseRecord(ByteBuffer buffer, int pos, int limit, byte separator, Record record) {
+        record.reset();
+        while (true) {
+            if (pos < limit && buffer.get(pos) == QUOTE) {
+                int start = ++pos;
+                boolean escapes = false;
+                while (pos < limit) {
+                    if (buffer.get(pos) == QUOTE) {
+                        if (pos + 1 < limit && buffer.get(pos + 1) == QUOTE) {
+                            escapes = true;
+                            pos += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    pos++;
+                }
+                record.addField(start, Math.min(pos, limit), escapes);
+                pos++;
+                // tolerates garbage between the closing quote and the separator
+                while (pos < limit && buffer.get(pos) != separator && buffer.get(pos) != LF) {
+                    pos++;
+                }
+            } else {
+                int start = pos;
+                while (pos < limit && buffer.get(pos) != separator && buffer.get(pos) != LF) {
+                    pos++;
+                }
+                int end = pos;
+                if (end > start && (pos == limit || buffer.get(pos) == LF) && buffer.get(end - 1) == CR) {
+                    end--;
+                }
+                record.addField(start, end, false);
+            }
+            if (pos < limit && buffer.get(pos) == separator) {
+                pos++;
+                continue;
+            }
+            return Math.min(pos + 1, limit);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * A range of the file holding whole records
+     */
+    public final class Split {
+
+        private final long start;
+        private final long end;
+
+        private Split(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Offset of the first byte of the split in the file
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Offset after the last byte of the split in the file
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Maps the split and passes its records to the sink, reusing the
+         * same record object. Blank lines are skipped.
+         *
+         * @return the number of read records
+         */
+        public long read(Sink<? super Record> sink) throws IOException {
+            checkNotNull(sink);
+            int limit = (int) (end - start);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+            Record record = new Record(buffer, charset);
+            long ret = 0;
+            int pos = 0;
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b == LF || (b == CR && pos + 1 < limit && buffer.get(pos + 1) == LF)) {
+                    pos += b == LF ? 1 : 2;
+                    continue;
+                }
+                pos = parseRecord(buffer, pos, limit, separator, record);
+                sink.accept(record);
+                ret++;
+            }
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return "Split{start=" + start + ", end=" + end + "}";
+        }
+    }
+
+    /**
+     * A record as list of lazily decoded fields. Each call to
+     * {@link #get(int)} decodes the field anew. Records are reused by the
+     * reader, so they are valid only during the sink call and must be copied
+     * to be kept, e.g. with {@code new ArrayList(record)}.
+     */
+    public static final class Record extends AbstractList<String> {
+
+        private final ByteBuffer buffer;
+        private final Charset charset;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private boolean[] escapes = new boolean[16];
+        private int size;
+        private byte[] scratch = new byte[64];
+
+        private Record(ByteBuffer buffer, Charset charset) {
+            this.buffer = buffer;
+            this.charset = charset;
+        }
+
+        private void reset() {
+            size = 0;
+        }
+
+        private void addField(int start, int end, boolean escaped) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                escapes = Arrays.copyOf(escapes, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            escapes[size] = escaped;
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns true if the field has no characters, without decoding it
+         */
+        public boolean isEmpty(int index) {
+            checkIndex(index);
+            return starts[index] == ends[index];
+        }
+
+        /**
+         * Decodes the field, replacing doubled quotes of quoted fields
+         */
+        @Override
+        public String get(int index) {
+            checkIndex(index);
+            int length = ends[index] - starts[index];
+            if (length == 0) {
+                return "";
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            int n = 0;
+            boolean escaped = escapes[index];
+            for (int i = starts[index]; i < ends[index]; i++) {
+                byte b = buffer.get(i);
+                scratch[n++] = b;
+                if (escaped && b == QUOTE) {
+                    i++;
+                }
+            }
+            return new String(scratch, 0, n, charset);
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of record of " + size + " fields");
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Iterables;
+
+import eu.trentorise.opendata.semantics.exceptions.OpenEntityException;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.services.IEntityService;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports entities using several threads. Entity ids are split in partitions
+ * of {@link #getPartitionSize()} ids, each partition is serialized in its own
+ * buffer by a separate exporter and buffers are written to the output in the
+ * original order. Header, footer and separators between partitions are
+ * written only once by the driver, so the output is the same as the one of a
+ * single exporter (apart from blank node labels, which get the partition
+ * index to stay unique).
+ *
+ * At most twice {@link #getParallelism()} partitions are held in memory at any
+ * time.
+ *
+ * @author David Leoni
+ */
+public class ParallelExporter {
+
+    public static final int DEFAULT_PARTITION_SIZE = 1000;
+
+    private final Supplier<? extends EntityExporter> exporters;
+    private final int parallelism;
+    private final int partitionSize;
+
+    /**
+     * Creates a driver using as many threads as available processors and
+     * default partition size.
+     */
+    public ParallelExporter(Supplier<? extends EntityExporter> exporters) {
+        this(exporters, Runtime.getRuntime().availableProcessors(), DEFAULT_PARTITION_SIZE);
+    }
+
+    /**
+     * @param exporters
+     *            supplies a new exporter at each call. Exporters are not
+     *            thread safe, so each partition gets its own.
+     * @param parallelism
+     *            the number of threads
+     * @param partitionSize
+     *            the number of entity ids in each partition
+     */
+    public ParallelExporter(Supplier<? extends EntityExporter> exporters, int parallelism, int partitionSize) {
+        checkNotNull(exporters);
+        checkArgument(parallelism > 0, "Parallelism must be positive, found %s", parallelism);
+        checkArgument(partitionSize > 0, "Partition size must be positive, found %s", partitionSize);
+        this.exporters = exporters;
+        this.parallelism = parallelism;
+        this.partitionSize = partitionSize;
+    }
+
+    /**
+     * The number of threads used for exporting.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The number of entity ids serialized by each task.
+     */
+    public int getPartitionSize() {
+        return partitionSize;
+    }
+
+    /**
+     * Writes the given entities into the provided writer. The writer is
+     * flushed but not closed.
+     *
+     * @param entityIds
+     *            the URLs of the entities to export. If empty, an exception is
+     *            thrown.
+     * @throws IllegalArgumentException
+     *             if entityIds is empty
+     * @throws OpenEntityException
+     *             if an error occurs while writing.
+     */
+    public void export(Iterable<String> entityIds, Writer writer) {
+        checkNotNull(entityIds);
+        checkNotNull(writer);
+        checkArgument(!Iterables.isEmpty(entityIds), "Tried to export an empty list of entities!");
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            EntityExporter framing = exporters.get();
+            framing.writeHeader(writer);
+
+            Deque<Future<String>> window = new ArrayDeque();
+            boolean first = true;
+            int index = 0;
+            for (List<String> partition : Iterables.partition(entityIds, partitionSize)) {
+                window.addLast(executor.submit(new PartitionTask(partition, index)));
+                index++;
+                if (window.size() >= 2 * parallelism) {
+                    first = append(window.removeFirst(), first, framing, writer);
+                }
+            }
+            while (!window.isEmpty()) {
+                first = append(window.removeFirst(), first, framing, writer);
+            }
+
+            framing.writeFooter(writer);
+            writer.flush();
+        } catch (IOException ex) {
+            throw new OpenEntityException("Error while exporting entities!", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OpenEntityException("Interrupted while exporting entities!", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new OpenEntityException("Error while exporting entities!", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean append(Future<String> future, boolean first, EntityExporter framing, Writer writer)
+            throws InterruptedException, ExecutionException, IOException {
+        String chunk = future.get();
+        if (chunk.isEmpty()) {
+            return first;
+        }
+        if (!first) {
+            framing.writeSeparator(writer);
+        }
+        writer.write(chunk);
+        return false;
+    }
+
+    private class PartitionTask implements Callable<String> {
+
+        private final List<String> entityIds;
+        private final int index;
+
+        PartitionTask(List<String> entityIds, int index) {
+            this.entityIds = entityIds;
+            this.index = index;
+        }
+
+        @Override
+        public String call() throws IOException {
+            EntityExporter exporter = exporters.get();
+            exporter.startPartition(index);
+            StringWriter sw = new StringWriter();
+            exporter.writeEntities(entityIds, true, sw);
+            return sw.toString();
+        }
+    }
+
+    /**
+     * Returns a driver exporting entities of given etype to CSV. Etypes are
+     * resolved only once and shared by all the exporters.
+     */
+    public static ParallelExporter csv(final IEntityService entityService, Etype etype, IEtypeService ets,
+            int parallelism) {
+        final Map<String, Etype> etypes = Entities.resolveEtypeClosure(etype, ets);
+        final String etypeId = etype.getId();
+        return new ParallelExporter(new Supplier<CsvExporter>() {
+            @Override
+            public CsvExporter get() {
+                return new CsvExporter(entityService, etypes, etypeId, CsvExporter.DEFAULT_SEPARATOR,
+                        CsvExporter.DEFAULT_LIST_SEPARATOR, EntityExporter.DEFAULT_PAGE_SIZE);
+            }
+        }, parallelism, DEFAULT_PARTITION_SIZE);
+    }
+
+    /**
+     * Returns a driver exporting entities to RDF in the given format.
+     *
+     * @param ets
+     *            used to tell string references to entities and structs
+     *            apart from plain strings
+     */
+    public static ParallelExporter rdf(final IEntityService entityService, final IEtypeService ets,
+            final RdfExporter.Format format, int parallelism) {
+        return new ParallelExporter(new Supplier<RdfExporter>() {
+            @Override
+            public RdfExporter get() {
+                return new RdfExporter(entityService, ets, format);
+            }
+        }, parallelism, DEFAULT_PARTITION_SIZE);
+    }
+
+    /**
+     * Returns a driver exporting entities to JSON-LD.
+     *
+     * @param ets
+     *            used to tell string references to entities and structs
+     *            apart from plain strings
+     */
+    public static ParallelExporter jsonLd(final IEntityService entityService, final IEtypeService ets,
+            int parallelism) {
+        return new ParallelExporter(new Supplier<JsonLdExporter>() {
+            @Override
+            public JsonLdExporter get() {
+                return new JsonLdExporter(entityService, ets);
+            }
+        }, parallelism, DEFAULT_PARTITION_SIZE);
+    }
+}
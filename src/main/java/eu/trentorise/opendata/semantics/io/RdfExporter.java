@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.AEntity;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.IEntityService;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semtext.SemText;
+import eu.trentorise.opendata.traceprov.types.Concept;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Exports entities as RDF triples in N-Triples or Turtle format. Each entity
+ * becomes the subject of an {@code rdf:type} triple pointing to its etype and
+ * of one triple per attribute value, using attribute definition ids as
+ * predicates. Values are written as follows:
+ *
+ * <ul>
+ * <li>primitive {@link DataTypes} values as typed literals, i.e.
+ * {@code "3"^^xsd:int}</li>
+ * <li>strings as plain literals</li>
+ * <li>localized strings, dicts and semantic texts as language tagged
+ * literals, one for each locale</li>
+ * <li>concepts and entities as IRIs</li>
+ * <li>structs as blank nodes, whose triples follow right after</li>
+ * <li>strings under attribute definitions of datatype
+ * {@link DataTypes#ENTITY} or {@link DataTypes#STRUCTURE} as IRIs, since
+ * they are URL references. Datatypes are only known if an etype service is
+ * provided.</li>
+ * </ul>
+ *
+ * Ids starting with {@code oe:} and {@code xsd:} prefixes are expanded into
+ * full IRIs, and compacted back in Turtle. Triples are written one by one as
+ * entities are walked.
+ *
+ * @author David Leoni
+ */
+public class RdfExporter extends EntityExporter {
+
+    /**
+     * The supported RDF serializations
+     */
+    public enum Format {
+        N_TRIPLES, TURTLE
+    }
+
+    /**
+     * Default prefix of blank node labels
+     */
+    public static final String DEFAULT_BLANK_NODE_PREFIX = "b";
+
+    private final Format format;
+    private final String blankNodePrefix;
+    private String blankNodeLabelPrefix;
+    private long blankNodeCount;
+
+    private final LexicalFormatter formatter = new LexicalFormatter();
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder lexical = new StringBuilder();
+
+    /**
+     * Rendered IRIs of etypes, attribute definitions and datatypes. Entity ids
+     * are not cached, so the size is bounded by the size of the schema.
+     */
+    private final Map<String, String> schemaTerms = new HashMap();
+
+    /**
+     * Creates an exporter with default blank node prefix and page size.
+     * Without an etype service, string references to entities and structs are
+     * written as plain literals.
+     */
+    public RdfExporter(IEntityService entityService, Format format) {
+        this(entityService, null, format, DEFAULT_BLANK_NODE_PREFIX, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Creates an exporter with default blank node prefix and page size.
+     *
+     * @param etypeService
+     *            used to tell string references to entities and structs
+     *            apart from plain strings
+     */
+    public RdfExporter(IEntityService entityService, IEtypeService etypeService, Format format) {
+        this(entityService, checkNotNull(etypeService), format, DEFAULT_BLANK_NODE_PREFIX, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param etypeService
+     *            used to tell string references to entities and structs
+     *            apart from plain strings. If null, they are all written as
+     *            plain literals.
+     * @param blankNodePrefix
+     *            prefix for blank node labels, made of letters and digits.
+     *            Using different prefixes allows merging outputs of different
+     *            exporters.
+     */
+    public RdfExporter(IEntityService entityService, @Nullable IEtypeService etypeService, Format format,
+            String blankNodePrefix, int pageSize) {
+        super(entityService, etypeService, pageSize);
+        checkNotNull(format);
+        checkNotNull(blankNodePrefix);
+        checkArgument(!blankNodePrefix.isEmpty() && blankNodePrefix.matches("[A-Za-z][A-Za-z0-9]*"),
+                "Invalid blank node prefix: %s", blankNodePrefix);
+        this.format = format;
+        this.blankNodePrefix = blankNodePrefix;
+        this.blankNodeLabelPrefix = "_:" + blankNodePrefix;
+    }
+
+    /**
+     * The serialization format
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    @Override
+    public void writeHeader(Writer writer) throws IOException {
+        blankNodeLabelPrefix = "_:" + blankNodePrefix;
+        blankNodeCount = 0;
+        if (Format.TURTLE.equals(format)) {
+            line.setLength(0);
+            line.append("@prefix ").append(DataTypes.OPEN_ENTITY_PREFIX).append(' ');
+            RdfSyntax.appendIri(DataTypes.OPEN_ENTITY_URL, line);
+            line.append(" .\n@prefix ").append(RdfSyntax.XSD_PREFIX).append(' ');
+            RdfSyntax.appendIri(RdfSyntax.XSD_URL, line);
+            line.append(" .\n\n");
+            write(line, writer);
+        }
+    }
+
+    @Override
+    public void writeEntity(Entity entity, Writer writer) throws IOException {
+        line.setLength(0);
+        appendTerm(entity.getId(), line);
+        writeNode(line.toString(), entity, writer);
+    }
+
+    @Override
+    public void writeFooter(Writer writer) throws IOException {
+    }
+
+    @Override
+    void startPartition(int partition) {
+        blankNodeLabelPrefix = "_:" + blankNodePrefix + partition + "_";
+        blankNodeCount = 0;
+    }
+
+    private void writeNode(String subject, AStruct struct, Writer writer) throws IOException {
+        if (!struct.getEtypeId().isEmpty()) {
+            startTriple(subject, Format.TURTLE.equals(format) ? "a" : schemaTerm(RdfSyntax.RDF_TYPE));
+            appendTerm(struct.getEtypeId(), line);
+            endTriple(writer);
+        }
+        for (Attr attr : struct.getAttrs().values()) {
+            if (attr.getValues().isEmpty()) {
+                continue;
+            }
+            String predicate = schemaTerm(attr.getAttrDefId());
+            boolean reference = RdfSyntax.isReference(datatype(struct.getEtypeId(), attr.getAttrDefId()));
+            for (Val val : attr.getValues()) {
+                writeObject(subject, predicate, val.getObj(), reference, writer);
+            }
+        }
+    }
+
+    /**
+     * @param reference
+     *            whether the attribute holds entities or structs, so strings
+     *            must be written as IRIs
+     */
+    private void writeObject(String subject, String predicate, Object obj, boolean reference, Writer writer)
+            throws IOException {
+        if (reference && obj instanceof String) {
+            startTriple(subject, predicate);
+            appendTerm((String) obj, line);
+            endTriple(writer);
+        } else if (obj instanceof AEntity) {
+            startTriple(subject, predicate);
+            appendTerm(((AEntity) obj).getId(), line);
+            endTriple(writer);
+        } else if (obj instanceof AStruct) {
+            String blankNode = blankNodeLabelPrefix + blankNodeCount;
+            blankNodeCount++;
+            startTriple(subject, predicate);
+            line.append(blankNode);
+            endTriple(writer);
+            writeNode(blankNode, (AStruct) obj, writer);
+        } else if (obj instanceof Concept) {
+            startTriple(subject, predicate);
+            appendTerm(((Concept) obj).getId(), line);
+            endTriple(writer);
+        } else if (obj instanceof Dict) {
+            for (LocalizedString ls : ((Dict) obj).asLocalizedStrings()) {
+                writeLangLiteral(subject, predicate, ls.str(), ls.getLocale(), writer);
+            }
+        } else if (obj instanceof LocalizedString) {
+            LocalizedString ls = (LocalizedString) obj;
+            writeLangLiteral(subject, predicate, ls.str(), ls.getLocale(), writer);
+        } else if (obj instanceof SemText) {
+            SemText st = (SemText) obj;
+            writeLangLiteral(subject, predicate, st.getText(), st.getLocale(), writer);
+        } else {
+            startTriple(subject, predicate);
+            lexical.setLength(0);
+            formatter.append(obj, lexical);
+            line.append('"');
+            RdfSyntax.appendLiteralEscaped(lexical, line);
+            line.append('"');
+            String datatype = RdfSyntax.xsdDatatype(obj);
+            if (datatype != null) {
+                line.append("^^").append(schemaTerm(datatype));
+            }
+            endTriple(writer);
+        }
+    }
+
+    private void writeLangLiteral(String subject, String predicate, String text, Locale locale, Writer writer)
+            throws IOException {
+        startTriple(subject, predicate);
+        line.append('"');
+        RdfSyntax.appendLiteralEscaped(text, line);
+        line.append('"');
+        String tag = RdfSyntax.languageTag(locale);
+        if (!tag.isEmpty()) {
+            line.append('@').append(tag);
+        }
+        endTriple(writer);
+    }
+
+    private void startTriple(String subject, String predicate) {
+        line.setLength(0);
+        line.append(subject).append(' ').append(predicate).append(' ');
+    }
+
+    private void endTriple(Writer writer) throws IOException {
+        line.append(" .\n");
+        write(line, writer);
+    }
+
+    private String schemaTerm(String id) {
+        String ret = schemaTerms.get(id);
+        if (ret == null) {
+            StringBuilder sb = new StringBuilder();
+            appendTerm(id, sb);
+            ret = sb.toString();
+            schemaTerms.put(id, ret);
+        }
+        return ret;
+    }
+
+    private void appendTerm(String id, StringBuilder sb) {
+        String iri = RdfSyntax.expand(id);
+        if (Format.TURTLE.equals(format)) {
+            String prefixed = RdfSyntax.compact(iri, true);
+            if (prefixed != null) {
+                sb.append(prefixed);
+                return;
+            }
+        }
+        RdfSyntax.appendIri(iri, sb);
+    }
+}
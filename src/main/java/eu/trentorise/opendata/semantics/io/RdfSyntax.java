@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.io;
+
+import eu.trentorise.opendata.semantics.DataTypes;
+
+import java.util.Date;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+
+/**
+ * Helpers to write IRIs and literals in RDF and JSON-LD serializations.
+ *
+ * @author David Leoni
+ */
+final class RdfSyntax {
+
+    static final String XSD_PREFIX = "xsd:";
+    static final String XSD_URL = "http://www.w3.org/2001/XMLSchema#";
+    static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private RdfSyntax() {
+    }
+
+    /**
+     * Expands ids using {@code oe:} and {@code xsd:} prefixes into full IRIs.
+     * Other ids are returned as they are.
+     */
+    static String expand(String id) {
+        if (id.startsWith(DataTypes.OPEN_ENTITY_PREFIX)) {
+            return DataTypes.OPEN_ENTITY_URL + id.substring(DataTypes.OPEN_ENTITY_PREFIX.length());
+        } else if (id.startsWith(XSD_PREFIX)) {
+            return XSD_URL + id.substring(XSD_PREFIX.length());
+        } else {
+            return id;
+        }
+    }
+
+    /**
+     * Returns the prefixed name of the IRI with {@code oe:} or {@code xsd:}
+     * prefix, or null if the IRI is not in these namespaces. If {@code strict}
+     * is true, null is also returned when the local name can't be written as
+     * a Turtle prefixed name without escapes.
+     */
+    @Nullable
+    static String compact(String iri, boolean strict) {
+        String prefix;
+        String local;
+        if (iri.startsWith(DataTypes.OPEN_ENTITY_URL)) {
+            prefix = DataTypes.OPEN_ENTITY_PREFIX;
+            local = iri.substring(DataTypes.OPEN_ENTITY_URL.length());
+        } else if (iri.startsWith(XSD_URL)) {
+            prefix = XSD_PREFIX;
+            local = iri.substring(XSD_URL.length());
+        } else {
+            return null;
+        }
+        if (strict && !isSimpleLocalName(local)) {
+            return null;
+        }
+        return prefix + local;
+    }
+
+    private static boolean isSimpleLocalName(String local) {
+        if (local.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < local.length(); i++) {
+            char c = local.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'
+                    || (c == '-' && i > 0);
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the IRI between angle brackets, escaping characters not allowed
+     * in N-Triples IRIs.
+     */
+    static void appendIri(String iri, StringBuilder sb) {
+        sb.append('<');
+        for (int i = 0; i < iri.length(); i++) {
+            char c = iri.charAt(i);
+            if (c <= 0x20 || c == '<' || c == '>' || c == '"' || c == '{' || c == '}' || c == '|' || c == '^'
+                    || c == '`' || c == '\\') {
+                appendUnicodeEscape(c, sb);
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('>');
+    }
+
+    /**
+     * Appends the string escaped for use inside a double quoted N-Triples or
+     * Turtle literal.
+     */
+    static void appendLiteralEscaped(CharSequence s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Appends the string escaped for use inside a JSON string.
+     */
+    static void appendJsonEscaped(CharSequence s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    appendUnicodeEscape(c, sb);
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+    }
+
+    private static void appendUnicodeEscape(char c, StringBuilder sb) {
+        sb.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF])
+                .append(HEX[c & 0xF]);
+    }
+
+    /**
+     * Returns the xsd datatype of provided primitive value, or null if
+     * {@code obj} is not one of the primitive types of {@link DataTypes}
+     */
+    @Nullable
+    static String xsdDatatype(Object obj) {
+        if (obj instanceof Integer) {
+            return DataTypes.INTEGER;
+        } else if (obj instanceof Long) {
+            return DataTypes.LONG;
+        } else if (obj instanceof Float) {
+            return DataTypes.FLOAT;
+        } else if (obj instanceof Boolean) {
+            return DataTypes.BOOLEAN;
+        } else if (obj instanceof Date) {
+            return DataTypes.DATE;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if values of the given datatype refer to other resources,
+     * so string values are URLs to be written as IRIs.
+     */
+    static boolean isReference(@Nullable String datatype) {
+        return DataTypes.ENTITY.equals(datatype) || DataTypes.STRUCTURE.equals(datatype);
+    }
+
+    /**
+     * Returns the BCP 47 language tag of the locale, or the empty string for
+     * the root locale.
+     */
+    static String languageTag(@Nullable Locale locale) {
+        if (locale == null || Locale.ROOT.equals(locale)) {
+            return "";
+        } else {
+            return locale.toLanguageTag();
+        }
+    }
+}
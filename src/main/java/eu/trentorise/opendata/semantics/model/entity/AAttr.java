@@ -19,8 +19,8 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.collect.ImmutableList;
 import eu.trentorise.opendata.commons.BuilderStylePublic;
-import eu.trentorise.opendata.semantics.Checker;
 import eu.trentorise.opendata.semantics.exceptions.OpenEntityNotFoundException;
+import eu.trentorise.opendata.semantics.validation.AttrTypeValidator;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -103,17 +103,18 @@ abstract class AAttr {
     public static Attr ofObject(AttrDef attrDef, Object obj) {
 	
         Attr.Builder b = Attr.builder();
-        b.setAttrDefId(attrDef.getId());
+        b.setAttrDefId(Canonicals.id(attrDef.getId()));
+        AttrTypeValidator validator = AttrTypeValidator.of(attrDef.getType());
 
         if (obj instanceof Collection) {
 
             for (Object subObj : (Collection) obj) {
-        	Checker.checkObj(subObj, attrDef.getType(), true);
-                b.addValues(Val.builder().setObj(subObj).build());
+        	validator.check(subObj);
+                b.addValues(Val.of(-1, subObj));
             }
         } else {
-            Checker.checkObj(obj, attrDef.getType(), true);
-            b.setAttrDefId(attrDef.getId()).addValues(Val.builder().setObj(obj).build()).build();
+            validator.check(obj);
+            b.addValues(Val.of(-1, obj));
         }
         return b.build();
     }
@@ -95,6 +95,11 @@ abstract class AAttrType {
      */
     public static AttrType of(String type) {
 
+        AttrType cached = Canonicals.parsedAttrType(type);
+        if (cached != null) {
+            return cached;
+        }
+
         boolean lst;
 
         String candidateDatatype;
@@ -111,7 +116,9 @@ abstract class AAttrType {
             lst = false;
         }
 
-        return AttrType.of(candidateDatatype, lst, "", Dict.of());
+        AttrType ret = AttrType.of(candidateDatatype, lst, "", Dict.of());
+        Canonicals.putParsedAttrType(type, ret);
+        return ret;
     }
 
     /**
@@ -149,14 +156,15 @@ abstract class AAttrType {
      * STRUCTURE or an ENTITY. Otherwise, it must be empty.
      * @param etypeName the name of the etype in case the data either a
      * STRUCTURE or an ENTITY. Otherwise, it must be {@link Dict#of()}.
+     * @return the canonical instance of the type, see {@link Canonicals}
      */
     public static AttrType of(String datatype, boolean list, String etypeURL, Dict etypeName) {
-        return AttrType.builder()
+        return Canonicals.attrType(AttrType.builder()
                 .setDatatype(datatype)
                 .setList(list)
                 .setEtypeId(etypeURL)
                 .setEtypeName(etypeName)
-                .build();
+                .build());
     } 
 
     @Value.Check
@@ -149,7 +149,8 @@ public abstract class AStruct {
          *            casts are done*
          */
          public T putObj(AttrDef attrDef, Object obj) {
-            return putAttrs(attrDef.getId(), Attr.ofObject(attrDef, obj));
+            Attr attr = Attr.ofObject(attrDef, obj);
+            return putAttrs(attr.getAttrDefId(), attr);
          }
          
          public T putAttrs(Iterable<Attr> attrs){
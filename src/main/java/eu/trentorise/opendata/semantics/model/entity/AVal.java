@@ -32,8 +32,8 @@ import org.immutables.value.Value;
  */
 @Value.Immutable
 @BuilderStylePublic
-@JsonSerialize(as = Value.class)
-@JsonDeserialize(as = Value.class)
+@JsonSerialize(as = Val.class)
+@JsonDeserialize(as = Val.class)
 abstract class AVal {
 
     /**
@@ -59,4 +59,13 @@ abstract class AVal {
         return "";
     }
 
+    /**
+     * Creates a value holding provided object. <strong>IMPORTANT:</strong> no
+     * checks are done on the object, see
+     * {@link Attr#ofObject(AttrDef, Object)} for a checked version.
+     */
+    public static Val of(long localId, Object obj) {
+        return Val.builder().setLocalId(localId).setObj(obj).build();
+    }
+
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.model.entity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import eu.trentorise.opendata.commons.Dict;
+
+/**
+ * Pools of canonical instances for the objects which are repeated over and
+ * over in entities and etypes, like attribute definition and etype ids, etype
+ * and attribute names and attribute types. Decoders, builders and mock services
+ * pass the objects they create through these pools so equal objects end up
+ * sharing the same instance.
+ *
+ * Pools hold weak references, so canonical instances are garbage collected
+ * once nothing else refers to them. All methods are thread safe.
+ *
+ * @author David Leoni
+ */
+public final class Canonicals {
+
+    /**
+     * Maximum number of string representations kept in the cache of
+     * {@link AttrType#of(String)}
+     */
+    public static final int MAX_PARSED_ATTR_TYPES = 1000;
+
+    private static final Interner<String> IDS = Interners.newWeakInterner();
+
+    private static final Interner<Dict> DICTS = Interners.newWeakInterner();
+
+    private static final Interner<AttrType> ATTR_TYPES = Interners.newWeakInterner();
+
+    private static final Cache<String, AttrType> PARSED_ATTR_TYPES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PARSED_ATTR_TYPES)
+            .build();
+
+    private Canonicals() {
+    }
+
+    /**
+     * Returns the canonical instance of an id or URL, i.e. of an attribute
+     * definition, etype or concept.
+     */
+    public static String id(String id) {
+        checkNotNull(id);
+        if (id.isEmpty()) {
+            return "";
+        }
+        return IDS.intern(id);
+    }
+
+    /**
+     * Returns the canonical instance of a dictionary. Use it for names shared
+     * by many objects, like etype and attribute definition names, not for the
+     * names of single entities.
+     */
+    public static Dict dict(Dict dict) {
+        checkNotNull(dict);
+        return DICTS.intern(dict);
+    }
+
+    /**
+     * Returns the canonical instance of an attribute type.
+     */
+    public static AttrType attrType(AttrType attrType) {
+        checkNotNull(attrType);
+        return ATTR_TYPES.intern(attrType);
+    }
+
+    /**
+     * Returns the cached attribute type parsed from provided string
+     * representation, or null if it wasn't parsed yet or it has been evicted.
+     */
+    static AttrType parsedAttrType(String type) {
+        return PARSED_ATTR_TYPES.getIfPresent(type);
+    }
+
+    /**
+     * Caches the attribute type parsed from provided string representation
+     */
+    static void putParsedAttrType(String type, AttrType attrType) {
+        PARSED_ATTR_TYPES.put(type, attrType);
+    }
+}
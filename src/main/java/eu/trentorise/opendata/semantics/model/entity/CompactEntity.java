@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.model.entity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import eu.trentorise.opendata.commons.Dict;
+
+import java.util.Map;
+
+/**
+ * An entity whose attributes are stored in the slots of the shape of its
+ * etype, see {@link EtypeShape}, instead of in a map of its own.
+ * {@link #getAttrs()} is a view over the slots and attribute lookups by id are
+ * slot lookups. Convenient when holding many entities of the same etype in
+ * memory. It is serialized with the same properties as an {@link Entity}.
+ *
+ * @author David Leoni
+ */
+@JsonSerialize(as = CompactEntity.class)
+public final class CompactEntity extends AEntity {
+
+    private final String id;
+    private final Dict name;
+    private final Dict description;
+    private final SlotAttrs attrs;
+
+    private CompactEntity(String id, Dict name, Dict description, SlotAttrs attrs) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.attrs = attrs;
+    }
+
+    /**
+     * Creates a compact copy of provided entity.
+     *
+     * @throws IllegalArgumentException
+     *             if the entity has a different etype than the shape or an
+     *             attribute not defined in it.
+     */
+    public static CompactEntity of(AEntity entity, EtypeShape shape) {
+        checkNotNull(entity);
+        checkNotNull(shape);
+        checkArgument(shape.getEtypeId().equals(entity.getEtypeId()), "Entity etype %s is different from shape etype %s!",
+                entity.getEtypeId(), shape.getEtypeId());
+        return new CompactEntity(entity.getId(), entity.getName(), entity.getDescription(),
+                SlotAttrs.of(shape, entity.getAttrs()));
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getEtypeId() {
+        return attrs.getShape().getEtypeId();
+    }
+
+    @Override
+    public Dict getName() {
+        return name;
+    }
+
+    @Override
+    public Dict getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns an unmodifiable view of the attributes, iterated in slot order.
+     */
+    @Override
+    public Map<String, Attr> getAttrs() {
+        return attrs;
+    }
+
+    public EtypeShape shape() {
+        return attrs.getShape();
+    }
+
+    /**
+     * Returns a copy of the entity backed by a map.
+     */
+    public Entity toEntity() {
+        return Entity.builder()
+                .setId(id)
+                .setEtypeId(getEtypeId())
+                .setName(name)
+                .setDescription(description)
+                .putAllAttrs(attrs)
+                .build();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompactEntity)) {
+            return false;
+        }
+        CompactEntity other = (CompactEntity) obj;
+        return id.equals(other.id) && getEtypeId().equals(other.getEtypeId()) && name.equals(other.name)
+                && description.equals(other.description) && attrs.equals(other.attrs);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 31 * id.hashCode() + getEtypeId().hashCode();
+        h = 31 * h + name.hashCode();
+        h = 31 * h + description.hashCode();
+        return 31 * h + attrs.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CompactEntity{id=" + id + ", etypeId=" + getEtypeId() + ", name=" + name + ", attrs=" + attrs + "}";
+    }
+}
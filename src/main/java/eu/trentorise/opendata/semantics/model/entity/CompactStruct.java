@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.model.entity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+/**
+ * A struct whose attributes are stored in the slots of the shape of its
+ * etype, see {@link EtypeShape}, instead of in a map of its own.
+ * {@link #getAttrs()} is a view over the slots and attribute lookups by id are
+ * slot lookups. Convenient when holding many structs of the same etype in
+ * memory.
+ *
+ * @author David Leoni
+ */
+public final class CompactStruct extends AStruct {
+
+    private final String id;
+    private final SlotAttrs attrs;
+
+    private CompactStruct(String id, SlotAttrs attrs) {
+        this.id = id;
+        this.attrs = attrs;
+    }
+
+    /**
+     * Creates a compact copy of provided struct.
+     *
+     * @throws IllegalArgumentException
+     *             if the struct has a different etype than the shape or an
+     *             attribute not defined in it.
+     */
+    public static CompactStruct of(AStruct struct, EtypeShape shape) {
+        checkNotNull(struct);
+        checkNotNull(shape);
+        checkArgument(shape.getEtypeId().equals(struct.getEtypeId()), "Struct etype %s is different from shape etype %s!",
+                struct.getEtypeId(), shape.getEtypeId());
+        return new CompactStruct(struct.getId(), SlotAttrs.of(shape, struct.getAttrs()));
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getEtypeId() {
+        return attrs.getShape().getEtypeId();
+    }
+
+    /**
+     * Returns an unmodifiable view of the attributes, iterated in slot order.
+     */
+    @Override
+    public Map<String, Attr> getAttrs() {
+        return attrs;
+    }
+
+    public EtypeShape shape() {
+        return attrs.getShape();
+    }
+
+    /**
+     * Returns a copy of the struct backed by a map.
+     */
+    public Struct toStruct() {
+        return Struct.builder()
+                .setId(id)
+                .setEtypeId(getEtypeId())
+                .putAllAttrs(attrs)
+                .build();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompactStruct)) {
+            return false;
+        }
+        CompactStruct other = (CompactStruct) obj;
+        return id.equals(other.id) && getEtypeId().equals(other.getEtypeId()) && attrs.equals(other.attrs);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * id.hashCode() + getEtypeId().hashCode()) + attrs.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CompactStruct{id=" + id + ", etypeId=" + getEtypeId() + ", attrs=" + attrs + "}";
+    }
+}
@@ -19,6 +19,7 @@ import com.google.common.collect.ImmutableMap;
 import static eu.trentorise.opendata.commons.validation.Preconditions.checkNotEmpty;
 import eu.trentorise.opendata.semantics.DataTypes;
 import eu.trentorise.opendata.semantics.exceptions.OpenEntityNotFoundException;
+import eu.trentorise.opendata.semantics.services.IEntityService;
 import eu.trentorise.opendata.semantics.services.IEtypeService;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -126,6 +127,64 @@ public final class Entities {
 	return resolveEtypes(etype, ets);
     }
 
+    /**
+     * Resolves all the etypes needed to walk the values of entities of provided
+     * etype, that is the provided etype and the etypes of its structs and
+     * referenced entities at any nesting level, since nested entities may be
+     * given as whole objects and are walked like structs. Unlike
+     * {@link #resolveEtypes(Etype, IEtypeService)}, etypes are followed
+     * recursively. Each etype is read only once, so recursive etypes are
+     * supported.
+     *
+     * @return a map from etype url to etype
+     */
+    public static Map<String, Etype> resolveEtypeClosure(Etype etype, IEtypeService ets) {
+	checkNotNull(etype);
+	checkNotNull(ets);
+
+	Map<String, Etype> ret = new HashMap();
+	ret.put(etype.getId(), etype);
+
+	List<Etype> toVisit = new ArrayList();
+	toVisit.add(etype);
+
+	while (!toVisit.isEmpty()) {
+	    Etype cur = toVisit.remove(toVisit.size() - 1);
+	    for (AttrDef attrDef : cur.getAttrDefs().values()) {
+		AttrType attrType = attrDef.getType();
+		String datatype = attrType.getDatatype();
+		if ((DataTypes.STRUCTURE.equals(datatype) || DataTypes.ENTITY.equals(datatype))
+			&& !ret.containsKey(attrType.getEtypeId())) {
+		    Etype subEtype = ets.readEtype(attrType.getEtypeId());
+		    if (subEtype == null) {
+			throw new OpenEntityNotFoundException("Couldn't find etype " + attrType.getEtypeId()
+				+ " referenced by attribute definition " + attrDef.getId());
+		    }
+		    ret.put(subEtype.getId(), subEtype);
+		    toVisit.add(subEtype);
+		}
+	    }
+	}
+	return ret;
+    }
+
+    /**
+     * Patches an entity by reading it from the service, applying the delta
+     * and writing it back with
+     * {@link IEntityService#updateEntity(Entity)}.
+     *
+     * @return the patched entity
+     */
+    public static Entity patchEntity(IEntityService es, String URL, EntityDelta delta) {
+	checkNotNull(es);
+	checkNotNull(delta);
+	checkArgument(delta.getEntityId().equals(URL), "Tried to patch entity %s with delta of entity %s", URL,
+		delta.getEntityId());
+	Entity ret = delta.apply(es.readEntity(URL));
+	es.updateEntity(ret);
+	return ret;
+    }
+
     /*
      * FOR WITH NAME
      * 
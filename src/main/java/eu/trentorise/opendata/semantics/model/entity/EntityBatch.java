@@ -0,0 +1,694 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.model.entity;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.exceptions.OpenEntityNotFoundException;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Immutable columnar representation of many entities sharing the same etype.
+ * There is one column per attribute definition of the etype, sorted by
+ * attribute definition id. Integer, long, float, boolean and date attributes
+ * are stored in primitive arrays, strings are dictionary encoded and other
+ * values are stored as objects. Missing attributes are tracked in a bitmap
+ * per column.
+ *
+ * An attribute is stored in primitive form when it has exactly one value and
+ * both attribute and value have synthetic local ids (-1). Other attributes,
+ * like lists with many values, are kept as they are, so converting entities
+ * to a batch and back always gives equal entities.
+ *
+ * Rows are accessed either with the typed getters, which don't allocate
+ * objects for primitive cells, or with the {@link Row} views.
+ *
+ * @author David Leoni
+ */
+public final class EntityBatch {
+
+    private final Etype etype;
+    private final int size;
+    private final String[] ids;
+    private final Dict[] names;
+    private final Dict[] descriptions;
+    private final Column[] columns;
+    private final Map<String, Integer> columnIndexes;
+
+    private EntityBatch(Etype etype, List<? extends AEntity> entities) {
+        this.etype = etype;
+        this.size = entities.size();
+        this.ids = new String[size];
+        this.names = new Dict[size];
+        this.descriptions = new Dict[size];
+
+        List<AttrDef> attrDefs = new ArrayList(etype.getAttrDefs().values());
+        Collections.sort(attrDefs, new Comparator<AttrDef>() {
+            @Override
+            public int compare(AttrDef a, AttrDef b) {
+                return a.getId().compareTo(b.getId());
+            }
+        });
+        this.columns = new Column[attrDefs.size()];
+        this.columnIndexes = new HashMap();
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = newColumn(attrDefs.get(i), size);
+            columnIndexes.put(attrDefs.get(i).getId(), i);
+        }
+
+        for (int row = 0; row < size; row++) {
+            AEntity entity = entities.get(row);
+            checkNotNull(entity);
+            if (!etype.getId().equals(entity.getEtypeId())) {
+                throw new IllegalArgumentException("Entity " + entity.getId() + " has etype "
+                        + entity.getEtypeId() + ", expected " + etype.getId());
+            }
+            ids[row] = entity.getId();
+            names[row] = entity.getName();
+            descriptions[row] = entity.getDescription();
+            for (Map.Entry<String, Attr> entry : entity.getAttrs().entrySet()) {
+                Integer col = columnIndexes.get(entry.getKey());
+                if (col == null) {
+                    throw new IllegalArgumentException("Entity " + entity.getId() + " has attribute "
+                            + entry.getKey() + " which is not defined in etype " + etype.getId());
+                }
+                columns[col].put(row, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Creates a batch holding provided entities, which must all have the
+     * given etype.
+     *
+     * @throws IllegalArgumentException
+     *             if an entity has a different etype or an attribute not
+     *             defined in the etype.
+     */
+    public static EntityBatch of(Etype etype, List<? extends AEntity> entities) {
+        checkNotNull(etype);
+        checkNotNull(entities);
+        return new EntityBatch(etype, entities);
+    }
+
+    /**
+     * Converts the batch back to entities.
+     */
+    public List<Entity> toEntities() {
+        ImmutableList.Builder<Entity> ret = ImmutableList.builder();
+        for (int row = 0; row < size; row++) {
+            ret.add(row(row).toEntity());
+        }
+        return ret.build();
+    }
+
+    public Etype getEtype() {
+        return etype;
+    }
+
+    /**
+     * The number of entities in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of columns, one for each attribute definition of the etype.
+     */
+    public int columnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the attribute definition of the column at given index
+     */
+    public AttrDef columnAttrDef(int column) {
+        checkElementIndex(column, columns.length);
+        return columns[column].attrDef;
+    }
+
+    /**
+     * Returns the index of the column holding the attributes with given
+     * attribute definition id.
+     *
+     * @throws OpenEntityNotFoundException
+     *             if the etype has no such attribute definition.
+     */
+    public int columnIndex(String attrDefId) {
+        Integer ret = columnIndexes.get(attrDefId);
+        if (ret == null) {
+            throw new OpenEntityNotFoundException("Couldn't find attribute definition " + attrDefId
+                    + " in etype " + etype.getId());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if the entity at given row has no attribute for the
+     * column.
+     */
+    public boolean isNull(int row, int column) {
+        checkElementIndex(row, size);
+        checkElementIndex(column, columns.length);
+        return !columns[column].present.get(row);
+    }
+
+    /**
+     * Returns the attribute of the entity at given row for the column, or
+     * null if there is none.
+     */
+    @Nullable
+    public Attr getAttr(int row, int column) {
+        return isNull(row, column) ? null : columns[column].attr(row);
+    }
+
+    /**
+     * Returns the object of the first value of the attribute at given row and
+     * column.
+     *
+     * @throws OpenEntityNotFoundException
+     *             if the attribute is missing or has no values.
+     */
+    public Object getObject(int row, int column) {
+        return present(row, column).obj(row);
+    }
+
+    /**
+     * See {@link #getObject(int, int)}.
+     *
+     * @throws ClassCastException
+     *             if the value is not an integer.
+     */
+    public int getInt(int row, int column) {
+        return present(row, column).intValue(row);
+    }
+
+    /**
+     * See {@link #getObject(int, int)}.
+     *
+     * @throws ClassCastException
+     *             if the value is not a long.
+     */
+    public long getLong(int row, int column) {
+        return present(row, column).longValue(row);
+    }
+
+    /**
+     * See {@link #getObject(int, int)}.
+     *
+     * @throws ClassCastException
+     *             if the value is not a float.
+     */
+    public float getFloat(int row, int column) {
+        return present(row, column).floatValue(row);
+    }
+
+    /**
+     * See {@link #getObject(int, int)}.
+     *
+     * @throws ClassCastException
+     *             if the value is not a boolean.
+     */
+    public boolean getBoolean(int row, int column) {
+        return present(row, column).booleanValue(row);
+    }
+
+    /**
+     * Returns the date of the first value of the attribute at given row and
+     * column, as milliseconds since the epoch. See
+     * {@link #getObject(int, int)}.
+     *
+     * @throws ClassCastException
+     *             if the value is not a date.
+     */
+    public long getDateMillis(int row, int column) {
+        return present(row, column).dateMillis(row);
+    }
+
+    /**
+     * See {@link #getObject(int, int)}.
+     *
+     * @throws ClassCastException
+     *             if the value is not a string.
+     */
+    public String getString(int row, int column) {
+        return (String) present(row, column).obj(row);
+    }
+
+    /**
+     * Returns a view of the entity at given row
+     */
+    public Row row(int row) {
+        checkElementIndex(row, size);
+        return new Row(row);
+    }
+
+    /**
+     * Returns a list of views of all the rows
+     */
+    public List<Row> rows() {
+        return new AbstractList<Row>() {
+            @Override
+            public Row get(int index) {
+                return row(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private Column present(int row, int column) {
+        if (isNull(row, column)) {
+            throw new OpenEntityNotFoundException("Entity " + ids[row] + " has no attribute "
+                    + columns[column].attrDef.getId());
+        }
+        return columns[column];
+    }
+
+    /**
+     * A view of an entity in the batch. Attributes are materialized on first
+     * call to {@link #getAttrs()}.
+     */
+    public final class Row extends AStruct {
+
+        private final int row;
+
+        @Nullable
+        private Map<String, Attr> attrs;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        /**
+         * The index of the row in the batch
+         */
+        public int getIndex() {
+            return row;
+        }
+
+        @Override
+        public String getId() {
+            return ids[row];
+        }
+
+        @Override
+        public String getEtypeId() {
+            return etype.getId();
+        }
+
+        public Dict getName() {
+            return names[row];
+        }
+
+        public Dict getDescription() {
+            return descriptions[row];
+        }
+
+        @Override
+        public Map<String, Attr> getAttrs() {
+            if (attrs == null) {
+                ImmutableMap.Builder<String, Attr> b = ImmutableMap.builder();
+                for (Column column : columns) {
+                    if (column.present.get(row)) {
+                        b.put(column.attrDef.getId(), column.attr(row));
+                    }
+                }
+                attrs = b.build();
+            }
+            return attrs;
+        }
+
+        /**
+         * Returns a copy of the row as an entity
+         */
+        public Entity toEntity() {
+            return Entity.builder()
+                    .setId(getId())
+                    .setEtypeId(getEtypeId())
+                    .setName(getName())
+                    .setDescription(getDescription())
+                    .putAllAttrs(getAttrs())
+                    .build();
+        }
+
+        @Override
+        public String toString() {
+            return "EntityBatch.Row{index=" + row + ", id=" + getId() + "}";
+        }
+    }
+
+    private static Column newColumn(AttrDef attrDef, int size) {
+        String datatype = attrDef.getType().getDatatype();
+        if (DataTypes.INTEGER.equals(datatype)) {
+            return new IntColumn(attrDef, size);
+        } else if (DataTypes.LONG.equals(datatype)) {
+            return new LongColumn(attrDef, size);
+        } else if (DataTypes.FLOAT.equals(datatype)) {
+            return new FloatColumn(attrDef, size);
+        } else if (DataTypes.BOOLEAN.equals(datatype)) {
+            return new BooleanColumn(attrDef, size);
+        } else if (DataTypes.DATE.equals(datatype)) {
+            return new DateColumn(attrDef, size);
+        } else if (DataTypes.STRING.equals(datatype)) {
+            return new StringColumn(attrDef, size);
+        } else {
+            return new ObjectColumn(attrDef, size);
+        }
+    }
+
+    /**
+     * Column of attributes. Cells which can't be stored in primitive form are
+     * kept in the overflow map.
+     */
+    private abstract static class Column {
+
+        final AttrDef attrDef;
+        final BitSet present;
+
+        @Nullable
+        Map<Integer, Attr> overflow;
+
+        Column(AttrDef attrDef, int size) {
+            this.attrDef = attrDef;
+            this.present = new BitSet(size);
+        }
+
+        /**
+         * Returns true if the object can be stored in primitive form
+         */
+        abstract boolean accepts(Object obj);
+
+        /**
+         * Stores the object in primitive form
+         */
+        abstract void set(int row, Object obj);
+
+        /**
+         * Returns the object stored in primitive form
+         */
+        abstract Object get(int row);
+
+        void put(int row, Attr attr) {
+            present.set(row);
+            if (attr.getLocalId() == -1 && attr.getValues().size() == 1
+                    && attrDef.getId().equals(attr.getAttrDefId())) {
+                Val val = attr.getValues().get(0);
+                if (val.getLocalId() == -1 && accepts(val.getObj())) {
+                    set(row, val.getObj());
+                    return;
+                }
+            }
+            if (overflow == null) {
+                overflow = new HashMap();
+            }
+            overflow.put(row, attr);
+        }
+
+        boolean isOverflow(int row) {
+            return overflow != null && overflow.containsKey(row);
+        }
+
+        Attr attr(int row) {
+            if (isOverflow(row)) {
+                return overflow.get(row);
+            }
+            return Attr.builder()
+                    .setAttrDefId(attrDef.getId())
+                    .addValues(Val.of(-1, get(row)))
+                    .build();
+        }
+
+        Object obj(int row) {
+            return isOverflow(row) ? overflow.get(row).firstValue().getObj() : get(row);
+        }
+
+        int intValue(int row) {
+            return (Integer) obj(row);
+        }
+
+        long longValue(int row) {
+            return (Long) obj(row);
+        }
+
+        float floatValue(int row) {
+            return (Float) obj(row);
+        }
+
+        boolean booleanValue(int row) {
+            return (Boolean) obj(row);
+        }
+
+        long dateMillis(int row) {
+            return ((Date) obj(row)).getTime();
+        }
+    }
+
+    private static final class IntColumn extends Column {
+
+        private final int[] values;
+
+        IntColumn(AttrDef attrDef, int size) {
+            super(attrDef, size);
+            values = new int[size];
+        }
+
+        @Override
+        boolean accepts(Object obj) {
+            return obj instanceof Integer;
+        }
+
+        @Override
+        void set(int row, Object obj) {
+            values[row] = (Integer) obj;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        int intValue(int row) {
+            return isOverflow(row) ? super.intValue(row) : values[row];
+        }
+    }
+
+    private static final class LongColumn extends Column {
+
+        private final long[] values;
+
+        LongColumn(AttrDef attrDef, int size) {
+            super(attrDef, size);
+            values = new long[size];
+        }
+
+        @Override
+        boolean accepts(Object obj) {
+            return obj instanceof Long;
+        }
+
+        @Override
+        void set(int row, Object obj) {
+            values[row] = (Long) obj;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        long longValue(int row) {
+            return isOverflow(row) ? super.longValue(row) : values[row];
+        }
+    }
+
+    private static final class FloatColumn extends Column {
+
+        private final float[] values;
+
+        FloatColumn(AttrDef attrDef, int size) {
+            super(attrDef, size);
+            values = new float[size];
+        }
+
+        @Override
+        boolean accepts(Object obj) {
+            return obj instanceof Float;
+        }
+
+        @Override
+        void set(int row, Object obj) {
+            values[row] = (Float) obj;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        float floatValue(int row) {
+            return isOverflow(row) ? super.floatValue(row) : values[row];
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+
+        private final BitSet values;
+
+        BooleanColumn(AttrDef attrDef, int size) {
+            super(attrDef, size);
+            values = new BitSet(size);
+        }
+
+        @Override
+        boolean accepts(Object obj) {
+            return obj instanceof Boolean;
+        }
+
+        @Override
+        void set(int row, Object obj) {
+            values.set(row, (Boolean) obj);
+        }
+
+        @Override
+        Object get(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        boolean booleanValue(int row) {
+            return isOverflow(row) ? super.booleanValue(row) : values.get(row);
+        }
+    }
+
+    private static final class DateColumn extends Column {
+
+        private final long[] millis;
+
+        DateColumn(AttrDef attrDef, int size) {
+            super(attrDef, size);
+            millis = new long[size];
+        }
+
+        @Override
+        boolean accepts(Object obj) {
+            return obj != null && obj.getClass().equals(Date.class);
+        }
+
+        @Override
+        void set(int row, Object obj) {
+            millis[row] = ((Date) obj).getTime();
+        }
+
+        @Override
+        Object get(int row) {
+            return new Date(millis[row]);
+        }
+
+        @Override
+        long dateMillis(int row) {
+            return isOverflow(row) ? super.dateMillis(row) : millis[row];
+        }
+    }
+
+    /**
+     * Dictionary encoded strings. Code 0 is never used, so unset cells can be
+     * told apart when debugging.
+     */
+    private static final class StringColumn extends Column {
+
+        private final int[] codes;
+        private final List<String> dictionary = new ArrayList();
+        private final Map<String, Integer> codesByString = new HashMap();
+
+        StringColumn(AttrDef attrDef, int size) {
+            super(attrDef, size);
+            codes = new int[size];
+            dictionary.add(null);
+        }
+
+        @Override
+        boolean accepts(Object obj) {
+            return obj instanceof String;
+        }
+
+        @Override
+        void set(int row, Object obj) {
+            String s = (String) obj;
+            Integer code = codesByString.get(s);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(s);
+                codesByString.put(s, code);
+            }
+            codes[row] = code;
+        }
+
+        @Override
+        Object get(int row) {
+            return dictionary.get(codes[row]);
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+
+        private final Object[] values;
+
+        ObjectColumn(AttrDef attrDef, int size) {
+            super(attrDef, size);
+            values = new Object[size];
+        }
+
+        @Override
+        boolean accepts(Object obj) {
+            return obj != null;
+        }
+
+        @Override
+        void set(int row, Object obj) {
+            values[row] = obj;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+    }
+}
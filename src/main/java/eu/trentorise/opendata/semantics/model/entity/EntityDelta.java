@@ -0,0 +1,403 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.model.entity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import eu.trentorise.opendata.commons.Dict;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * The changes turning a version of an entity into another one, at attribute
+ * and value level. Values are matched by their local id, so when a single
+ * value of a big attribute changes only that value ends up in the delta.
+ * Attributes whose values have no local ids are replaced as a whole.
+ *
+ * Compute deltas with {@link #diff(AEntity, AEntity)}, apply them with
+ * {@link #apply(AEntity)} or patch stored entities with
+ * {@link Entities#patchEntity(eu.trentorise.opendata.semantics.services.IEntityService, String, EntityDelta)}.
+ * Deltas are immutable.
+ *
+ * @author David Leoni
+ */
+public final class EntityDelta {
+
+    private final String entityId;
+
+    @Nullable
+    private final String etypeId;
+
+    @Nullable
+    private final Dict name;
+
+    @Nullable
+    private final Dict description;
+
+    private final ImmutableSet<String> removedAttrs;
+
+    private final ImmutableMap<String, AttrDelta> changedAttrs;
+
+    private EntityDelta(String entityId, @Nullable String etypeId, @Nullable Dict name, @Nullable Dict description,
+            Set<String> removedAttrs, Map<String, AttrDelta> changedAttrs) {
+        this.entityId = entityId;
+        this.etypeId = etypeId;
+        this.name = name;
+        this.description = description;
+        this.removedAttrs = ImmutableSet.copyOf(removedAttrs);
+        this.changedAttrs = ImmutableMap.copyOf(changedAttrs);
+    }
+
+    /**
+     * Computes the minimal delta turning one version of an entity into
+     * another.
+     *
+     * @throws IllegalArgumentException
+     *             if the entities have different ids.
+     */
+    public static EntityDelta diff(AEntity from, AEntity to) {
+        checkNotNull(from);
+        checkNotNull(to);
+        checkArgument(from.getId().equals(to.getId()), "Tried to diff entities with different ids %s and %s",
+                from.getId(), to.getId());
+
+        Set<String> removed = new HashSet();
+        for (String attrDefId : from.getAttrs().keySet()) {
+            if (!to.getAttrs().containsKey(attrDefId)) {
+                removed.add(attrDefId);
+            }
+        }
+
+        Map<String, AttrDelta> changed = new LinkedHashMap();
+        for (Map.Entry<String, Attr> entry : to.getAttrs().entrySet()) {
+            Attr oldAttr = from.getAttrs().get(entry.getKey());
+            if (!entry.getValue().equals(oldAttr)) {
+                changed.put(entry.getKey(), AttrDelta.diff(oldAttr, entry.getValue()));
+            }
+        }
+
+        return new EntityDelta(to.getId(),
+                from.getEtypeId().equals(to.getEtypeId()) ? null : to.getEtypeId(),
+                from.getName().equals(to.getName()) ? null : to.getName(),
+                from.getDescription().equals(to.getDescription()) ? null : to.getDescription(),
+                removed,
+                changed);
+    }
+
+    /**
+     * Applies the delta to provided entity, which should be the version the
+     * delta was computed from.
+     *
+     * @throws IllegalArgumentException
+     *             if the entity has a different id from the one of the delta.
+     */
+    public Entity apply(AEntity entity) {
+        checkNotNull(entity);
+        checkArgument(entityId.equals(entity.getId()), "Tried to apply delta of entity %s to entity %s", entityId,
+                entity.getId());
+
+        Map<String, Attr> attrs = new LinkedHashMap();
+        for (Map.Entry<String, Attr> entry : entity.getAttrs().entrySet()) {
+            if (removedAttrs.contains(entry.getKey())) {
+                continue;
+            }
+            AttrDelta attrDelta = changedAttrs.get(entry.getKey());
+            attrs.put(entry.getKey(), attrDelta == null ? entry.getValue() : attrDelta.apply(entry.getValue()));
+        }
+        for (AttrDelta attrDelta : changedAttrs.values()) {
+            if (!attrs.containsKey(attrDelta.getAttrDefId())) {
+                attrs.put(attrDelta.getAttrDefId(), attrDelta.apply(null));
+            }
+        }
+
+        return Entity.builder()
+                .setId(entity.getId())
+                .setEtypeId(etypeId == null ? entity.getEtypeId() : etypeId)
+                .setName(name == null ? entity.getName() : name)
+                .setDescription(description == null ? entity.getDescription() : description)
+                .putAllAttrs(attrs)
+                .build();
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * The new etype id, or null if it didn't change
+     */
+    @Nullable
+    public String getEtypeId() {
+        return etypeId;
+    }
+
+    /**
+     * The new name, or null if it didn't change
+     */
+    @Nullable
+    public Dict getName() {
+        return name;
+    }
+
+    /**
+     * The new description, or null if it didn't change
+     */
+    @Nullable
+    public Dict getDescription() {
+        return description;
+    }
+
+    /**
+     * The ids of the attribute definitions whose attributes were removed
+     */
+    public Set<String> getRemovedAttrs() {
+        return removedAttrs;
+    }
+
+    /**
+     * The changes of added or modified attributes, by attribute definition id
+     */
+    public Map<String, AttrDelta> getChangedAttrs() {
+        return changedAttrs;
+    }
+
+    /**
+     * The ids of the attribute definitions whose attributes were removed,
+     * added or modified. When revalidating a patched entity of the same etype
+     * only these attributes need to be checked again.
+     */
+    public Set<String> getTouchedAttrDefIds() {
+        return ImmutableSet.<String> builder().addAll(removedAttrs).addAll(changedAttrs.keySet()).build();
+    }
+
+    /**
+     * True if the delta changes nothing
+     */
+    public boolean isEmpty() {
+        return etypeId == null && name == null && description == null && removedAttrs.isEmpty()
+                && changedAttrs.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof EntityDelta)) {
+            return false;
+        }
+        EntityDelta other = (EntityDelta) obj;
+        return entityId.equals(other.entityId)
+                && (etypeId == null ? other.etypeId == null : etypeId.equals(other.etypeId))
+                && (name == null ? other.name == null : name.equals(other.name))
+                && (description == null ? other.description == null : description.equals(other.description))
+                && removedAttrs.equals(other.removedAttrs)
+                && changedAttrs.equals(other.changedAttrs);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = entityId.hashCode();
+        h = 31 * h + (etypeId == null ? 0 : etypeId.hashCode());
+        h = 31 * h + (name == null ? 0 : name.hashCode());
+        h = 31 * h + (description == null ? 0 : description.hashCode());
+        h = 31 * h + removedAttrs.hashCode();
+        return 31 * h + changedAttrs.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityDelta{entityId=" + entityId + ", etypeId=" + etypeId + ", name=" + name + ", description="
+                + description + ", removedAttrs=" + removedAttrs + ", changedAttrs=" + changedAttrs + "}";
+    }
+
+    /**
+     * The changes of a single attribute. If {@link #isReplace()} is true the
+     * put values are the whole new list of values, otherwise removed values
+     * are dropped, put values having the local id of an existing value take
+     * its place and the other put values are appended.
+     */
+    public static final class AttrDelta {
+
+        private final String attrDefId;
+        private final long localId;
+        private final boolean replace;
+        private final ImmutableSet<Long> removedValueIds;
+        private final ImmutableList<Val> putValues;
+
+        private AttrDelta(String attrDefId, long localId, boolean replace, Set<Long> removedValueIds,
+                List<Val> putValues) {
+            this.attrDefId = attrDefId;
+            this.localId = localId;
+            this.replace = replace;
+            this.removedValueIds = ImmutableSet.copyOf(removedValueIds);
+            this.putValues = ImmutableList.copyOf(putValues);
+        }
+
+        static AttrDelta diff(@Nullable Attr from, Attr to) {
+            AttrDelta replacement = new AttrDelta(to.getAttrDefId(), to.getLocalId(), true,
+                    ImmutableSet.<Long> of(), to.getValues());
+            if (from == null || !hasLocalIds(from.getValues()) || !hasLocalIds(to.getValues())) {
+                return replacement;
+            }
+
+            Map<Long, Val> oldValues = new HashMap();
+            for (Val val : from.getValues()) {
+                oldValues.put(val.getLocalId(), val);
+            }
+            Set<Long> newIds = new HashSet();
+            List<Val> put = new ArrayList();
+            for (Val val : to.getValues()) {
+                newIds.add(val.getLocalId());
+                if (!val.equals(oldValues.get(val.getLocalId()))) {
+                    put.add(val);
+                }
+            }
+            Set<Long> removed = new HashSet();
+            for (Long id : oldValues.keySet()) {
+                if (!newIds.contains(id)) {
+                    removed.add(id);
+                }
+            }
+
+            AttrDelta ret = new AttrDelta(to.getAttrDefId(), to.getLocalId(), false, removed, put);
+            // added values are appended, if they were inserted elsewhere the
+            // attribute has to be replaced
+            return ret.apply(from).equals(to) ? ret : replacement;
+        }
+
+        /**
+         * True if values have distinct non negative local ids
+         */
+        private static boolean hasLocalIds(List<Val> values) {
+            Set<Long> ids = new HashSet();
+            for (Val val : values) {
+                if (val.getLocalId() < 0 || !ids.add(val.getLocalId())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Applies the delta to provided attribute, which may be null if the
+         * attribute is new.
+         */
+        Attr apply(@Nullable Attr attr) {
+            List<Val> values;
+            if (replace || attr == null) {
+                values = putValues;
+            } else {
+                Map<Long, Val> put = new HashMap();
+                for (Val val : putValues) {
+                    put.put(val.getLocalId(), val);
+                }
+                values = new ArrayList();
+                for (Val val : attr.getValues()) {
+                    if (removedValueIds.contains(val.getLocalId())) {
+                        continue;
+                    }
+                    Val newVal = put.remove(val.getLocalId());
+                    values.add(newVal == null ? val : newVal);
+                }
+                for (Val val : putValues) {
+                    if (put.containsKey(val.getLocalId())) {
+                        values.add(val);
+                    }
+                }
+            }
+            return Attr.builder()
+                    .setLocalId(localId)
+                    .setAttrDefId(attrDefId)
+                    .addAllValues(values)
+                    .build();
+        }
+
+        public String getAttrDefId() {
+            return attrDefId;
+        }
+
+        /**
+         * The local id of the attribute in the new version
+         */
+        public long getLocalId() {
+            return localId;
+        }
+
+        /**
+         * True if the put values replace all the values of the attribute
+         */
+        public boolean isReplace() {
+            return replace;
+        }
+
+        /**
+         * The local ids of the removed values
+         */
+        public Set<Long> getRemovedValueIds() {
+            return removedValueIds;
+        }
+
+        /**
+         * The added or changed values, or all the values if
+         * {@link #isReplace()} is true
+         */
+        public List<Val> getPutValues() {
+            return putValues;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof AttrDelta)) {
+                return false;
+            }
+            AttrDelta other = (AttrDelta) obj;
+            return attrDefId.equals(other.attrDefId) && localId == other.localId && replace == other.replace
+                    && removedValueIds.equals(other.removedValueIds) && putValues.equals(other.putValues);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = attrDefId.hashCode();
+            h = 31 * h + (int) (localId ^ (localId >>> 32));
+            h = 31 * h + (replace ? 1 : 0);
+            h = 31 * h + removedValueIds.hashCode();
+            return 31 * h + putValues.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "AttrDelta{attrDefId=" + attrDefId + ", localId=" + localId + ", replace=" + replace
+                    + ", removedValueIds=" + removedValueIds + ", putValues=" + putValues + "}";
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.model.entity;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+
+import java.util.List;
+
+/**
+ * Immutable slot table of an etype, mapping each attribute definition id to
+ * an index. Shapes are shared by all the {@link CompactStruct} and
+ * {@link CompactEntity} instances of the etype, which only need to hold an
+ * array of attributes. Slots are assigned in attribute definition id order.
+ *
+ * @author David Leoni
+ */
+public final class EtypeShape {
+
+    private static final Cache<Etype, EtypeShape> SHAPES = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+
+    private final String etypeId;
+    private final ImmutableList<String> attrDefIds;
+    private final ImmutableMap<String, Integer> slots;
+
+    private EtypeShape(Etype etype) {
+        this.etypeId = Canonicals.id(etype.getId());
+        this.attrDefIds = ImmutableList.copyOf(Ordering.natural().sortedCopy(etype.getAttrDefs().keySet()));
+        ImmutableMap.Builder<String, Integer> b = ImmutableMap.builder();
+        for (int i = 0; i < attrDefIds.size(); i++) {
+            b.put(attrDefIds.get(i), i);
+        }
+        this.slots = b.build();
+    }
+
+    /**
+     * Returns the shape of provided etype. Shapes are cached as long as the
+     * etype instance is reachable.
+     */
+    public static EtypeShape of(Etype etype) {
+        checkNotNull(etype);
+        EtypeShape ret = SHAPES.getIfPresent(etype);
+        if (ret == null) {
+            ret = new EtypeShape(etype);
+            SHAPES.put(etype, ret);
+        }
+        return ret;
+    }
+
+    public String getEtypeId() {
+        return etypeId;
+    }
+
+    /**
+     * The attribute definition ids, in slot order
+     */
+    public List<String> getAttrDefIds() {
+        return attrDefIds;
+    }
+
+    /**
+     * The number of slots
+     */
+    public int size() {
+        return attrDefIds.size();
+    }
+
+    /**
+     * Returns the slot of given attribute definition, or -1 if the etype
+     * doesn't define it.
+     */
+    public int slot(String attrDefId) {
+        Integer ret = slots.get(attrDefId);
+        return ret == null ? -1 : ret;
+    }
+
+    /**
+     * Returns the attribute definition id at given slot
+     */
+    public String attrDefId(int slot) {
+        checkElementIndex(slot, attrDefIds.size());
+        return attrDefIds.get(slot);
+    }
+
+    @Override
+    public String toString() {
+        return "EtypeShape{etypeId=" + etypeId + ", attrDefIds=" + attrDefIds + "}";
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.model.entity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.AbstractIterator;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unmodifiable map view of attributes stored in the slots of an
+ * {@link EtypeShape}. Lookups don't hash the attributes, they only find the
+ * slot in the shared table. Iteration follows slot order.
+ *
+ * @author David Leoni
+ */
+final class SlotAttrs extends AbstractMap<String, Attr> {
+
+    private final EtypeShape shape;
+    private final Attr[] slots;
+    private final int size;
+
+    private SlotAttrs(EtypeShape shape, Attr[] slots, int size) {
+        this.shape = shape;
+        this.slots = slots;
+        this.size = size;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if an attribute is not defined in the shape.
+     */
+    static SlotAttrs of(EtypeShape shape, Map<String, Attr> attrs) {
+        checkNotNull(shape);
+        Attr[] slots = new Attr[shape.size()];
+        for (Map.Entry<String, Attr> entry : attrs.entrySet()) {
+            int slot = shape.slot(entry.getKey());
+            if (slot == -1) {
+                throw new IllegalArgumentException("Attribute " + entry.getKey()
+                        + " is not defined in etype " + shape.getEtypeId());
+            }
+            slots[slot] = checkNotNull(entry.getValue());
+        }
+        return new SlotAttrs(shape, slots, attrs.size());
+    }
+
+    EtypeShape getShape() {
+        return shape;
+    }
+
+    @Override
+    public Attr get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int slot = shape.slot((String) key);
+        return slot == -1 ? null : slots[slot];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Attr>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Attr>>() {
+            @Override
+            public Iterator<Map.Entry<String, Attr>> iterator() {
+                return new AbstractIterator<Map.Entry<String, Attr>>() {
+                    private int slot = 0;
+
+                    @Override
+                    protected Map.Entry<String, Attr> computeNext() {
+                        while (slot < slots.length) {
+                            int i = slot++;
+                            if (slots[i] != null) {
+                                return new AbstractMap.SimpleImmutableEntry(shape.attrDefId(i), slots[i]);
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -87,31 +87,13 @@ abstract class AAttrMapping implements Serializable, Comparable<AttrMapping> {
         Schemas.checkSourcePath(getSourcePath(), "Invalid attribute mapping!");
     }
 
+    /**
+     * Compares by score, then structurally, see
+     * {@link MappingOrderings#ATTR_MAPPINGS}
+     */
     @Override
     public int compareTo(AttrMapping other) {
-        double diff1 = this.getScore() - other.getScore();
-        if (diff1 != 0.0) {
-            if (diff1 > 0) {
-                return +1;
-            } else {
-                return -1;
-            }
-        }
-        int diff2 = getSourcePath().toString()
-                                   .compareTo(other.getSourcePath()
-                                                   .toString());
-        if (diff2 != 0) {
-            return diff2;
-        }
-
-        int diff3 = getTargetPath().toString()
-                                   .compareTo(other.getTargetPath()
-                                                   .toString());
-        if (diff3 != 0) {
-            return diff3;
-        } else {
-            return 0;
-        }
+        return MappingOrderings.ATTR_MAPPINGS.compare((AttrMapping) this, other);
     }
 
 }
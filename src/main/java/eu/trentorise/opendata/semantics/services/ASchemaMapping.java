@@ -65,33 +65,13 @@ abstract class ASchemaMapping implements Comparable<SchemaMapping> {
         return 1.0;
     }
 
+    /**
+     * Compares by score, then structurally, see
+     * {@link MappingOrderings#SCHEMA_MAPPINGS}
+     */
     @Override
     public int compareTo(SchemaMapping other) {
-        double diff1 = this.getScore() - other.getScore();
-        if (diff1 != 0.0) {
-            if (diff1 > 0) {
-                return +1;
-            } else {
-                return -1;
-            }
-        }
-        int diff2 = getMappings().toString()
-                                 .compareTo(other.getMappings()
-                                                 .toString());
-        if (diff2 != 0) {
-            return diff2;
-        }
-
-        if (getTargetEtype() != null) {
-            int diff3 = getTargetEtype().toString()
-                                        .compareTo(other.getTargetEtype()
-                                                        .toString());
-            if (diff3 != 0) {
-                return diff3;
-            }
-        }
-        return 0;
-
+        return MappingOrderings.SCHEMA_MAPPINGS.compare((SchemaMapping) this, other);
     }
 
     /**
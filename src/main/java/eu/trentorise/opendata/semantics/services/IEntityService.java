@@ -131,7 +131,7 @@ public interface IEntityService {
     void exportToRdf(Iterable<String> entityIds, Writer writer);
 
     /**
-     * Writes the given entities in rdf format into the provided writer.
+     * Writes the given entities in JSON-LD format into the provided writer.
      *
      * @param entityIds
      *            the URLs of the entities to export. If list is empty, an
@@ -144,7 +144,8 @@ public interface IEntityService {
     void exportToJsonLd(Iterable<String> entityIds, Writer writer);
 
     /**
-     * Writes the given entities in rdf format into the provided writer.
+     * Writes the given entities in csv format into the provided writer. All
+     * entities must have the same etype, which determines the columns.
      *
      * @param entityURLs
      *            the URLs of the entities to export. If list is empty, an
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Ordering;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orderings of attribute and schema mappings comparing their fields directly,
+ * without turning paths and etypes into strings. Mappings are ordered by
+ * score, then element by element by their paths, then by target etype id, so
+ * the best mapping is the greatest one.
+ *
+ * @author David Leoni
+ */
+public final class MappingOrderings {
+
+    /**
+     * Orders property paths element by element
+     */
+    public static final Ordering<Iterable<String>> PATHS = Ordering.<String> natural().lexicographical();
+
+    /**
+     * Orders attribute mappings by score, then by source path, then by target
+     * path
+     */
+    public static final Ordering<AttrMapping> ATTR_MAPPINGS = new Ordering<AttrMapping>() {
+        @Override
+        public int compare(AttrMapping left, AttrMapping right) {
+            int ret = Double.compare(left.getScore(), right.getScore());
+            if (ret != 0) {
+                return ret;
+            }
+            ret = PATHS.compare(left.getSourcePath(), right.getSourcePath());
+            if (ret != 0) {
+                return ret;
+            }
+            return PATHS.compare(left.getTargetPath(), right.getTargetPath());
+        }
+    };
+
+    private static final Ordering<Iterable<AttrMapping>> ATTR_MAPPING_LISTS = ATTR_MAPPINGS.lexicographical();
+
+    /**
+     * Orders schema mappings by score, then by their attribute mappings, then
+     * by target etype id
+     */
+    public static final Ordering<SchemaMapping> SCHEMA_MAPPINGS = new Ordering<SchemaMapping>() {
+        @Override
+        public int compare(SchemaMapping left, SchemaMapping right) {
+            int ret = Double.compare(left.getScore(), right.getScore());
+            if (ret != 0) {
+                return ret;
+            }
+            ret = ATTR_MAPPING_LISTS.compare(left.getMappings(), right.getMappings());
+            if (ret != 0) {
+                return ret;
+            }
+            return left.getTargetEtype().getId().compareTo(right.getTargetEtype().getId());
+        }
+    };
+
+    private MappingOrderings() {
+    }
+
+    /**
+     * Returns the k greatest candidates according to the comparator, from the
+     * greatest to the least, without sorting all the candidates. Only k
+     * candidates at a time are kept in memory besides the input.
+     *
+     * @see TopK for collecting candidates as they are produced.
+     */
+    public static <T> List<T> topK(Iterable<T> candidates, int k, Comparator<? super T> comparator) {
+        checkNotNull(candidates);
+        checkNotNull(comparator);
+        checkArgument(k >= 0, "k must be non negative, found instead %s", k);
+        return Ordering.from(comparator).greatestOf(candidates, k);
+    }
+
+    /**
+     * Returns the k best schema mappings, from the best to the worst
+     */
+    public static List<SchemaMapping> topSchemaMappings(Iterable<SchemaMapping> candidates, int k) {
+        return topK(candidates, k, SCHEMA_MAPPINGS);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Collects the k greatest elements offered to it, keeping them in a bounded
+ * heap whose head is the least of them. Useful when candidates are produced
+ * one at a time, like during schema matching: once the collector is full,
+ * {@link #threshold()} tells the score a candidate has to beat, so producers
+ * can prune candidates early.
+ *
+ * Not thread safe.
+ *
+ * @author David Leoni
+ */
+public final class TopK<T> {
+
+    private final int k;
+    private final Comparator<? super T> comparator;
+    private final PriorityQueue<T> heap;
+
+    /**
+     * @param k
+     *            the number of elements to keep
+     * @param comparator
+     *            tells which elements are greater
+     */
+    public TopK(int k, Comparator<? super T> comparator) {
+        checkArgument(k >= 0, "k must be non negative, found instead %s", k);
+        checkNotNull(comparator);
+        this.k = k;
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<T>(Math.max(1, k), comparator);
+    }
+
+    /**
+     * Offers an element, which is kept if it is among the k greatest offered
+     * so far.
+     *
+     * @return true if the element was kept
+     */
+    public boolean offer(T element) {
+        checkNotNull(element);
+        if (heap.size() < k) {
+            heap.add(element);
+            return true;
+        }
+        if (k == 0 || comparator.compare(element, heap.peek()) <= 0) {
+            return false;
+        }
+        heap.poll();
+        heap.add(element);
+        return true;
+    }
+
+    /**
+     * True if k elements are kept, so new elements are kept only if they are
+     * greater than {@link #threshold()}
+     */
+    public boolean isFull() {
+        return heap.size() >= k;
+    }
+
+    /**
+     * The least of the kept elements, or null if none is kept.
+     */
+    @Nullable
+    public T threshold() {
+        return heap.peek();
+    }
+
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * Returns the kept elements from the greatest to the least
+     */
+    public List<T> toList() {
+        List<T> ret = new ArrayList(heap);
+        Collections.sort(ret, Collections.reverseOrder(comparator));
+        return ret;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.ingest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * The rows of each source partition which went through the whole pipeline,
+ * either because their entity was created or reused or because they were
+ * rejected. For each partition it keeps a watermark, below which all rows are
+ * done, and the set of done rows above the watermark, which are the rows
+ * completed out of order by parallel workers.
+ *
+ * The state found in the file when the checkpoint is opened is kept apart, so
+ * the parse stage can check which rows to skip without locking. Methods
+ * changing the state are synchronized.
+ *
+ * @author David Leoni
+ */
+final class Checkpoint {
+
+    private static final byte[] MAGIC = { 'O', 'E', 'C', 'P' };
+    private static final int VERSION = 1;
+
+    @Nullable
+    private final File file;
+
+    private final long[] resumedWatermarks;
+    private final BitSet[] resumedDone;
+
+    private final long[] watermarks;
+    private final BitSet[] done;
+
+    /**
+     * Opens a checkpoint, reading the state of a previous run if the file
+     * exists.
+     *
+     * @param file
+     *            the file the state is stored to, or null to keep it only in
+     *            memory
+     * @param partitions
+     *            the number of partitions of the source
+     * @throws IOException
+     *             if the file can't be read or was written for a different
+     *             number of partitions
+     */
+    Checkpoint(@Nullable File file, int partitions) throws IOException {
+        this.file = file;
+        this.watermarks = new long[partitions];
+        this.done = new BitSet[partitions];
+        for (int i = 0; i < partitions; i++) {
+            done[i] = new BitSet();
+        }
+        if (file != null && file.exists()) {
+            read(file, partitions);
+        }
+        this.resumedWatermarks = watermarks.clone();
+        this.resumedDone = new BitSet[partitions];
+        for (int i = 0; i < partitions; i++) {
+            resumedDone[i] = (BitSet) done[i].clone();
+        }
+    }
+
+    /**
+     * Returns true if the row was done when the checkpoint was opened
+     */
+    boolean isResumed(int partition, long row) {
+        long watermark = resumedWatermarks[partition];
+        return row < watermark || (row - watermark <= Integer.MAX_VALUE
+                && resumedDone[partition].get((int) (row - watermark)));
+    }
+
+    /**
+     * Marks the row as done, advancing the watermark of the partition if
+     * possible.
+     */
+    synchronized void done(int partition, long row) {
+        long watermark = watermarks[partition];
+        if (row < watermark) {
+            return;
+        }
+        if (row - watermark >= Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many rows pending in partition " + partition
+                    + " after row " + watermark);
+        }
+        BitSet bits = done[partition];
+        bits.set((int) (row - watermark));
+        int advance = bits.nextClearBit(0);
+        if (advance > 0) {
+            watermarks[partition] = watermark + advance;
+            done[partition] = bits.get(advance, Math.max(advance, bits.length()));
+        }
+    }
+
+    /**
+     * The number of rows done in the partition
+     */
+    synchronized long doneCount(int partition) {
+        return watermarks[partition] + done[partition].cardinality();
+    }
+
+    /**
+     * Writes the state to a temporary file which is then moved in place, so a
+     * crash while saving leaves the previous state intact. Does nothing if the
+     * checkpoint has no file.
+     */
+    synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                dos.write(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeInt(watermarks.length);
+                for (int i = 0; i < watermarks.length; i++) {
+                    dos.writeLong(watermarks[i]);
+                    long[] words = done[i].toLongArray();
+                    dos.writeInt(words.length);
+                    for (long word : words) {
+                        dos.writeLong(word);
+                    }
+                }
+            } finally {
+                dos.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    private void read(File file, int partitions) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            dis.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Not an ingest checkpoint, found header " + Arrays.toString(magic));
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported ingest checkpoint version " + version + ", expected " + VERSION);
+            }
+            int count = dis.readInt();
+            if (count != partitions) {
+                throw new IOException("Checkpoint " + file.getAbsolutePath() + " was written for a source of "
+                        + count + " partitions, found instead " + partitions + " partitions");
+            }
+            for (int i = 0; i < partitions; i++) {
+                long watermark = dis.readLong();
+                int words = dis.readInt();
+                if (watermark < 0 || words < 0) {
+                    throw new IOException("Found corrupted checkpoint state for partition " + i);
+                }
+                long[] bits = new long[words];
+                for (int j = 0; j < words; j++) {
+                    bits[j] = dis.readLong();
+                }
+                watermarks[i] = watermark;
+                done[i] = BitSet.valueOf(bits);
+            }
+        } finally {
+            dis.close();
+        }
+    }
+}
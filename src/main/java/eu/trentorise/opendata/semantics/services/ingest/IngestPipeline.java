@@ -0,0 +1,780 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.ingest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+
+import eu.trentorise.opendata.semantics.exceptions.OpenEntityException;
+import eu.trentorise.opendata.semantics.io.MappedCsvReader;
+import eu.trentorise.opendata.semantics.io.Sink;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.services.AssignmentResult;
+import eu.trentorise.opendata.semantics.services.IEkb;
+import eu.trentorise.opendata.semantics.services.IEntityService;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.IIdentityService;
+import eu.trentorise.opendata.semantics.services.IdResult;
+import eu.trentorise.opendata.semantics.services.matching.CompiledMapping;
+import eu.trentorise.opendata.semantics.validation.ValidationContext;
+import eu.trentorise.opendata.semantics.validation.ValidationResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Ingests the rows of a dataset as entities, running the {@link IngestStage
+ * stages} parse, map, validate, reconcile and create on their own workers.
+ * Stages are connected by bounded queues of batches, so a slow stage makes the
+ * previous ones wait instead of filling the memory.
+ *
+ * Each stage has its own parallelism and batch size. The batch size of the
+ * parse stage is the number of rows put in each batch read from the source,
+ * the batch size of the other stages is the number of items each of their
+ * workers processes at a time, gathering or splitting incoming batches as
+ * needed. In particular it is the number of entities passed to each call of
+ * {@link IIdentityService#assignURL(List, int)} and the number of entities
+ * created between checkpoint saves.
+ *
+ * Rows whose cells can't be converted by the mapping, whose entity is not
+ * valid or which the identity service reports as
+ * {@link AssignmentResult#INVALID} are rejected and passed to the rejection
+ * sink. Entities reported as {@link AssignmentResult#REUSE} are not created
+ * again. Any other error stops the whole run.
+ *
+ * If a checkpoint file is set, the rows which went through the whole
+ * pipeline are recorded in it as the run goes on. Running the pipeline again
+ * on the same source skips them, so after a failure the ingestion resumes
+ * where it stopped. Rows created after the last save of the checkpoint are
+ * ingested again, so they are expected to be reused by the identity service.
+ * To ingest a source anew, delete the checkpoint.
+ *
+ * A pipeline runs one source at a time. Metrics of the current or last run
+ * can be polled from another thread with {@link #getMetrics()}.
+ *
+ * @author David Leoni
+ */
+public final class IngestPipeline {
+
+    private static final Logger LOG = Logger.getLogger(IngestPipeline.class.getName());
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_NUM_CANDIDATES = 1;
+
+    /**
+     * How often workers blocked on a queue check whether the run failed
+     */
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Marks the end of the batches in a queue
+     */
+    private static final List<Item> END = new ArrayList();
+
+    private static final Sink<Object> IGNORE = new Sink<Object>() {
+        @Override
+        public void accept(Object item) {
+        }
+    };
+
+    private final CompiledMapping mapping;
+    private final ValidationContext validation;
+    private final IIdentityService identityService;
+    private final IEntityService entityService;
+    private final int[] parallelism;
+    private final int[] batchSizes;
+    private final int[] queueCapacities;
+    private final int numCandidates;
+    @Nullable
+    private final File checkpointFile;
+    private final Sink<? super Entity> createdSink;
+    private final Sink<? super Rejection> rejectedSink;
+
+    private volatile ImmutableMap<IngestStage, StageMetrics> metrics = ImmutableMap.of();
+
+    private IngestPipeline(Builder builder) {
+        this.mapping = builder.mapping;
+        this.validation = builder.validation;
+        this.identityService = builder.identityService;
+        this.entityService = builder.entityService;
+        this.parallelism = builder.parallelism.clone();
+        this.batchSizes = builder.batchSizes.clone();
+        this.queueCapacities = new int[builder.queueCapacities.length];
+        for (int i = 1; i < queueCapacities.length; i++) {
+            queueCapacities[i] = builder.queueCapacities[i] > 0 ? builder.queueCapacities[i] : 2 * parallelism[i];
+        }
+        this.numCandidates = builder.numCandidates;
+        this.checkpointFile = builder.checkpointFile;
+        this.createdSink = builder.createdSink;
+        this.rejectedSink = builder.rejectedSink;
+    }
+
+    /**
+     * Returns a builder of a pipeline mapping rows with provided mapping and
+     * validating the entities with provided context.
+     */
+    public static Builder builder(CompiledMapping mapping, ValidationContext validation,
+            IIdentityService identityService, IEntityService entityService) {
+        return new Builder(mapping, validation, identityService, entityService);
+    }
+
+    /**
+     * Returns a builder of a pipeline using the services of the ekb. The
+     * target etype of the mapping is resolved once with the etype service of
+     * the ekb.
+     */
+    public static Builder builder(CompiledMapping mapping, IEkb ekb) {
+        checkNotNull(mapping);
+        checkNotNull(ekb);
+        IEtypeService ets = ekb.getEtypeService();
+        return builder(mapping, ValidationContext.of(ets.readEtype(mapping.getEtypeId()), ets),
+                ekb.getIdentityService(), ekb.getEntityService());
+    }
+
+    /**
+     * The number of workers of the stage
+     */
+    public int getParallelism(IngestStage stage) {
+        return parallelism[stage.ordinal()];
+    }
+
+    /**
+     * The number of items processed at a time by each worker of the stage
+     */
+    public int getBatchSize(IngestStage stage) {
+        return batchSizes[stage.ordinal()];
+    }
+
+    /**
+     * The number of batches the queue feeding the stage can hold, 0 for the
+     * parse stage.
+     */
+    public int getQueueCapacity(IngestStage stage) {
+        return queueCapacities[stage.ordinal()];
+    }
+
+    /**
+     * The live metrics of the current run, or of the last one if the
+     * pipeline is not running, in stage order. Empty if the pipeline never
+     * ran.
+     */
+    public ImmutableMap<IngestStage, StageMetrics> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Ingests the rows, which are read by a single parse worker. The
+     * iterable is seen as a single partition: to resume from a checkpoint it
+     * must give the same rows in the same order.
+     *
+     * @param rows
+     *            rows of cells in the order of the header of the mapping,
+     *            excluding the header itself.
+     * @throws OpenEntityException
+     *             if any stage fails. Rows processed until then are recorded
+     *             in the checkpoint.
+     */
+    public IngestReport run(final Iterable<? extends List<?>> rows) {
+        checkNotNull(rows);
+        List<Partition> partitions = new ArrayList();
+        partitions.add(new Partition() {
+            @Override
+            public void read(Sink<List<?>> sink) {
+                for (List<?> row : rows) {
+                    checkNotNull(row, "Found null row!");
+                    sink.accept(row);
+                }
+            }
+        });
+        return run(partitions);
+    }
+
+    /**
+     * Ingests the records of the csv, which is split in as many partitions as
+     * the parallelism of the parse stage, each read by its own worker. Only
+     * the cells of the {@link CompiledMapping#getUsedColumns() used columns}
+     * are decoded, the others are null in the rows of rejections.
+     * Partitions depend on the parallelism, so to resume from a checkpoint the
+     * parallelism of the parse stage must not change.
+     *
+     * @throws OpenEntityException
+     *             if the csv can't be split or any stage fails. Rows processed
+     *             until then are recorded in the checkpoint.
+     */
+    public IngestReport run(MappedCsvReader reader) {
+        checkNotNull(reader);
+        List<MappedCsvReader.Split> splits;
+        try {
+            splits = reader.split(getParallelism(IngestStage.PARSE));
+        } catch (IOException ex) {
+            throw new OpenEntityException("Couldn't split csv to ingest!", ex);
+        }
+        final int[] usedColumns = Ints.toArray(mapping.getUsedColumns());
+        List<Partition> partitions = new ArrayList();
+        for (final MappedCsvReader.Split split : splits) {
+            partitions.add(new Partition() {
+                @Override
+                public void read(final Sink<List<?>> sink) throws IOException {
+                    split.read(new Sink<MappedCsvReader.Record>() {
+                        @Override
+                        public void accept(MappedCsvReader.Record record) {
+                            String[] cells = new String[record.size()];
+                            for (int column : usedColumns) {
+                                if (column < cells.length) {
+                                    cells[column] = record.get(column);
+                                }
+                            }
+                            sink.accept(Arrays.asList(cells));
+                        }
+                    });
+                }
+            });
+        }
+        return run(partitions);
+    }
+
+    private synchronized IngestReport run(List<Partition> partitions) {
+        Checkpoint checkpoint;
+        try {
+            checkpoint = new Checkpoint(checkpointFile, partitions.size());
+        } catch (IOException ex) {
+            throw new OpenEntityException("Couldn't open ingest checkpoint!", ex);
+        }
+        return new Run(partitions, checkpoint).execute();
+    }
+
+    /**
+     * A source of rows read by a parse worker
+     */
+    private interface Partition {
+
+        /**
+         * Passes the rows to the sink, always in the same order
+         */
+        void read(Sink<List<?>> sink) throws IOException;
+    }
+
+    /**
+     * A row travelling through the stages
+     */
+    private static final class Item {
+
+        final int partition;
+        final long row;
+        final List<?> cells;
+        @Nullable
+        Entity entity;
+
+        Item(int partition, long row, List<?> cells) {
+            this.partition = partition;
+            this.row = row;
+            this.cells = cells;
+        }
+    }
+
+    /**
+     * Thrown to unwind a worker once the run failed
+     */
+    private static final class Stop extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The state of a single run
+     */
+    private final class Run {
+
+        private final List<Partition> partitions;
+        private final Checkpoint checkpoint;
+        private final List<BlockingQueue<List<Item>>> queues = new ArrayList();
+        private final ImmutableMap<IngestStage, StageMetrics> runMetrics;
+        private final AtomicInteger[] remaining = new AtomicInteger[IngestStage.values().length];
+        private final AtomicInteger nextPartition = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private ExecutorService executor;
+
+        Run(List<Partition> partitions, Checkpoint checkpoint) {
+            this.partitions = partitions;
+            this.checkpoint = checkpoint;
+            ImmutableMap.Builder<IngestStage, StageMetrics> metricsBuilder = ImmutableMap.builder();
+            for (IngestStage stage : IngestStage.values()) {
+                int i = stage.ordinal();
+                BlockingQueue<List<Item>> queue = i == 0 ? null
+                        : new ArrayBlockingQueue<List<Item>>(queueCapacities[i]);
+                queues.add(queue);
+                remaining[i] = new AtomicInteger(parallelism[i]);
+                metricsBuilder.put(stage, new StageMetrics(stage, parallelism[i], batchSizes[i], queue,
+                        queueCapacities[i]));
+            }
+            this.runMetrics = metricsBuilder.build();
+        }
+
+        IngestReport execute() {
+            metrics = runMetrics;
+            int threads = 0;
+            for (int p : parallelism) {
+                threads += p;
+            }
+            executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (IngestStage stage : IngestStage.values()) {
+                    for (int i = 0; i < parallelism[stage.ordinal()]; i++) {
+                        executor.execute(new Worker(stage));
+                    }
+                }
+                executor.shutdown();
+                while (!executor.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // workers stop by themselves, either at the end of the source or on failure
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(null, ex);
+            } finally {
+                executor.shutdownNow();
+            }
+
+            try {
+                checkpoint.save();
+            } catch (IOException ex) {
+                if (failure.get() == null) {
+                    throw new OpenEntityException("Couldn't save ingest checkpoint!", ex);
+                }
+                LOG.log(Level.WARNING, "Couldn't save ingest checkpoint", ex);
+            }
+            if (failure.get() != null) {
+                throw new OpenEntityException("Ingestion failed, run the pipeline again to resume from last checkpoint",
+                        failure.get());
+            }
+            return new IngestReport(skipped.get(), created.get(), reused.get(), rejected.get(), runMetrics);
+        }
+
+        /**
+         * Records the first failure and stops all the workers
+         */
+        void fail(@Nullable IngestStage stage, Throwable ex) {
+            if (failure.compareAndSet(null, ex)) {
+                LOG.log(Level.SEVERE, stage == null ? "Ingestion interrupted" : "Ingest stage " + stage + " failed",
+                        ex);
+                executor.shutdownNow();
+            }
+        }
+
+        void checkRunning() {
+            if (failure.get() != null) {
+                throw new Stop();
+            }
+        }
+
+        List<Item> take(IngestStage stage) {
+            BlockingQueue<List<Item>> queue = queues.get(stage.ordinal());
+            try {
+                while (true) {
+                    checkRunning();
+                    List<Item> ret = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (ret != null) {
+                        return ret;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(stage, ex);
+                throw new Stop();
+            }
+        }
+
+        /**
+         * Puts the batch in the queue feeding the stage, waiting for room if
+         * needed.
+         */
+        void put(IngestStage stage, List<Item> batch) {
+            BlockingQueue<List<Item>> queue = queues.get(stage.ordinal());
+            try {
+                while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkRunning();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(stage, ex);
+                throw new Stop();
+            }
+            runMetrics.get(stage).sampleQueue();
+        }
+
+        void reject(IngestStage stage, Item item, String message) {
+            runMetrics.get(stage).reject();
+            rejected.incrementAndGet();
+            Rejection rejection = new Rejection(stage, item.partition, item.row, item.cells, item.entity, message);
+            synchronized (rejectedSink) {
+                rejectedSink.accept(rejection);
+            }
+            checkpoint.done(item.partition, item.row);
+        }
+
+        List<Item> map(List<Item> items) {
+            List<Item> ret = new ArrayList(items.size());
+            for (Item item : items) {
+                try {
+                    item.entity = mapping.transform(item.cells);
+                    ret.add(item);
+                } catch (IllegalArgumentException ex) {
+                    reject(IngestStage.MAP, item, String.valueOf(ex.getMessage()));
+                }
+            }
+            return ret;
+        }
+
+        List<Item> validate(List<Item> items) {
+            List<Item> ret = new ArrayList(items.size());
+            for (Item item : items) {
+                ValidationResult result = validation.validateEntity(item.entity, true);
+                if (result.isValid()) {
+                    ret.add(item);
+                } else {
+                    reject(IngestStage.VALIDATE, item, result.getPath().isEmpty() ? result.getMessage()
+                            : "Found invalid attribute " + result.getPath() + ": " + result.getMessage());
+                }
+            }
+            return ret;
+        }
+
+        List<Item> reconcile(List<Item> items) {
+            List<Entity> entities = new ArrayList(items.size());
+            for (Item item : items) {
+                entities.add(item.entity);
+            }
+            List<IdResult> results = identityService.assignURL(entities, numCandidates);
+            if (results.size() != items.size()) {
+                throw new OpenEntityException("Identity service returned " + results.size() + " results for "
+                        + items.size() + " entities!");
+            }
+            List<Item> ret = new ArrayList(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                Item item = items.get(i);
+                IdResult result = results.get(i);
+                switch (result.getAssignmentResult()) {
+                case NEW:
+                    if (result.getResultEntity() != null) {
+                        item.entity = result.getResultEntity();
+                    }
+                    ret.add(item);
+                    break;
+                case REUSE:
+                    reused.incrementAndGet();
+                    checkpoint.done(item.partition, item.row);
+                    break;
+                default:
+                    reject(IngestStage.RECONCILE, item, "Identity service couldn't reconcile the entity");
+                }
+            }
+            return ret;
+        }
+
+        List<Item> create(List<Item> items) throws IOException {
+            for (Item item : items) {
+                Entity entity = entityService.createEntity(item.entity);
+                created.incrementAndGet();
+                synchronized (createdSink) {
+                    createdSink.accept(entity);
+                }
+                checkpoint.done(item.partition, item.row);
+            }
+            checkpoint.save();
+            return items;
+        }
+
+        /**
+         * Reads the rows of a partition into batches for the map stage
+         */
+        private final class PartitionReader implements Sink<List<?>> {
+
+            private final int partition;
+            private final int batchSize = getBatchSize(IngestStage.PARSE);
+            private final StageMetrics stageMetrics = runMetrics.get(IngestStage.PARSE);
+            private List<Item> batch = new ArrayList();
+            private long row;
+            private long batchStart = System.nanoTime();
+
+            PartitionReader(int partition) {
+                this.partition = partition;
+            }
+
+            @Override
+            public void accept(List<?> cells) {
+                checkRunning();
+                if (checkpoint.isResumed(partition, row)) {
+                    skipped.incrementAndGet();
+                } else {
+                    batch.add(new Item(partition, row, cells));
+                    if (batch.size() >= batchSize) {
+                        flush();
+                    }
+                }
+                row++;
+            }
+
+            void flush() {
+                if (batch.isEmpty()) {
+                    return;
+                }
+                stageMetrics.batch(batch.size(), batch.size(), System.nanoTime() - batchStart);
+                put(IngestStage.MAP, batch);
+                batch = new ArrayList();
+                batchStart = System.nanoTime();
+            }
+        }
+
+        private final class Worker implements Runnable {
+
+            private final IngestStage stage;
+
+            Worker(IngestStage stage) {
+                this.stage = stage;
+            }
+
+            @Override
+            public void run() {
+                StageMetrics stageMetrics = runMetrics.get(stage);
+                try {
+                    if (stage == IngestStage.PARSE) {
+                        stageMetrics.start();
+                        parse();
+                    } else {
+                        consume(stageMetrics);
+                    }
+                } catch (Stop ex) {
+                    // the run failed elsewhere
+                } catch (Throwable ex) {
+                    fail(stage, ex);
+                } finally {
+                    if (remaining[stage.ordinal()].decrementAndGet() == 0) {
+                        stageMetrics.end();
+                        if (stage != IngestStage.CREATE && failure.get() == null) {
+                            try {
+                                put(next(stage), END);
+                            } catch (Stop ex) {
+                                // the run failed elsewhere
+                            }
+                        }
+                    }
+                }
+            }
+
+            private void parse() throws IOException {
+                int partition;
+                while ((partition = nextPartition.getAndIncrement()) < partitions.size()) {
+                    PartitionReader reader = new PartitionReader(partition);
+                    partitions.get(partition).read(reader);
+                    reader.flush();
+                }
+            }
+
+            private void consume(StageMetrics stageMetrics) throws IOException {
+                int batchSize = getBatchSize(stage);
+                List<Item> buffer = new ArrayList();
+                while (true) {
+                    List<Item> batch = take(stage);
+                    if (batch == END) {
+                        // lets the other workers of the stage see the end too
+                        put(stage, END);
+                        break;
+                    }
+                    stageMetrics.start();
+                    buffer.addAll(batch);
+                    while (buffer.size() >= batchSize) {
+                        List<Item> head = buffer.subList(0, batchSize);
+                        List<Item> items = new ArrayList(head);
+                        head.clear();
+                        process(stageMetrics, items);
+                    }
+                }
+                if (!buffer.isEmpty()) {
+                    process(stageMetrics, buffer);
+                }
+            }
+
+            private void process(StageMetrics stageMetrics, List<Item> items) throws IOException {
+                long start = System.nanoTime();
+                List<Item> passed;
+                switch (stage) {
+                case MAP:
+                    passed = map(items);
+                    break;
+                case VALIDATE:
+                    passed = validate(items);
+                    break;
+                case RECONCILE:
+                    passed = reconcile(items);
+                    break;
+                case CREATE:
+                    passed = create(items);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected stage " + stage);
+                }
+                stageMetrics.batch(items.size(), passed.size(), System.nanoTime() - start);
+                if (stage != IngestStage.CREATE && !passed.isEmpty()) {
+                    put(next(stage), passed);
+                }
+            }
+        }
+    }
+
+    private static IngestStage next(IngestStage stage) {
+        return IngestStage.values()[stage.ordinal() + 1];
+    }
+
+    /**
+     * Builder of {@link IngestPipeline}. By default map and validate stages
+     * get one worker per processor and the other stages a single worker, all
+     * stages have batches of {@link #DEFAULT_BATCH_SIZE} items and queues hold
+     * twice as many batches as the workers of the stage they feed.
+     */
+    public static final class Builder {
+
+        private final CompiledMapping mapping;
+        private final ValidationContext validation;
+        private final IIdentityService identityService;
+        private final IEntityService entityService;
+        private final int[] parallelism = new int[IngestStage.values().length];
+        private final int[] batchSizes = new int[IngestStage.values().length];
+        private final int[] queueCapacities = new int[IngestStage.values().length];
+        private int numCandidates = DEFAULT_NUM_CANDIDATES;
+        @Nullable
+        private File checkpointFile;
+        private Sink<? super Entity> createdSink = IGNORE;
+        private Sink<? super Rejection> rejectedSink = IGNORE;
+
+        private Builder(CompiledMapping mapping, ValidationContext validation, IIdentityService identityService,
+                IEntityService entityService) {
+            checkNotNull(mapping);
+            checkNotNull(validation);
+            checkNotNull(identityService);
+            checkNotNull(entityService);
+            this.mapping = mapping;
+            this.validation = validation;
+            this.identityService = identityService;
+            this.entityService = entityService;
+            Arrays.fill(parallelism, 1);
+            int processors = Runtime.getRuntime().availableProcessors();
+            parallelism[IngestStage.MAP.ordinal()] = processors;
+            parallelism[IngestStage.VALIDATE.ordinal()] = processors;
+            Arrays.fill(batchSizes, DEFAULT_BATCH_SIZE);
+        }
+
+        /**
+         * Sets the number of workers of the stage
+         */
+        public Builder setParallelism(IngestStage stage, int parallelism) {
+            checkNotNull(stage);
+            checkArgument(parallelism > 0, "Parallelism must be positive, found %s", parallelism);
+            this.parallelism[stage.ordinal()] = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the number of items processed at a time by each worker of the
+         * stage
+         */
+        public Builder setBatchSize(IngestStage stage, int batchSize) {
+            checkNotNull(stage);
+            checkArgument(batchSize > 0, "Batch size must be positive, found %s", batchSize);
+            this.batchSizes[stage.ordinal()] = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of batches the queue feeding the stage can hold.
+         * The parse stage has no input queue.
+         */
+        public Builder setQueueCapacity(IngestStage stage, int capacity) {
+            checkNotNull(stage);
+            checkArgument(stage != IngestStage.PARSE, "Parse stage has no input queue!");
+            checkArgument(capacity > 0, "Queue capacity must be positive, found %s", capacity);
+            this.queueCapacities[stage.ordinal()] = capacity;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of candidates asked to the identity service
+         * for each entity
+         */
+        public Builder setNumCandidates(int numCandidates) {
+            checkArgument(numCandidates > 0, "Number of candidates must be positive, found %s", numCandidates);
+            this.numCandidates = numCandidates;
+            return this;
+        }
+
+        /**
+         * Sets the file recording the ingested rows. If it exists when the
+         * pipeline runs, rows recorded in it are skipped.
+         */
+        public Builder setCheckpoint(File checkpointFile) {
+            checkNotNull(checkpointFile);
+            this.checkpointFile = checkpointFile;
+            return this;
+        }
+
+        /**
+         * Sets the sink receiving the entities as returned by
+         * {@link IEntityService#createEntity(Entity)}. Calls to the sink are
+         * serialized, in no particular order.
+         */
+        public Builder setCreatedSink(Sink<? super Entity> createdSink) {
+            checkNotNull(createdSink);
+            this.createdSink = createdSink;
+            return this;
+        }
+
+        /**
+         * Sets the sink receiving the rejected rows. Calls to the sink are
+         * serialized, in no particular order.
+         */
+        public Builder setRejectedSink(Sink<? super Rejection> rejectedSink) {
+            checkNotNull(rejectedSink);
+            this.rejectedSink = rejectedSink;
+            return this;
+        }
+
+        public IngestPipeline build() {
+            return new IngestPipeline(this);
+        }
+    }
+}
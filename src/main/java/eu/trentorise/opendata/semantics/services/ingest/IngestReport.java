@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.ingest;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Outcome of an {@link IngestPipeline} run which went through the whole
+ * source.
+ *
+ * @author David Leoni
+ */
+public final class IngestReport {
+
+    private final long skipped;
+    private final long created;
+    private final long reused;
+    private final long rejected;
+    private final ImmutableMap<IngestStage, StageMetrics> metrics;
+
+    IngestReport(long skipped, long created, long reused, long rejected, Map<IngestStage, StageMetrics> metrics) {
+        this.skipped = skipped;
+        this.created = created;
+        this.reused = reused;
+        this.rejected = rejected;
+        this.metrics = ImmutableMap.copyOf(metrics);
+    }
+
+    /**
+     * The number of source rows skipped because they were already ingested
+     * by a previous run
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * The number of entities stored with the entity service
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * The number of rows the identity service matched with existing entities
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    /**
+     * The number of rows rejected by any stage
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * The final metrics of each stage, in stage order
+     */
+    public ImmutableMap<IngestStage, StageMetrics> getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "IngestReport{skipped=" + skipped + ", created=" + created + ", reused=" + reused + ", rejected="
+                + rejected + ", metrics=" + metrics.values() + "}";
+    }
+}
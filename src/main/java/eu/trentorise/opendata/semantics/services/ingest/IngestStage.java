@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.ingest;
+
+/**
+ * The stages of an {@link IngestPipeline}, in the order items flow through
+ * them.
+ *
+ * @author David Leoni
+ */
+public enum IngestStage {
+    /** Reads the rows of the source in batches */
+    PARSE,
+    /** Transforms rows into synthetic entities with a compiled mapping */
+    MAP,
+    /** Validates the synthetic entities against their etypes */
+    VALIDATE,
+    /** Reconciles entities against existing ones with the identity service */
+    RECONCILE,
+    /** Stores new entities with the entity service */
+    CREATE
+}
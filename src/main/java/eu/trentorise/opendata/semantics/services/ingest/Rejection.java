@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.ingest;
+
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A source row discarded by a stage of an {@link IngestPipeline}, because it
+ * couldn't be mapped, its entity was not valid or the identity service
+ * couldn't reconcile it.
+ *
+ * @author David Leoni
+ */
+public final class Rejection {
+
+    private final IngestStage stage;
+    private final int partition;
+    private final long row;
+    private final List<?> cells;
+    @Nullable
+    private final Entity entity;
+    private final String message;
+
+    Rejection(IngestStage stage, int partition, long row, List<?> cells, @Nullable Entity entity, String message) {
+        this.stage = stage;
+        this.partition = partition;
+        this.row = row;
+        this.cells = cells;
+        this.entity = entity;
+        this.message = message;
+    }
+
+    /**
+     * The stage which rejected the row
+     */
+    public IngestStage getStage() {
+        return stage;
+    }
+
+    /**
+     * The index of the source partition holding the row, see
+     * {@link IngestPipeline#run(eu.trentorise.opendata.semantics.io.MappedCsvReader)}
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    /**
+     * The index of the row in its partition, starting from 0 and excluding
+     * the header
+     */
+    public long getRow() {
+        return row;
+    }
+
+    /**
+     * The cells of the rejected row
+     */
+    public List<?> getCells() {
+        return cells;
+    }
+
+    /**
+     * The entity the row was mapped to, or null if the row was rejected by
+     * the map stage.
+     */
+    @Nullable
+    public Entity getEntity() {
+        return entity;
+    }
+
+    /**
+     * The reason of the rejection
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "Rejection{stage=" + stage + ", partition=" + partition + ", row=" + row + ", message=" + message
+                + "}";
+    }
+}
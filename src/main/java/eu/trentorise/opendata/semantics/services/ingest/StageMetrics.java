@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.ingest;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Live counters of a stage of an {@link IngestPipeline} run. Counters are
+ * updated by the stage workers while the pipeline runs, so they can be polled
+ * from another thread to monitor progress.
+ *
+ * @author David Leoni
+ */
+public final class StageMetrics {
+
+    private final IngestStage stage;
+    private final int parallelism;
+    private final int batchSize;
+    @Nullable
+    private final Queue<?> input;
+    private final int queueCapacity;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong itemsIn = new AtomicLong();
+    private final AtomicLong itemsOut = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong startNanos = new AtomicLong();
+    private volatile long endNanos;
+
+    /**
+     * @param input
+     *            the queue feeding the stage, null for the parse stage
+     */
+    StageMetrics(IngestStage stage, int parallelism, int batchSize, @Nullable Queue<?> input, int queueCapacity) {
+        this.stage = stage;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.input = input;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Marks the stage as started, if it wasn't already
+     */
+    void start() {
+        startNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    void end() {
+        endNanos = System.nanoTime();
+    }
+
+    void sampleQueue() {
+        if (input == null) {
+            return;
+        }
+        int depth = input.size();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    void batch(int in, int out, long nanos) {
+        batches.incrementAndGet();
+        itemsIn.addAndGet(in);
+        itemsOut.addAndGet(out);
+        busyNanos.addAndGet(nanos);
+    }
+
+    void reject() {
+        rejected.incrementAndGet();
+    }
+
+    public IngestStage getStage() {
+        return stage;
+    }
+
+    /**
+     * The number of workers of the stage
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The number of items processed by the stage at a time
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * The number of batches processed so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * The number of items which entered the stage. For the parse stage it's
+     * the number of read rows, excluding rows skipped because already
+     * ingested by a previous run.
+     */
+    public long getItemsIn() {
+        return itemsIn.get();
+    }
+
+    /**
+     * The number of items passed to the next stage
+     */
+    public long getItemsOut() {
+        return itemsOut.get();
+    }
+
+    /**
+     * The number of items rejected by the stage
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Time spent by all the workers of the stage processing batches,
+     * excluding the time spent waiting on queues.
+     */
+    public long getBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+    }
+
+    /**
+     * Time elapsed since the stage received its first batch, up to now if the
+     * stage is still running or to its end otherwise.
+     */
+    public long getElapsedMillis() {
+        long start = startNanos.get();
+        if (start == 0) {
+            return 0;
+        }
+        long end = endNanos;
+        return TimeUnit.NANOSECONDS.toMillis((end == 0 ? System.nanoTime() : end) - start);
+    }
+
+    /**
+     * Items entered per second of elapsed time, see
+     * {@link #getElapsedMillis()}
+     */
+    public double getThroughput() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : getItemsIn() * 1000.0 / elapsed;
+    }
+
+    /**
+     * The number of batches currently waiting in the queue feeding the stage.
+     * Always 0 for the parse stage.
+     */
+    public int getQueueDepth() {
+        return input == null ? 0 : input.size();
+    }
+
+    /**
+     * The maximum number of batches the queue feeding the stage can hold.
+     * Always 0 for the parse stage.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * The maximum queue depth observed so far, see {@link #getQueueDepth()}
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    @Override
+    public String toString() {
+        return "StageMetrics{stage=" + stage + ", batches=" + getBatches() + ", itemsIn=" + getItemsIn()
+                + ", itemsOut=" + getItemsOut() + ", rejected=" + getRejected() + ", busyMillis="
+                + getBusyMillis() + ", elapsedMillis=" + getElapsedMillis() + ", queueDepth=" + getQueueDepth()
+                + "/" + queueCapacity + ", maxQueueDepth=" + getMaxQueueDepth() + "}";
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.services.AttrMapping;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.ISchemaMatchingService;
+import eu.trentorise.opendata.semantics.services.SchemaMapping;
+import eu.trentorise.opendata.traceprov.data.DcatMetadata;
+import eu.trentorise.opendata.traceprov.types.TraceType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Schema matching service remembering the mappings computed by another
+ * service, so schemas which are uploaded again and again are matched only
+ * once. Results are kept in memory and persisted as JSON files in a local
+ * directory, so they survive restarts.
+ *
+ * Results are keyed by a SHA-256 fingerprint of:
+ * <ul>
+ * <li>the string representation of the source schema</li>
+ * <li>the string representation of the relevant part of the dcat metadata,
+ * as selected by the function given at construction, by default
+ * {@link #DEFAULT_METADATA_KEY}</li>
+ * <li>the names and inferred datatypes of the columns of the whole data
+ * sample, profiled like {@link SourceColumn#fromData(Object)} does. Actual
+ * values are not part of the key, so samples of the same schema with
+ * different values share the results.</li>
+ * <li>the version of the etype catalog, see
+ * {@link #catalogVersion(Collection)}</li>
+ * </ul>
+ * The etype catalog and its version are read the first time they are needed
+ * and then kept for a time to live given at construction, by default
+ * {@link #DEFAULT_CATALOG_TTL_MILLIS}, or until {@link #invalidateCatalog()}
+ * is called. So after changing etypes, cached mappings are dropped at most
+ * after the time to live, or right away if the catalog is invalidated.
+ *
+ * Failing to read or write the file store is logged and otherwise ignored.
+ * The service is thread safe, although concurrent misses for the same key may
+ * compute the mappings more than once.
+ *
+ * @author David Leoni
+ */
+public class CachingSchemaMatchingService implements ISchemaMatchingService {
+
+    private static final Logger LOG = Logger.getLogger(CachingSchemaMatchingService.class.getName());
+
+    /**
+     * Default maximum number of results kept in memory
+     */
+    public static final int DEFAULT_MAX_CACHED = 1000;
+
+    /**
+     * Default number of milliseconds the etype catalog is kept before being
+     * read again
+     */
+    public static final long DEFAULT_CATALOG_TTL_MILLIS = 60000;
+
+    /**
+     * Selects from dcat metadata the dataset title, description and keywords
+     * and the distribution format and media type, leaving out fields which
+     * change at each upload like modification dates and download URLs.
+     */
+    public static final Function<DcatMetadata, Object> DEFAULT_METADATA_KEY = new Function<DcatMetadata, Object>() {
+        @Override
+        public Object apply(DcatMetadata dcatMetadata) {
+            return Arrays.asList(dcatMetadata.getDataset().getTitle(), dcatMetadata.getDataset().getDescription(),
+                    dcatMetadata.getDataset().getKeywords(), dcatMetadata.getDistribution().getFormat(),
+                    dcatMetadata.getDistribution().getMediaType());
+        }
+    };
+
+    private static final String FILE_EXTENSION = ".json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ISchemaMatchingService delegate;
+    private final IEtypeService ets;
+    private final File directory;
+    private final Function<? super DcatMetadata, ?> metadataKey;
+    private final Cache<String, List<SchemaMapping>> cache;
+    private final long catalogTtlNanos;
+
+    /**
+     * The etype catalog, or null if it must be read again
+     */
+    @Nullable
+    private volatile Catalog catalog;
+
+    /**
+     * Etypes by id together with their version
+     */
+    private static final class Catalog {
+
+        final Map<String, Etype> etypesById;
+        final String version;
+        final long readNanos;
+
+        Catalog(List<Etype> etypes, long readNanos) {
+            this.readNanos = readNanos;
+            this.etypesById = new HashMap();
+            for (Etype etype : etypes) {
+                etypesById.put(etype.getId(), etype);
+            }
+            this.version = catalogVersion(etypes);
+        }
+    }
+
+    /**
+     * Creates a caching service using {@link #DEFAULT_METADATA_KEY} to select
+     * the relevant dcat metadata.
+     *
+     * @param directory
+     *            directory of the file store, created if it doesn't exist
+     */
+    public CachingSchemaMatchingService(ISchemaMatchingService delegate, IEtypeService ets, File directory) {
+        this(delegate, ets, directory, DEFAULT_METADATA_KEY, DEFAULT_MAX_CACHED, DEFAULT_CATALOG_TTL_MILLIS);
+    }
+
+    /**
+     * @param directory
+     *            directory of the file store, created if it doesn't exist
+     * @param metadataKey
+     *            extracts from the dcat metadata the fields the delegate
+     *            matching depends on. Fields which change at each upload,
+     *            like modification dates, should be left out, otherwise the
+     *            cache will always miss.
+     * @param maxCached
+     *            maximum number of results kept in memory. The file store is
+     *            not bounded.
+     * @param catalogTtlMillis
+     *            milliseconds the etype catalog is kept before being read
+     *            again. With 0 it is read at each request.
+     * @throws IllegalArgumentException
+     *             if the directory can't be created
+     */
+    public CachingSchemaMatchingService(ISchemaMatchingService delegate, IEtypeService ets, File directory,
+            Function<? super DcatMetadata, ?> metadataKey, int maxCached, long catalogTtlMillis) {
+        checkNotNull(delegate);
+        checkNotNull(ets);
+        checkNotNull(directory);
+        checkNotNull(metadataKey);
+        checkArgument(maxCached >= 0, "Maximum number of cached results must be non negative, found instead %s",
+                maxCached);
+        checkArgument(catalogTtlMillis >= 0, "Catalog time to live must be non negative, found instead %s",
+                catalogTtlMillis);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Couldn't create cache directory " + directory.getAbsolutePath());
+        }
+        this.delegate = delegate;
+        this.ets = ets;
+        this.directory = directory;
+        this.metadataKey = metadataKey;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxCached).build();
+        this.catalogTtlNanos = TimeUnit.MILLISECONDS.toNanos(catalogTtlMillis);
+    }
+
+    /**
+     * Returns the cached mappings if present, otherwise computes them with
+     * the delegate service and stores them.
+     */
+    @Override
+    public List<SchemaMapping> matchSchemas(DcatMetadata dcatMetadata, TraceType schema, @Nullable Object data) {
+        Catalog cat = catalog;
+        long now = System.nanoTime();
+        if (cat == null || now - cat.readNanos >= catalogTtlNanos) {
+            cat = new Catalog(ets.readAllEtypes(), now);
+            catalog = cat;
+        }
+        String key = fingerprint(dcatMetadata, schema, data, cat.version);
+
+        List<SchemaMapping> ret = cache.getIfPresent(key);
+        if (ret != null) {
+            return ret;
+        }
+        ret = load(key, cat.etypesById);
+        if (ret == null) {
+            ret = ImmutableList.copyOf(delegate.matchSchemas(dcatMetadata, schema, data));
+            store(key, ret);
+        }
+        cache.put(key, ret);
+        return ret;
+    }
+
+    /**
+     * Makes the next request read the etype catalog again. To be called
+     * whenever etypes change, so mappings computed against the old catalog
+     * are not used anymore without waiting for the catalog time to live.
+     */
+    public void invalidateCatalog() {
+        catalog = null;
+    }
+
+    /**
+     * Removes all the results from memory and from the file store
+     */
+    public void clear() {
+        cache.invalidateAll();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_EXTENSION) && !file.delete()) {
+                LOG.log(Level.WARNING, "Couldn''t delete cached schema mappings {0}", file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a matching request, as hex string. All the rows of
+     * the data are profiled, like the delegate service is expected to do.
+     *
+     * @param catalogVersion
+     *            see {@link #catalogVersion(Collection)}
+     */
+    public String fingerprint(@Nullable DcatMetadata dcatMetadata, @Nullable TraceType schema,
+            @Nullable Object data, String catalogVersion) {
+        checkNotNull(catalogVersion);
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, catalogVersion);
+        putString(hasher, String.valueOf(schema));
+        putString(hasher, String.valueOf(dcatMetadata == null ? null : metadataKey.apply(dcatMetadata)));
+        for (SourceColumn column : SourceColumn.fromData(data)) {
+            putString(hasher, column.getName());
+            putString(hasher, column.getDatatype());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Returns a SHA-256 hex digest of the parts of the etypes which may
+     * affect matching, that is ids, names, concepts and attribute
+     * definitions. It doesn't depend on the order of etypes and attribute
+     * definitions.
+     */
+    public static String catalogVersion(Collection<Etype> etypes) {
+        checkNotNull(etypes);
+        List<Etype> sorted = new ArrayList(etypes);
+        Collections.sort(sorted, new Ordering<Etype>() {
+            @Override
+            public int compare(Etype a, Etype b) {
+                return a.getId().compareTo(b.getId());
+            }
+        });
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Etype etype : sorted) {
+            putString(hasher, etype.getId());
+            putDict(hasher, etype.getName());
+            putString(hasher, etype.getConceptId());
+            List<String> attrDefIds = Ordering.natural().sortedCopy(etype.getAttrDefs().keySet());
+            hasher.putInt(attrDefIds.size());
+            for (String attrDefId : attrDefIds) {
+                AttrDef attrDef = etype.getAttrDefs().get(attrDefId);
+                putString(hasher, attrDefId);
+                putDict(hasher, attrDef.getName());
+                putString(hasher, attrDef.getConceptId());
+                putString(hasher, attrDef.getType().asString());
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Puts the string prefixed by its length, so consecutive strings can't
+     * be confused
+     */
+    private static void putString(Hasher hasher, String string) {
+        hasher.putInt(string.length());
+        hasher.putString(string, StandardCharsets.UTF_8);
+    }
+
+    private static void putDict(Hasher hasher, Dict dict) {
+        List<Locale> locales = Ordering.usingToString().sortedCopy(dict.locales());
+        hasher.putInt(locales.size());
+        for (Locale locale : locales) {
+            putString(hasher, locale.toString());
+            List<String> strings = dict.strings(locale);
+            hasher.putInt(strings.size());
+            for (String string : strings) {
+                putString(hasher, string);
+            }
+        }
+    }
+
+    private File file(String key) {
+        return new File(directory, key + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the mappings stored with the given key, or returns null if they
+     * are missing, unreadable or refer to etypes not in the catalog.
+     */
+    @Nullable
+    private List<SchemaMapping> load(String key, Map<String, Etype> etypesById) {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            List<Map<String, Object>> stored = MAPPER.readValue(file, List.class);
+            ImmutableList.Builder<SchemaMapping> ret = ImmutableList.builder();
+            for (Map<String, Object> schemaMapping : stored) {
+                Etype etype = etypesById.get((String) schemaMapping.get("etypeId"));
+                if (etype == null) {
+                    LOG.log(Level.WARNING, "Cached schema mappings {0} refer to unknown etype {1}, ignoring them",
+                            new Object[] { file.getAbsolutePath(), schemaMapping.get("etypeId") });
+                    return null;
+                }
+                List<AttrMapping> attrMappings = new ArrayList();
+                for (Map<String, Object> attrMapping : (List<Map<String, Object>>) schemaMapping.get("mappings")) {
+                    attrMappings.add(AttrMapping.of((List<String>) attrMapping.get("sourcePath"),
+                            (List<String>) attrMapping.get("targetPath"),
+                            ((Number) attrMapping.get("score")).doubleValue()));
+                }
+                ret.add(SchemaMapping.of(attrMappings, etype, ((Number) schemaMapping.get("score")).doubleValue()));
+            }
+            return ret.build();
+        } catch (IOException | RuntimeException ex) {
+            LOG.log(Level.WARNING, "Couldn't read cached schema mappings " + file.getAbsolutePath()
+                    + ", ignoring them", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the mappings to a temporary file which is then moved in place,
+     * so readers never see partially written files.
+     */
+    private void store(String key, List<SchemaMapping> schemaMappings) {
+        List<Map<String, Object>> stored = new ArrayList();
+        for (SchemaMapping schemaMapping : schemaMappings) {
+            List<Map<String, Object>> attrMappings = new ArrayList();
+            for (AttrMapping attrMapping : schemaMapping.getMappings()) {
+                Map<String, Object> m = new HashMap();
+                m.put("sourcePath", attrMapping.getSourcePath());
+                m.put("targetPath", attrMapping.getTargetPath());
+                m.put("score", attrMapping.getScore());
+                attrMappings.add(m);
+            }
+            Map<String, Object> m = new HashMap();
+            m.put("etypeId", schemaMapping.getTargetEtype().getId());
+            m.put("score", schemaMapping.getScore());
+            m.put("mappings", attrMappings);
+            stored.add(m);
+        }
+        File file = file(key);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(key, ".tmp", directory);
+            MAPPER.writeValue(tmp, stored);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Couldn't write cached schema mappings " + file.getAbsolutePath(), ex);
+            if (tmp != null && tmp.exists() && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import eu.trentorise.opendata.semantics.DataTypes;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics of a column of source data, as computed by a
+ * {@link ColumnProfiler} in a single pass. Distinct counts and frequent
+ * values are estimates. Rates are computed over the non null values of the
+ * column. Profiles are immutable.
+ *
+ * @author David Leoni
+ */
+public final class ColumnProfile {
+
+    private final String name;
+    private final long rowCount;
+    private final long nullCount;
+    private final long distinctCount;
+    private final double numericRate;
+    private final double integerRate;
+    private final double booleanRate;
+    private final double dateRate;
+    private final String datatype;
+    private final ImmutableList<Object> sample;
+    private final ImmutableMap<String, Long> frequentValues;
+
+    ColumnProfile(String name, long rowCount, long nullCount, long distinctCount, double numericRate,
+            double integerRate, double booleanRate, double dateRate, String datatype, List<Object> sample,
+            Map<String, Long> frequentValues) {
+        this.name = name;
+        this.rowCount = rowCount;
+        this.nullCount = nullCount;
+        this.distinctCount = distinctCount;
+        this.numericRate = numericRate;
+        this.integerRate = integerRate;
+        this.booleanRate = booleanRate;
+        this.dateRate = dateRate;
+        this.datatype = datatype;
+        this.sample = ImmutableList.copyOf(sample);
+        this.frequentValues = ImmutableMap.copyOf(frequentValues);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The number of profiled rows
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * The number of rows where the column is missing, null or a blank string
+     */
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * The ratio of null values over all the rows, or 0 if no row was profiled
+     */
+    public double getNullRatio() {
+        return rowCount == 0 ? 0 : (double) nullCount / rowCount;
+    }
+
+    /**
+     * The estimated number of distinct non null values
+     */
+    public long getDistinctCount() {
+        return distinctCount;
+    }
+
+    /**
+     * The ratio of values which are numbers or strings parseable as numbers
+     */
+    public double getNumericRate() {
+        return numericRate;
+    }
+
+    /**
+     * The ratio of values which are integers or strings parseable as
+     * integers
+     */
+    public double getIntegerRate() {
+        return integerRate;
+    }
+
+    /**
+     * The ratio of values which are booleans or the strings "true" and
+     * "false", in any case
+     */
+    public double getBooleanRate() {
+        return booleanRate;
+    }
+
+    /**
+     * The ratio of values which are dates or strings parseable as dates, see
+     * {@link ColumnProfiler}
+     */
+    public double getDateRate() {
+        return dateRate;
+    }
+
+    /**
+     * The datatype inferred from the parse rates, one of {@link DataTypes}
+     * datatypes, or the empty string if the column has no values
+     */
+    public String getDatatype() {
+        return datatype;
+    }
+
+    /**
+     * A uniform random sample of the non null values. Long strings are
+     * truncated to {@link ColumnProfiler#MAX_VALUE_LENGTH} characters.
+     */
+    public List<Object> getSample() {
+        return sample;
+    }
+
+    /**
+     * The most frequent values as strings, with their estimated count, from
+     * the most frequent one. Counts may be overestimated, see
+     * {@link ColumnProfiler}.
+     */
+    public Map<String, Long> getFrequentValues() {
+        return frequentValues;
+    }
+
+    /**
+     * Returns the column to match, with the inferred datatype and unknown
+     * concept
+     */
+    public SourceColumn toSourceColumn() {
+        return SourceColumn.of(name, datatype, "");
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnProfile{name=" + name + ", rowCount=" + rowCount + ", nullCount=" + nullCount
+                + ", distinctCount=" + distinctCount + ", datatype=" + datatype + ", numericRate=" + numericRate
+                + ", integerRate=" + integerRate + ", booleanRate=" + booleanRate + ", dateRate=" + dateRate
+                + ", frequentValues=" + frequentValues + "}";
+    }
+}
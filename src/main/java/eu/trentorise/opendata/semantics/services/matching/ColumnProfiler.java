@@ -0,0 +1,464 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import eu.trentorise.opendata.semantics.DataTypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
+/**
+ * Computes {@link ColumnProfile}s streaming once over rows of source data, so
+ * even multi gigabyte files can be profiled. Memory used by each column is
+ * bounded and doesn't depend on the number of rows: values are sampled with a
+ * reservoir, distinct values are counted with a HyperLogLog sketch and the
+ * most frequent values are tracked with the Space-Saving algorithm.
+ *
+ * Null values, missing cells and blank strings count as nulls. Strings are
+ * parsed as numbers, as the booleans "true" and "false" in any case, and as
+ * dates if they start with an ISO date like 2015-12-31 or are formatted like
+ * 31/12/2015. The datatype of a column is the most specific one whose parse
+ * rate reaches the minimum rate, see {@link #DEFAULT_MIN_PARSE_RATE}.
+ *
+ * Profilers are not thread safe.
+ *
+ * @author David Leoni
+ */
+public final class ColumnProfiler {
+
+    /**
+     * Default number of values sampled for each column
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 100;
+
+    /**
+     * Default number of counters kept by each column to find its most
+     * frequent values
+     */
+    public static final int DEFAULT_FREQUENT_CAPACITY = 64;
+
+    /**
+     * Default minimum ratio of non null values which must parse as a datatype
+     * for the column to get that datatype
+     */
+    public static final double DEFAULT_MIN_PARSE_RATE = 0.95;
+
+    /**
+     * Number of frequent values returned in each profile
+     */
+    public static final int TOP_FREQUENT_VALUES = 10;
+
+    /**
+     * Strings longer than this are truncated before being sampled or counted
+     * among the frequent values
+     */
+    public static final int MAX_VALUE_LENGTH = 256;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int sampleSize;
+    private final int frequentCapacity;
+    private final double minParseRate;
+    private final Random random;
+
+    private final Map<String, ColumnStats> columns = new LinkedHashMap();
+    @Nullable
+    private final ColumnStats[] header;
+    private long rowCount;
+
+    /**
+     * Creates a profiler of rows given as maps from column name to value,
+     * with default settings. Columns are discovered as they appear in the
+     * rows.
+     */
+    public ColumnProfiler() {
+        this(null, DEFAULT_SAMPLE_SIZE, DEFAULT_FREQUENT_CAPACITY, DEFAULT_MIN_PARSE_RATE, 0);
+    }
+
+    /**
+     * Creates a profiler of rows given as lists of cells ordered as the
+     * header, with default settings.
+     */
+    public ColumnProfiler(List<String> header) {
+        this(header, DEFAULT_SAMPLE_SIZE, DEFAULT_FREQUENT_CAPACITY, DEFAULT_MIN_PARSE_RATE, 0);
+    }
+
+    /**
+     * @param header
+     *            the column names of rows given as lists, or null if rows are
+     *            given as maps
+     * @param seed
+     *            seed of the random generator used for sampling, so profiles
+     *            of the same data are reproducible
+     */
+    public ColumnProfiler(@Nullable List<String> header, int sampleSize, int frequentCapacity,
+            double minParseRate, long seed) {
+        checkArgument(sampleSize >= 0, "Sample size must be non negative, found instead %s", sampleSize);
+        checkArgument(frequentCapacity > 0, "Frequent values capacity must be positive, found instead %s",
+                frequentCapacity);
+        checkArgument(minParseRate > 0 && minParseRate <= 1,
+                "Minimum parse rate must be in (0, 1], found instead %s", minParseRate);
+        this.sampleSize = sampleSize;
+        this.frequentCapacity = frequentCapacity;
+        this.minParseRate = minParseRate;
+        this.random = new Random(seed);
+        if (header == null) {
+            this.header = null;
+        } else {
+            this.header = new ColumnStats[header.size()];
+            for (int i = 0; i < header.size(); i++) {
+                String name = header.get(i);
+                checkNotNull(name, "Found null column name at position %s", i);
+                checkArgument(!columns.containsKey(name), "Found duplicate column name %s", name);
+                this.header[i] = new ColumnStats(name);
+                columns.put(name, this.header[i]);
+            }
+        }
+    }
+
+    /**
+     * Profiles a row given as list of cells ordered as the header. Missing
+     * trailing cells count as nulls.
+     *
+     * @throws IllegalStateException
+     *             if the profiler was created without a header
+     * @throws IllegalArgumentException
+     *             if the row has more cells than the header
+     */
+    public void accept(List<?> row) {
+        checkNotNull(row);
+        if (header == null) {
+            throw new IllegalStateException("Tried to profile a list row, but profiler has no header!");
+        }
+        checkArgument(row.size() <= header.length, "Row has %s cells, but header has only %s columns",
+                row.size(), header.length);
+        rowCount++;
+        for (int i = 0; i < row.size(); i++) {
+            header[i].add(row.get(i));
+        }
+    }
+
+    /**
+     * Profiles a row given as map from column name to value. Cells with null
+     * keys are skipped.
+     */
+    public void accept(Map<?, ?> row) {
+        checkNotNull(row);
+        rowCount++;
+        for (Map.Entry<?, ?> cell : row.entrySet()) {
+            if (cell.getKey() == null) {
+                continue;
+            }
+            String name = cell.getKey().toString();
+            ColumnStats stats = columns.get(name);
+            if (stats == null) {
+                stats = new ColumnStats(name);
+                columns.put(name, stats);
+            }
+            stats.add(cell.getValue());
+        }
+    }
+
+    /**
+     * The number of rows profiled so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the profiles of the rows seen so far, in header order or in
+     * order of appearance of the columns. The profiler can still be fed rows
+     * afterwards.
+     */
+    public List<ColumnProfile> profiles() {
+        ImmutableList.Builder<ColumnProfile> ret = ImmutableList.builder();
+        for (ColumnStats stats : columns.values()) {
+            ret.add(stats.profile());
+        }
+        return ret.build();
+    }
+
+    /**
+     * Profiles a sample of data organized as a list of rows, each being a map
+     * from column name to value, like the data passed to
+     * {@link eu.trentorise.opendata.semantics.services.ISchemaMatchingService#matchSchemas}.
+     * Rows which are not maps are skipped.
+     */
+    public static List<ColumnProfile> profile(@Nullable Object data) {
+        if (!(data instanceof Iterable)) {
+            return ImmutableList.of();
+        }
+        ColumnProfiler profiler = new ColumnProfiler();
+        for (Object row : (Iterable) data) {
+            if (row instanceof Map) {
+                profiler.accept((Map<?, ?>) row);
+            }
+        }
+        return profiler.profiles();
+    }
+
+    /**
+     * Statistics of a single column, in bounded memory
+     */
+    private final class ColumnStats {
+
+        final String name;
+        long nonNullCount;
+        long numericCount;
+        long integerCount;
+        long longCount;
+        long booleanCount;
+        long dateCount;
+        final HyperLogLog distinct = new HyperLogLog();
+        final FrequentItems frequent = new FrequentItems(frequentCapacity);
+        final List<Object> sample = new ArrayList();
+
+        ColumnStats(String name) {
+            this.name = name;
+        }
+
+        void add(@Nullable Object value) {
+            if (value == null) {
+                return;
+            }
+            String str;
+            if (value instanceof CharSequence) {
+                str = value.toString().trim();
+                if (str.isEmpty()) {
+                    return;
+                }
+                countString(str);
+            } else {
+                str = value.toString();
+                countObject(value);
+            }
+            nonNullCount++;
+            distinct.add(HASH.hashUnencodedChars(str).asLong());
+            String truncated = str.length() > MAX_VALUE_LENGTH ? str.substring(0, MAX_VALUE_LENGTH) : str;
+            frequent.add(truncated);
+            sample(value instanceof CharSequence ? truncated : value);
+        }
+
+        /**
+         * Reservoir sampling, keeps each of the values seen so far with equal
+         * probability
+         */
+        void sample(Object value) {
+            if (sample.size() < sampleSize) {
+                sample.add(value);
+            } else if (sampleSize > 0) {
+                long j = (long) (random.nextDouble() * nonNullCount);
+                if (j < sampleSize) {
+                    sample.set((int) j, value);
+                }
+            }
+        }
+
+        void countObject(Object value) {
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                integerCount++;
+                longCount++;
+                numericCount++;
+            } else if (value instanceof Long) {
+                longCount++;
+                numericCount++;
+            } else if (value instanceof Number) {
+                numericCount++;
+            } else if (value instanceof Boolean) {
+                booleanCount++;
+            } else if (value instanceof Date) {
+                dateCount++;
+            }
+        }
+
+        void countString(String str) {
+            if ("true".equalsIgnoreCase(str) || "false".equalsIgnoreCase(str)) {
+                booleanCount++;
+                return;
+            }
+            int digits = integerDigits(str);
+            if (digits > 0) {
+                numericCount++;
+                if (digits <= 18) {
+                    long l = Long.parseLong(str);
+                    longCount++;
+                    if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                        integerCount++;
+                    }
+                }
+            } else if (isDecimal(str)) {
+                numericCount++;
+            } else if (isDate(str)) {
+                dateCount++;
+            }
+        }
+
+        String datatype() {
+            if (nonNullCount == 0) {
+                return "";
+            } else if (rate(booleanCount) >= minParseRate) {
+                return DataTypes.BOOLEAN;
+            } else if (rate(integerCount) >= minParseRate) {
+                return DataTypes.INTEGER;
+            } else if (rate(longCount) >= minParseRate) {
+                return DataTypes.LONG;
+            } else if (rate(numericCount) >= minParseRate) {
+                return DataTypes.FLOAT;
+            } else if (rate(dateCount) >= minParseRate) {
+                return DataTypes.DATE;
+            } else {
+                return DataTypes.STRING;
+            }
+        }
+
+        double rate(long count) {
+            return nonNullCount == 0 ? 0 : (double) count / nonNullCount;
+        }
+
+        ColumnProfile profile() {
+            return new ColumnProfile(name, rowCount, rowCount - nonNullCount, distinct.estimate(),
+                    rate(numericCount), rate(integerCount), rate(booleanCount), rate(dateCount), datatype(),
+                    Arrays.asList(sample.toArray()), frequent.top(TOP_FREQUENT_VALUES));
+        }
+    }
+
+    /**
+     * Returns the number of digits of a string made of an optional sign
+     * followed by digits only, or 0 if the string is not such an integer.
+     */
+    static int integerDigits(String str) {
+        int start = str.charAt(0) == '-' || str.charAt(0) == '+' ? 1 : 0;
+        if (start == str.length()) {
+            return 0;
+        }
+        for (int i = start; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+        }
+        return str.length() - start;
+    }
+
+    /**
+     * Returns true if the string is a decimal number with optional sign,
+     * fraction and exponent, like -1.5e3. Both dot and comma are accepted as
+     * decimal separator.
+     */
+    static boolean isDecimal(String str) {
+        int i = 0;
+        int n = str.length();
+        if (str.charAt(i) == '-' || str.charAt(i) == '+') {
+            i++;
+        }
+        int mantissaDigits = 0;
+        while (i < n && isDigit(str.charAt(i))) {
+            i++;
+            mantissaDigits++;
+        }
+        if (i < n && (str.charAt(i) == '.' || str.charAt(i) == ',')) {
+            i++;
+            while (i < n && isDigit(str.charAt(i))) {
+                i++;
+                mantissaDigits++;
+            }
+        }
+        if (mantissaDigits == 0) {
+            return false;
+        }
+        if (i < n && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < n && isDigit(str.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return i == n;
+    }
+
+    /**
+     * Returns true if the string starts with an ISO date like 2015-12-31,
+     * optionally followed by a time, or is a date like 31/12/2015
+     */
+    static boolean isDate(String str) {
+        if (str.length() >= 10 && str.charAt(4) == '-' && str.charAt(7) == '-') {
+            if (str.length() > 10 && str.charAt(10) != 'T' && str.charAt(10) != ' ') {
+                return false;
+            }
+            return isDate(number(str, 0, 4), number(str, 5, 7), number(str, 8, 10));
+        }
+        int first = str.indexOf('/');
+        int second = str.indexOf('/', first + 1);
+        if (first > 0 && (second == first + 2 || second == first + 3)) {
+            if (str.length() != second + 5) {
+                return false;
+            }
+            return isDate(number(str, second + 1, str.length()), number(str, first + 1, second),
+                    number(str, 0, first));
+        }
+        return false;
+    }
+
+    private static boolean isDate(int year, int month, int day) {
+        return year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31;
+    }
+
+    /**
+     * Parses the non negative number in the given range of the string, or
+     * returns -1 if the range contains non digits or is longer than 4
+     * characters.
+     */
+    private static int number(String str, int from, int to) {
+        if (to - from > 4 || to <= from) {
+            return -1;
+        }
+        int ret = 0;
+        for (int i = from; i < to; i++) {
+            char c = str.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            ret = ret * 10 + (c - '0');
+        }
+        return ret;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.primitives.Ints;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.AttrMapping;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.SchemaMapping;
+import eu.trentorise.opendata.semantics.services.Schemas;
+import eu.trentorise.opendata.semtext.SemText;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link SchemaMapping} compiled into a transformer of source rows into
+ * synthetic entities of the target etype. Target attribute paths, the etypes
+ * of nested structs and the conversions of cells to attribute datatypes are
+ * resolved once at compile time, so transforming a row only converts its
+ * cells and builds the entity.
+ *
+ * Rows are lists of cells in the order of the header given at compile time.
+ * Null and empty string cells are skipped, string cells are parsed into
+ * numbers, booleans and dates, and wrapped into localized strings, semantic
+ * texts and dicts of unknown locale. Number cells are converted to integers
+ * and longs only if they fit without losing digits. Cells of list attributes holding a list give one value per
+ * element. Only list attributes can be mapped from several columns. Attribute
+ * mappings with an empty target path are ignored.
+ *
+ * Compiled mappings are immutable and thread safe.
+ *
+ * @author David Leoni
+ */
+public final class CompiledMapping {
+
+    private final ImmutableList<String> header;
+    private final ImmutableSortedSet<Integer> usedColumns;
+    private final Node root;
+
+    private CompiledMapping(List<String> header, Set<Integer> usedColumns, Node root) {
+        this.header = ImmutableList.copyOf(header);
+        this.usedColumns = ImmutableSortedSet.copyOf(usedColumns);
+        this.root = root;
+    }
+
+    /**
+     * Compiles the mapping, reading the etypes it needs from the service.
+     *
+     * @param header
+     *            the names of the columns of the rows to transform
+     * @throws IllegalArgumentException
+     *             if a source path doesn't refer to a column of the header or
+     *             a target path can't be resolved.
+     */
+    public static CompiledMapping of(SchemaMapping mapping, List<String> header, IEtypeService ets) {
+        checkNotNull(mapping);
+        return of(mapping, header, Entities.resolveEtypeClosure(mapping.getTargetEtype(), ets));
+    }
+
+    /**
+     * Compiles the mapping.
+     *
+     * @param header
+     *            the names of the columns of the rows to transform
+     * @param etypes
+     *            map from etype id to etype holding the target etype of the
+     *            mapping and all the etypes of its nested structs, see
+     *            {@link Entities#resolveEtypeClosure(Etype, IEtypeService)}
+     * @throws IllegalArgumentException
+     *             if a source path doesn't refer to a column of the header or
+     *             a target path can't be resolved.
+     */
+    public static CompiledMapping of(SchemaMapping mapping, List<String> header, Map<String, Etype> etypes) {
+        checkNotNull(mapping);
+        checkNotNull(header);
+        checkNotNull(etypes);
+
+        NodeBuilder root = new NodeBuilder(mapping.getTargetEtype());
+        Set<Integer> usedColumns = new HashSet();
+        for (AttrMapping attrMapping : mapping.getMappings()) {
+            if (attrMapping.getTargetPath().isEmpty()) {
+                continue;
+            }
+            int column = column(attrMapping.getSourcePath(), header);
+            usedColumns.add(column);
+            NodeBuilder node = root;
+            List<String> targetPath = attrMapping.getTargetPath();
+            for (int i = 0; i < targetPath.size() - 1; i++) {
+                AttrDef attrDef = node.etype.attrDefByIdOrName(targetPath.get(i));
+                checkArgument(DataTypes.STRUCTURE.equals(attrDef.getType().getDatatype()),
+                        "Found non struct attribute %s in the middle of target path %s", attrDef.getId(),
+                        targetPath);
+                node = node.child(attrDef, etypes);
+            }
+            node.leaf(node.etype.attrDefByIdOrName(targetPath.get(targetPath.size() - 1)), column, header);
+        }
+        return new CompiledMapping(header, usedColumns, root.build(header));
+    }
+
+    private static int column(List<String> sourcePath, List<String> header) {
+        checkArgument(sourcePath.size() == 2 && Schemas.SCHEMA_SOURCE.equals(sourcePath.get(0)),
+                "Expected a source path made of %s and a column name, found instead %s", Schemas.SCHEMA_SOURCE,
+                sourcePath);
+        int ret = header.indexOf(sourcePath.get(1));
+        checkArgument(ret >= 0, "Couldn't find column %s in header %s", sourcePath.get(1), header);
+        return ret;
+    }
+
+    /**
+     * The names of the columns of the rows
+     */
+    public List<String> getHeader() {
+        return header;
+    }
+
+    public String getEtypeId() {
+        return root.etypeId;
+    }
+
+    /**
+     * The indexes of the header columns read by {@link #transform(List)},
+     * in increasing order. Row sources can avoid decoding the other cells.
+     */
+    public SortedSet<Integer> getUsedColumns() {
+        return usedColumns;
+    }
+
+    /**
+     * Transforms a row into a synthetic entity of the target etype, with
+     * empty id.
+     *
+     * @throws IllegalArgumentException
+     *             if the row is shorter than the header or a cell can't be
+     *             converted to the datatype of its attribute.
+     */
+    public Entity transform(List<?> row) {
+        checkNotNull(row);
+        checkArgument(row.size() >= header.size(), "Expected a row of %s cells, found instead %s cells",
+                header.size(), row.size());
+        return Entity.builder()
+                .setEtypeId(root.etypeId)
+                .putAllAttrs(root.attrs(row))
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledMapping{etypeId=" + root.etypeId + ", header=" + header + "}";
+    }
+
+    /**
+     * The attributes to fill in a struct or entity
+     */
+    private static final class Node {
+
+        final String etypeId;
+        final Leaf[] leaves;
+        final String[] childAttrDefIds;
+        final Node[] children;
+
+        Node(String etypeId, Leaf[] leaves, String[] childAttrDefIds, Node[] children) {
+            this.etypeId = etypeId;
+            this.leaves = leaves;
+            this.childAttrDefIds = childAttrDefIds;
+            this.children = children;
+        }
+
+        Map<String, Attr> attrs(List<?> row) {
+            ImmutableMap.Builder<String, Attr> ret = null;
+            for (Leaf leaf : leaves) {
+                List<Val> values = leaf.values(row);
+                if (values != null) {
+                    if (ret == null) {
+                        ret = ImmutableMap.builder();
+                    }
+                    ret.put(leaf.attrDefId, Attr.builder()
+                            .setAttrDefId(leaf.attrDefId)
+                            .addAllValues(values)
+                            .build());
+                }
+            }
+            for (int i = 0; i < children.length; i++) {
+                Map<String, Attr> childAttrs = children[i].attrs(row);
+                if (!childAttrs.isEmpty()) {
+                    if (ret == null) {
+                        ret = ImmutableMap.builder();
+                    }
+                    Struct struct = Struct.builder()
+                            .setEtypeId(children[i].etypeId)
+                            .putAllAttrs(childAttrs)
+                            .build();
+                    ret.put(childAttrDefIds[i], Attr.builder()
+                            .setAttrDefId(childAttrDefIds[i])
+                            .addValues(Val.of(-1, struct))
+                            .build());
+                }
+            }
+            return ret == null ? ImmutableMap.<String, Attr> of() : ret.build();
+        }
+    }
+
+    /**
+     * An attribute filled from one or more columns
+     */
+    private static final class Leaf {
+
+        private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+        private static final Pattern ISO_DATE = Pattern.compile("(\\d{4})-(\\d{2})-(\\d{2})"
+                + "(?:[T ](\\d{2}):(\\d{2})(?::(\\d{2})(?:\\.(\\d+))?)?(Z|[+-]\\d{2}:?\\d{2})?)?");
+
+        private static final Pattern SLASH_DATE = Pattern.compile("(\\d{1,2})/(\\d{1,2})/(\\d{4})");
+
+        final String attrDefId;
+        final int[] columns;
+        final String[] columnNames;
+        final String datatype;
+        final boolean list;
+        @Nullable
+        final Class javaClass;
+
+        Leaf(AttrDef attrDef, int[] columns, String[] columnNames) {
+            this.attrDefId = attrDef.getId();
+            this.columns = columns;
+            this.columnNames = columnNames;
+            this.datatype = attrDef.getType().getDatatype();
+            this.list = attrDef.getType().isList();
+            this.javaClass = DataTypes.getDataTypes().get(datatype);
+        }
+
+        /**
+         * Returns the values of the attribute, or null if there are none.
+         */
+        @Nullable
+        List<Val> values(List<?> row) {
+            List<Val> ret = null;
+            for (int i = 0; i < columns.length; i++) {
+                Object cell = row.get(columns[i]);
+                if (list && cell instanceof Iterable) {
+                    for (Object element : (Iterable) cell) {
+                        ret = add(ret, convert(element, i));
+                    }
+                } else {
+                    ret = add(ret, convert(cell, i));
+                }
+            }
+            return ret;
+        }
+
+        @Nullable
+        private static List<Val> add(@Nullable List<Val> values, @Nullable Object obj) {
+            if (obj == null) {
+                return values;
+            }
+            List<Val> ret = values == null ? new ArrayList<Val>(2) : values;
+            ret.add(Val.of(-1, obj));
+            return ret;
+        }
+
+        /**
+         * Converts a cell to the datatype of the attribute, returning null
+         * if the cell is null or an empty string
+         */
+        @Nullable
+        private Object convert(@Nullable Object cell, int i) {
+            if (cell == null || "".equals(cell)) {
+                return null;
+            }
+            if (javaClass != null && javaClass.isInstance(cell)) {
+                return cell;
+            }
+            try {
+                if (DataTypes.STRING.equals(datatype)) {
+                    return cell.toString();
+                } else if (DataTypes.INTEGER.equals(datatype)) {
+                    return cell instanceof Number ? Ints.checkedCast(exactLong((Number) cell))
+                            : Integer.valueOf(trim(cell));
+                } else if (DataTypes.LONG.equals(datatype)) {
+                    return cell instanceof Number ? exactLong((Number) cell) : Long.valueOf(trim(cell));
+                } else if (DataTypes.FLOAT.equals(datatype)) {
+                    if (cell instanceof Number) {
+                        double d = ((Number) cell).doubleValue();
+                        if (Math.abs(d) > Float.MAX_VALUE && !Double.isInfinite(d)) {
+                            throw new ArithmeticException("Value out of float range: " + d);
+                        }
+                        return (float) d;
+                    }
+                    return Float.valueOf(trim(cell));
+                } else if (DataTypes.BOOLEAN.equals(datatype)) {
+                    String s = trim(cell);
+                    if ("true".equalsIgnoreCase(s)) {
+                        return Boolean.TRUE;
+                    } else if ("false".equalsIgnoreCase(s)) {
+                        return Boolean.FALSE;
+                    }
+                } else if (DataTypes.DATE.equals(datatype)) {
+                    if (cell instanceof Number) {
+                        return new Date(((Number) cell).longValue());
+                    }
+                    Date date = parseDate(trim(cell));
+                    if (date != null) {
+                        return date;
+                    }
+                } else if (DataTypes.LOCALIZED_STRING.equals(datatype)) {
+                    return LocalizedString.of(Locale.ROOT, cell.toString());
+                } else if (DataTypes.SEMANTIC_TEXT.equals(datatype)) {
+                    if (cell instanceof LocalizedString) {
+                        LocalizedString ls = (LocalizedString) cell;
+                        return SemText.of(ls.getLocale(), ls.str());
+                    }
+                    return SemText.of(Locale.ROOT, cell.toString());
+                } else if (DataTypes.DICT.equals(datatype)) {
+                    if (cell instanceof LocalizedString) {
+                        LocalizedString ls = (LocalizedString) cell;
+                        return Dict.of(ls.getLocale(), ls.str());
+                    }
+                    return Dict.of(Locale.ROOT, cell.toString());
+                } else if (DataTypes.STRUCTURE.equals(datatype) || DataTypes.ENTITY.equals(datatype)) {
+                    if (cell instanceof AStruct || cell instanceof String) {
+                        return cell;
+                    }
+                }
+            } catch (IllegalArgumentException | ArithmeticException ex) {
+                // unparsable strings and numbers which don't fit the datatype
+                throw new IllegalArgumentException("Couldn't convert value " + cell + " of column "
+                        + columnNames[i] + " to datatype " + datatype, ex);
+            }
+            throw new IllegalArgumentException("Couldn't convert value " + cell + " of column " + columnNames[i]
+                    + " to datatype " + datatype + ". Its class is " + cell.getClass().getName());
+        }
+
+        private static String trim(Object cell) {
+            return cell.toString().trim();
+        }
+
+        /**
+         * Returns the number as a long.
+         *
+         * @throws ArithmeticException
+         *             if the number has a fractional part or is out of the
+         *             long range.
+         * @throws NumberFormatException
+         *             if the number is not finite.
+         */
+        private static long exactLong(Number number) {
+            if (number instanceof Long || number instanceof Integer || number instanceof Short
+                    || number instanceof Byte) {
+                return number.longValue();
+            }
+            return new BigDecimal(number.toString()).longValueExact();
+        }
+
+        /**
+         * Parses an ISO date like 2015-12-31, optionally followed by 'T' or a
+         * space and a time like 10:30, 10:30:15 or 10:30:15.250 with an
+         * optional 'Z' or offset like +01:00, or a date like 31/12/2015.
+         * Dates and times without offset are in UTC.
+         *
+         * @return the parsed date, or null if the string is not a valid date.
+         */
+        @Nullable
+        private static Date parseDate(String str) {
+            Calendar calendar = new GregorianCalendar(UTC);
+            calendar.setLenient(false);
+            calendar.clear();
+            long offsetMillis = 0;
+
+            Matcher m = ISO_DATE.matcher(str);
+            if (m.matches()) {
+                calendar.set(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) - 1,
+                        Integer.parseInt(m.group(3)));
+                if (m.group(4) != null) {
+                    calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(m.group(4)));
+                    calendar.set(Calendar.MINUTE, Integer.parseInt(m.group(5)));
+                }
+                if (m.group(6) != null) {
+                    calendar.set(Calendar.SECOND, Integer.parseInt(m.group(6)));
+                }
+                if (m.group(7) != null) {
+                    calendar.set(Calendar.MILLISECOND, Integer.parseInt((m.group(7) + "00").substring(0, 3)));
+                }
+                String offset = m.group(8);
+                if (offset != null && !"Z".equals(offset)) {
+                    int hours = Integer.parseInt(offset.substring(1, 3));
+                    int minutes = Integer.parseInt(offset.substring(offset.length() - 2));
+                    if (hours > 23 || minutes > 59) {
+                        return null;
+                    }
+                    offsetMillis = (offset.charAt(0) == '+' ? 1 : -1) * (hours * 60 + minutes) * 60000L;
+                }
+            } else {
+                m = SLASH_DATE.matcher(str);
+                if (!m.matches()) {
+                    return null;
+                }
+                calendar.set(Integer.parseInt(m.group(3)), Integer.parseInt(m.group(2)) - 1,
+                        Integer.parseInt(m.group(1)));
+            }
+            try {
+                return new Date(calendar.getTimeInMillis() - offsetMillis);
+            } catch (IllegalArgumentException ex) {
+                // fields out of range, like day 31 of February
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Collects the attributes of a node while compiling
+     */
+    private static final class NodeBuilder {
+
+        final Etype etype;
+        final Map<String, AttrDef> leafDefs = new LinkedHashMap();
+        final Map<String, List<Integer>> leafColumns = new LinkedHashMap();
+        final Map<String, NodeBuilder> children = new LinkedHashMap();
+
+        NodeBuilder(Etype etype) {
+            this.etype = etype;
+        }
+
+        NodeBuilder child(AttrDef attrDef, Map<String, Etype> etypes) {
+            NodeBuilder ret = children.get(attrDef.getId());
+            if (ret == null) {
+                checkArgument(!leafDefs.containsKey(attrDef.getId()),
+                        "Attribute %s is both mapped as a whole and through its subattributes", attrDef.getId());
+                Etype childEtype = etypes.get(attrDef.getType().getEtypeId());
+                checkArgument(childEtype != null, "Couldn't find etype %s of attribute %s among provided etypes",
+                        attrDef.getType().getEtypeId(), attrDef.getId());
+                ret = new NodeBuilder(childEtype);
+                children.put(attrDef.getId(), ret);
+            }
+            return ret;
+        }
+
+        void leaf(AttrDef attrDef, int column, List<String> header) {
+            checkArgument(!children.containsKey(attrDef.getId()),
+                    "Attribute %s is both mapped as a whole and through its subattributes", attrDef.getId());
+            List<Integer> columns = leafColumns.get(attrDef.getId());
+            checkArgument(columns == null || attrDef.getType().isList(),
+                    "Attribute %s is not a list but is mapped from both columns %s and %s", attrDef.getId(),
+                    columns == null ? null : header.get(columns.get(0)), header.get(column));
+            if (columns == null) {
+                columns = new ArrayList();
+                leafColumns.put(attrDef.getId(), columns);
+                leafDefs.put(attrDef.getId(), attrDef);
+            }
+            columns.add(column);
+        }
+
+        Node build(List<String> header) {
+            List<Leaf> leaves = new ArrayList();
+            for (AttrDef attrDef : leafDefs.values()) {
+                List<Integer> columns = leafColumns.get(attrDef.getId());
+                int[] cols = new int[columns.size()];
+                String[] names = new String[cols.length];
+                for (int i = 0; i < cols.length; i++) {
+                    cols[i] = columns.get(i);
+                    names[i] = header.get(cols[i]);
+                }
+                leaves.add(new Leaf(attrDef, cols, names));
+            }
+            String[] childIds = children.keySet().toArray(new String[children.size()]);
+            Node[] childNodes = new Node[childIds.length];
+            for (int i = 0; i < childIds.length; i++) {
+                childNodes[i] = children.get(childIds[i]).build(header);
+            }
+            return new Node(etype.getId(), leaves.toArray(new Leaf[leaves.size()]), childIds, childNodes);
+        }
+    }
+}
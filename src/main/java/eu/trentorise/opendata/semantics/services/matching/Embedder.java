@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+/**
+ * Maps texts to vectors so that similar texts get vectors with high cosine
+ * similarity. Used by {@link LabelIndex} to index names and descriptions.
+ * Implementations must be thread safe and deterministic, as indexes saved to
+ * disk are queried later with vectors of a new embedder instance.
+ *
+ * @author David Leoni
+ */
+public interface Embedder {
+
+    /**
+     * The length of the returned vectors
+     */
+    int dimension();
+
+    /**
+     * Returns a vector of length {@link #dimension()} with unit norm, or all
+     * zeros if the text has nothing to embed. The returned array is owned by
+     * the caller.
+     */
+    float[] embed(String text);
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Bitset signatures of the etypes of a catalog, to compare etypes among
+ * themselves and with sets of columns without touching strings. Each
+ * attribute definition id and concept id found in the catalog gets a bit in
+ * a catalog wide dictionary. The signature of an etype has the bits of its
+ * concept and of the ids and concepts of its attribute definitions.
+ *
+ * Signatures are sparse bitsets, storing only the non empty 64 bit words
+ * with their index. Bits are assigned etype by etype, so the bits of an
+ * etype mostly fall in a few adjacent words. Instances are immutable and
+ * thread safe.
+ *
+ * @author David Leoni
+ */
+public final class EtypeSignatures {
+
+    private final Map<String, Integer> dictionary;
+    private final List<String> etypeIds;
+    private final Map<String, Integer> etypeIndexes;
+
+    /**
+     * Word indexes and words of etype i are in the range offsets[i] to
+     * offsets[i + 1]
+     */
+    private final int[] offsets;
+    private final int[] wordIndexes;
+    private final long[] words;
+    private final int[] cardinalities;
+
+    private EtypeSignatures(Map<String, Integer> dictionary, List<String> etypeIds, int[] offsets,
+            int[] wordIndexes, long[] words, int[] cardinalities) {
+        this.dictionary = dictionary;
+        this.etypeIds = etypeIds;
+        this.offsets = offsets;
+        this.wordIndexes = wordIndexes;
+        this.words = words;
+        this.cardinalities = cardinalities;
+        this.etypeIndexes = new HashMap();
+        for (int i = 0; i < etypeIds.size(); i++) {
+            etypeIndexes.put(etypeIds.get(i), i);
+        }
+    }
+
+    /**
+     * Computes the signatures of the given etypes
+     *
+     * @throws IllegalArgumentException
+     *             if two etypes have the same id
+     */
+    public static EtypeSignatures of(Iterable<Etype> etypes) {
+        checkNotNull(etypes);
+        Map<String, Integer> dictionary = new HashMap();
+        ImmutableList.Builder<String> etypeIds = ImmutableList.builder();
+        List<int[]> bitsPerEtype = new ArrayList();
+        int wordCount = 0;
+        for (Etype etype : etypes) {
+            List<String> ids = new ArrayList();
+            ids.add(etype.getConceptId());
+            for (AttrDef attrDef : etype.getAttrDefs().values()) {
+                ids.add(attrDef.getId());
+                ids.add(attrDef.getConceptId());
+            }
+            int[] bits = new int[ids.size()];
+            int n = 0;
+            for (String id : ids) {
+                if (id.isEmpty()) {
+                    continue;
+                }
+                Integer bit = dictionary.get(id);
+                if (bit == null) {
+                    bit = dictionary.size();
+                    dictionary.put(id, bit);
+                }
+                bits[n++] = bit;
+            }
+            etypeIds.add(etype.getId());
+            bitsPerEtype.add(Arrays.copyOf(bits, n));
+            wordCount += n;
+        }
+
+        int[] offsets = new int[bitsPerEtype.size() + 1];
+        int[] wordIndexes = new int[wordCount];
+        long[] words = new long[wordCount];
+        int[] cardinalities = new int[bitsPerEtype.size()];
+        int pos = 0;
+        for (int i = 0; i < bitsPerEtype.size(); i++) {
+            offsets[i] = pos;
+            Signature signature = Signature.of(bitsPerEtype.get(i));
+            System.arraycopy(signature.wordIndexes, 0, wordIndexes, pos, signature.wordIndexes.length);
+            System.arraycopy(signature.words, 0, words, pos, signature.words.length);
+            pos += signature.words.length;
+            cardinalities[i] = signature.cardinality;
+        }
+        offsets[bitsPerEtype.size()] = pos;
+
+        List<String> ids = etypeIds.build();
+        EtypeSignatures ret = new EtypeSignatures(dictionary, ids, offsets, Arrays.copyOf(wordIndexes, pos),
+                Arrays.copyOf(words, pos), cardinalities);
+        checkArgument(ret.etypeIndexes.size() == ids.size(), "Found duplicate etype ids in %s", ids);
+        return ret;
+    }
+
+    /**
+     * The number of etypes
+     */
+    public int size() {
+        return etypeIds.size();
+    }
+
+    /**
+     * The number of distinct attribute definition and concept ids in the
+     * catalog
+     */
+    public int dictionarySize() {
+        return dictionary.size();
+    }
+
+    /**
+     * The ids of the etypes, in the order they were given
+     */
+    public List<String> getEtypeIds() {
+        return etypeIds;
+    }
+
+    /**
+     * The number of distinct attribute definition and concept ids of the
+     * etype
+     *
+     * @throws IllegalArgumentException
+     *             if the etype is not in the catalog
+     */
+    public int cardinality(String etypeId) {
+        return cardinalities[index(etypeId)];
+    }
+
+    private int index(String etypeId) {
+        checkNotNull(etypeId);
+        Integer ret = etypeIndexes.get(etypeId);
+        if (ret == null) {
+            throw new IllegalArgumentException("Etype " + etypeId + " is not in the catalog");
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the Jaccard similarity of the signatures of the two etypes, or
+     * 0 if both are empty
+     *
+     * @throws IllegalArgumentException
+     *             if an etype is not in the catalog
+     */
+    public double jaccard(String etypeIdA, String etypeIdB) {
+        int a = index(etypeIdA);
+        int b = index(etypeIdB);
+        int common = intersection(a, b);
+        return jaccard(cardinalities[a], cardinalities[b], common);
+    }
+
+    /**
+     * Returns the Jaccard similarity between the signature of the etype and
+     * a set of attribute definition and concept ids, like the ones a set of
+     * columns was matched to. Ids not in the catalog count in the size of the
+     * set.
+     *
+     * @throws IllegalArgumentException
+     *             if the etype is not in the catalog
+     */
+    public double jaccard(String etypeId, Collection<String> ids) {
+        int e = index(etypeId);
+        Signature query = signature(ids);
+        int common = intersection(e, query);
+        return jaccard(cardinalities[e], query.cardinality + query.unknown, common);
+    }
+
+    private static double jaccard(int cardinalityA, int cardinalityB, int common) {
+        int union = cardinalityA + cardinalityB - common;
+        return union == 0 ? 0 : (double) common / union;
+    }
+
+    /**
+     * Returns the fraction of the ids found in the signature of the etype, or
+     * 0 if the ids are empty
+     *
+     * @throws IllegalArgumentException
+     *             if the etype is not in the catalog
+     */
+    public double containment(Collection<String> ids, String etypeId) {
+        int e = index(etypeId);
+        Signature query = signature(ids);
+        int size = query.cardinality + query.unknown;
+        return size == 0 ? 0 : (double) intersection(e, query) / size;
+    }
+
+    /**
+     * Returns the ids of the etypes whose signature contains all the given
+     * attribute definition and concept ids, in catalog order. If some id is
+     * not in the catalog, no etype covers the set.
+     */
+    public List<String> covering(Collection<String> ids) {
+        Signature query = signature(ids);
+        if (query.unknown > 0) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<String> ret = ImmutableList.builder();
+        for (int e = 0; e < etypeIds.size(); e++) {
+            if (cardinalities[e] >= query.cardinality && covers(e, query)) {
+                ret.add(etypeIds.get(e));
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * Returns all the pairs of distinct etypes with Jaccard similarity at
+     * least minJaccard, from the most similar.
+     *
+     * Candidate pairs are generated with prefix filtering: bits of each
+     * signature are ordered from the rarest in the catalog, and two etypes
+     * can reach the threshold only if they share a bit among the first
+     * |A| - ceil(t |A|) + 1 of either signature. Only candidates are then
+     * compared on the bitsets, so etypes sharing nothing rare are never
+     * compared.
+     *
+     * @param minJaccard
+     *            a threshold in (0, 1]
+     */
+    public List<SimilarPair> similarPairs(double minJaccard) {
+        checkArgument(minJaccard > 0 && minJaccard <= 1, "Threshold must be in (0, 1], found instead %s",
+                minJaccard);
+        int n = etypeIds.size();
+        final int[] frequencies = new int[dictionary.size()];
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                frequencies[(wordIndexes[w] << 6) + Long.numberOfTrailingZeros(word)]++;
+                word &= word - 1;
+            }
+        }
+        Integer[] byCardinality = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byCardinality[i] = i;
+        }
+        Arrays.sort(byCardinality, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(cardinalities[a], cardinalities[b]);
+            }
+        });
+
+        // postings[bit] holds the etypes having bit in their prefix
+        int[][] postings = new int[dictionary.size()][];
+        int[] postingSizes = new int[dictionary.size()];
+        int[] lastProbe = new int[n];
+        Arrays.fill(lastProbe, -1);
+        List<SimilarPair> ret = new ArrayList();
+        for (int i = 0; i < n; i++) {
+            int a = byCardinality[i];
+            int cardinality = cardinalities[a];
+            if (cardinality == 0) {
+                continue;
+            }
+            int[] bits = bitsByFrequency(a, frequencies);
+            int prefix = cardinality - (int) Math.ceil(minJaccard * cardinality - 1e-9) + 1;
+            // etypes indexed so far are not larger, and must not be smaller
+            // than t |A|
+            double minCardinality = minJaccard * cardinality;
+            for (int p = 0; p < prefix; p++) {
+                int bit = bits[p];
+                for (int k = 0; k < postingSizes[bit]; k++) {
+                    int b = postings[bit][k];
+                    if (lastProbe[b] == a || cardinalities[b] < minCardinality) {
+                        continue;
+                    }
+                    lastProbe[b] = a;
+                    double similarity = jaccard(cardinality, cardinalities[b], intersection(a, b));
+                    if (similarity >= minJaccard) {
+                        ret.add(new SimilarPair(etypeIds.get(b), etypeIds.get(a), similarity));
+                    }
+                }
+            }
+            for (int p = 0; p < prefix; p++) {
+                int bit = bits[p];
+                if (postings[bit] == null) {
+                    postings[bit] = new int[4];
+                } else if (postingSizes[bit] == postings[bit].length) {
+                    postings[bit] = Arrays.copyOf(postings[bit], postingSizes[bit] * 2);
+                }
+                postings[bit][postingSizes[bit]++] = a;
+            }
+        }
+        Collections.sort(ret, new Comparator<SimilarPair>() {
+            @Override
+            public int compare(SimilarPair a, SimilarPair b) {
+                return Double.compare(b.similarity, a.similarity);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Returns the bits of the etype ordered from the least frequent in the
+     * catalog, ties broken by bit
+     */
+    private int[] bitsByFrequency(int e, int[] frequencies) {
+        long[] keyed = new long[cardinalities[e]];
+        int n = 0;
+        for (int w = offsets[e]; w < offsets[e + 1]; w++) {
+            long word = words[w];
+            while (word != 0) {
+                int bit = (wordIndexes[w] << 6) + Long.numberOfTrailingZeros(word);
+                keyed[n++] = ((long) frequencies[bit] << 32) | bit;
+                word &= word - 1;
+            }
+        }
+        Arrays.sort(keyed);
+        int[] ret = new int[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = (int) keyed[i];
+        }
+        return ret;
+    }
+
+    private Signature signature(Collection<String> ids) {
+        checkNotNull(ids);
+        Set<String> distinct = new HashSet(ids);
+        int[] bits = new int[distinct.size()];
+        int n = 0;
+        int unknown = 0;
+        for (String id : distinct) {
+            Integer bit = dictionary.get(id);
+            if (bit == null) {
+                unknown++;
+            } else {
+                bits[n++] = bit;
+            }
+        }
+        Signature ret = Signature.of(Arrays.copyOf(bits, n));
+        ret.unknown = unknown;
+        return ret;
+    }
+
+    /**
+     * Counts the common bits of two etypes merging their word indexes
+     */
+    private int intersection(int a, int b) {
+        return intersection(wordIndexes, words, offsets[a], offsets[a + 1], wordIndexes, words, offsets[b],
+                offsets[b + 1]);
+    }
+
+    private int intersection(int e, Signature query) {
+        return intersection(wordIndexes, words, offsets[e], offsets[e + 1], query.wordIndexes, query.words, 0,
+                query.words.length);
+    }
+
+    private static int intersection(int[] indexesA, long[] wordsA, int fromA, int toA, int[] indexesB,
+            long[] wordsB, int fromB, int toB) {
+        int ret = 0;
+        int i = fromA;
+        int j = fromB;
+        while (i < toA && j < toB) {
+            if (indexesA[i] == indexesB[j]) {
+                ret += Long.bitCount(wordsA[i] & wordsB[j]);
+                i++;
+                j++;
+            } else if (indexesA[i] < indexesB[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if the etype has all the bits of the query
+     */
+    private boolean covers(int e, Signature query) {
+        int i = offsets[e];
+        int to = offsets[e + 1];
+        for (int j = 0; j < query.words.length; j++) {
+            while (i < to && wordIndexes[i] < query.wordIndexes[j]) {
+                i++;
+            }
+            if (i == to || wordIndexes[i] != query.wordIndexes[j]
+                    || (words[i] & query.words[j]) != query.words[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A sparse bitset under construction or used as query
+     */
+    private static final class Signature {
+
+        int[] wordIndexes;
+        long[] words;
+        int cardinality;
+        /**
+         * Number of query ids not in the dictionary
+         */
+        int unknown;
+
+        static Signature of(int[] bits) {
+            TreeMap<Integer, long[]> sorted = new TreeMap();
+            for (int bit : bits) {
+                long[] word = sorted.get(bit >>> 6);
+                if (word == null) {
+                    word = new long[1];
+                    sorted.put(bit >>> 6, word);
+                }
+                word[0] |= 1L << bit;
+            }
+            Signature ret = new Signature();
+            ret.wordIndexes = new int[sorted.size()];
+            ret.words = new long[sorted.size()];
+            int i = 0;
+            for (Map.Entry<Integer, long[]> entry : sorted.entrySet()) {
+                ret.wordIndexes[i] = entry.getKey();
+                ret.words[i] = entry.getValue()[0];
+                ret.cardinality += Long.bitCount(entry.getValue()[0]);
+                i++;
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Two etypes and the Jaccard similarity of their signatures
+     */
+    public static final class SimilarPair {
+
+        private final String etypeIdA;
+        private final String etypeIdB;
+        private final double similarity;
+
+        private SimilarPair(String etypeIdA, String etypeIdB, double similarity) {
+            this.etypeIdA = etypeIdA;
+            this.etypeIdB = etypeIdB;
+            this.similarity = similarity;
+        }
+
+        public String getEtypeIdA() {
+            return etypeIdA;
+        }
+
+        public String getEtypeIdB() {
+            return etypeIdB;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return "SimilarPair{" + etypeIdA + ", " + etypeIdB + ", similarity=" + similarity + "}";
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most frequent elements of a stream with the Space-Saving
+ * algorithm, keeping at most a fixed number of counters. Elements occurring
+ * more than n / capacity times in a stream of n elements are guaranteed to
+ * be kept. Counts are overestimated by at most the count of the evicted
+ * counter they replaced.
+ *
+ * @author David Leoni
+ */
+final class FrequentItems {
+
+    private static final Comparator<Map.Entry<String, long[]>> BY_COUNT_DESC =
+            new Comparator<Map.Entry<String, long[]>>() {
+                @Override
+                public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+                    int ret = Long.compare(b.getValue()[0], a.getValue()[0]);
+                    return ret != 0 ? ret : a.getKey().compareTo(b.getKey());
+                }
+            };
+
+    private final int capacity;
+    private final Map<String, long[]> counters;
+
+    FrequentItems(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap(capacity * 2);
+    }
+
+    void add(String item) {
+        long[] counter = counters.get(item);
+        if (counter != null) {
+            counter[0]++;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(item, new long[] { 1 });
+            return;
+        }
+        String minItem = null;
+        long[] min = null;
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            if (min == null || entry.getValue()[0] < min[0]) {
+                minItem = entry.getKey();
+                min = entry.getValue();
+            }
+        }
+        counters.remove(minItem);
+        min[0]++;
+        counters.put(item, min);
+    }
+
+    /**
+     * Returns the k items with highest count, from the most frequent
+     */
+    Map<String, Long> top(int k) {
+        List<Map.Entry<String, long[]>> entries = new ArrayList(counters.entrySet());
+        Collections.sort(entries, BY_COUNT_DESC);
+        ImmutableMap.Builder<String, Long> ret = ImmutableMap.builder();
+        for (int i = 0; i < Math.min(k, entries.size()); i++) {
+            ret.put(entries.get(i).getKey(), entries.get(i).getValue()[0]);
+        }
+        return ret.build();
+    }
+}
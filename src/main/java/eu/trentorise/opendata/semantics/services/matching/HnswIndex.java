@@ -0,0 +1,493 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Hierarchical Navigable Small World graph for approximate nearest neighbor
+ * search of unit vectors by dot product, see Malkov and Yashunin, "Efficient
+ * and robust approximate nearest neighbor search using Hierarchical Navigable
+ * Small World graphs". Nodes are identified by their insertion order.
+ *
+ * Adding nodes is not thread safe. Once all nodes are added, searches may run
+ * concurrently.
+ *
+ * @author David Leoni
+ */
+final class HnswIndex {
+
+    static final int DEFAULT_M = 16;
+    static final int DEFAULT_EF_CONSTRUCTION = 100;
+
+    /**
+     * Bound on node levels when reading an index. Levels are drawn as
+     * -ln(u) / ln(m) with u at least 2^-53 and m at least 2, so they stay
+     * below 54.
+     */
+    static final int MAX_LEVEL = 64;
+
+    private final int dimension;
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+
+    private float[][] vectors = new float[16][];
+    /**
+     * For each node and level, the neighbor count followed by the neighbors
+     */
+    private int[][][] links = new int[16][][];
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswIndex(int dimension, int m, int efConstruction, long seed) {
+        checkArgument(dimension > 0, "Dimension must be positive, found instead %s", dimension);
+        checkArgument(m > 1, "Maximum number of neighbors must be greater than 1, found instead %s", m);
+        checkArgument(efConstruction > 0, "efConstruction must be positive, found instead %s", efConstruction);
+        this.dimension = dimension;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new Random(seed);
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Dot product with four independent accumulators, so additions don't
+     * wait for each other
+     */
+    private static float dot(float[] a, float[] b) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int n = a.length & ~3;
+        int i = 0;
+        for (; i < n; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Adds a vector, which is not copied
+     *
+     * @return the node id
+     */
+    int add(float[] vector) {
+        checkArgument(vector.length == dimension, "Expected vector of dimension %s, found instead %s", dimension,
+                vector.length);
+        if (size == vectors.length) {
+            vectors = Arrays.copyOf(vectors, size * 2);
+            links = Arrays.copyOf(links, size * 2);
+        }
+        int node = size;
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        vectors[node] = vector;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxNeighbors(l) + 1];
+        }
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedy(vector, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap found = searchLayer(vector, ep, efConstruction, l);
+            int[] nodes = new int[found.size()];
+            float[] sims = new float[nodes.length];
+            found.drainDescending(nodes, sims);
+            int count = selectNeighbors(nodes, sims, nodes.length, m);
+            for (int i = 0; i < count; i++) {
+                connect(node, nodes[i], l);
+                connect(nodes[i], node, l);
+            }
+            ep = nodes[0];
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    private int maxNeighbors(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    /**
+     * Links {@code from} to {@code to} at given level. If {@code from} has
+     * already all the neighbors it can have, its neighbors are selected again
+     * among the old ones and {@code to}.
+     */
+    private void connect(int from, int to, int level) {
+        int[] neighbors = links[from][level];
+        int count = neighbors[0];
+        if (count < neighbors.length - 1) {
+            neighbors[count + 1] = to;
+            neighbors[0]++;
+            return;
+        }
+        float[] v = vectors[from];
+        int[] candidates = new int[count + 1];
+        float[] sims = new float[count + 1];
+        candidates[0] = to;
+        sims[0] = dot(v, vectors[to]);
+        for (int i = 1; i <= count; i++) {
+            candidates[i] = neighbors[i];
+            sims[i] = dot(v, vectors[neighbors[i]]);
+        }
+        sortDescending(candidates, sims);
+        int selected = selectNeighbors(candidates, sims, candidates.length, count);
+        System.arraycopy(candidates, 0, neighbors, 1, selected);
+        neighbors[0] = selected;
+    }
+
+    /**
+     * Selects neighbors with the heuristic of the HNSW paper: a candidate is
+     * kept only if it is more similar to the base node than to any already
+     * kept candidate, so links spread in different directions and clusters
+     * stay connected. Selected candidates are moved to the front of the
+     * arrays.
+     *
+     * @param candidates
+     *            candidates sorted by decreasing similarity to the base node
+     * @param sims
+     *            similarities of the candidates to the base node
+     * @return the number of selected candidates, at most max
+     */
+    private int selectNeighbors(int[] candidates, float[] sims, int length, int max) {
+        int selected = 0;
+        for (int i = 0; i < length && selected < max; i++) {
+            float[] v = vectors[candidates[i]];
+            boolean keep = true;
+            for (int j = 0; j < selected; j++) {
+                if (dot(v, vectors[candidates[j]]) > sims[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                candidates[selected] = candidates[i];
+                sims[selected] = sims[i];
+                selected++;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Insertion sort of the parallel arrays by decreasing similarity
+     */
+    private static void sortDescending(int[] nodes, float[] sims) {
+        for (int i = 1; i < nodes.length; i++) {
+            int node = nodes[i];
+            float sim = sims[i];
+            int j = i - 1;
+            while (j >= 0 && sims[j] < sim) {
+                nodes[j + 1] = nodes[j];
+                sims[j + 1] = sims[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            sims[j + 1] = sim;
+        }
+    }
+
+    /**
+     * Moves from the entry point to the neighbor most similar to the query
+     * until no neighbor improves
+     */
+    private int greedy(float[] query, int ep, int level) {
+        int current = ep;
+        float best = dot(query, vectors[current]);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbors = links[current][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float sim = dot(query, vectors[neighbors[i]]);
+                if (sim > best) {
+                    best = sim;
+                    current = neighbors[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns at most ef nodes most similar to the query found at given level,
+     * in a min heap
+     */
+    private NodeHeap searchLayer(float[] query, int ep, int ef, int level) {
+        BitSet visited = new BitSet(size);
+        NodeHeap candidates = new NodeHeap(ef, true);
+        NodeHeap results = new NodeHeap(ef, false);
+        float sim = dot(query, vectors[ep]);
+        visited.set(ep);
+        candidates.push(ep, sim);
+        results.push(ep, sim);
+        while (candidates.size() > 0) {
+            float candidateSim = candidates.peekScore();
+            int candidate = candidates.pop();
+            if (results.size() >= ef && candidateSim < results.peekScore()) {
+                break;
+            }
+            int[] neighbors = links[candidate][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float neighborSim = dot(query, vectors[neighbor]);
+                if (results.size() < ef || neighborSim > results.peekScore()) {
+                    candidates.push(neighbor, neighborSim);
+                    results.push(neighbor, neighborSim);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns at most max(k, ef) nodes most similar to the query, in a min
+     * heap
+     */
+    NodeHeap search(float[] query, int k, int ef) {
+        checkArgument(query.length == dimension, "Expected query of dimension %s, found instead %s", dimension,
+                query.length);
+        if (entryPoint < 0) {
+            return new NodeHeap(1, false);
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedy(query, ep, l);
+        }
+        return searchLayer(query, ep, Math.max(k, ef), 0);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(dimension);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int node = 0; node < size; node++) {
+            for (float f : vectors[node]) {
+                out.writeFloat(f);
+            }
+            out.writeInt(links[node].length);
+            for (int[] neighbors : links[node]) {
+                out.writeInt(neighbors[0]);
+                for (int i = 1; i <= neighbors[0]; i++) {
+                    out.writeInt(neighbors[i]);
+                }
+            }
+        }
+    }
+
+    static HnswIndex readFrom(DataInput in, long seed) throws IOException {
+        int dimension = in.readInt();
+        int m = in.readInt();
+        int efConstruction = in.readInt();
+        int size = in.readInt();
+        if (dimension <= 0 || m <= 1 || efConstruction <= 0 || size < 0) {
+            throw new IOException("Corrupted index header: dimension=" + dimension + ", m=" + m
+                    + ", efConstruction=" + efConstruction + ", size=" + size);
+        }
+        HnswIndex ret = new HnswIndex(dimension, m, efConstruction, seed);
+        ret.entryPoint = in.readInt();
+        ret.maxLevel = in.readInt();
+        if (ret.entryPoint < -1 || ret.entryPoint >= size || (size > 0) != (ret.entryPoint >= 0)) {
+            throw new IOException("Corrupted index: invalid entry point " + ret.entryPoint);
+        }
+        if (ret.maxLevel < -1 || ret.maxLevel > MAX_LEVEL || (size > 0) != (ret.maxLevel >= 0)) {
+            throw new IOException("Corrupted index: invalid max level " + ret.maxLevel);
+        }
+        ret.vectors = new float[Math.max(size, 16)][];
+        ret.links = new int[Math.max(size, 16)][][];
+        for (int node = 0; node < size; node++) {
+            float[] vector = new float[dimension];
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = in.readFloat();
+            }
+            int levels = in.readInt();
+            if (levels <= 0 || levels > ret.maxLevel + 1) {
+                throw new IOException("Corrupted index: node " + node + " has " + levels + " levels, max level is "
+                        + ret.maxLevel);
+            }
+            if (node == ret.entryPoint && levels != ret.maxLevel + 1) {
+                throw new IOException("Corrupted index: entry point " + node + " has " + levels
+                        + " levels, expected " + (ret.maxLevel + 1));
+            }
+            int[][] nodeLinks = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                int count = in.readInt();
+                if (count < 0 || count > ret.maxNeighbors(l)) {
+                    throw new IOException("Corrupted index: node " + node + " has " + count
+                            + " neighbors at level " + l);
+                }
+                nodeLinks[l] = new int[ret.maxNeighbors(l) + 1];
+                nodeLinks[l][0] = count;
+                for (int i = 1; i <= count; i++) {
+                    int neighbor = in.readInt();
+                    if (neighbor < 0 || neighbor >= size) {
+                        throw new IOException("Corrupted index: node " + node + " links to missing node "
+                                + neighbor);
+                    }
+                    nodeLinks[l][i] = neighbor;
+                }
+            }
+            ret.vectors[node] = vector;
+            ret.links[node] = nodeLinks;
+        }
+        // neighbors may come after the node, so their levels are checked once all are read
+        for (int node = 0; node < size; node++) {
+            int[][] nodeLinks = ret.links[node];
+            for (int l = 1; l < nodeLinks.length; l++) {
+                for (int i = 1; i <= nodeLinks[l][0]; i++) {
+                    int neighbor = nodeLinks[l][i];
+                    if (ret.links[neighbor].length <= l) {
+                        throw new IOException("Corrupted index: node " + node + " links at level " + l
+                                + " to node " + neighbor + " which is not in that level");
+                    }
+                }
+            }
+        }
+        ret.size = size;
+        return ret;
+    }
+
+    /**
+     * Binary heap of nodes with float scores, either min or max
+     */
+    static final class NodeHeap {
+
+        private final boolean max;
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+
+        NodeHeap(int capacity, boolean max) {
+            this.max = max;
+            this.nodes = new int[capacity + 1];
+            this.scores = new float[capacity + 1];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private boolean above(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!above(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        int pop() {
+            int ret = nodes[0];
+            size--;
+            int node = nodes[size];
+            float score = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && above(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!above(scores[child], score)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+            return ret;
+        }
+
+        /**
+         * Empties a min heap into the arrays, from the highest score
+         */
+        void drainDescending(int[] outNodes, float[] outScores) {
+            for (int i = size - 1; i >= 0; i--) {
+                outScores[i] = peekScore();
+                outNodes[i] = pop();
+            }
+        }
+    }
+}
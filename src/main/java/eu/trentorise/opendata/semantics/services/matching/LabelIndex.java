@@ -0,0 +1,339 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.traceprov.types.Concept;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Approximate nearest neighbor index over the names and descriptions of
+ * etypes, attribute definitions and concepts, to find the elements of a
+ * catalog with labels similar to a given text without comparing it against
+ * all of them. Each string of names and descriptions, in every locale, is
+ * embedded separately with an {@link Embedder}, so a text close to the label
+ * of an element in any language finds it. Vectors are kept in a Hierarchical
+ * Navigable Small World graph.
+ *
+ * Adding elements is not thread safe. Once all elements are added, searches
+ * may run concurrently.
+ *
+ * @author David Leoni
+ */
+public final class LabelIndex {
+
+    /**
+     * The kinds of indexed elements
+     */
+    public enum Kind {
+        ETYPE, ATTR_DEF, CONCEPT
+    }
+
+    /**
+     * Default minimum number of candidates explored by searches. Higher values
+     * give better recall and slower searches.
+     */
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    private static final byte[] MAGIC = { 'O', 'E', 'L', 'I' };
+    private static final int VERSION = 1;
+    private static final long SEED = 42;
+
+    private final Embedder embedder;
+    private final HnswIndex index;
+    private final List<Kind> kinds = new ArrayList();
+    private final List<String> ids = new ArrayList();
+    private final List<String> labels = new ArrayList();
+    private final Set<String> indexed = new HashSet();
+
+    /**
+     * Creates an empty index with default graph parameters
+     */
+    public LabelIndex(Embedder embedder) {
+        this(embedder, new HnswIndex(embedder.dimension(), HnswIndex.DEFAULT_M, HnswIndex.DEFAULT_EF_CONSTRUCTION,
+                SEED));
+    }
+
+    private LabelIndex(Embedder embedder, HnswIndex index) {
+        checkNotNull(embedder);
+        this.embedder = embedder;
+        this.index = index;
+    }
+
+    /**
+     * Indexes the etype and its attribute definitions
+     */
+    public void addEtype(Etype etype) {
+        checkNotNull(etype);
+        add(Kind.ETYPE, etype.getId(), etype.getName(), etype.getDescription());
+        for (AttrDef attrDef : etype.getAttrDefs().values()) {
+            addAttrDef(attrDef);
+        }
+    }
+
+    public void addAttrDef(AttrDef attrDef) {
+        checkNotNull(attrDef);
+        add(Kind.ATTR_DEF, attrDef.getId(), attrDef.getName(), attrDef.getDescription());
+    }
+
+    public void addConcept(Concept concept) {
+        checkNotNull(concept);
+        add(Kind.CONCEPT, concept.getId(), concept.getName(), concept.getDescription());
+    }
+
+    /**
+     * Indexes all the strings of the name and description of an element.
+     * Elements already in the index are skipped.
+     */
+    public void add(Kind kind, String id, Dict name, Dict description) {
+        checkNotNull(kind);
+        checkNotNull(id);
+        checkNotNull(name);
+        checkNotNull(description);
+        if (!indexed.add(kind + " " + id)) {
+            return;
+        }
+        addLabels(kind, id, name);
+        addLabels(kind, id, description);
+    }
+
+    private void addLabels(Kind kind, String id, Dict dict) {
+        for (Locale locale : dict.locales()) {
+            for (String label : dict.strings(locale)) {
+                if (label.trim().isEmpty()) {
+                    continue;
+                }
+                index.add(embedder.embed(label));
+                kinds.add(kind);
+                ids.add(id);
+                labels.add(label);
+            }
+        }
+    }
+
+    /**
+     * The number of indexed labels
+     */
+    public int size() {
+        return labels.size();
+    }
+
+    /**
+     * See {@link #search(String, int, Kind)}
+     */
+    public List<Match> search(String text, int k) {
+        return search(text, k, null);
+    }
+
+    /**
+     * Returns at most k elements whose labels are approximately the most
+     * similar to the text, from the most similar. Each element is returned
+     * once, with its best matching label. Fewer than k elements may be
+     * returned when filtering by kind.
+     *
+     * @param kind
+     *            the kind of elements to return, or null for all kinds
+     */
+    public List<Match> search(String text, int k, @Nullable Kind kind) {
+        checkNotNull(text);
+        checkArgument(k > 0, "k must be positive, found instead %s", k);
+        HnswIndex.NodeHeap found = index.search(embedder.embed(text), 4 * k, DEFAULT_EF_SEARCH);
+        int[] nodes = new int[found.size()];
+        float[] scores = new float[nodes.length];
+        found.drainDescending(nodes, scores);
+
+        ImmutableList.Builder<Match> ret = ImmutableList.builder();
+        Set<String> seen = new HashSet();
+        int count = 0;
+        for (int i = 0; i < nodes.length && count < k; i++) {
+            int node = nodes[i];
+            if (kind != null && kinds.get(node) != kind) {
+                continue;
+            }
+            if (seen.add(kinds.get(node) + " " + ids.get(node))) {
+                ret.add(new Match(kinds.get(node), ids.get(node), labels.get(node), scores[i]));
+                count++;
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * Writes the index in a binary format, including the embedded vectors.
+     * The stream is flushed but not closed.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        checkNotNull(out);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.write(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(labels.size());
+        for (int i = 0; i < labels.size(); i++) {
+            dos.writeByte(kinds.get(i).ordinal());
+            writeString(dos, ids.get(i));
+            writeString(dos, labels.get(i));
+        }
+        index.writeTo(dos);
+        dos.flush();
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(OutputStream)}. The stream is
+     * not closed.
+     *
+     * @param embedder
+     *            the embedder to embed queries and new labels, which must be
+     *            equivalent to the one used to build the index
+     * @throws IOException
+     *             if the stream is not a label index, it is corrupted or
+     *             its dimension doesn't match the embedder
+     */
+    public static LabelIndex readFrom(InputStream in, Embedder embedder) throws IOException {
+        checkNotNull(in);
+        checkNotNull(embedder);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        dis.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a label index, found header " + Arrays.toString(magic));
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported label index version " + version + ", expected " + VERSION);
+        }
+        int size = dis.readInt();
+        if (size < 0) {
+            throw new IOException("Corrupted label index, found size " + size);
+        }
+        List<Kind> kinds = new ArrayList();
+        List<String> ids = new ArrayList();
+        List<String> labels = new ArrayList();
+        for (int i = 0; i < size; i++) {
+            int ordinal = dis.readByte();
+            if (ordinal < 0 || ordinal >= Kind.values().length) {
+                throw new IOException("Corrupted label index, found kind " + ordinal);
+            }
+            kinds.add(Kind.values()[ordinal]);
+            ids.add(readString(dis));
+            labels.add(readString(dis));
+        }
+        HnswIndex index = HnswIndex.readFrom(dis, SEED);
+        if (index.size() != size) {
+            throw new IOException("Corrupted label index, found " + size + " labels and " + index.size()
+                    + " vectors");
+        }
+        if (index.dimension() != embedder.dimension()) {
+            throw new IOException("Index has dimension " + index.dimension() + " but embedder has dimension "
+                    + embedder.dimension());
+        }
+        LabelIndex ret = new LabelIndex(embedder, index);
+        ret.kinds.addAll(kinds);
+        ret.ids.addAll(ids);
+        ret.labels.addAll(labels);
+        for (int i = 0; i < size; i++) {
+            ret.indexed.add(kinds.get(i) + " " + ids.get(i));
+        }
+        return ret;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupted label index, found string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An element found by a search
+     */
+    public static final class Match {
+
+        private final Kind kind;
+        private final String id;
+        private final String label;
+        private final double score;
+
+        private Match(Kind kind, String id, String label, double score) {
+            this.kind = kind;
+            this.id = id;
+            this.label = label;
+            this.score = score;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * The id of the etype, attribute definition or concept
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * The label of the element most similar to the searched text
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * The cosine similarity between the embeddings of the searched text
+         * and of the label
+         */
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return "Match{kind=" + kind + ", id=" + id + ", label=" + label + ", score=" + score + "}";
+        }
+    }
+}
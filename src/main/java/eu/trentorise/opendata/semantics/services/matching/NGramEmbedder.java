@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Embeds texts by hashing their character n-grams into a fixed number of
+ * dimensions, with a sign taken from the hash to reduce the bias of
+ * collisions. Texts are normalized as names first, so {@code openingHours}
+ * and {@code opening hours} get the same vector. It needs no model nor
+ * training data, but it only captures spelling similarity, not synonyms.
+ *
+ * @author David Leoni
+ */
+public final class NGramEmbedder implements Embedder {
+
+    /**
+     * Default number of dimensions
+     */
+    public static final int DEFAULT_DIMENSION = 256;
+
+    private static final int MIN_N = 3;
+    private static final int MAX_N = 4;
+
+    private final int dimension;
+
+    public NGramEmbedder() {
+        this(DEFAULT_DIMENSION);
+    }
+
+    public NGramEmbedder(int dimension) {
+        checkArgument(dimension > 0, "Dimension must be positive, found instead %s", dimension);
+        this.dimension = dimension;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Hashes the trigrams and four-grams of the normalized text padded with
+     * spaces
+     */
+    @Override
+    public float[] embed(String text) {
+        checkNotNull(text);
+        float[] ret = new float[dimension];
+        String normalized = NameProfile.normalize(text);
+        if (normalized.isEmpty()) {
+            return ret;
+        }
+        String padded = " " + normalized + " ";
+        for (int n = MIN_N; n <= MAX_N; n++) {
+            for (int i = 0; i + n <= padded.length(); i++) {
+                int hash = hash(padded, i, i + n);
+                ret[(hash >>> 1) % dimension] += (hash & 1) == 0 ? 1 : -1;
+            }
+        }
+        double norm = 0;
+        for (float f : ret) {
+            norm += f * f;
+        }
+        if (norm > 0) {
+            float inv = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] *= inv;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * FNV-1a hash of the characters in the range, with final mixing
+     */
+    private static int hash(String s, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            h ^= s.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "NGramEmbedder{dimension=" + dimension + "}";
+    }
+}
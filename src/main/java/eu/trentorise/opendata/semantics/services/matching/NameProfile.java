@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A name normalized for fuzzy comparison, with the sorted hashes of its
+ * character trigrams. Names are lower cased and split into words at
+ * non-alphanumeric characters and at camel case boundaries, so
+ * {@code openingHours}, {@code OPENING_HOURS} and {@code opening hours} get
+ * the same profile.
+ *
+ * @author David Leoni
+ */
+final class NameProfile {
+
+    private static final int[] NO_TRIGRAMS = new int[0];
+
+    private final String normalized;
+    private final int[] trigrams;
+
+    private NameProfile(String normalized) {
+        this.normalized = normalized;
+        this.trigrams = trigrams(normalized);
+    }
+
+    static NameProfile of(String name) {
+        return new NameProfile(normalize(name));
+    }
+
+    String getNormalized() {
+        return normalized;
+    }
+
+    /**
+     * Returns the Dice coefficient of the trigrams of the two names, in the
+     * range [0, 1]
+     */
+    double similarity(NameProfile other) {
+        if (normalized.isEmpty() || other.normalized.isEmpty()) {
+            return 0;
+        }
+        if (normalized.equals(other.normalized)) {
+            return 1;
+        }
+        int[] a = trigrams;
+        int[] b = other.trigrams;
+        int i = 0;
+        int j = 0;
+        int common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return 2.0 * common / (a.length + b.length);
+    }
+
+    /**
+     * Lower cases the name and separates its words with single spaces
+     */
+    static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        char prev = ' ';
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (Character.isUpperCase(c) && Character.isLowerCase(prev)) {
+                    sb.append(' ');
+                }
+                sb.append(c);
+            } else if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+                sb.append(' ');
+            }
+            prev = c;
+        }
+        int end = sb.length();
+        if (end > 0 && sb.charAt(end - 1) == ' ') {
+            sb.setLength(end - 1);
+        }
+        return sb.toString().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Hashes of the trigrams of the name padded with spaces, sorted and
+     * without duplicates
+     */
+    private static int[] trigrams(String normalized) {
+        if (normalized.isEmpty()) {
+            return NO_TRIGRAMS;
+        }
+        String padded = " " + normalized + " ";
+        int[] ret = new int[padded.length() - 2];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = (padded.charAt(i) * 31 + padded.charAt(i + 1)) * 31 + padded.charAt(i + 2);
+        }
+        Arrays.sort(ret);
+        int n = 0;
+        for (int i = 0; i < ret.length; i++) {
+            if (i == 0 || ret[i] != ret[i - 1]) {
+                ret[n++] = ret[i];
+            }
+        }
+        return n == ret.length ? ret : Arrays.copyOf(ret, n);
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.exceptions.UnsupportedFeatureException;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.services.AttrMapping;
+import eu.trentorise.opendata.semantics.services.IKnowledgeService;
+import eu.trentorise.opendata.semantics.services.MappingOrderings;
+import eu.trentorise.opendata.semantics.services.SchemaMapping;
+import eu.trentorise.opendata.semantics.services.TopK;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Matches the columns of a source schema against the attribute definitions of
+ * candidate etypes, in process. Each column gets a score with each attribute
+ * definition combining name similarity, datatype compatibility and, when both
+ * have a concept and a knowledge service is available, concept distance.
+ * Columns are then assigned greedily to distinct attribute definitions, and
+ * the score of an etype is the average score of its assigned columns.
+ *
+ * Etypes are scored in parallel. Once k candidates are known, etypes which
+ * can't beat the k-th best score anymore are abandoned as soon as their
+ * partial score shows it.
+ *
+ * Matchers are thread safe and should be reused, as they cache concept
+ * distances.
+ *
+ * @author David Leoni
+ */
+public final class SchemaMatcher {
+
+    /**
+     * Number of schema mappings returned by default
+     */
+    public static final int DEFAULT_TOP_K = 10;
+
+    /**
+     * Column to attribute scores below this value are not turned into
+     * mappings by default
+     */
+    public static final double DEFAULT_MIN_ATTR_SCORE = 0.3;
+
+    static final double NAME_WEIGHT = 0.6;
+    static final double DATATYPE_WEIGHT = 0.25;
+    static final double CONCEPT_WEIGHT = 0.15;
+
+    /**
+     * Etypes scored by a single task
+     */
+    private static final int SPLIT_THRESHOLD = 16;
+
+    @Nullable
+    private final IKnowledgeService ks;
+    private final ForkJoinPool pool;
+    private final int topK;
+    private final double minAttrScore;
+    private final ConcurrentMap<String, Double> conceptSimilarities = new ConcurrentHashMap();
+
+    /**
+     * Creates a matcher with default settings running on a shared pool
+     *
+     * @param ks
+     *            the service to compute concept distances with, or null to
+     *            ignore concepts.
+     */
+    public SchemaMatcher(@Nullable IKnowledgeService ks) {
+        this(ks, DefaultPool.POOL, DEFAULT_TOP_K, DEFAULT_MIN_ATTR_SCORE);
+    }
+
+    /**
+     * @param ks
+     *            the service to compute concept distances with, or null to
+     *            ignore concepts.
+     * @param pool
+     *            the pool etypes are scored in
+     * @param topK
+     *            maximum number of schema mappings to return
+     * @param minAttrScore
+     *            column to attribute scores below this value are not turned
+     *            into mappings
+     */
+    public SchemaMatcher(@Nullable IKnowledgeService ks, ForkJoinPool pool, int topK, double minAttrScore) {
+        checkNotNull(pool);
+        checkArgument(topK >= 0, "topK must be non negative, found instead %s", topK);
+        checkArgument(minAttrScore >= 0 && minAttrScore <= 1, "minAttrScore must be in [0,1], found instead %s",
+                minAttrScore);
+        this.ks = ks;
+        this.pool = pool;
+        this.topK = topK;
+        this.minAttrScore = minAttrScore;
+    }
+
+    /**
+     * Returns the best mappings of the columns to the etypes, from the best
+     * to the worst. Etypes without attribute definitions are skipped.
+     */
+    public List<SchemaMapping> match(List<SourceColumn> columns, Collection<Etype> etypes) {
+        checkNotNull(columns);
+        checkNotNull(etypes);
+        if (columns.isEmpty() || etypes.isEmpty() || topK == 0) {
+            return ImmutableList.of();
+        }
+        Column[] cols = new Column[columns.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = new Column(checkNotNull(columns.get(i)));
+        }
+        Run run = new Run(cols, ImmutableList.copyOf(etypes));
+        return pool.invoke(new MatchTask(run, 0, run.etypes.size())).toList();
+    }
+
+    /**
+     * Returns the score of a column with an attribute definition, in the
+     * range [0, 1]
+     */
+    double score(SourceColumn column, AttrDef attrDef) {
+        return score(new Column(column), new Attribute(attrDef));
+    }
+
+    private double score(Column column, Attribute attr) {
+        double name = 0;
+        for (NameProfile attrName : attr.names) {
+            name = Math.max(name, column.name.similarity(attrName));
+        }
+        double datatype = datatypeCompatibility(column.column.getDatatype(), attr.attrDef.getType().getDatatype());
+        double ret;
+        Double concept = conceptSimilarity(column.column.getConceptId(), attr.attrDef.getConceptId());
+        if (concept == null) {
+            ret = (NAME_WEIGHT * name + DATATYPE_WEIGHT * datatype) / (NAME_WEIGHT + DATATYPE_WEIGHT);
+        } else {
+            ret = NAME_WEIGHT * name + DATATYPE_WEIGHT * datatype + CONCEPT_WEIGHT * concept;
+        }
+        return Math.min(1.0, ret);
+    }
+
+    /**
+     * How well values of the column datatype fit the attribute datatype, in
+     * the range [0, 1]
+     */
+    static double datatypeCompatibility(String columnDatatype, String attrDatatype) {
+        if (columnDatatype.isEmpty()) {
+            return 0.5;
+        }
+        if (columnDatatype.equals(attrDatatype)) {
+            return 1;
+        }
+        if (SourceColumn.isNumeric(columnDatatype) && SourceColumn.isNumeric(attrDatatype)) {
+            return 0.7;
+        }
+        if (DataTypes.STRUCTURE.equals(attrDatatype) || DataTypes.ENTITY.equals(attrDatatype)) {
+            return 0.2;
+        }
+        if (DataTypes.STRING.equals(columnDatatype) || DataTypes.STRING.equals(attrDatatype)) {
+            return 0.4;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the similarity of the two concepts, or null if it can't be
+     * computed, also when the knowledge service doesn't support concept
+     * distances.
+     */
+    @Nullable
+    private Double conceptSimilarity(String columnConceptId, @Nullable String attrConceptId) {
+        if (ks == null || columnConceptId.isEmpty() || attrConceptId == null || attrConceptId.isEmpty()) {
+            return null;
+        }
+        String key = columnConceptId + ' ' + attrConceptId;
+        Double ret = conceptSimilarities.get(key);
+        if (ret == null) {
+            double distance;
+            try {
+                distance = ks.getConceptsDistance(columnConceptId, attrConceptId);
+            } catch (UnsupportedFeatureException ex) {
+                return null;
+            }
+            ret = Math.max(0, Math.min(1, 1 - distance));
+            conceptSimilarities.putIfAbsent(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Scores an etype, returning null if it has no attribute definitions or
+     * it can't reach the threshold.
+     */
+    @Nullable
+    private SchemaMapping scoreEtype(Column[] cols, Etype etype, double threshold) {
+        Collection<AttrDef> attrDefs = etype.getAttrDefs().values();
+        if (attrDefs.isEmpty()) {
+            return null;
+        }
+        Attribute[] attrs = new Attribute[attrDefs.size()];
+        int k = 0;
+        for (AttrDef attrDef : attrDefs) {
+            attrs[k++] = new Attribute(attrDef);
+        }
+
+        int n = cols.length;
+        double[][] scores = new double[n][attrs.length];
+        double bound = n;
+        for (int i = 0; i < n; i++) {
+            double best = 0;
+            for (int j = 0; j < attrs.length; j++) {
+                double s = score(cols[i], attrs[j]);
+                scores[i][j] = s;
+                best = Math.max(best, s);
+            }
+            // the etype score can't exceed the average of the best scores
+            bound -= 1 - best;
+            if (bound / n < threshold) {
+                return null;
+            }
+        }
+
+        List<Pair> pairs = new ArrayList();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < attrs.length; j++) {
+                if (scores[i][j] >= minAttrScore && scores[i][j] > 0) {
+                    pairs.add(new Pair(i, j, scores[i][j]));
+                }
+            }
+        }
+        Pair[] sorted = pairs.toArray(new Pair[pairs.size()]);
+        Arrays.sort(sorted, Pair.BY_SCORE_DESC);
+
+        boolean[] usedCols = new boolean[n];
+        boolean[] usedAttrs = new boolean[attrs.length];
+        List<AttrMapping> mappings = new ArrayList();
+        double total = 0;
+        for (Pair pair : sorted) {
+            if (usedCols[pair.col] || usedAttrs[pair.attr]) {
+                continue;
+            }
+            usedCols[pair.col] = true;
+            usedAttrs[pair.attr] = true;
+            total += pair.score;
+            mappings.add(AttrMapping.of(cols[pair.col].column.getSourcePath(),
+                    ImmutableList.of(attrs[pair.attr].attrDef.getId()), pair.score));
+        }
+        return SchemaMapping.of(mappings, etype, Math.min(1.0, total / n));
+    }
+
+    @Override
+    public String toString() {
+        return "SchemaMatcher{topK=" + topK + ", minAttrScore=" + minAttrScore + "}";
+    }
+
+    /**
+     * A source column with its name profile
+     */
+    private static final class Column {
+
+        final SourceColumn column;
+        final NameProfile name;
+
+        Column(SourceColumn column) {
+            this.column = column;
+            this.name = NameProfile.of(column.getName());
+        }
+    }
+
+    /**
+     * An attribute definition with the profiles of its names and of the
+     * local part of its id
+     */
+    private static final class Attribute {
+
+        final AttrDef attrDef;
+        final List<NameProfile> names;
+
+        Attribute(AttrDef attrDef) {
+            this.attrDef = attrDef;
+            this.names = new ArrayList();
+            Dict dict = attrDef.getName();
+            for (Locale locale : dict.locales()) {
+                for (String name : dict.strings(locale)) {
+                    names.add(NameProfile.of(name));
+                }
+            }
+            String id = attrDef.getId();
+            int start = Math.max(id.lastIndexOf('/'), Math.max(id.lastIndexOf('#'), id.lastIndexOf(':'))) + 1;
+            names.add(NameProfile.of(id.substring(start)));
+        }
+    }
+
+    private static final class Pair {
+
+        static final Comparator<Pair> BY_SCORE_DESC = new Comparator<Pair>() {
+            @Override
+            public int compare(Pair a, Pair b) {
+                int ret = Double.compare(b.score, a.score);
+                if (ret != 0) {
+                    return ret;
+                }
+                return a.col != b.col ? a.col - b.col : a.attr - b.attr;
+            }
+        };
+
+        final int col;
+        final int attr;
+        final double score;
+
+        Pair(int col, int attr, double score) {
+            this.col = col;
+            this.attr = attr;
+            this.score = score;
+        }
+    }
+
+    /**
+     * State shared by the tasks of a match
+     */
+    private static final class Run {
+
+        final Column[] cols;
+        final List<Etype> etypes;
+
+        /**
+         * Bits of a score known not to exceed the k-th best one
+         */
+        final AtomicLong threshold = new AtomicLong(Double.doubleToLongBits(0));
+
+        Run(Column[] cols, List<Etype> etypes) {
+            this.cols = cols;
+            this.etypes = etypes;
+        }
+
+        double threshold() {
+            return Double.longBitsToDouble(threshold.get());
+        }
+
+        void raise(double score) {
+            while (true) {
+                long cur = threshold.get();
+                if (Double.longBitsToDouble(cur) >= score
+                        || threshold.compareAndSet(cur, Double.doubleToLongBits(score))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private final class MatchTask extends RecursiveTask<TopK<SchemaMapping>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final int from;
+        private final int to;
+
+        MatchTask(Run run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK<SchemaMapping> compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                MatchTask left = new MatchTask(run, from, mid);
+                left.fork();
+                TopK<SchemaMapping> ret = new MatchTask(run, mid, to).compute();
+                for (SchemaMapping mapping : left.join().toList()) {
+                    ret.offer(mapping);
+                }
+                return ret;
+            }
+            TopK<SchemaMapping> ret = new TopK(topK, MappingOrderings.SCHEMA_MAPPINGS);
+            for (int i = from; i < to; i++) {
+                SchemaMapping mapping = scoreEtype(run.cols, run.etypes.get(i), run.threshold());
+                if (mapping != null && ret.offer(mapping) && ret.isFull()) {
+                    run.raise(ret.threshold().getScore());
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Pool used by default, created on first use.
+     */
+    private static final class DefaultPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+}
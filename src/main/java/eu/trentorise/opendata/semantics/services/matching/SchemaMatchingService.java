@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import eu.trentorise.opendata.semantics.services.IEkb;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.ISchemaMatchingService;
+import eu.trentorise.opendata.semantics.services.SchemaMapping;
+import eu.trentorise.opendata.traceprov.data.DcatMetadata;
+import eu.trentorise.opendata.traceprov.types.TraceType;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Schema matching service running a {@link SchemaMatcher} in process against
+ * all the etypes of an etype service. Source columns are extracted from the
+ * data sample, see {@link SourceColumn#fromData(Object)}.
+ *
+ * @author David Leoni
+ */
+public class SchemaMatchingService implements ISchemaMatchingService {
+
+    private final IEtypeService ets;
+    private final SchemaMatcher matcher;
+
+    /**
+     * Creates a service matching against the etypes of the ekb, using its
+     * knowledge service for concept distances.
+     */
+    public SchemaMatchingService(IEkb ekb) {
+        this(ekb.getEtypeService(), new SchemaMatcher(ekb.getKnowledgeService()));
+    }
+
+    public SchemaMatchingService(IEtypeService ets, SchemaMatcher matcher) {
+        checkNotNull(ets);
+        checkNotNull(matcher);
+        this.ets = ets;
+        this.matcher = matcher;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the data sample is used: {@code dcatMetadata} and {@code schema}
+     * are ignored, and a null or non iterable {@code data} gives an empty
+     * list.
+     */
+    @Override
+    public List<SchemaMapping> matchSchemas(DcatMetadata dcatMetadata, TraceType schema, @Nullable Object data) {
+        return matcher.match(SourceColumn.fromData(data), ets.readAllEtypes());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.services.matching;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.services.Schemas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A column of a source schema to be matched against etype attributes, with
+ * its name, the datatype guessed from the data and optionally a concept.
+ * Columns are immutable.
+ *
+ * @author David Leoni
+ */
+public final class SourceColumn {
+
+    private final String name;
+    private final String datatype;
+    private final String conceptId;
+    private final ImmutableList<String> sourcePath;
+
+    private SourceColumn(String name, String datatype, String conceptId) {
+        this.name = name;
+        this.datatype = datatype;
+        this.conceptId = conceptId;
+        this.sourcePath = ImmutableList.of(Schemas.SCHEMA_SOURCE, name);
+    }
+
+    /**
+     * @param datatype
+     *            one of {@link DataTypes} datatypes, or the empty string if
+     *            unknown
+     * @param conceptId
+     *            the concept of the column, or the empty string if unknown
+     */
+    public static SourceColumn of(String name, String datatype, String conceptId) {
+        checkNotNull(name);
+        checkNotNull(datatype);
+        checkNotNull(conceptId);
+        return new SourceColumn(name, datatype, conceptId);
+    }
+
+    /**
+     * Returns a column with unknown datatype and concept
+     */
+    public static SourceColumn of(String name) {
+        return of(name, "", "");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * One of {@link DataTypes} datatypes, or the empty string if unknown
+     */
+    public String getDatatype() {
+        return datatype;
+    }
+
+    /**
+     * The concept of the column, or the empty string if unknown
+     */
+    public String getConceptId() {
+        return conceptId;
+    }
+
+    /**
+     * The path of the column in the source schema, to be used in
+     * {@link eu.trentorise.opendata.semantics.services.AttrMapping}s
+     */
+    public List<String> getSourcePath() {
+        return sourcePath;
+    }
+
+    /**
+     * Extracts the columns from a sample of data organized as a list of rows,
+     * each being a map from column name to value, like the data passed to
+     * {@link eu.trentorise.opendata.semantics.services.ISchemaMatchingService#matchSchemas}.
+     * The datatype of each column is inferred from its values by a
+     * {@link ColumnProfiler}, so strings holding numbers, booleans or dates
+     * count as such. Rows which are not maps are skipped.
+     */
+    public static List<SourceColumn> fromData(@Nullable Object data) {
+        List<SourceColumn> ret = new ArrayList();
+        for (ColumnProfile profile : ColumnProfiler.profile(data)) {
+            ret.add(profile.toSourceColumn());
+        }
+        return ret;
+    }
+
+    static boolean isNumeric(String datatype) {
+        return DataTypes.INTEGER.equals(datatype) || DataTypes.LONG.equals(datatype)
+                || DataTypes.FLOAT.equals(datatype);
+    }
+
+    @Override
+    public String toString() {
+        return "SourceColumn{name=" + name + ", datatype=" + datatype + ", conceptId=" + conceptId + "}";
+    }
+}
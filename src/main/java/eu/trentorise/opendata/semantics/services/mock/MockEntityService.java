@@ -1,7 +1,11 @@
 package eu.trentorise.opendata.semantics.services.mock;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.semantics.io.CsvExporter;
+import eu.trentorise.opendata.semantics.io.JsonLdExporter;
+import eu.trentorise.opendata.semantics.io.RdfExporter;
 import eu.trentorise.opendata.semantics.model.entity.AStruct;
 import eu.trentorise.opendata.semantics.model.entity.Entity;
 import eu.trentorise.opendata.semantics.model.entity.Etype;
@@ -10,7 +14,6 @@ import eu.trentorise.opendata.semantics.services.EntityQuery;
 import eu.trentorise.opendata.semantics.services.IEkb;
 import eu.trentorise.opendata.semantics.services.IEntityService;
 import eu.trentorise.opendata.semantics.services.SearchResult;
-import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
@@ -131,61 +134,20 @@ public class MockEntityService implements IEntityService {
 
     @Override
     public void exportToRdf(Iterable<String> entityIds, Writer writer) {
-	try {
-	    writer.write("<?xml version=\"1.0\"?>\n" + "\n" + "<rdf:RDF\n"
-		    + "xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n"
-		    + "xmlns:cd=\"http://www.recshop.fake/cd#\">>\n" + "</rdf:RDF>");
-	} catch (IOException ex) {
-	    LOG.log(Level.SEVERE, "Couldn't write rdf to file", ex);
-	}
+	new RdfExporter(this, ekb.getEtypeService(), RdfExporter.Format.TURTLE).export(entityIds, writer);
     }
 
     @Override
     public void exportToJsonLd(Iterable<String> entityIds, Writer writer) {
-	try {
-	    writer.write("    {\n" + "  \"@context\": {\n" + "    \"name\": \"http://xmlns.com/foaf/0.1/name\",\n"
-		    + "    \"homepage\": {\n" + "      \"@id\": \"http://xmlns.com/foaf/0.1/homepage\",\n"
-		    + "      \"@type\": \"@id\"\n" + "    }\n" + "  },\n" + "  \"name\": \"Test\",\n"
-		    + "  \"homepage\": \"http://test.org/\"\n" + "}");
-	} catch (IOException ex) {
-	    LOG.log(Level.SEVERE, "Couldn't write json-ld to file", ex);
-	}
-
+	new JsonLdExporter(this, ekb.getEtypeService()).export(entityIds, writer);
     }
 
     @Override
     public void exportToCsv(Iterable<String> entityIds, Writer writer) {
-	try {
-	    writer.write("testcol1,testcol2,testcol3,testcol3");
-	} catch (IOException ex) {
-	    LOG.log(Level.SEVERE, "Couldn't write csv to file", ex);
-	}
-	/*
-	 * CSVWriter csvWriter = new CSVWriter(new OutputStreamWriter(new
-	 * FileOutputStream(absSemantifiedFile), "UTF-8"), ',');
-	 * ArrayList<String> headerStrings = new ArrayList<String>();
-	 * List<Column> columns = getProject().getColumnModel().getColumns();
-	 * for (int i = 0; i < columns.size(); i++) { if
-	 * (OdrColumnOverlay.getOverlay(getProject(), i) instanceof
-	 * TargetColumnOverlay) { headerStrings.add(columns.strs(i).getName());
-	 * } }
-	 * 
-	 * csvWriter.writeNext(headerStrings.toArray(new
-	 * String[headerStrings.size()]));
-	 * 
-	 * for (Row row : getProject().getRows()) { ArrayList<String>
-	 * cellStrings = new ArrayList<String>(); for (int i = 0; i <
-	 * columns.size(); i++) { if (OdrColumnOverlay.getOverlay(getProject(),
-	 * i) instanceof TargetColumnOverlay) {
-	 * cellStrings.add(OdrDataTypes.formatForCsv(row.getCell(columns.strs(i)
-	 * .getCellIndex()))); } } csvWriter.writeNext(cellStrings.toArray(new
-	 * String[cellStrings.size()])); }
-	 * 
-	 * 
-	 * 
-	 * csvWriter.close();
-	 */
-
+	checkNotNull(entityIds);
+	checkArgument(!Iterables.isEmpty(entityIds), "Tried to export an empty list of entities!");
+	Etype etype = ekb.getEtypeService().readEtype(readEntity(Iterables.getFirst(entityIds, null)).getEtypeId());
+	new CsvExporter(this, etype, ekb.getEtypeService()).export(entityIds, writer);
     }
 
 
@@ -7,6 +7,7 @@ import static eu.trentorise.opendata.semantics.DataTypes.AT_FLOAT;
 import static eu.trentorise.opendata.semantics.DataTypes.AT_STRING;
 import eu.trentorise.opendata.semantics.model.entity.AttrType;
 import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Canonicals;
 import eu.trentorise.opendata.semantics.model.entity.Etype;
 import eu.trentorise.opendata.semantics.services.IEtypeService;
 import eu.trentorise.opendata.semantics.services.SearchResult;
@@ -218,10 +219,10 @@ public class MockEtypeService implements IEtypeService {
     private Etype newEtype(String URL, String engName, String itName, List<AttrDef> attrs, String conceptUrl) {
         Etype.Builder b = Etype.builder();
         b.setId(URL);
-        b.setName(Dict.builder()
+        b.setName(Canonicals.dict(Dict.builder()
                       .put(Locale.ENGLISH, engName)
                       .put(Locale.ITALIAN, itName)
-                      .build());
+                      .build()));
 
         for (AttrDef attrDef : attrs) {
             b.putAttrDefs(attrDef.getId(), attrDef);
@@ -254,11 +255,11 @@ public class MockEtypeService implements IEtypeService {
     static AttrDef newAttrDef(String URL, String engName, String itName, AttrType attrType) {
         return AttrDef.builder()
                       .setId(URL)
-                      .setName(Dict.builder()
+                      .setName(Canonicals.dict(Dict.builder()
                                    .put(Locale.ENGLISH, engName)
                                    .put(Locale.ITALIAN, itName)
-                                   .build())
-                      .setType(attrType)
+                                   .build()))
+                      .setType(Canonicals.attrType(attrType))
                       .build();
     }
 
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static eu.trentorise.opendata.commons.validation.Preconditions.checkNotDirtyUrl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+
+import javax.annotation.Nullable;
+
+/**
+ * Checks the objects stored in the values of attributes of a given type. All
+ * the lookups depending only on the type, like finding the Java class of the
+ * datatype, are done once when the validator is created, so checking a value
+ * costs an {@code isInstance} call plus the URL check for references to
+ * structs and entities. If the type has a
+ * {@link AttrType#getRegularExpression() regular expression}, string values
+ * can also be matched against it with
+ * {@link #validateWithRegex(Object, long)}; matching reuses the cached
+ * {@link CompiledRegex} and can be limited to a number of steps per character
+ * of the value.
+ *
+ * Validators are immutable and cached per type, get them with
+ * {@link #of(AttrType)}.
+ *
+ * @author David Leoni
+ */
+public final class AttrTypeValidator {
+
+    /**
+     * Maximum number of validators kept in cache
+     */
+    public static final int MAX_CACHED_VALIDATORS = 1000;
+
+    private static final Cache<AttrType, AttrTypeValidator> VALIDATORS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_VALIDATORS)
+            .build();
+
+    /**
+     * Default maximum number of steps per value character allowed when
+     * matching the regular expression of a type, see {@link CompiledRegex}
+     */
+    public static final long DEFAULT_MAX_REGEX_STEPS_PER_CHAR = 1000;
+
+    /**
+     * Steps per character meaning regular expressions are matched without
+     * any step limit
+     */
+    public static final long UNLIMITED_REGEX_STEPS = 0;
+
+    private final AttrType type;
+
+    @Nullable
+    private final Class javaClass;
+
+    private final boolean reference;
+
+    @Nullable
+    private final CompiledRegex regex;
+
+    private final boolean invalidRegex;
+
+    private AttrTypeValidator(AttrType type) {
+        this.type = type;
+        String datatype = type.getDatatype();
+        this.javaClass = DataTypes.getDataTypes().get(datatype);
+        this.reference = DataTypes.STRUCTURE.equals(datatype) || DataTypes.ENTITY.equals(datatype);
+
+        CompiledRegex compiled = null;
+        boolean invalid = false;
+        if (!type.getRegularExpression().isEmpty()) {
+            try {
+                compiled = CompiledRegex.of(type.getRegularExpression());
+            } catch (IllegalArgumentException ex) {
+                invalid = true;
+            }
+        }
+        this.regex = compiled;
+        this.invalidRegex = invalid;
+    }
+
+    /**
+     * Returns the validator of provided type.
+     */
+    public static AttrTypeValidator of(AttrType type) {
+        checkNotNull(type, "Found null type!");
+        AttrTypeValidator ret = VALIDATORS.getIfPresent(type);
+        if (ret == null) {
+            ret = new AttrTypeValidator(type);
+            VALIDATORS.put(type, ret);
+        }
+        return ret;
+    }
+
+    public AttrType getType() {
+        return type;
+    }
+
+    /**
+     * Returns true if the datatype of the type is among
+     * {@link DataTypes#getDataTypes() supported ones}
+     */
+    public boolean isSupported() {
+        return javaClass != null;
+    }
+
+    /**
+     * Checks provided object can be stored in a value of the type. NOTE: in
+     * case it is a structure or entity, subvalues are *NOT* checked.
+     *
+     * The regular expression of the type is not matched, see
+     * {@link #checkWithRegex(Object, long)} for that.
+     *
+     * @throws IllegalArgumentException
+     *             if the object is null or doesn't correspond to the
+     *             datatype, or the datatype is not supported.
+     */
+    public void check(@Nullable Object obj) {
+        validate(obj).throwIfInvalid();
+    }
+
+    /**
+     * Checks provided object can be stored in a value of the type, like
+     * {@link #check(Object)} does, without throwing exceptions.
+     */
+    public ValidationResult validate(@Nullable Object obj) {
+        return result(violation(obj));
+    }
+
+    /**
+     * Checks provided object like {@link #check(Object)} does, and if it is a
+     * string also matches it against the regular expression of the type.
+     *
+     * @param maxStepsPerChar
+     *            maximum number of steps per character of the string allowed
+     *            while matching, or {@link #UNLIMITED_REGEX_STEPS}
+     * @throws IllegalArgumentException
+     *             if the object is not accepted by {@link #check(Object)}, or
+     *             it is a string not matching the regular expression within
+     *             the step limit, or the regular expression is invalid.
+     */
+    public void checkWithRegex(@Nullable Object obj, long maxStepsPerChar) {
+        validateWithRegex(obj, maxStepsPerChar).throwIfInvalid();
+    }
+
+    /**
+     * Checks provided object like {@link #checkWithRegex(Object, long)} does,
+     * without throwing exceptions.
+     */
+    public ValidationResult validateWithRegex(@Nullable Object obj, long maxStepsPerChar) {
+        checkArgument(maxStepsPerChar >= 0, "Max steps per char must be >= 0, found instead %s", maxStepsPerChar);
+        return result(violation(obj, maxStepsPerChar));
+    }
+
+    private static ValidationResult result(@Nullable LazyMessage violation) {
+        return violation == null ? ValidationResult.valid() : ValidationResult.invalid("", violation);
+    }
+
+    /**
+     * Returns the reason why provided object can't be stored in a value of
+     * the type, or null if it can. The regular expression is not matched.
+     */
+    @Nullable
+    LazyMessage violation(@Nullable Object obj) {
+        return violation(obj, -1);
+    }
+
+    /**
+     * Returns the reason why provided object can't be stored in a value of
+     * the type or doesn't match its regular expression, or null if it can.
+     *
+     * @param maxStepsPerChar
+     *            the step limit, {@link #UNLIMITED_REGEX_STEPS}, or a negative
+     *            number not to match the regular expression at all.
+     */
+    @Nullable
+    LazyMessage violation(@Nullable Object obj, long maxStepsPerChar) {
+        if (obj == null) {
+            return LazyMessage.of("Found null object!");
+        }
+        if (javaClass == null) {
+            return LazyMessage.of("Found unsupported datatype %s in value %s. Its class is %s", type.getDatatype(),
+                    obj, obj.getClass().getName());
+        }
+        if (javaClass.isInstance(obj)) {
+            return maxStepsPerChar >= 0 && obj instanceof CharSequence
+                    ? regexViolation((CharSequence) obj, maxStepsPerChar) : null;
+        }
+        if (reference && obj instanceof String) {
+            return isDirtyUrl((String) obj) ? LazyMessage.of("Found invalid %s URL for referenced structure!!",
+                    type.getDatatype()) : null;
+        }
+        return LazyMessage.of("Found value not corresponding to its datatype %s. Value is %s. Its class is %s",
+                type.getDatatype(), obj, obj.getClass().getName());
+    }
+
+    @Nullable
+    private LazyMessage regexViolation(CharSequence obj, long maxStepsPerChar) {
+        if (invalidRegex) {
+            return LazyMessage.of("Found invalid regular expression %s in type %s", type.getRegularExpression(),
+                    type);
+        }
+        if (regex == null) {
+            return null;
+        }
+        try {
+            boolean matches;
+            if (maxStepsPerChar == UNLIMITED_REGEX_STEPS) {
+                matches = regex.matches(obj);
+            } else {
+                matches = regex.matches(obj, maxStepsPerChar > Long.MAX_VALUE / (obj.length() + 1)
+                        ? Long.MAX_VALUE : maxStepsPerChar * (obj.length() + 1));
+            }
+            if (matches) {
+                return null;
+            }
+            return LazyMessage.of("Found value not matching regular expression %s. Value is %s",
+                    type.getRegularExpression(), obj);
+        } catch (CompiledRegex.StepLimitExceededException ex) {
+            return LazyMessage.of("Exceeded step limit while matching regular expression %s. Value is %s",
+                    type.getRegularExpression(), obj);
+        }
+    }
+
+    /**
+     * Returns true if provided url is not accepted by
+     * {@link eu.trentorise.opendata.commons.validation.Preconditions#checkNotDirtyUrl(String, Object)}
+     */
+    static boolean isDirtyUrl(@Nullable String url) {
+        try {
+            checkNotDirtyUrl(url, "");
+            return false;
+        } catch (IllegalArgumentException ex) {
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AttrTypeValidator{type=" + type + "}";
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import eu.trentorise.opendata.semantics.model.entity.AEntity;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates many entities in parallel on a fork join pool, collecting all the
+ * violations found instead of stopping at the first one. Entities are read
+ * from the iterable in chunks, so they don't need to fit in memory. Entities
+ * are checked with the plans of a {@link ValidationContext}.
+ *
+ * The number of collected violations can be limited per entity and overall.
+ * In fail fast mode validation stops at the first violation. When validation
+ * stops early, which violations are reported depends on thread scheduling.
+ *
+ * Validators are immutable and can be reused.
+ *
+ * @author David Leoni
+ */
+public final class BulkValidator {
+
+    public static final int DEFAULT_MAX_VIOLATIONS_PER_ENTITY = 10;
+
+    public static final int DEFAULT_MAX_VIOLATIONS = 1000;
+
+    /**
+     * Number of entities read from the iterable for each task submitted to
+     * the pool
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    /**
+     * Tasks with at most this number of entities are not split further
+     */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    private final ValidationContext context;
+    private final ForkJoinPool pool;
+    private final boolean synthetic;
+    private final boolean failFast;
+    private final int maxViolationsPerEntity;
+    private final int maxViolations;
+
+    /**
+     * Creates a validator collecting up to
+     * {@link #DEFAULT_MAX_VIOLATIONS_PER_ENTITY} per entity and
+     * {@link #DEFAULT_MAX_VIOLATIONS} overall, running on a shared pool with
+     * one thread per processor.
+     *
+     * @param synthetic
+     *            if true URLs and local ids of entities, attributes and
+     *            values are not checked
+     */
+    public BulkValidator(ValidationContext context, boolean synthetic) {
+        this(context, DefaultPool.POOL, synthetic, false, DEFAULT_MAX_VIOLATIONS_PER_ENTITY, DEFAULT_MAX_VIOLATIONS);
+    }
+
+    /**
+     * @param pool
+     *            the pool to run validation on. It is not shut down.
+     * @param synthetic
+     *            if true URLs and local ids of entities, attributes and
+     *            values are not checked
+     * @param failFast
+     *            if true validation stops at the first violation
+     */
+    public BulkValidator(ValidationContext context, ForkJoinPool pool, boolean synthetic, boolean failFast,
+            int maxViolationsPerEntity, int maxViolations) {
+        checkNotNull(context);
+        checkNotNull(pool);
+        checkArgument(maxViolationsPerEntity > 0, "maxViolationsPerEntity must be positive, found %s",
+                maxViolationsPerEntity);
+        checkArgument(maxViolations > 0, "maxViolations must be positive, found %s", maxViolations);
+        this.context = context;
+        this.pool = pool;
+        this.synthetic = synthetic;
+        this.failFast = failFast;
+        this.maxViolationsPerEntity = maxViolationsPerEntity;
+        this.maxViolations = maxViolations;
+    }
+
+    /**
+     * Validates provided entities. Entities whose etype is not in the context
+     * are reported as violations.
+     */
+    public ValidationReport validate(Iterable<? extends AEntity> entities) {
+        checkNotNull(entities);
+
+        Run run = new Run();
+        Deque<ForkJoinTask<List<Violation>>> window = new ArrayDeque();
+        int maxWindow = 2 * pool.getParallelism();
+        List<Violation> violations = new ArrayList();
+
+        Iterator<? extends AEntity> iter = entities.iterator();
+        long index = 0;
+        while (iter.hasNext() && !run.stopped.get()) {
+            List<AEntity> chunk = new ArrayList(DEFAULT_CHUNK_SIZE);
+            while (chunk.size() < DEFAULT_CHUNK_SIZE && iter.hasNext()) {
+                chunk.add(iter.next());
+            }
+            window.addLast(pool.submit(new ChunkTask(run, chunk, 0, chunk.size(), index)));
+            index += chunk.size();
+            if (window.size() >= maxWindow) {
+                violations.addAll(window.removeFirst().join());
+            }
+        }
+        while (!window.isEmpty()) {
+            violations.addAll(window.removeFirst().join());
+        }
+
+        return new ValidationReport(run.validated.get(), violations,
+                !run.stopped.get() && !run.truncated.get());
+    }
+
+    /**
+     * State shared by the tasks of a validation
+     */
+    private static final class Run {
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicBoolean truncated = new AtomicBoolean();
+        final AtomicInteger violationCount = new AtomicInteger();
+        final AtomicLong validated = new AtomicLong();
+    }
+
+    private final class ChunkTask extends RecursiveTask<List<Violation>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final List<AEntity> chunk;
+        private final int from;
+        private final int to;
+        private final long firstIndex;
+
+        ChunkTask(Run run, List<AEntity> chunk, int from, int to, long firstIndex) {
+            this.run = run;
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+            this.firstIndex = firstIndex;
+        }
+
+        @Override
+        protected List<Violation> compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                ChunkTask left = new ChunkTask(run, chunk, from, mid, firstIndex);
+                ChunkTask right = new ChunkTask(run, chunk, mid, to, firstIndex);
+                left.fork();
+                List<Violation> rightViolations = right.compute();
+                List<Violation> ret = left.join();
+                if (ret.isEmpty()) {
+                    return rightViolations;
+                }
+                ret.addAll(rightViolations);
+                return ret;
+            }
+
+            List<Violation> ret = new ArrayList();
+            Collector collector = new Collector(run, ret);
+            for (int i = from; i < to && !run.stopped.get(); i++) {
+                AEntity entity = chunk.get(i);
+                collector.start(firstIndex + i, entity == null ? "" : entity.getId());
+                if (entity == null) {
+                    collector.add("Found null entity!");
+                } else {
+                    ValidationPlan plan = context.findPlan(entity.getEtypeId());
+                    if (plan == null) {
+                        collector.add("Found etype %s which is not in validation context!", entity.getEtypeId());
+                    } else {
+                        plan.walkEntity(entity, synthetic, collector);
+                    }
+                }
+                run.validated.incrementAndGet();
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Collects the violations of one entity at a time, enforcing the limits
+     */
+    private final class Collector extends ViolationCollector {
+
+        private final Run run;
+        private final List<Violation> violations;
+        private long entityIndex;
+        private String entityId;
+        private int count;
+
+        Collector(Run run, List<Violation> violations) {
+            this.run = run;
+            this.violations = violations;
+        }
+
+        void start(long entityIndex, String entityId) {
+            this.entityIndex = entityIndex;
+            this.entityId = entityId;
+            this.count = 0;
+        }
+
+        @Override
+        boolean add(LazyMessage message) {
+            if (count >= maxViolationsPerEntity) {
+                run.truncated.set(true);
+                return false;
+            }
+            if (run.violationCount.incrementAndGet() > maxViolations) {
+                run.stopped.set(true);
+                return false;
+            }
+            violations.add(new Violation(entityIndex, entityId, path(), message));
+            count++;
+            if (failFast) {
+                run.stopped.set(true);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Pool used by default, created on first use. Its threads are daemons.
+     */
+    private static final class DefaultPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+}
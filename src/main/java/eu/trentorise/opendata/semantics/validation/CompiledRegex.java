@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled regular expression, like the ones of
+ * {@link eu.trentorise.opendata.semantics.model.entity.AttrType#getRegularExpression()}.
+ * Compiled expressions are cached per expression string, and each thread
+ * reuses its own {@link Matcher}, so matching a value allocates nothing but
+ * the matcher state.
+ *
+ * Since expressions and values may both come from untrusted open data,
+ * matching can be limited to a number of steps, counted as the characters
+ * read by the regex engine. This bounds the time spent on inputs causing
+ * catastrophic backtracking.
+ *
+ * Get instances with {@link #of(String)}. Instances are thread safe.
+ *
+ * @author David Leoni
+ */
+public final class CompiledRegex {
+
+    /**
+     * Maximum number of compiled expressions kept in cache
+     */
+    public static final int MAX_CACHED_REGEXES = 1000;
+
+    private static final Cache<String, CompiledRegex> REGEXES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_REGEXES)
+            .build();
+
+    private final Pattern pattern;
+
+    private final ThreadLocal<Matcher> matchers = new ThreadLocal<Matcher>() {
+        @Override
+        protected Matcher initialValue() {
+            return pattern.matcher("");
+        }
+    };
+
+    private CompiledRegex(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Returns the compiled version of provided regular expression.
+     *
+     * @throws IllegalArgumentException
+     *             if the expression is not valid.
+     */
+    public static CompiledRegex of(String regex) {
+        checkNotNull(regex, "Found null regular expression!");
+        CompiledRegex ret = REGEXES.getIfPresent(regex);
+        if (ret == null) {
+            try {
+                ret = new CompiledRegex(Pattern.compile(regex));
+            } catch (PatternSyntaxException ex) {
+                throw new IllegalArgumentException("Found invalid regular expression " + regex, ex);
+            }
+            REGEXES.put(regex, ret);
+        }
+        return ret;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns true if the whole input matches the expression.
+     */
+    public boolean matches(CharSequence input) {
+        checkNotNull(input);
+        Matcher matcher = matchers.get();
+        try {
+            return matcher.reset(input).matches();
+        } finally {
+            matcher.reset("");
+        }
+    }
+
+    /**
+     * Returns true if the whole input matches the expression, reading at
+     * most {@code maxSteps} characters along the way.
+     *
+     * @throws StepLimitExceededException
+     *             if matching needed more than {@code maxSteps} steps.
+     */
+    public boolean matches(CharSequence input, long maxSteps) {
+        checkNotNull(input);
+        checkArgument(maxSteps > 0, "Max steps must be positive, found instead %s", maxSteps);
+        return matches(new LimitedCharSequence(input, new long[] { maxSteps }));
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledRegex{" + pattern.pattern() + "}";
+    }
+
+    /**
+     * Thrown when matching a regular expression takes too many steps. It has
+     * no stack trace, as it is meant to be caught and reported.
+     */
+    public static final class StepLimitExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StepLimitExceededException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Character sequence counting reads against a budget shared with its
+     * subsequences
+     */
+    private static final class LimitedCharSequence implements CharSequence {
+
+        private final CharSequence seq;
+        private final long[] budget;
+
+        LimitedCharSequence(CharSequence seq, long[] budget) {
+            this.seq = seq;
+            this.budget = budget;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--budget[0] < 0) {
+                throw new StepLimitExceededException("Exceeded step limit while matching regular expression!");
+            }
+            return seq.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return seq.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new LimitedCharSequence(seq.subSequence(start, end), budget);
+        }
+
+        @Override
+        public String toString() {
+            return seq.toString();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An error message which is formatted only when {@link #toString()} is
+ * called. Pass it where an error message object is expected, like in
+ * {@link eu.trentorise.opendata.commons.validation.Preconditions#checkNotDirtyUrl(String, Object)},
+ * so objects with expensive {@code toString()} like whole entities are
+ * printed only if the check fails.
+ *
+ * Templates use {@code %s} placeholders as Guava preconditions do: extra
+ * arguments are appended in square brackets, missing ones leave the
+ * placeholder in the message.
+ *
+ * @author David Leoni
+ */
+public final class LazyMessage {
+
+    private final String template;
+    private final Object[] args;
+
+    private volatile String formatted;
+
+    private LazyMessage(String template, Object[] args) {
+        this.template = checkNotNull(template);
+        this.args = checkNotNull(args);
+    }
+
+    /**
+     * Returns a message which will be formatted from provided template and
+     * arguments when needed. Arguments are not copied, so they should not be
+     * changed afterwards.
+     */
+    public static LazyMessage of(String template, Object... args) {
+        return new LazyMessage(template, args);
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns the formatted message
+     */
+    @Override
+    public String toString() {
+        String ret = formatted;
+        if (ret == null) {
+            ret = format(template, args);
+            formatted = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Substitutes each {@code %s} in the template with an argument
+     */
+    static String format(String template, Object[] args) {
+        StringBuilder sb = new StringBuilder(template.length() + 16 * args.length);
+        int start = 0;
+        int i = 0;
+        while (i < args.length) {
+            int pos = template.indexOf("%s", start);
+            if (pos == -1) {
+                break;
+            }
+            sb.append(template, start, pos).append(args[i++]);
+            start = pos + 2;
+        }
+        sb.append(template, start, template.length());
+        if (i < args.length) {
+            sb.append(" [").append(args[i++]);
+            while (i < args.length) {
+                sb.append(", ").append(args[i++]);
+            }
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+
+import eu.trentorise.opendata.semantics.Checker;
+import eu.trentorise.opendata.semantics.model.entity.AEntity;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.EntityDelta;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds the etypes needed to validate entities and structs and the
+ * {@link ValidationPlan validation plans} compiled from them. Etypes are
+ * resolved once when the context is created, so validating any number of
+ * entities doesn't call services. Plans are compiled on first use and then
+ * reused.
+ *
+ * By default plans report attributes of mandatory attribute definitions
+ * having no values, see {@link #withoutMandatoryChecks()} to skip that, and
+ * match string values against the regular expressions of their types within
+ * {@link AttrTypeValidator#DEFAULT_MAX_REGEX_STEPS_PER_CHAR} steps per
+ * character, see {@link #withMaxRegexStepsPerChar(long)}.
+ *
+ * Contexts are thread safe.
+ *
+ * @author David Leoni
+ */
+public final class ValidationContext {
+
+    private final ImmutableMap<String, Etype> etypes;
+    private final boolean mandatoryChecked;
+    private final long maxRegexStepsPerChar;
+    private final ConcurrentMap<String, ValidationPlan> plans = new ConcurrentHashMap();
+
+    private ValidationContext(Map<String, Etype> etypes, boolean mandatoryChecked, long maxRegexStepsPerChar) {
+        this.etypes = ImmutableMap.copyOf(etypes);
+        this.mandatoryChecked = mandatoryChecked;
+        this.maxRegexStepsPerChar = maxRegexStepsPerChar;
+    }
+
+    /**
+     * Creates a context for validating entities of provided etype, reading
+     * all the etypes it needs, see
+     * {@link Entities#resolveEtypeClosure(Etype, IEtypeService)}
+     */
+    public static ValidationContext of(Etype etype, IEtypeService ets) {
+        return new ValidationContext(Entities.resolveEtypeClosure(etype, ets), true,
+                AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR);
+    }
+
+    /**
+     * Creates a context using provided etypes
+     *
+     * @param etypes
+     *            map from etype id to etype
+     */
+    public static ValidationContext of(Map<String, Etype> etypes) {
+        checkNotNull(etypes);
+        return new ValidationContext(etypes, true, AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR);
+    }
+
+    /**
+     * Returns a context with the same etypes whose plans don't report missing
+     * values of mandatory attributes, like
+     * {@link Checker#checkEntity(Entity, boolean)} does.
+     */
+    public ValidationContext withoutMandatoryChecks() {
+        if (!mandatoryChecked) {
+            return this;
+        }
+        return new ValidationContext(etypes, false, maxRegexStepsPerChar);
+    }
+
+    /**
+     * Whether plans report missing values of mandatory attributes
+     */
+    public boolean isMandatoryChecked() {
+        return mandatoryChecked;
+    }
+
+    /**
+     * Returns a context with the same etypes whose plans match string values
+     * against regular expressions within provided number of steps per
+     * character of the value, see {@link CompiledRegex}.
+     *
+     * @param maxRegexStepsPerChar
+     *            the step limit, or
+     *            {@link AttrTypeValidator#UNLIMITED_REGEX_STEPS} to match
+     *            without limits.
+     */
+    public ValidationContext withMaxRegexStepsPerChar(long maxRegexStepsPerChar) {
+        checkArgument(maxRegexStepsPerChar >= 0, "Max regex steps per char must be >= 0, found instead %s",
+                maxRegexStepsPerChar);
+        if (this.maxRegexStepsPerChar == maxRegexStepsPerChar) {
+            return this;
+        }
+        return new ValidationContext(etypes, mandatoryChecked, maxRegexStepsPerChar);
+    }
+
+    /**
+     * Maximum number of steps per value character allowed when matching
+     * regular expressions, or {@link AttrTypeValidator#UNLIMITED_REGEX_STEPS}
+     */
+    public long getMaxRegexStepsPerChar() {
+        return maxRegexStepsPerChar;
+    }
+
+    /**
+     * Map from etype id to etype
+     */
+    public Map<String, Etype> getEtypes() {
+        return etypes;
+    }
+
+    /**
+     * Returns the validation plan of the etype with given id.
+     *
+     * @throws IllegalArgumentException
+     *             if the etype is not in the context.
+     */
+    public ValidationPlan plan(String etypeId) {
+        ValidationPlan ret = findPlan(etypeId);
+        if (ret == null) {
+            throw new IllegalArgumentException("Found etype " + etypeId + " which is not in validation context!");
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the validation plan of the etype with given id, or null if the
+     * etype is not in the context.
+     */
+    @Nullable
+    ValidationPlan findPlan(String etypeId) {
+        ValidationPlan ret = plans.get(etypeId);
+        if (ret == null) {
+            Etype etype = etypes.get(etypeId);
+            if (etype == null) {
+                return null;
+            }
+            ValidationPlan plan = new ValidationPlan(etype, this);
+            ret = plans.putIfAbsent(etypeId, plan);
+            if (ret == null) {
+                ret = plan;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks provided entity like {@link Checker#checkEntity(Entity, boolean)}
+     * does, using the plan of its etype.
+     *
+     * @throws IllegalArgumentException
+     *             if the entity is not conformant to OpenEntity specs.
+     */
+    public void checkEntity(AEntity entity, boolean synthetic) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Found null entity!");
+        }
+        plan(entity.getEtypeId()).checkEntity(entity, synthetic);
+    }
+
+    /**
+     * Checks provided struct like {@link Checker#checkStruct(AStruct, boolean)}
+     * does, using the plan of its etype.
+     *
+     * @throws IllegalArgumentException
+     *             if the struct is not conformant to OpenEntity specs.
+     */
+    public void checkStruct(AStruct struct, boolean synthetic) {
+        if (struct == null) {
+            throw new IllegalArgumentException("Found null struct!");
+        }
+        plan(struct.getEtypeId()).checkStruct(struct, synthetic);
+    }
+
+    /**
+     * Checks provided entity like {@link #checkEntity(AEntity, boolean)} does,
+     * returning the first violation instead of throwing it.
+     */
+    public ValidationResult validateEntity(AEntity entity, boolean synthetic) {
+        if (entity == null) {
+            return ValidationResult.invalid("", "Found null entity!");
+        }
+        ValidationPlan plan = findPlan(entity.getEtypeId());
+        if (plan == null) {
+            return ValidationResult.invalid("", "Found etype %s which is not in validation context!",
+                    entity.getEtypeId());
+        }
+        return plan.validateEntity(entity, synthetic);
+    }
+
+    /**
+     * Checks provided struct like {@link #checkStruct(AStruct, boolean)} does,
+     * returning the first violation instead of throwing it.
+     */
+    public ValidationResult validateStruct(AStruct struct, boolean synthetic) {
+        if (struct == null) {
+            return ValidationResult.invalid("", "Found null struct!");
+        }
+        ValidationPlan plan = findPlan(struct.getEtypeId());
+        if (plan == null) {
+            return ValidationResult.invalid("", "Found etype %s which is not in validation context!",
+                    struct.getEtypeId());
+        }
+        return plan.validateStruct(struct, synthetic);
+    }
+
+    /**
+     * Checks an entity patched with provided delta, assuming it was valid
+     * before the patch, see
+     * {@link ValidationPlan#validatePatch(AEntity, EntityDelta, boolean)}
+     */
+    public ValidationResult validatePatch(AEntity patched, EntityDelta delta, boolean synthetic) {
+        if (patched == null) {
+            return ValidationResult.invalid("", "Found null entity!");
+        }
+        ValidationPlan plan = findPlan(patched.getEtypeId());
+        if (plan == null) {
+            return ValidationResult.invalid("", "Found etype %s which is not in validation context!",
+                    patched.getEtypeId());
+        }
+        return plan.validatePatch(patched, delta, synthetic);
+    }
+}
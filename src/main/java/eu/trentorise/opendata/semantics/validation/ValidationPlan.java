@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.AEntity;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.EntityDelta;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The checks to run on the entities and structs of an etype, compiled once
+ * from the etype: one check per attribute definition with its
+ * {@link AttrTypeValidator}, the list of mandatory attribute definitions and
+ * the lookup of the plans of nested structs and entities in the
+ * {@link ValidationContext}. Applying a plan doesn't call services.
+ *
+ * Get plans with {@link ValidationContext#plan(String)}. Plans are immutable.
+ *
+ * @author David Leoni
+ */
+public final class ValidationPlan {
+
+    private static final Ordering<AttrDef> BY_ID = new Ordering<AttrDef>() {
+        @Override
+        public int compare(AttrDef left, AttrDef right) {
+            return left.getId().compareTo(right.getId());
+        }
+    };
+
+    private final Etype etype;
+    private final ValidationContext context;
+    private final ImmutableMap<String, AttrCheck> attrChecks;
+    private final ImmutableList<AttrDef> mandatoryAttrDefs;
+
+    ValidationPlan(Etype etype, ValidationContext context) {
+        this.etype = etype;
+        this.context = context;
+
+        ImmutableMap.Builder<String, AttrCheck> checks = ImmutableMap.builder();
+        ImmutableList.Builder<AttrDef> mandatory = ImmutableList.builder();
+        for (AttrDef attrDef : BY_ID.sortedCopy(etype.getAttrDefs().values())) {
+            checks.put(attrDef.getId(), new AttrCheck(attrDef));
+            if (attrDef.getType().isMandatory()) {
+                mandatory.add(attrDef);
+            }
+        }
+        this.attrChecks = checks.build();
+        this.mandatoryAttrDefs = mandatory.build();
+    }
+
+    public Etype getEtype() {
+        return etype;
+    }
+
+    /**
+     * The attribute definitions which must have at least one value, sorted by
+     * id.
+     */
+    public List<AttrDef> getMandatoryAttrDefs() {
+        return mandatoryAttrDefs;
+    }
+
+    /**
+     * Checks provided entity complies with open entity specs and with the
+     * etype of the plan. For synthetic entities the URL of the entity and the
+     * local ids of attributes and values are not checked.
+     *
+     * @throws IllegalArgumentException
+     *             at the first violation found.
+     */
+    public void checkEntity(AEntity entity, boolean synthetic) {
+        walkEntity(entity, synthetic, new ViolationCollector.FailFast());
+    }
+
+    /**
+     * Checks provided struct complies with open entity specs and with the
+     * etype of the plan. For synthetic structs local ids of attributes and
+     * values are not checked. The URL of the struct is not checked anyway.
+     *
+     * @throws IllegalArgumentException
+     *             at the first violation found.
+     */
+    public void checkStruct(AStruct struct, boolean synthetic) {
+        walkStruct(struct, synthetic, new ViolationCollector.FailFast());
+    }
+
+    /**
+     * Checks provided entity like {@link #checkEntity(AEntity, boolean)} does,
+     * returning the first violation instead of throwing it.
+     */
+    public ValidationResult validateEntity(AEntity entity, boolean synthetic) {
+        ViolationCollector.First collector = new ViolationCollector.First();
+        walkEntity(entity, synthetic, collector);
+        return collector.result();
+    }
+
+    /**
+     * Checks provided struct like {@link #checkStruct(AStruct, boolean)} does,
+     * returning the first violation instead of throwing it.
+     */
+    public ValidationResult validateStruct(AStruct struct, boolean synthetic) {
+        ViolationCollector.First collector = new ViolationCollector.First();
+        walkStruct(struct, synthetic, collector);
+        return collector.result();
+    }
+
+    /**
+     * Checks an entity patched with provided delta, assuming it was valid
+     * before the patch: only the attributes touched by the delta are checked
+     * again. If the delta changes the etype the whole entity is checked.
+     */
+    public ValidationResult validatePatch(AEntity patched, EntityDelta delta, boolean synthetic) {
+        ViolationCollector.First collector = new ViolationCollector.First();
+        walkPatch(patched, delta, synthetic, collector);
+        return collector.result();
+    }
+
+    /**
+     * Walks the attributes of the entity touched by the delta passing each
+     * violation to the collector.
+     *
+     * @return false if the collector asked to stop
+     */
+    boolean walkPatch(AEntity patched, EntityDelta delta, boolean synthetic, ViolationCollector collector) {
+        checkNotNull(delta);
+        if (patched == null) {
+            return collector.add("Found null entity!");
+        }
+        if (delta.getEtypeId() != null) {
+            return walkEntity(patched, synthetic, collector);
+        }
+        if (!etype.getId().equals(patched.getEtypeId())) {
+            return collector.add("Provided etype %s is not the one referenced by the struct, which is %s",
+                    etype.getId(), patched.getEtypeId());
+        }
+
+        for (String attrDefId : delta.getTouchedAttrDefIds()) {
+            Attr attr = patched.getAttrs().get(attrDefId);
+            AttrCheck check = attrChecks.get(attrDefId);
+            boolean goOn = true;
+            if (attr != null) {
+                collector.push(attrDefId);
+                if (check == null) {
+                    goOn = collector.add("Found attribute %s in struct %s which is not defined in etype %s",
+                            attrDefId, patched.getId(), etype.getId());
+                } else {
+                    goOn = check.walk(attr, synthetic, collector);
+                }
+                collector.pop();
+            }
+            if (goOn && check != null && context.isMandatoryChecked() && check.attrDef.getType().isMandatory()
+                    && (attr == null || attr.getValues().isEmpty())) {
+                goOn = collector.add("Missing mandatory attribute %s in struct %s", attrDefId, patched.getId());
+            }
+            if (!goOn) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks the entity passing each violation to the collector.
+     *
+     * @return false if the collector asked to stop
+     */
+    boolean walkEntity(AEntity entity, boolean synthetic, ViolationCollector collector) {
+        if (entity == null) {
+            return collector.add("Found null entity!");
+        }
+        if (!walkStruct(entity, synthetic, collector)) {
+            return false;
+        }
+        if (!synthetic && AttrTypeValidator.isDirtyUrl(entity.getId())) {
+            if (!collector.add("Found invalid URL in entity %s", entity.getId())) {
+                return false;
+            }
+        }
+        if (entity.getName() == null) {
+            if (!collector.add("Found invalid name in entity %s", entity.getId())) {
+                return false;
+            }
+        }
+        if (entity.getDescription() == null) {
+            return collector.add("Found invalid description in entity %s", entity.getId());
+        }
+        return true;
+    }
+
+    /**
+     * Walks the struct passing each violation to the collector.
+     *
+     * @return false if the collector asked to stop
+     */
+    boolean walkStruct(AStruct struct, boolean synthetic, ViolationCollector collector) {
+        if (struct == null) {
+            return collector.add("Found null struct!");
+        }
+
+        if (!etype.getId().equals(struct.getEtypeId())) {
+            return collector.add("Provided etype %s is not the one referenced by the struct, which is %s",
+                    etype.getId(), struct.getEtypeId());
+        }
+
+        Map<String, Attr> attrs = struct.getAttrs();
+        if (attrs == null) {
+            return collector.add("Found null attributes in struct %s", struct.getId());
+        }
+
+        for (Map.Entry<String, Attr> entry : attrs.entrySet()) {
+            collector.push(entry.getKey());
+            AttrCheck check = attrChecks.get(entry.getKey());
+            boolean goOn;
+            if (check == null) {
+                goOn = collector.add("Found attribute %s in struct %s which is not defined in etype %s",
+                        entry.getKey(), struct.getId(), etype.getId());
+            } else {
+                goOn = check.walk(entry.getValue(), synthetic, collector);
+            }
+            collector.pop();
+            if (!goOn) {
+                return false;
+            }
+        }
+
+        if (!context.isMandatoryChecked()) {
+            return true;
+        }
+        for (AttrDef attrDef : mandatoryAttrDefs) {
+            Attr attr = attrs.get(attrDef.getId());
+            if (attr == null || attr.getValues().isEmpty()) {
+                if (!collector.add("Missing mandatory attribute %s in struct %s", attrDef.getId(),
+                        struct.getId())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationPlan{etypeId=" + etype.getId() + "}";
+    }
+
+    /**
+     * Checks of the attributes of an attribute definition
+     */
+    private final class AttrCheck {
+
+        private final AttrDef attrDef;
+        private final AttrTypeValidator validator;
+        private final boolean struct;
+        private final boolean entity;
+
+        AttrCheck(AttrDef attrDef) {
+            this.attrDef = attrDef;
+            this.validator = AttrTypeValidator.of(attrDef.getType());
+            this.struct = DataTypes.STRUCTURE.equals(attrDef.getType().getDatatype());
+            this.entity = DataTypes.ENTITY.equals(attrDef.getType().getDatatype());
+        }
+
+        boolean walk(Attr attr, boolean synthetic, ViolationCollector collector) {
+            if (attr == null) {
+                return collector.add("Found null attribute!");
+            }
+            if (!attr.getAttrDefId().equals(attrDef.getId())) {
+                if (!collector.add("Provided attribute def id %s is not the same as attrDefId %s in provided attr",
+                        attrDef.getId(), attr.getAttrDefId())) {
+                    return false;
+                }
+            }
+            if (!synthetic && attr.getLocalId() < 0) {
+                if (!collector.add("Found negative local ID in attribute %s", attr.getLocalId())) {
+                    return false;
+                }
+            }
+            List<Val> values = attr.getValues();
+            for (int i = 0; i < values.size(); i++) {
+                collector.push(i);
+                boolean goOn = walkValue(values.get(i), synthetic, collector);
+                collector.pop();
+                if (!goOn) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean walkValue(Val value, boolean synthetic, ViolationCollector collector) {
+            if (value == null) {
+                return collector.add("Found null value!");
+            }
+            if (!synthetic && value.getLocalId() < 0) {
+                if (!collector.add("Found negative local ID in value %s", value.getLocalId())) {
+                    return false;
+                }
+            }
+            Object obj = value.getObj();
+            LazyMessage violation = validator.violation(obj, context.getMaxRegexStepsPerChar());
+            if (violation != null) {
+                return collector.add(violation);
+            }
+            if (struct && obj instanceof AStruct) {
+                AStruct s = (AStruct) obj;
+                ValidationPlan plan = context.findPlan(s.getEtypeId());
+                if (plan == null) {
+                    return collector.add("Found etype %s which is not in validation context!", s.getEtypeId());
+                }
+                return plan.walkStruct(s, synthetic, collector);
+            } else if (entity && obj instanceof AEntity) {
+                AEntity e = (AEntity) obj;
+                ValidationPlan plan = context.findPlan(e.getEtypeId());
+                if (plan == null) {
+                    return collector.add("Found etype %s which is not in validation context!", e.getEtypeId());
+                }
+                return plan.walkEntity(e, synthetic, collector);
+            }
+            return true;
+        }
+    }
+}
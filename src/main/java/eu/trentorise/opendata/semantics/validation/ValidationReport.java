@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * The outcome of a bulk validation, see {@link BulkValidator}.
+ *
+ * @author David Leoni
+ */
+public final class ValidationReport {
+
+    private final long entityCount;
+    private final ImmutableList<Violation> violations;
+    private final boolean complete;
+
+    ValidationReport(long entityCount, List<Violation> violations, boolean complete) {
+        this.entityCount = entityCount;
+        this.violations = ImmutableList.copyOf(violations);
+        this.complete = complete;
+    }
+
+    /**
+     * The number of validated entities
+     */
+    public long getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * The violations found, ordered by entity index and then by position in
+     * the entity.
+     */
+    public List<Violation> getViolations() {
+        return violations;
+    }
+
+    /**
+     * False if validation stopped early because of fail fast mode or because
+     * the maximum number of violations was reached, in which case there may
+     * be more invalid entities than reported.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * True if no violation was found
+     */
+    public boolean isValid() {
+        return violations.isEmpty();
+    }
+
+    /**
+     * The number of distinct entities with at least one violation
+     */
+    public long getInvalidEntityCount() {
+        long ret = 0;
+        long last = -1;
+        for (Violation violation : violations) {
+            if (violation.getEntityIndex() != last) {
+                ret++;
+                last = violation.getEntityIndex();
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationReport{entityCount=" + entityCount + ", violations=" + violations.size() + ", complete="
+                + complete + "}";
+    }
+}
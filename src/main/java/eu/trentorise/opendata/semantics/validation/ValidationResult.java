@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * The outcome of validating a single object without throwing exceptions. An
+ * invalid result holds the first violation found, with its
+ * {@link LazyMessage lazy message}, so neither stack traces nor error
+ * strings are built unless the caller asks for them. Valid results are all
+ * the same shared instance.
+ *
+ * To get the behaviour of the throwing checks call {@link #throwIfInvalid()}.
+ *
+ * @author David Leoni
+ */
+public final class ValidationResult {
+
+    private static final ValidationResult VALID = new ValidationResult("", null);
+
+    private final String path;
+
+    @Nullable
+    private final LazyMessage message;
+
+    private ValidationResult(String path, @Nullable LazyMessage message) {
+        this.path = path;
+        this.message = message;
+    }
+
+    /**
+     * Returns the result of a successful validation
+     */
+    public static ValidationResult valid() {
+        return VALID;
+    }
+
+    /**
+     * Returns the result of a failed validation.
+     *
+     * @param path
+     *            the path of the offending attribute or value, like
+     *            {@code oe:address[0].oe:street[1]}, or the empty string if
+     *            the violation concerns the validated object itself.
+     */
+    public static ValidationResult invalid(String path, LazyMessage message) {
+        checkNotNull(path);
+        checkNotNull(message);
+        return new ValidationResult(path, message);
+    }
+
+    /**
+     * See {@link #invalid(String, LazyMessage)}
+     */
+    public static ValidationResult invalid(String path, String template, Object... args) {
+        return invalid(path, LazyMessage.of(template, args));
+    }
+
+    public boolean isValid() {
+        return message == null;
+    }
+
+    /**
+     * The path of the offending attribute or value, or the empty string if
+     * the result is valid or the violation concerns the validated object
+     * itself.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * The formatted message of the violation, or the empty string if the
+     * result is valid.
+     */
+    public String getMessage() {
+        return message == null ? "" : message.toString();
+    }
+
+    /**
+     * The lazy message of the violation, or null if the result is valid.
+     */
+    @Nullable
+    public LazyMessage getLazyMessage() {
+        return message;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the result is not valid, with the same message the
+     *             throwing checks would report.
+     */
+    public void throwIfInvalid() {
+        if (message != null) {
+            throw new IllegalArgumentException(path.isEmpty() ? message.toString() : "Found invalid attribute "
+                    + path + ": " + message);
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (message == null) {
+            return "ValidationResult{valid}";
+        }
+        return "ValidationResult{" + (path.isEmpty() ? "" : path + ": ") + message + "}";
+    }
+}
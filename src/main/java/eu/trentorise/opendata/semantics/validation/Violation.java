@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A problem found in an entity during bulk validation.
+ *
+ * @author David Leoni
+ */
+public final class Violation {
+
+    private final long entityIndex;
+    private final String entityId;
+    private final String path;
+    private final LazyMessage message;
+
+    Violation(long entityIndex, String entityId, String path, LazyMessage message) {
+        this.entityIndex = entityIndex;
+        this.entityId = checkNotNull(entityId);
+        this.path = checkNotNull(path);
+        this.message = checkNotNull(message);
+    }
+
+    /**
+     * The position of the entity in the validated sequence, starting from 0
+     */
+    public long getEntityIndex() {
+        return entityIndex;
+    }
+
+    /**
+     * The id of the entity, or the empty string if it's not known
+     */
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * The path of the offending attribute or value, like
+     * {@code oe:address[0].oe:street[1]}, or the empty string if the
+     * violation concerns the entity itself.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * The message of the violation, formatted on first call
+     */
+    public String getMessage() {
+        return message.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "#" + entityIndex + " " + entityId + (path.isEmpty() ? "" : " " + path) + ": " + message;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Trento Rise.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.trentorise.opendata.semantics.validation;
+
+import java.util.Arrays;
+
+/**
+ * Receives the violations found while walking an entity or struct. The path
+ * of the attribute being walked is kept as a stack of segments and turned
+ * into a string only when a violation is found, so walking valid entities
+ * doesn't build paths.
+ *
+ * Not thread safe, use one collector per thread.
+ *
+ * @author David Leoni
+ */
+abstract class ViolationCollector {
+
+    private Object[] segments = new Object[8];
+    private int depth;
+
+    /**
+     * Called for each violation, with {@link #path()} pointing to the
+     * offending attribute or value.
+     *
+     * @return true if the walk should go on, false to stop it.
+     */
+    abstract boolean add(LazyMessage message);
+
+    /**
+     * See {@link #add(LazyMessage)}. The message is formatted only if the
+     * collector needs it.
+     */
+    final boolean add(String template, Object... args) {
+        return add(LazyMessage.of(template, args));
+    }
+
+    /**
+     * Pushes an attribute definition id or a value index onto the path
+     */
+    void push(Object segment) {
+        if (depth == segments.length) {
+            segments = Arrays.copyOf(segments, depth * 2);
+        }
+        segments[depth++] = segment;
+    }
+
+    void pop() {
+        segments[--depth] = null;
+    }
+
+    /**
+     * Returns the current path, like {@code oe:address[0].oe:street[1]}, or
+     * the empty string at top level.
+     */
+    String path() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            Object segment = segments[i];
+            if (segment instanceof Integer) {
+                sb.append('[').append(segment).append(']');
+            } else {
+                if (sb.length() > 0) {
+                    sb.append('.');
+                }
+                sb.append(segment);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Collector throwing an {@link IllegalArgumentException} at the first
+     * violation.
+     */
+    static final class FailFast extends ViolationCollector {
+
+        @Override
+        boolean add(LazyMessage message) {
+            ValidationResult.invalid(path(), message).throwIfInvalid();
+            return false;
+        }
+    }
+
+    /**
+     * Collector keeping only the first violation, stopping the walk there.
+     */
+    static final class First extends ViolationCollector {
+
+        private ValidationResult result = ValidationResult.valid();
+
+        @Override
+        boolean add(LazyMessage message) {
+            result = ValidationResult.invalid(path(), message);
+            return false;
+        }
+
+        ValidationResult result() {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package eu.trentorise.opendata.semantics.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.exceptions.OpenEntityNotFoundException;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.CompactEntity;
+import eu.trentorise.opendata.semantics.model.entity.CompactStruct;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.EtypeShape;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+
+/**
+ * @author David Leoni
+ */
+public class CompactEntityTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(CompactEntityTest.class);
+    }
+
+    @Test
+    public void testCompactEntity() {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        Etype etype = ets.readEtype(MockEtypeService.TEST_ENTITY_TYPE);
+
+        Entity entity = Entity.builder()
+                .setId("e1")
+                .setEtypeId(etype.getId())
+                .setName(Dict.of("a"))
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_2_ID), "x"))
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_1_ID), "y"))
+                .build();
+
+        EtypeShape shape = EtypeShape.of(etype);
+        assertSame(shape, EtypeShape.of(etype));
+        assertEquals(etype.getAttrDefs().size(), shape.size());
+        assertEquals(-1, shape.slot("oe:missing"));
+
+        CompactEntity compact = CompactEntity.of(entity, shape);
+        assertEquals(entity.getAttrs(), compact.getAttrs());
+        assertEquals(entity.getAttrs().hashCode(), compact.getAttrs().hashCode());
+        assertEquals(2, compact.getAttrs().size());
+        assertEquals("y", compact.attr(MockEtypeService.TEST_ATTR_DEF_1_ID).asRawObjectList().get(0));
+        assertFalse(compact.getAttrs().containsKey(MockEtypeService.TEST_ATTR_DEF_3_ID));
+        try {
+            compact.attr(MockEtypeService.TEST_ATTR_DEF_3_ID);
+            fail("Shouldn't arrive here!");
+        } catch (OpenEntityNotFoundException ex) {
+
+        }
+        assertEquals(entity, compact.toEntity());
+        assertEquals(compact, CompactEntity.of(entity, shape));
+
+        Struct struct = Struct.builder()
+                .setEtypeId(etype.getId())
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_1_ID), "z"))
+                .build();
+        CompactStruct compactStruct = CompactStruct.of(struct, shape);
+        assertEquals(struct.getAttrs(), compactStruct.getAttrs());
+        assertEquals(struct, compactStruct.toStruct());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongEtype() {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        EtypeShape shape = EtypeShape.of(ets.readEtype(MockEtypeService.TEST_ENTITY_TYPE));
+        CompactEntity.of(Entity.builder().setId("e").setEtypeId("oe:other").build(), shape);
+    }
+}
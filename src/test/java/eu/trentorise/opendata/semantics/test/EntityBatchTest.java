@@ -0,0 +1,123 @@
+package eu.trentorise.opendata.semantics.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.EntityBatch;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+
+/**
+ * @author David Leoni
+ */
+public class EntityBatchTest {
+
+    private static final MockEtypeService ETS = new MockEtypeService();
+
+    private static final AttrDef INT_ATTR = ETS.registerAttrDef("oe:int", "int", "intero", DataTypes.AT_INTEGER);
+    private static final AttrDef STRING_ATTR = ETS.registerAttrDef("oe:string", "string", "stringa",
+            DataTypes.AT_STRING);
+    private static final AttrDef DATE_ATTR = ETS.registerAttrDef("oe:date", "date", "data", DataTypes.AT_DATE);
+    private static final AttrDef BOOL_ATTR = ETS.registerAttrDef("oe:bool", "bool", "booleano",
+            DataTypes.AT_BOOLEAN);
+    private static final AttrDef FLOATS_ATTR = ETS.registerAttrDef("oe:floats", "floats", "decimali",
+            AttrType.of(DataTypes.FLOAT, true));
+    private static final AttrDef LS_ATTR = ETS.registerAttrDef("oe:ls", "localized string", "stringa localizzata",
+            DataTypes.AT_LOCALIZED_STRING);
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(EntityBatchTest.class);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Etype etype = Etype.builder()
+                .setId("oe:batch-et")
+                .putAttrDef(INT_ATTR)
+                .putAttrDef(STRING_ATTR)
+                .putAttrDef(DATE_ATTR)
+                .putAttrDef(BOOL_ATTR)
+                .putAttrDef(FLOATS_ATTR)
+                .putAttrDef(LS_ATTR)
+                .build();
+
+        Entity e1 = Entity.builder()
+                .setId("e1")
+                .setEtypeId(etype.getId())
+                .setName(Dict.of("first"))
+                .putObj(INT_ATTR, 3)
+                .putObj(STRING_ATTR, "a")
+                .putObj(DATE_ATTR, new Date(1000L))
+                .putObj(BOOL_ATTR, true)
+                .putObj(FLOATS_ATTR, Arrays.asList(1.5f, 2.5f))
+                .putObj(LS_ATTR, LocalizedString.of(Locale.ITALIAN, "ciao"))
+                .build();
+
+        Entity e2 = Entity.builder()
+                .setId("e2")
+                .setEtypeId(etype.getId())
+                .putObj(STRING_ATTR, "a")
+                .putObj(FLOATS_ATTR, Arrays.asList(7f))
+                .putAttrs(INT_ATTR.getId(), Attr.builder().setLocalId(5).setAttrDefId(INT_ATTR.getId())
+                        .addValues(Attr.ofObject(INT_ATTR, 4).firstValue()).build())
+                .build();
+
+        Entity e3 = Entity.builder()
+                .setId("e3")
+                .setEtypeId(etype.getId())
+                .build();
+
+        List<Entity> entities = Arrays.asList(e1, e2, e3);
+        EntityBatch batch = EntityBatch.of(etype, entities);
+
+        assertEquals(3, batch.size());
+        assertEquals(6, batch.columnCount());
+        assertEquals(entities, batch.toEntities());
+
+        int intCol = batch.columnIndex(INT_ATTR.getId());
+        int stringCol = batch.columnIndex(STRING_ATTR.getId());
+        int floatsCol = batch.columnIndex(FLOATS_ATTR.getId());
+        assertEquals(INT_ATTR, batch.columnAttrDef(intCol));
+
+        assertEquals(3, batch.getInt(0, intCol));
+        assertEquals(4, batch.getInt(1, intCol));
+        assertTrue(batch.isNull(2, intCol));
+        assertEquals("a", batch.getString(1, stringCol));
+        assertEquals(1000L, batch.getDateMillis(0, batch.columnIndex(DATE_ATTR.getId())));
+        assertTrue(batch.getBoolean(0, batch.columnIndex(BOOL_ATTR.getId())));
+        assertTrue(batch.isNull(1, batch.columnIndex(BOOL_ATTR.getId())));
+        assertEquals(1.5f, batch.getFloat(0, floatsCol), 0);
+        assertEquals(7f, batch.getFloat(1, floatsCol), 0);
+        assertEquals(LocalizedString.of(Locale.ITALIAN, "ciao"), batch.getObject(0, batch.columnIndex(LS_ATTR.getId())));
+
+        EntityBatch.Row row = batch.rows().get(0);
+        assertEquals("e1", row.getId());
+        assertEquals(etype.getId(), row.getEtypeId());
+        assertEquals(Dict.of("first"), row.getName());
+        assertEquals(e1.getAttrs(), row.getAttrs());
+        assertEquals(e1.attr(STRING_ATTR.getId()), row.attr(STRING_ATTR.getId()));
+        assertTrue(batch.row(2).getAttrs().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongEtype() {
+        Etype etype = Etype.builder().setId("oe:batch-et").putAttrDef(INT_ATTR).build();
+        EntityBatch.of(etype, Arrays.asList(Entity.builder().setId("e").setEtypeId("oe:other").build()));
+    }
+}
@@ -0,0 +1,128 @@
+package eu.trentorise.opendata.semantics.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Locale;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.io.EntityBinaryReader;
+import eu.trentorise.opendata.semantics.io.EntityBinaryWriter;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+
+/**
+ * @author David Leoni
+ */
+public class EntityBinaryTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(EntityBinaryTest.class);
+    }
+
+    private static AttrDef attrDef(String id, AttrType type) {
+        return AttrDef.builder()
+                .setId(id)
+                .setName(Dict.of(id))
+                .setConceptId("myconceptid")
+                .setType(type)
+                .build();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        MockEkb ekb = new MockEkb();
+        IEtypeService ets = ekb.getEtypeService();
+        Etype etype = ets.readEtype(MockEtypeService.TEST_ENTITY_TYPE);
+
+        Struct struct = Struct.builder()
+                .setId("s1")
+                .setEtypeId(MockEtypeService.OPENING_HOURS)
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.OPENING_TIME_ATTR), "9:00"))
+                .build();
+
+        Entity entity = Entity.builder()
+                .setId("e1")
+                .setEtypeId(etype.getId())
+                .setName(Dict.of(Locale.ITALIAN, "ciao").with(Locale.ENGLISH, "hello"))
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_1_ID), "àé €"))
+                .putAttrs(Attr.ofObject(attrDef("oe:int", DataTypes.AT_INTEGER), -3))
+                .putAttrs(Attr.ofObject(attrDef("oe:long", DataTypes.AT_LONG), Long.MAX_VALUE))
+                .putAttrs(Attr.ofObject(attrDef("oe:float", DataTypes.AT_FLOAT), 1.5f))
+                .putAttrs(Attr.ofObject(attrDef("oe:bool", DataTypes.AT_BOOLEAN), true))
+                .putAttrs(Attr.ofObject(attrDef("oe:date", DataTypes.AT_DATE), new Date(1234567L)))
+                .putAttrs(Attr.ofObject(attrDef("oe:ls", DataTypes.AT_LOCALIZED_STRING),
+                        LocalizedString.of(Locale.ITALIAN, "ciao")))
+                .putAttrs(Attr.ofObject(
+                        attrDef("oe:struct", AttrType.of(DataTypes.STRUCTURE, false, MockEtypeService.OPENING_HOURS)),
+                        struct))
+                .build();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        EntityBinaryWriter writer = new EntityBinaryWriter(bos);
+        writer.writeEtype(etype);
+        writer.writeEntity(entity);
+        writer.writeEntity(entity);
+        writer.close();
+
+        EntityBinaryReader reader = new EntityBinaryReader(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(etype, reader.read());
+        assertEquals(entity, reader.readEntity());
+        assertEquals(entity, reader.readEntity());
+        assertNull(reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void testCorruptedLength() throws IOException {
+        Entity entity = Entity.builder()
+                .setId("e1")
+                .setEtypeId(MockEtypeService.TEST_ENTITY_TYPE)
+                .putAttrs(Attr.ofObject(attrDef("oe:str", DataTypes.AT_STRING), "corrupt me"))
+                .build();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        EntityBinaryWriter writer = new EntityBinaryWriter(bos);
+        writer.writeEntity(entity);
+        writer.close();
+        byte[] bytes = bos.toByteArray();
+        String str = new String(bytes, StandardCharsets.ISO_8859_1);
+        int lengthAt = str.indexOf("corrupt me") - 1;
+        assertEquals(10, bytes[lengthAt]);
+
+        // Integer.MAX_VALUE as varint, and a length past the end of the stream
+        byte[][] lengths = { { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+                { (byte) 0xE8, 0x07 } };
+        for (byte[] length : lengths) {
+            ByteArrayOutputStream corrupted = new ByteArrayOutputStream();
+            corrupted.write(bytes, 0, lengthAt);
+            corrupted.write(length);
+            corrupted.write(bytes, lengthAt + 1, bytes.length - lengthAt - 1);
+            EntityBinaryReader reader = new EntityBinaryReader(new ByteArrayInputStream(corrupted.toByteArray()));
+            try {
+                reader.read();
+                fail("Shouldn't arrive here!");
+            } catch (IOException ex) {
+
+            }
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package eu.trentorise.opendata.semantics.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.io.EntityJsonCodec;
+import eu.trentorise.opendata.semantics.io.Sink;
+import eu.trentorise.opendata.semantics.model.entity.AStruct;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+
+/**
+ * @author David Leoni
+ */
+public class EntityJsonTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(EntityJsonTest.class);
+    }
+
+    @Test
+    public void testEtypeAwareRead() throws IOException {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        Map<String, Etype> etypes = Entities.resolveEtypeClosure(ets.readEtype(MockEtypeService.FACILITY), ets);
+
+        String json = "[{\"attrs\":{"
+                + "\"" + MockEtypeService.FACILITY_LATITUDE_ATTR + "\":{\"values\":[{\"obj\":46.5}]},"
+                + "\"" + MockEtypeService.FACILITY_OPENING_HOURS_ATTR + "\":{\"values\":[{\"obj\":{\"attrs\":{"
+                + "\"" + MockEtypeService.OPENING_TIME_ATTR + "\":{\"values\":[{\"obj\":\"9:00\"}]}}}}]}},"
+                + "\"id\":\"e1\",\"etypeId\":\"" + MockEtypeService.FACILITY + "\"},"
+                + "{\"id\":\"e2\",\"etypeId\":\"" + MockEtypeService.FACILITY + "\",\"attrs\":{"
+                + "\"unknown\":{\"values\":[{\"obj\":3}]}}}]";
+
+        final List<Entity> entities = new ArrayList();
+        long count = EntityJsonCodec.etypeAware(new ObjectMapper(), etypes).readArray(new StringReader(json),
+                new Sink<Entity>() {
+                    @Override
+                    public void accept(Entity item) {
+                        entities.add(item);
+                    }
+                });
+
+        assertEquals(2, count);
+        Entity e1 = entities.get(0);
+        assertEquals("e1", e1.getId());
+        assertEquals(46.5f, e1.attr(MockEtypeService.FACILITY_LATITUDE_ATTR).getValues().get(0).getObj());
+
+        AStruct openingHours = (AStruct) e1.attr(MockEtypeService.FACILITY_OPENING_HOURS_ATTR).getValues().get(0)
+                .getObj();
+        assertEquals(MockEtypeService.OPENING_HOURS, openingHours.getEtypeId());
+        assertEquals("9:00", openingHours.attr(MockEtypeService.OPENING_TIME_ATTR).getValues().get(0).getObj());
+
+        assertEquals(3, entities.get(1).attr("unknown").getValues().get(0).getObj());
+    }
+
+    @Test
+    public void testEtypeAwareReferences() throws IOException {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        Map<String, Etype> etypes = Entities.resolveEtypeClosure(ets.readEtype(MockEtypeService.FACILITY), ets);
+        EntityJsonCodec codec = EntityJsonCodec.etypeAware(new ObjectMapper(), etypes);
+
+        String json = "[{\"id\":\"e1\",\"etypeId\":\"" + MockEtypeService.FACILITY + "\",\"attrs\":{"
+                + "\"" + MockEtypeService.FACILITY_OPENING_HOURS_ATTR + "\":{\"values\":[{\"obj\":"
+                + "\"http://mydata.org/structs/oh1\"}]}}}]";
+        final List<Entity> entities = new ArrayList();
+        codec.readArray(new StringReader(json), new Sink<Entity>() {
+            @Override
+            public void accept(Entity item) {
+                entities.add(item);
+            }
+        });
+        assertEquals("http://mydata.org/structs/oh1",
+                entities.get(0).attr(MockEtypeService.FACILITY_OPENING_HOURS_ATTR).getValues().get(0).getObj());
+
+        String wrong = "[{\"id\":\"e1\",\"etypeId\":\"" + MockEtypeService.FACILITY + "\",\"attrs\":{"
+                + "\"" + MockEtypeService.FACILITY_LATITUDE_ATTR + "\":{\"values\":[{\"obj\":\"north\"}]}}}]";
+        try {
+            codec.readArray(new StringReader(wrong), new Sink<Entity>() {
+                @Override
+                public void accept(Entity item) {
+                }
+            });
+            fail("Shouldn't arrive here!");
+        } catch (JsonMappingException ex) {
+
+        }
+    }
+
+    private static List<Entity> readAll(EntityJsonCodec codec, String json) throws IOException {
+        final List<Entity> ret = new ArrayList();
+        long count = codec.readArray(new StringReader(json), new Sink<Entity>() {
+            @Override
+            public void accept(Entity item) {
+                ret.add(item);
+            }
+        });
+        assertEquals(ret.size(), count);
+        return ret;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        EntityJsonCodec codec = new EntityJsonCodec(new ObjectMapper());
+        List<Entity> entities = new ArrayList();
+        for (int i = 0; i < 3; i++) {
+            entities.add(Entity.builder()
+                    .setId("oe:e" + i)
+                    .setEtypeId(MockEtypeService.TEST_ENTITY_TYPE)
+                    .putAttrs(Attr.builder().setLocalId(1).setAttrDefId(MockEtypeService.TEST_ATTR_DEF_1_ID)
+                            .addValues(Val.of(10, "a \"" + i + "\""), Val.of(11, "b")).build())
+                    .putAttrs(Attr.builder().setLocalId(2).setAttrDefId(MockEtypeService.TEST_ATTR_DEF_2_ID)
+                            .addValues(Val.of(20, i)).build())
+                    .build());
+        }
+
+        StringWriter sw = new StringWriter();
+        EntityJsonCodec.ArrayWriter arrayWriter = codec.openArray(sw);
+        for (Entity entity : entities) {
+            arrayWriter.write(entity);
+        }
+        arrayWriter.close();
+        assertEquals(entities, readAll(codec, sw.toString()));
+
+        sw = new StringWriter();
+        codec.writeArray(entities, sw);
+        assertEquals(entities, readAll(codec, sw.toString()));
+
+        sw = new StringWriter();
+        codec.writeArray(ImmutableList.<Entity> of(), sw);
+        assertEquals("[]", sw.toString());
+        assertTrue(readAll(codec, sw.toString()).isEmpty());
+
+        sw = new StringWriter();
+        codec.openArray(sw).close();
+        assertTrue(readAll(codec, sw.toString()).isEmpty());
+    }
+}
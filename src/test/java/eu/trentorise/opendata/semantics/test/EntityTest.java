@@ -2,22 +2,33 @@ package eu.trentorise.opendata.semantics.test;
 
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
 import eu.trentorise.opendata.commons.Dict;
 import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.DataTypes;
 import eu.trentorise.opendata.semantics.exceptions.OpenEntityNotFoundException;
 import eu.trentorise.opendata.semantics.model.entity.Attr;
 import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Canonicals;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
 import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.EntityDelta;
 import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Val;
 import eu.trentorise.opendata.semantics.services.IEkb;
 import eu.trentorise.opendata.semantics.services.IEtypeService;
 import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEntityService;
 import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
 
 public class EntityTest {
@@ -97,4 +108,75 @@ public class EntityTest {
         }
         
     }    
+
+    @Test
+    public void testCanonicals() {
+        assertSame(Canonicals.id(new String("oe:a")), Canonicals.id(new String("oe:a")));
+        assertSame(Canonicals.dict(Dict.of("a")), Canonicals.dict(Dict.of("a")));
+
+        AttrType parsed = AttrType.of(DataTypes.STRING + "[]");
+        assertSame(parsed, AttrType.of(DataTypes.STRING + "[]"));
+        assertSame(parsed, AttrType.of(DataTypes.STRING, true));
+        assertTrue(parsed.isList());
+
+        MockEkb ekb = new MockEkb();
+        AttrDef attrDef = ekb.getEtypeService().readAttrDef(MockEtypeService.TEST_ATTR_DEF_1_ID);
+        Attr attr1 = Attr.ofObject(attrDef, "a");
+        Attr attr2 = Attr.ofObject(attrDef, "b");
+        assertSame(attr1.getAttrDefId(), attr2.getAttrDefId());
+        assertSame(attrDef.getType(), Canonicals.attrType(attrDef.getType()));
+    }
+
+    @Test
+    public void testEntityDelta() {
+        Entity from = Entity.builder()
+                .setId("oe:e")
+                .setEtypeId(MockEtypeService.TEST_ENTITY_TYPE)
+                .putAttrs(Attr.builder().setLocalId(1).setAttrDefId(MockEtypeService.TEST_ATTR_DEF_1_ID)
+                        .addValues(Val.of(10, "a"), Val.of(11, "b"), Val.of(12, "c")).build())
+                .putAttrs(Attr.builder().setLocalId(2).setAttrDefId(MockEtypeService.TEST_ATTR_DEF_2_ID)
+                        .addValues(Val.of(20, "x")).build())
+                .build();
+        Entity to = Entity.builder()
+                .setId("oe:e")
+                .setEtypeId(MockEtypeService.TEST_ENTITY_TYPE)
+                .setName(Dict.of("renamed"))
+                .putAttrs(Attr.builder().setLocalId(1).setAttrDefId(MockEtypeService.TEST_ATTR_DEF_1_ID)
+                        .addValues(Val.of(10, "a"), Val.of(12, "C"), Val.of(13, "d")).build())
+                .putAttrs(Attr.builder().setAttrDefId(MockEtypeService.TEST_ATTR_DEF_3_ID)
+                        .addValues(Val.of(-1, "z")).build())
+                .build();
+
+        EntityDelta delta = EntityDelta.diff(from, to);
+        assertEquals(Dict.of("renamed"), delta.getName());
+        assertNull(delta.getEtypeId());
+        assertEquals(ImmutableSet.of(MockEtypeService.TEST_ATTR_DEF_2_ID), delta.getRemovedAttrs());
+
+        EntityDelta.AttrDelta attrDelta = delta.getChangedAttrs().get(MockEtypeService.TEST_ATTR_DEF_1_ID);
+        assertFalse(attrDelta.isReplace());
+        assertEquals(ImmutableSet.of(11L), attrDelta.getRemovedValueIds());
+        assertEquals(ImmutableList.of(Val.of(12, "C"), Val.of(13, "d")), attrDelta.getPutValues());
+        assertTrue(delta.getChangedAttrs().get(MockEtypeService.TEST_ATTR_DEF_3_ID).isReplace());
+        assertEquals(3, delta.getTouchedAttrDefIds().size());
+
+        assertEquals(to, delta.apply(from));
+        assertTrue(EntityDelta.diff(to, to).isEmpty());
+
+
+        final Map<String, Entity> stored = new HashMap();
+        stored.put(from.getId(), from);
+        MockEntityService es = new MockEntityService(new MockEkb()) {
+            @Override
+            public Entity readEntity(String entityURL) {
+                return stored.get(entityURL);
+            }
+
+            @Override
+            public void updateEntity(Entity entity) {
+                stored.put(entity.getId(), entity);
+            }
+        };
+        assertEquals(to, Entities.patchEntity(es, from.getId(), delta));
+        assertEquals(to, es.readEntity(from.getId()));
+    }
 }
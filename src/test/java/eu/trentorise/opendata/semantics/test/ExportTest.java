@@ -0,0 +1,238 @@
+package eu.trentorise.opendata.semantics.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.io.CsvExporter;
+import eu.trentorise.opendata.semantics.io.JsonLdExporter;
+import eu.trentorise.opendata.semantics.io.ParallelExporter;
+import eu.trentorise.opendata.semantics.io.RdfExporter;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEntityService;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+
+/**
+ * @author David Leoni
+ */
+public class ExportTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(ExportTest.class);
+    }
+
+    @Test
+    public void testCsvRow() throws IOException {
+        MockEkb ekb = new MockEkb();
+        IEtypeService ets = ekb.getEtypeService();
+        Etype etype = ets.readEtype(MockEtypeService.TEST_ENTITY_TYPE);
+
+        CsvExporter exporter = new CsvExporter(ekb.getEntityService(), etype, ets);
+        assertEquals(ImmutableList.of(CsvExporter.ID_HEADER, MockEtypeService.TEST_ATTR_DEF_1_ID,
+                MockEtypeService.TEST_ATTR_DEF_2_ID, MockEtypeService.TEST_ATTR_DEF_3_ID,
+                MockEtypeService.TEST_DESCR_ATTR_ID, MockEtypeService.TEST_NAME_ATTR_ID), exporter.getHeaders());
+
+        Entity entity = Entity.builder()
+                .setId("e1")
+                .setEtypeId(etype.getId())
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_1_ID), "a,\"b\""))
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_2_ID), "c"))
+                .build();
+
+        StringWriter sw = new StringWriter();
+        exporter.writeEntity(entity, sw);
+        assertEquals("e1,\"a,\"\"b\"\"\",c,,,\r\n", sw.toString());
+
+        try {
+            exporter.writeEntity(entity.withEtypeId(MockEtypeService.TEST_ROOT_ETYPE), sw);
+            Assert.fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
+
+    @Test
+    public void testCsvListEscaping() throws IOException {
+        MockEkb ekb = new MockEkb();
+        IEtypeService ets = ekb.getEtypeService();
+        Etype etype = ets.readEtype(MockEtypeService.TEST_ENTITY_TYPE);
+        CsvExporter exporter = new CsvExporter(ekb.getEntityService(), etype, ets);
+
+        Entity entity = Entity.builder()
+                .setId("e1")
+                .setEtypeId(etype.getId())
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_1_ID), "a|b\\c"))
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_NAME_ATTR_ID),
+                        ImmutableList.of("x|y", "z\\w", "plain")))
+                .build();
+
+        StringWriter sw = new StringWriter();
+        exporter.writeEntity(entity, sw);
+        // only the list column is escaped
+        assertEquals("e1,a|b\\c,,,,x\\|y|z\\\\w|plain\r\n", sw.toString());
+    }
+
+    @Test
+    public void testExportToCsv() {
+        MockEkb ekb = new MockEkb();
+        StringWriter sw = new StringWriter();
+        ekb.getEntityService().exportToCsv(
+                ImmutableList.of(MockEntityService.TEST_ENTITY_1, MockEntityService.TEST_ENTITY_2), sw);
+        String[] lines = sw.toString().split("\r\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith(CsvExporter.ID_HEADER + ","));
+        assertTrue(lines[1].startsWith(MockEntityService.TEST_ENTITY_1 + ","));
+        assertTrue(lines[2].startsWith(MockEntityService.TEST_ENTITY_2 + ","));
+    }
+
+    private static final AttrDef LS_ATTR_DEF = AttrDef.builder()
+            .setId("oe:ls")
+            .setName(Dict.of("Localized string attr"))
+            .setConceptId("myconceptid")
+            .setType(DataTypes.AT_LOCALIZED_STRING)
+            .build();
+
+    private static Entity makeEntity(IEtypeService ets) {
+        return Entity.builder()
+                .setId("oe:e1")
+                .setEtypeId(MockEtypeService.TEST_ENTITY_TYPE)
+                .putAttrs(Attr.ofObject(ets.readAttrDef(MockEtypeService.TEST_ATTR_DEF_1_ID), "a \"b\""))
+                .putAttrs(Attr.ofObject(LS_ATTR_DEF, LocalizedString.of(Locale.ITALIAN, "ciao")))
+                .build();
+    }
+
+    @Test
+    public void testRdf() throws IOException {
+        MockEkb ekb = new MockEkb();
+        Entity entity = makeEntity(ekb.getEtypeService());
+
+        StringWriter sw = new StringWriter();
+        RdfExporter nt = new RdfExporter(ekb.getEntityService(), RdfExporter.Format.N_TRIPLES);
+        nt.writeEntity(entity, sw);
+        String s = sw.toString();
+        assertTrue(s.contains("<" + DataTypes.OPEN_ENTITY_URL + "e1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <"
+                + MockEtypeService.TEST_ENTITY_TYPE + "> .\n"));
+        assertTrue(s.contains(" <" + MockEtypeService.TEST_ATTR_DEF_1_ID + "> \"a \\\"b\\\"\" .\n"));
+        assertTrue(s.contains(" \"ciao\"@it .\n"));
+
+        sw = new StringWriter();
+        RdfExporter ttl = new RdfExporter(ekb.getEntityService(), RdfExporter.Format.TURTLE);
+        ttl.writeHeader(sw);
+        ttl.writeEntity(entity, sw);
+        s = sw.toString();
+        assertTrue(s.startsWith("@prefix oe: <" + DataTypes.OPEN_ENTITY_URL + "> ."));
+        assertTrue(s.contains("oe:e1 a <" + MockEtypeService.TEST_ENTITY_TYPE + "> .\n"));
+    }
+
+    @Test
+    public void testJsonLd() throws IOException {
+        MockEkb ekb = new MockEkb();
+        Entity entity = makeEntity(ekb.getEtypeService());
+
+        StringWriter sw = new StringWriter();
+        JsonLdExporter exporter = new JsonLdExporter(ekb.getEntityService());
+        exporter.writeHeader(sw);
+        exporter.writeEntity(entity, sw);
+        exporter.writeSeparator(sw);
+        exporter.writeEntity(entity, sw);
+        exporter.writeFooter(sw);
+
+        JsonNode root = new ObjectMapper().readTree(sw.toString());
+        assertEquals(DataTypes.OPEN_ENTITY_URL, root.get("@context").get("oe").asText());
+        JsonNode node = root.get("@graph").get(1);
+        assertEquals("oe:e1", node.get("@id").asText());
+        assertEquals("a \"b\"", node.get(MockEtypeService.TEST_ATTR_DEF_1_ID).get(0).asText());
+        assertEquals("it", node.get("oe:ls").get(0).get("@language").asText());
+
+        sw = new StringWriter();
+        ekb.getEntityService().exportToJsonLd(
+                ImmutableList.of(MockEntityService.TEST_ENTITY_1, MockEntityService.TEST_ENTITY_2), sw);
+        assertEquals(2, new ObjectMapper().readTree(sw.toString()).get("@graph").size());
+    }
+
+    /**
+     * String URLs under entity attributes must be exported as resources, while
+     * strings under string attributes stay literals.
+     */
+    @Test
+    public void testEntityReferences() throws IOException {
+        MockEkb ekb = new MockEkb();
+        String producerId = "http://example.org/producers/1";
+        String website = "http://example.org/products/1";
+        Entity entity = Entity.builder()
+                .setId("e1")
+                .setEtypeId(MockEtypeService.CERTIFIED_PRODUCT)
+                .putAttrs(Attr.builder()
+                        .setAttrDefId(MockEtypeService.CERTIFIED_PRODUCT_PRODUCER_ATTR)
+                        .addValues(Val.of(-1, producerId))
+                        .build())
+                .putAttrs(Attr.builder()
+                        .setAttrDefId(MockEtypeService.CERTIFIED_PRODUCT_WEBSITE_ATTR)
+                        .addValues(Val.of(-1, website))
+                        .build())
+                .build();
+
+        StringWriter sw = new StringWriter();
+        new RdfExporter(ekb.getEntityService(), ekb.getEtypeService(), RdfExporter.Format.N_TRIPLES)
+                .writeEntity(entity, sw);
+        String s = sw.toString();
+        assertTrue(s.contains(" <" + MockEtypeService.CERTIFIED_PRODUCT_PRODUCER_ATTR + "> <" + producerId + "> .\n"));
+        assertTrue(s.contains(" <" + MockEtypeService.CERTIFIED_PRODUCT_WEBSITE_ATTR + "> \"" + website + "\" .\n"));
+
+        sw = new StringWriter();
+        JsonLdExporter exporter = new JsonLdExporter(ekb.getEntityService(), ekb.getEtypeService());
+        exporter.writeHeader(sw);
+        exporter.writeEntity(entity, sw);
+        exporter.writeFooter(sw);
+        JsonNode node = new ObjectMapper().readTree(sw.toString()).get("@graph").get(0);
+        assertEquals(producerId,
+                node.get(MockEtypeService.CERTIFIED_PRODUCT_PRODUCER_ATTR).get(0).get("@id").asText());
+        assertTrue(node.get(MockEtypeService.CERTIFIED_PRODUCT_WEBSITE_ATTR).get(0).isTextual());
+        assertEquals(website, node.get(MockEtypeService.CERTIFIED_PRODUCT_WEBSITE_ATTR).get(0).asText());
+    }
+
+    @Test
+    public void testParallelExport() {
+        final MockEkb ekb = new MockEkb();
+        List<String> ids = new ArrayList();
+        for (int i = 0; i < 25; i++) {
+            ids.add(MockEntityService.ENTITY_PREFIX + i);
+        }
+
+        StringWriter expected = new StringWriter();
+        ekb.getEntityService().exportToJsonLd(ids, expected);
+
+        StringWriter actual = new StringWriter();
+        new ParallelExporter(new Supplier<JsonLdExporter>() {
+            @Override
+            public JsonLdExporter get() {
+                return new JsonLdExporter(ekb.getEntityService(), 2);
+            }
+        }, 4, 3).export(ids, actual);
+        assertEquals(expected.toString(), actual.toString());
+    }
+}
@@ -0,0 +1,126 @@
+package eu.trentorise.opendata.semantics.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import eu.trentorise.opendata.semantics.io.MappedCsvReader;
+import eu.trentorise.opendata.semantics.io.Sink;
+
+/**
+ * Measures the throughput in MB/s of {@link MappedCsvReader} against
+ * {@link BufferedReader#readLine()} followed by {@link String#split(String)},
+ * when reading a single column of a generated CSV file. Not a unit test, run
+ * it with:
+ *
+ * <pre>
+ * java -cp ... eu.trentorise.opendata.semantics.test.MappedCsvReaderBenchmark [megabytes] [rounds]
+ * </pre>
+ *
+ * @author David Leoni
+ */
+public class MappedCsvReaderBenchmark {
+
+    private static final int COLUMNS = 8;
+    private static final int READ_COLUMN = 3;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File file = File.createTempFile("mapped-csv-benchmark", ".csv");
+        file.deleteOnExit();
+        generate(file, megabytes * 1024L * 1024L);
+        double size = file.length() / (1024.0 * 1024.0);
+        System.out.println("File size: " + String.format("%.1f", size) + " MB, rounds: " + rounds);
+
+        // first round is warm up
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            long mappedChars = readMapped(file);
+            double mapped = seconds(start);
+
+            start = System.nanoTime();
+            long bufferedChars = readBuffered(file);
+            double buffered = seconds(start);
+
+            if (mappedChars != bufferedChars) {
+                throw new IllegalStateException("Readers disagree: " + mappedChars + " vs " + bufferedChars);
+            }
+            if (round > 0) {
+                System.out.println(String.format("round %d: MappedCsvReader %.1f MB/s, BufferedReader %.1f MB/s",
+                        round, size / mapped, size / buffered));
+            }
+        }
+    }
+
+    private static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private static void generate(File file, long bytes) throws IOException {
+        Random random = new Random(0);
+        Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            long written = 0;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < COLUMNS; i++) {
+                sb.append(i > 0 ? "," : "").append("column").append(i);
+            }
+            sb.append("\r\n");
+            while (written < bytes) {
+                writer.append(sb);
+                written += sb.length();
+                sb.setLength(0);
+                for (int i = 0; i < COLUMNS; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    if (i % 2 == 0) {
+                        sb.append(random.nextInt(1000000));
+                    } else {
+                        sb.append("value ").append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+                    }
+                }
+                sb.append("\r\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static long readMapped(File file) throws IOException {
+        final long[] chars = new long[1];
+        MappedCsvReader reader = MappedCsvReader.open(file);
+        try {
+            reader.read(new Sink<MappedCsvReader.Record>() {
+                @Override
+                public void accept(MappedCsvReader.Record record) {
+                    chars[0] += record.get(READ_COLUMN).length();
+                }
+            });
+        } finally {
+            reader.close();
+        }
+        return chars[0];
+    }
+
+    private static long readBuffered(File file) throws IOException {
+        long chars = 0;
+        BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chars += line.split(",")[READ_COLUMN].length();
+            }
+        } finally {
+            reader.close();
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,175 @@
+package eu.trentorise.opendata.semantics.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.io.MappedCsvReader;
+import eu.trentorise.opendata.semantics.io.Sink;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.services.AttrMapping;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.SchemaMapping;
+import eu.trentorise.opendata.semantics.services.matching.CompiledMapping;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+
+/**
+ * @author David Leoni
+ */
+public class MappedCsvReaderTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(MappedCsvReaderTest.class);
+    }
+
+    private static File write(String content) throws IOException {
+        File file = File.createTempFile("mapped-csv", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<List<String>> readAll(MappedCsvReader reader, int splits) throws IOException {
+        final List<List<String>> ret = new ArrayList();
+        for (MappedCsvReader.Split split : reader.split(splits)) {
+            split.read(new Sink<MappedCsvReader.Record>() {
+                @Override
+                public void accept(MappedCsvReader.Record record) {
+                    ret.add(new ArrayList(record));
+                }
+            });
+        }
+        return ret;
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        File file = write("id,\"na,me\",note\r\n"
+                + "1,città,\"multi\r\nline, \"\"quoted\"\"\"\r\n"
+                + "\r\n"
+                + "2,,\n"
+                + "\"3\",x,\"\"");
+        MappedCsvReader reader = MappedCsvReader.open(file);
+        try {
+            assertEquals(ImmutableList.of("id", "na,me", "note"), reader.getHeader());
+            List<List<String>> records = readAll(reader, 1);
+            assertEquals(Arrays.asList(
+                    Arrays.asList("1", "città", "multi\r\nline, \"quoted\""),
+                    Arrays.asList("2", "", ""),
+                    Arrays.asList("3", "x", "")), records);
+            for (int i = 2; i < 10; i++) {
+                assertEquals(records, readAll(reader, i));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testSplits() throws IOException {
+        StringBuilder sb = new StringBuilder("a,b\n");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(",\"line ").append(i).append("\n\"\"").append(i % 7).append("\"\"\"\n");
+        }
+        MappedCsvReader reader = MappedCsvReader.open(write(sb.toString()));
+        try {
+            List<List<String>> records = readAll(reader, 1);
+            assertEquals(1000, records.size());
+            assertEquals(Arrays.asList("999", "line 999\n\"5\""), records.get(999));
+
+            List<MappedCsvReader.Split> splits = reader.split(8);
+            assertEquals(8, splits.size());
+            for (int i = 1; i < splits.size(); i++) {
+                assertEquals(splits.get(i - 1).getEnd(), splits.get(i).getStart());
+            }
+            assertEquals(reader.size(), splits.get(7).getEnd());
+            assertEquals(records, readAll(reader, 8));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRandomSplits() throws IOException {
+        String[] pieces = { "a", "b,c", "\n", "\r\n", ",", "\"\"", "x y" };
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            StringBuilder sb = new StringBuilder("h1,h2,h3\n");
+            int records = 1 + random.nextInt(30);
+            for (int i = 0; i < records; i++) {
+                for (int j = 0; j < 3; j++) {
+                    if (j > 0) {
+                        sb.append(',');
+                    }
+                    if (random.nextBoolean()) {
+                        sb.append('"');
+                        int length = random.nextInt(4);
+                        for (int k = 0; k < length; k++) {
+                            sb.append(pieces[random.nextInt(pieces.length)]);
+                        }
+                        sb.append('"');
+                    } else {
+                        sb.append(random.nextInt(1000));
+                    }
+                }
+                sb.append(random.nextBoolean() ? "\n" : "\r\n");
+            }
+            MappedCsvReader reader = MappedCsvReader.open(write(sb.toString()));
+            try {
+                List<List<String>> records1 = readAll(reader, 1);
+                assertEquals(records, records1.size());
+                for (int splits = 2; splits < 20; splits++) {
+                    assertEquals("Round " + round + ", splits " + splits, records1, readAll(reader, splits));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledMapping() throws IOException {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        Etype facility = ets.readEtype(MockEtypeService.FACILITY);
+        SchemaMapping mapping = SchemaMapping.of(ImmutableList.of(
+                AttrMapping.of(ImmutableList.of("schema", "opens"),
+                        ImmutableList.of(MockEtypeService.FACILITY_OPENING_HOURS_ATTR,
+                                MockEtypeService.OPENING_TIME_ATTR), 1.0)),
+                facility, 1.0);
+
+        MappedCsvReader reader = MappedCsvReader.open(write("ignored,opens\nx,9:00\ny,10:00\n"));
+        try {
+            final CompiledMapping compiled = CompiledMapping.of(mapping, reader.getHeader(), ets);
+            assertEquals(ImmutableList.of(1), ImmutableList.copyOf(compiled.getUsedColumns()));
+            final List<Entity> entities = new ArrayList();
+            assertEquals(2, reader.read(new Sink<MappedCsvReader.Record>() {
+                @Override
+                public void accept(MappedCsvReader.Record record) {
+                    entities.add(compiled.transform(record));
+                }
+            }));
+            Struct hours = (Struct) entities.get(1).attr(MockEtypeService.FACILITY_OPENING_HOURS_ATTR)
+                    .firstValue().getObj();
+            assertEquals("10:00", hours.attr(MockEtypeService.OPENING_TIME_ATTR).firstValue().getObj());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package eu.trentorise.opendata.semantics.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.Checker;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.model.entity.Attr;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Entities;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.EntityDelta;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.model.entity.Val;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+import eu.trentorise.opendata.semantics.validation.AttrTypeValidator;
+import eu.trentorise.opendata.semantics.validation.BulkValidator;
+import eu.trentorise.opendata.semantics.validation.CompiledRegex;
+import eu.trentorise.opendata.semantics.validation.LazyMessage;
+import eu.trentorise.opendata.semantics.validation.ValidationContext;
+import eu.trentorise.opendata.semantics.validation.ValidationPlan;
+import eu.trentorise.opendata.semantics.validation.ValidationReport;
+import eu.trentorise.opendata.semantics.validation.ValidationResult;
+import eu.trentorise.opendata.semantics.validation.Violation;
+
+/**
+ * @author David Leoni
+ */
+public class ValidationTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(ValidationTest.class);
+    }
+
+    @Test
+    public void testAttrTypeValidator() {
+        AttrTypeValidator validator = AttrTypeValidator.of(DataTypes.AT_INTEGER);
+        assertSame(validator, AttrTypeValidator.of(DataTypes.AT_INTEGER));
+        assertSame(DataTypes.getDataTypes(), DataTypes.getDataTypes());
+        assertTrue(validator.isSupported());
+
+        validator.check(3);
+        try {
+            validator.check(3L);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+        try {
+            validator.check(null);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+
+        AttrTypeValidator.of(DataTypes.AT_DATE).check(new Date());
+
+        AttrTypeValidator structValidator = AttrTypeValidator.of(AttrType.of(DataTypes.STRUCTURE, false, "oe:s"));
+        structValidator.check("oe:some-struct");
+        try {
+            structValidator.check(" ");
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+
+        AttrTypeValidator unsupported = AttrTypeValidator.of(AttrType.of("oe:unknown"));
+        assertFalse(unsupported.isSupported());
+        try {
+            unsupported.check("a");
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
+
+    private static Entity facility(IEtypeService ets, Object openingTime) {
+        Struct openingHours = Struct.builder()
+                .setEtypeId(MockEtypeService.OPENING_HOURS)
+                .putAttrs(Attr.builder()
+                        .setAttrDefId(MockEtypeService.OPENING_TIME_ATTR)
+                        .addValues(Val.of(-1, openingTime))
+                        .build())
+                .build();
+        return Entity.builder()
+                .setId("oe:facility-1")
+                .setEtypeId(MockEtypeService.FACILITY)
+                .putObj(ets.readAttrDef(MockEtypeService.FACILITY_OPENING_HOURS_ATTR), openingHours)
+                .build();
+    }
+
+    @Test
+    public void testValidationPlan() {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        ValidationContext context = ValidationContext.of(ets.readEtype(MockEtypeService.FACILITY), ets);
+
+        ValidationPlan plan = context.plan(MockEtypeService.FACILITY);
+        assertSame(plan, context.plan(MockEtypeService.FACILITY));
+        assertTrue(context.getEtypes().containsKey(MockEtypeService.OPENING_HOURS));
+
+        context.checkEntity(facility(ets, "9:00"), true);
+        try {
+            context.checkEntity(facility(ets, 9), true);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+        try {
+            context.checkEntity(Entity.builder().setId("oe:e").setEtypeId("oe:unknown").build(), true);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
+
+    @Test
+    public void testMandatory() {
+        AttrDef mandatory = AttrDef.builder()
+                .setId("oe:mandatory")
+                .setName(Dict.of("mandatory"))
+                .setType(AttrType.builder().setDatatype(DataTypes.STRING).setMandatory(true).build())
+                .build();
+        Etype etype = Etype.builder().setId("oe:et").setStruct(true).putAttrDef(mandatory).build();
+        ValidationContext context = ValidationContext.of(ImmutableMap.of(etype.getId(), etype));
+
+        assertEquals(ImmutableList.of(mandatory), context.plan(etype.getId()).getMandatoryAttrDefs());
+        context.checkStruct(Struct.builder().setEtypeId(etype.getId()).putObj(mandatory, "a").build(), true);
+        try {
+            context.checkStruct(Struct.builder().setEtypeId(etype.getId()).build(), true);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
+
+    @Test
+    public void testNestedEntities() {
+        MockEtypeService ets = new MockEtypeService();
+        AttrDef innerText = ets.registerAttrDef("oe:inner-text", "text", "testo", DataTypes.AT_STRING);
+        ets.registerStructType("oe:inner", "inner", "interno", innerText.getId());
+        AttrDef middleInner = ets.registerAttrDef("oe:middle-inner", "inner", "interno",
+                AttrType.of(DataTypes.STRUCTURE, false, "oe:inner"));
+        ets.registerNameDescr("oe:middle-name", "oe:middle-descr", "oe:middle");
+        ets.registerEtype("oe:middle", "middle", "medio", null, "oe:middle-name", "oe:middle-descr",
+                middleInner.getId());
+        AttrDef outerMiddle = ets.registerAttrDef("oe:outer-middle", "middle", "medio",
+                AttrType.of(DataTypes.ENTITY, false, "oe:middle"));
+        ets.registerNameDescr("oe:outer-name", "oe:outer-descr", "oe:outer");
+        Etype outer = ets.registerEtype("oe:outer", "outer", "esterno", null, "oe:outer-name", "oe:outer-descr",
+                outerMiddle.getId());
+
+        assertTrue(Entities.resolveEtypeClosure(outer, ets).containsKey("oe:inner"));
+
+        Struct inner = Struct.builder().setEtypeId("oe:inner").putObj(innerText, "x").build();
+        Entity middle = Entity.builder().setEtypeId("oe:middle").putObj(middleInner, inner).build();
+        Entity entity = Entity.builder().setEtypeId(outer.getId()).putObj(outerMiddle, middle).build();
+
+        ValidationContext context = ValidationContext.of(outer, ets);
+        assertTrue(context.validateEntity(entity, true).toString(), context.validateEntity(entity, true).isValid());
+        context.checkEntity(entity, true);
+    }
+
+    @Test
+    public void testBulkValidator() {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        ValidationContext context = ValidationContext.of(ets.readEtype(MockEtypeService.FACILITY), ets);
+
+        List<Entity> entities = new ArrayList();
+        for (int i = 0; i < 5000; i++) {
+            entities.add(facility(ets, i % 1000 == 7 ? (Object) i : "9:00"));
+        }
+
+        ValidationReport report = new BulkValidator(context, true).validate(entities);
+        assertEquals(5000, report.getEntityCount());
+        assertTrue(report.isComplete());
+        assertFalse(report.isValid());
+        assertEquals(5, report.getViolations().size());
+        assertEquals(5, report.getInvalidEntityCount());
+        Violation violation = report.getViolations().get(1);
+        assertEquals(1007, violation.getEntityIndex());
+        assertEquals(MockEtypeService.FACILITY_OPENING_HOURS_ATTR + "[0]." + MockEtypeService.OPENING_TIME_ATTR
+                + "[0]", violation.getPath());
+
+        ValidationReport limited = new BulkValidator(context, new ForkJoinPool(2), true, false, 1, 3)
+                .validate(entities);
+        assertEquals(3, limited.getViolations().size());
+        assertFalse(limited.isComplete());
+
+        ValidationReport failFast = new BulkValidator(context, new ForkJoinPool(2), true, true, 10, 10)
+                .validate(entities);
+        assertFalse(failFast.isComplete());
+        assertFalse(failFast.isValid());
+
+        assertTrue(new BulkValidator(context, true).validate(entities.subList(0, 7)).isValid());
+    }
+
+    @Test
+    public void testValidationResult() {
+        assertEquals("a 1 b [2, 3]", LazyMessage.of("a %s b", 1, 2, 3).toString());
+        assertEquals("a %s", LazyMessage.of("a %s").toString());
+
+        assertSame(ValidationResult.valid(), AttrTypeValidator.of(DataTypes.AT_INTEGER).validate(3));
+        ValidationResult wrongType = AttrTypeValidator.of(DataTypes.AT_INTEGER).validate(3L);
+        assertFalse(wrongType.isValid());
+        assertTrue(wrongType.getMessage().contains(DataTypes.INTEGER));
+
+        IEtypeService ets = new MockEkb().getEtypeService();
+        ValidationContext context = ValidationContext.of(ets.readEtype(MockEtypeService.FACILITY), ets);
+        assertTrue(context.validateEntity(facility(ets, "9:00"), true).isValid());
+
+        ValidationResult result = context.validateEntity(facility(ets, 9), true);
+        assertFalse(result.isValid());
+        assertEquals(MockEtypeService.FACILITY_OPENING_HOURS_ATTR + "[0]." + MockEtypeService.OPENING_TIME_ATTR
+                + "[0]", result.getPath());
+        try {
+            result.throwIfInvalid();
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains(result.getPath()));
+        }
+
+        assertFalse(context.validateEntity(Entity.builder().setId("oe:e").setEtypeId("oe:unknown").build(), true)
+                .isValid());
+
+        Checker checker = Checker.of(new MockEkb());
+        assertTrue(checker.validateEntity(facility(ets, "9:00"), true).isValid());
+        assertFalse(checker.validateEntity(facility(ets, 9), true).isValid());
+        assertFalse(checker.validateEntity(null, true).isValid());
+    }
+
+    @Test
+    public void testCheckerMandatory() {
+        MockEkb ekb = new MockEkb();
+        MockEtypeService ets = (MockEtypeService) ekb.getEtypeService();
+        AttrDef code = ets.registerAttrDef("oe:code", "code", "codice",
+                AttrType.builder().setDatatype(DataTypes.STRING).setMandatory(true).build());
+        ets.registerNameDescr("oe:coded-name", "oe:coded-descr", "oe:coded");
+        ets.registerEtype("oe:coded", "coded", "codificato", null, "oe:coded-name", "oe:coded-descr",
+                code.getId());
+        Checker checker = Checker.of(ekb);
+
+        Entity valid = Entity.builder().setEtypeId("oe:coded").putObj(code, "a").build();
+        checker.checkEntity(valid, true);
+        assertTrue(checker.validateEntity(valid, true).isValid());
+
+        // like checkEntity, validateEntity doesn't report missing mandatory attributes
+        Entity missing = Entity.builder().setEtypeId("oe:coded").build();
+        checker.checkEntity(missing, true);
+        assertTrue(checker.validateEntity(missing, true).isValid());
+        assertTrue(checker.validateEntity(missing, true).isValid());
+
+        ValidationContext context = ValidationContext.of(ets.readEtype("oe:coded"), ets);
+        assertTrue(context.isMandatoryChecked());
+        assertFalse(context.validateEntity(missing, true).isValid());
+        assertFalse(context.withoutMandatoryChecks().isMandatoryChecked());
+        assertTrue(context.withoutMandatoryChecks().validateEntity(missing, true).isValid());
+    }
+
+    @Test
+    public void testRegex() {
+        CompiledRegex regex = CompiledRegex.of("[0-9]+:[0-9]{2}");
+        assertSame(regex, CompiledRegex.of("[0-9]+:[0-9]{2}"));
+        assertTrue(regex.matches("9:00"));
+        assertFalse(regex.matches("9:0"));
+        assertTrue(regex.matches("10:30", 1000));
+
+        CompiledRegex evil = CompiledRegex.of("(.*a){20}");
+        try {
+            evil.matches("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!", 100000);
+            fail("Shouldn't arrive here!");
+        } catch (CompiledRegex.StepLimitExceededException ex) {
+
+        }
+
+        try {
+            CompiledRegex.of("[");
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+
+        AttrTypeValidator validator = AttrTypeValidator.of(AttrType.builder()
+                .setDatatype(DataTypes.STRING)
+                .setRegularExpression("[0-9]+:[0-9]{2}")
+                .build());
+        validator.checkWithRegex("9:00", AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR);
+        assertFalse(validator.validateWithRegex("9 o'clock", AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR)
+                .isValid());
+        assertFalse(validator.validateWithRegex("9 o'clock", AttrTypeValidator.UNLIMITED_REGEX_STEPS).isValid());
+        // plain checks only look at the datatype
+        validator.check("9 o'clock");
+        assertTrue(validator.validate("9 o'clock").isValid());
+        try {
+            validator.validateWithRegex("9:00", -1);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+
+        AttrTypeValidator evilValidator = AttrTypeValidator.of(AttrType.builder()
+                .setDatatype(DataTypes.STRING)
+                .setRegularExpression("(.*a){20}")
+                .build());
+        assertFalse(evilValidator.validateWithRegex("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!",
+                AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR).isValid());
+
+        assertFalse(AttrTypeValidator.of(AttrType.builder()
+                .setDatatype(DataTypes.STRING)
+                .setRegularExpression("[")
+                .build()).validateWithRegex("a", AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR).isValid());
+
+        AttrDef time = AttrDef.builder()
+                .setId("oe:time")
+                .setName(Dict.of("time"))
+                .setType(validator.getType())
+                .build();
+        Etype etype = Etype.builder().setId("oe:timed").putAttrDef(time).build();
+        // building attributes doesn't match regular expressions, validation does
+        Entity entity = Entity.builder().setEtypeId(etype.getId()).putObj(time, "9 o'clock").build();
+        ValidationContext context = ValidationContext.of(ImmutableMap.of(etype.getId(), etype));
+        assertEquals(AttrTypeValidator.DEFAULT_MAX_REGEX_STEPS_PER_CHAR, context.getMaxRegexStepsPerChar());
+        assertFalse(context.validateEntity(entity, true).isValid());
+        ValidationContext unlimited = context.withMaxRegexStepsPerChar(AttrTypeValidator.UNLIMITED_REGEX_STEPS);
+        assertEquals(AttrTypeValidator.UNLIMITED_REGEX_STEPS, unlimited.getMaxRegexStepsPerChar());
+        assertFalse(unlimited.validateEntity(entity, true).isValid());
+        assertTrue(unlimited.validateEntity(entity.withAttrs(ImmutableMap.of(time.getId(),
+                Attr.ofObject(time, "10:30"))), true).isValid());
+    }
+
+    @Test
+    public void testValidatePatch() {
+        AttrDef mandatory = AttrDef.builder()
+                .setId("oe:mandatory")
+                .setName(Dict.of("mandatory"))
+                .setType(AttrType.builder().setDatatype(DataTypes.STRING).setMandatory(true).build())
+                .build();
+        AttrDef number = AttrDef.builder()
+                .setId("oe:number")
+                .setName(Dict.of("number"))
+                .setType(DataTypes.AT_INTEGER)
+                .build();
+        Etype etype = Etype.builder().setId("oe:et").putAttrDef(mandatory).putAttrDef(number).build();
+        ValidationContext context = ValidationContext.of(ImmutableMap.of(etype.getId(), etype));
+
+        Entity from = Entity.builder().setId("oe:e").setEtypeId(etype.getId()).putObj(mandatory, "a").build();
+
+        Entity valid = from.withAttrs(ImmutableMap.of(mandatory.getId(), from.attr(mandatory.getId()),
+                number.getId(), Attr.ofObject(number, 3)));
+        assertTrue(context.validatePatch(valid, EntityDelta.diff(from, valid), true).isValid());
+
+        Entity removed = from.withAttrs(ImmutableMap.<String, Attr> of());
+        assertFalse(context.validatePatch(removed, EntityDelta.diff(from, removed), true).isValid());
+
+        Entity wrong = from.withAttrs(ImmutableMap.of(mandatory.getId(), from.attr(mandatory.getId()),
+                number.getId(), Attr.builder().setAttrDefId(number.getId()).addValues(Val.of(-1, "3")).build()));
+        ValidationResult result = context.validatePatch(wrong, EntityDelta.diff(from, wrong), true);
+        assertFalse(result.isValid());
+        assertEquals(number.getId() + "[0]", result.getPath());
+    }
+}
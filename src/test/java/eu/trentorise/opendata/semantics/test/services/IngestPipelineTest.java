@@ -0,0 +1,325 @@
+package eu.trentorise.opendata.semantics.test.services;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.TodConfig;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.exceptions.OpenEntityException;
+import eu.trentorise.opendata.semantics.io.MappedCsvReader;
+import eu.trentorise.opendata.semantics.io.Sink;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Etype;
+import eu.trentorise.opendata.semantics.services.AssignmentResult;
+import eu.trentorise.opendata.semantics.services.AttrMapping;
+import eu.trentorise.opendata.semantics.services.IIdentityService;
+import eu.trentorise.opendata.semantics.services.IdResult;
+import eu.trentorise.opendata.semantics.services.SchemaMapping;
+import eu.trentorise.opendata.semantics.services.ingest.IngestPipeline;
+import eu.trentorise.opendata.semantics.services.ingest.IngestReport;
+import eu.trentorise.opendata.semantics.services.ingest.IngestStage;
+import eu.trentorise.opendata.semantics.services.ingest.Rejection;
+import eu.trentorise.opendata.semantics.services.ingest.StageMetrics;
+import eu.trentorise.opendata.semantics.services.matching.CompiledMapping;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEntityService;
+import eu.trentorise.opendata.semantics.validation.ValidationContext;
+
+/**
+ * @author David Leoni
+ */
+public class IngestPipelineTest {
+
+    private static final AttrDef CODE_ATTR = AttrDef.builder()
+            .setId("oe:code")
+            .setName(Dict.of("code"))
+            .setType(AttrType.builder().setDatatype(DataTypes.INTEGER).setMandatory(true).build())
+            .build();
+
+    private static final AttrDef LABEL_ATTR = AttrDef.builder()
+            .setId("oe:label")
+            .setName(Dict.of("label"))
+            .setType(DataTypes.AT_STRING)
+            .build();
+
+    private static final Etype ETYPE = Etype.builder()
+            .setId("oe:ingest-et")
+            .putAttrDef(CODE_ATTR)
+            .putAttrDef(LABEL_ATTR)
+            .build();
+
+    private static final int ROWS = 100;
+
+    /**
+     * Rows minus the unmappable, invalid and unreconcilable ones and the
+     * reused ones, whose label ends with 7
+     */
+    private static final int NEW_ROWS = ROWS - 3 - 10;
+
+    @BeforeClass
+    public static void setUpClass() {
+        TodConfig.init(IngestPipelineTest.class);
+    }
+
+    private static CompiledMapping mapping() {
+        SchemaMapping mapping = SchemaMapping.of(ImmutableList.of(
+                AttrMapping.of(ImmutableList.of("schema", "code"), ImmutableList.of(CODE_ATTR.getId()), 1.0),
+                AttrMapping.of(ImmutableList.of("schema", "label"), ImmutableList.of(LABEL_ATTR.getId()), 1.0)),
+                ETYPE, 1.0);
+        return CompiledMapping.of(mapping, ImmutableList.of("code", "label"),
+                ImmutableMap.of(ETYPE.getId(), ETYPE));
+    }
+
+    /**
+     * Row 10 can't be mapped, row 20 misses the mandatory code
+     */
+    private static List<List<String>> rows() {
+        List<List<String>> ret = new ArrayList();
+        for (int i = 0; i < ROWS; i++) {
+            String code = i == 10 ? "x" : (i == 20 ? "" : String.valueOf(i));
+            ret.add(Arrays.asList(code, "l" + i));
+        }
+        return ret;
+    }
+
+    private static String label(Entity entity) {
+        return (String) entity.attr(LABEL_ATTR.getId()).firstValue().getObj();
+    }
+
+    /**
+     * Reuses entities with label ending with 7, can't reconcile label l30
+     */
+    private static class TestIdentityService implements IIdentityService {
+
+        @Override
+        public List<IdResult> assignURL(List<Entity> entities, int numCandidates) {
+            List<IdResult> ret = new ArrayList();
+            for (Entity entity : entities) {
+                String label = label(entity);
+                if ("l30".equals(label)) {
+                    ret.add(IdResult.of());
+                } else if (label.endsWith("7")) {
+                    Entity existing = entity.withId("http://ingest.test/existing/" + label);
+                    ret.add(IdResult.builder().setAssignmentResult(AssignmentResult.REUSE)
+                            .setResultEntity(existing).addEntities(existing).build());
+                } else {
+                    ret.add(IdResult.builder().setAssignmentResult(AssignmentResult.NEW)
+                            .setResultEntity(entity.withId("http://ingest.test/new/" + label)).build());
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Records the labels of created entities, failing once on label
+     * {@code failOn}
+     */
+    private static class TestEntityService extends MockEntityService {
+
+        final Set<String> created = Collections.synchronizedSet(new HashSet<String>());
+        volatile String failOn;
+
+        TestEntityService() {
+            super(new MockEkb());
+        }
+
+        @Override
+        public Entity createEntity(Entity entity) {
+            String label = label(entity);
+            if (label.equals(failOn)) {
+                failOn = null;
+                throw new OpenEntityException("Test failure on " + label);
+            }
+            assertTrue("Entity " + label + " created twice!", created.add(label));
+            return super.createEntity(entity);
+        }
+    }
+
+    private static class RejectionSink implements Sink<Rejection> {
+
+        final List<Rejection> rejections = new ArrayList();
+
+        @Override
+        public void accept(Rejection rejection) {
+            rejections.add(rejection);
+        }
+    }
+
+    private static void checkRejections(List<Rejection> rejections) {
+        assertEquals(3, rejections.size());
+        Set<String> found = new HashSet();
+        for (Rejection rejection : rejections) {
+            found.add(rejection.getStage() + ":" + rejection.getCells().get(1));
+        }
+        assertEquals(new HashSet(Arrays.asList("MAP:l10", "VALIDATE:l20", "RECONCILE:l30")), found);
+    }
+
+    @Test
+    public void testIngest() {
+        TestEntityService entityService = new TestEntityService();
+        final List<Entity> created = new ArrayList();
+        RejectionSink rejected = new RejectionSink();
+
+        IngestPipeline pipeline = IngestPipeline.builder(mapping(),
+                ValidationContext.of(ImmutableMap.of(ETYPE.getId(), ETYPE)), new TestIdentityService(),
+                entityService)
+                .setBatchSize(IngestStage.PARSE, 7)
+                .setParallelism(IngestStage.MAP, 3)
+                .setBatchSize(IngestStage.MAP, 5)
+                .setParallelism(IngestStage.VALIDATE, 2)
+                .setBatchSize(IngestStage.RECONCILE, 4)
+                .setParallelism(IngestStage.CREATE, 2)
+                .setBatchSize(IngestStage.CREATE, 3)
+                .setQueueCapacity(IngestStage.RECONCILE, 1)
+                .setCreatedSink(new Sink<Entity>() {
+                    @Override
+                    public void accept(Entity entity) {
+                        created.add(entity);
+                    }
+                })
+                .setRejectedSink(rejected)
+                .build();
+
+        IngestReport report = pipeline.run(rows());
+        assertEquals(0, report.getSkipped());
+        assertEquals(NEW_ROWS, report.getCreated());
+        assertEquals(10, report.getReused());
+        assertEquals(3, report.getRejected());
+        assertEquals(NEW_ROWS, created.size());
+        assertEquals(NEW_ROWS, entityService.created.size());
+        checkRejections(rejected.rejections);
+
+        assertEquals(ImmutableList.copyOf(IngestStage.values()), report.getMetrics().keySet().asList());
+        StageMetrics parse = report.getMetrics().get(IngestStage.PARSE);
+        assertEquals(ROWS, parse.getItemsIn());
+        assertEquals(15, parse.getBatches());
+        StageMetrics map = report.getMetrics().get(IngestStage.MAP);
+        assertEquals(ROWS, map.getItemsIn());
+        assertEquals(1, map.getRejected());
+        assertEquals(ROWS - 1, map.getItemsOut());
+        StageMetrics reconcile = report.getMetrics().get(IngestStage.RECONCILE);
+        assertEquals(ROWS - 2, reconcile.getItemsIn());
+        assertEquals(NEW_ROWS, reconcile.getItemsOut());
+        assertTrue(reconcile.getMaxQueueDepth() <= reconcile.getQueueCapacity());
+        assertEquals(NEW_ROWS, report.getMetrics().get(IngestStage.CREATE).getItemsOut());
+        assertEquals(report.getMetrics(), pipeline.getMetrics());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        File checkpoint = new File(Files.createTempDirectory("ingest").toFile(), "checkpoint");
+        checkpoint.deleteOnExit();
+        TestEntityService entityService = new TestEntityService();
+        entityService.failOn = "l60";
+        RejectionSink rejected = new RejectionSink();
+
+        IngestPipeline pipeline = IngestPipeline.builder(mapping(),
+                ValidationContext.of(ImmutableMap.of(ETYPE.getId(), ETYPE)), new TestIdentityService(),
+                entityService)
+                .setBatchSize(IngestStage.PARSE, 8)
+                .setParallelism(IngestStage.MAP, 2)
+                .setBatchSize(IngestStage.CREATE, 5)
+                .setCheckpoint(checkpoint)
+                .setRejectedSink(rejected)
+                .build();
+
+        try {
+            pipeline.run(rows());
+            fail("Shouldn't arrive here!");
+        } catch (OpenEntityException ex) {
+
+        }
+        assertTrue(checkpoint.exists());
+        int createdBefore = entityService.created.size();
+        assertTrue(createdBefore < NEW_ROWS);
+
+        IngestReport report = pipeline.run(rows());
+        assertTrue(report.getSkipped() > 0);
+        assertEquals(NEW_ROWS - createdBefore, report.getCreated());
+        assertEquals(NEW_ROWS, entityService.created.size());
+        checkRejections(rejected.rejections);
+
+        IngestReport again = pipeline.run(rows());
+        assertEquals(ROWS, again.getSkipped());
+        assertEquals(0, again.getCreated());
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        StringBuilder sb = new StringBuilder("code,label,note\n");
+        for (List<String> row : rows()) {
+            sb.append(row.get(0)).append(',').append(row.get(1)).append(",unused\n");
+        }
+        File file = File.createTempFile("ingest", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        File checkpoint = new File(Files.createTempDirectory("ingest").toFile(), "checkpoint");
+        checkpoint.deleteOnExit();
+
+        TestEntityService entityService = new TestEntityService();
+        RejectionSink rejected = new RejectionSink();
+        IngestPipeline pipeline = IngestPipeline.builder(mapping(),
+                ValidationContext.of(ImmutableMap.of(ETYPE.getId(), ETYPE)), new TestIdentityService(),
+                entityService)
+                .setParallelism(IngestStage.PARSE, 4)
+                .setBatchSize(IngestStage.PARSE, 6)
+                .setCheckpoint(checkpoint)
+                .setRejectedSink(rejected)
+                .build();
+
+        MappedCsvReader reader = MappedCsvReader.open(file);
+        try {
+            IngestReport report = pipeline.run(reader);
+            assertEquals(NEW_ROWS, report.getCreated());
+            assertEquals(ROWS, report.getMetrics().get(IngestStage.PARSE).getItemsIn());
+            checkRejections(rejected.rejections);
+            for (Rejection rejection : rejected.rejections) {
+                assertEquals(3, rejection.getCells().size());
+                assertNull(rejection.getCells().get(2));
+            }
+
+            assertEquals(ROWS, pipeline.run(reader).getSkipped());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testWrongBuilder() {
+        IngestPipeline.Builder builder = IngestPipeline.builder(mapping(),
+                ValidationContext.of(ImmutableMap.of(ETYPE.getId(), ETYPE)), new TestIdentityService(),
+                new TestEntityService());
+        try {
+            builder.setQueueCapacity(IngestStage.PARSE, 3);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+        try {
+            builder.setBatchSize(IngestStage.MAP, 0);
+            fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
+}
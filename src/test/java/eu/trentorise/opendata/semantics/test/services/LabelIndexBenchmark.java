@@ -0,0 +1,77 @@
+package eu.trentorise.opendata.semantics.test.services;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.semantics.services.matching.LabelIndex;
+import eu.trentorise.opendata.semantics.services.matching.NGramEmbedder;
+
+/**
+ * Measures the latency of top-k searches on a {@link LabelIndex} filled with
+ * random labels made of a few random words. Not a unit test, run it with:
+ *
+ * <pre>
+ * java -cp ... eu.trentorise.opendata.semantics.test.services.LabelIndexBenchmark [labels] [queries] [k]
+ * </pre>
+ *
+ * @author David Leoni
+ */
+public class LabelIndexBenchmark {
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    public static void main(String[] args) {
+        int labels = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        Random random = new Random(0);
+
+        LabelIndex index = new LabelIndex(new NGramEmbedder());
+        long start = System.nanoTime();
+        for (int i = 0; i < labels; i++) {
+            index.add(LabelIndex.Kind.ATTR_DEF, "oe:attr-" + i, Dict.of(randomLabel(random)), Dict.of());
+        }
+        System.out.println(String.format("Indexed %d labels in %.1f s", index.size(),
+                (System.nanoTime() - start) / 1e9));
+
+        String[] texts = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            texts[i] = randomLabel(random);
+        }
+
+        // warm up
+        for (String text : texts) {
+            index.search(text, k);
+        }
+
+        long[] nanos = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            long t = System.nanoTime();
+            index.search(texts[i], k);
+            nanos[i] = System.nanoTime() - t;
+        }
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        System.out.println(String.format("top-%d search over %d queries: mean %.3f ms, median %.3f ms, p99 %.3f ms",
+                k, queries, total / 1e6 / queries, nanos[queries / 2] / 1e6, nanos[queries * 99 / 100] / 1e6));
+    }
+
+    private static String randomLabel(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 1 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                sb.append(' ');
+            }
+            int len = 3 + random.nextInt(8);
+            for (int i = 0; i < len; i++) {
+                sb.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+            }
+        }
+        return sb.toString();
+    }
+}
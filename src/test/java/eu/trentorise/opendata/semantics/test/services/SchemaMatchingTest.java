@@ -16,11 +16,63 @@
 package eu.trentorise.opendata.semantics.test.services;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import eu.trentorise.opendata.commons.Dict;
+import eu.trentorise.opendata.commons.LocalizedString;
+import eu.trentorise.opendata.semantics.DataTypes;
+import eu.trentorise.opendata.semantics.exceptions.UnsupportedFeatureException;
+import eu.trentorise.opendata.semantics.model.entity.AttrDef;
+import eu.trentorise.opendata.semantics.model.entity.AttrType;
 import eu.trentorise.opendata.commons.TodConfig;
 import eu.trentorise.opendata.semantics.model.entity.Etype;
 import eu.trentorise.opendata.semantics.services.AttrMapping;
+import eu.trentorise.opendata.semantics.services.MappingOrderings;
 import eu.trentorise.opendata.semantics.services.SchemaMapping;
+import eu.trentorise.opendata.semantics.services.TopK;
+import eu.trentorise.opendata.semantics.services.matching.CachingSchemaMatchingService;
+import eu.trentorise.opendata.semantics.services.matching.ColumnProfile;
+import eu.trentorise.opendata.semantics.services.matching.ColumnProfiler;
+import eu.trentorise.opendata.semantics.services.matching.CompiledMapping;
+import eu.trentorise.opendata.semantics.services.matching.EtypeSignatures;
+import eu.trentorise.opendata.semantics.services.matching.LabelIndex;
+import eu.trentorise.opendata.semantics.services.matching.NGramEmbedder;
+import eu.trentorise.opendata.semantics.services.matching.SchemaMatcher;
+import eu.trentorise.opendata.semantics.services.matching.SchemaMatchingService;
+import eu.trentorise.opendata.semantics.services.matching.SourceColumn;
+import eu.trentorise.opendata.semantics.services.IEtypeService;
+import eu.trentorise.opendata.semantics.services.ISchemaMatchingService;
+import eu.trentorise.opendata.semantics.services.mock.MockEkb;
+import eu.trentorise.opendata.semantics.services.mock.MockEtypeService;
+import eu.trentorise.opendata.semantics.services.mock.MockKnowledgeService;
+import eu.trentorise.opendata.semantics.model.entity.Entity;
+import eu.trentorise.opendata.semantics.model.entity.Struct;
+import eu.trentorise.opendata.semantics.validation.ValidationContext;
+import eu.trentorise.opendata.traceprov.data.DcatDataset;
+import eu.trentorise.opendata.traceprov.data.DcatDistribution;
+import eu.trentorise.opendata.traceprov.data.DcatMetadata;
+import eu.trentorise.opendata.traceprov.types.AnyType;
+import eu.trentorise.opendata.traceprov.types.Concept;
+import eu.trentorise.opendata.traceprov.types.TraceType;
+import eu.trentorise.opendata.semtext.SemText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -48,4 +100,508 @@ public class SchemaMatchingTest {
         SchemaMapping x2 = SchemaMapping.builder().addMappings(AttrMapping.of()).setTargetEtype(Etype.of()).setScore(0.5).build();
         assertTrue(x1.compareTo(x2) > 0);
     }        
+
+    @Test
+    public void testOrderings() {
+        AttrMapping a = AttrMapping.of(ImmutableList.of("schema", "a"), ImmutableList.of("x"), 0.5);
+        AttrMapping ab = AttrMapping.of(ImmutableList.of("schema", "a", "b"), ImmutableList.of("x"), 0.5);
+        AttrMapping b = AttrMapping.of(ImmutableList.of("schema", "b"), ImmutableList.of("x"), 0.5);
+        assertTrue(a.compareTo(ab) < 0);
+        assertTrue(ab.compareTo(b) < 0);
+        assertEquals(0, a.compareTo(AttrMapping.of(ImmutableList.of("schema", "a"), ImmutableList.of("x"), 0.5)));
+
+        SchemaMapping s1 = SchemaMapping.of(ImmutableList.of(a), Etype.builder().setId("oe:a").build(), 0.5);
+        SchemaMapping s2 = SchemaMapping.of(ImmutableList.of(a), Etype.builder().setId("oe:b").build(), 0.5);
+        SchemaMapping s3 = SchemaMapping.of(ImmutableList.of(b), Etype.builder().setId("oe:a").build(), 0.5);
+        assertTrue(MappingOrderings.SCHEMA_MAPPINGS.compare(s1, s2) < 0);
+        assertTrue(MappingOrderings.SCHEMA_MAPPINGS.compare(s2, s3) < 0);
+    }
+
+    @Test
+    public void testTopK() {
+        List<SchemaMapping> candidates = new ArrayList();
+        TopK<SchemaMapping> topK = new TopK(3, MappingOrderings.SCHEMA_MAPPINGS);
+        for (int i = 0; i < 100; i++) {
+            SchemaMapping m = SchemaMapping.of(ImmutableList.<AttrMapping> of(),
+                    Etype.builder().setId("oe:" + i).build(), (i * 37 % 100) / 100.0);
+            candidates.add(m);
+            topK.offer(m);
+        }
+        List<SchemaMapping> best = MappingOrderings.topSchemaMappings(candidates, 3);
+        assertEquals(3, best.size());
+        assertEquals(0.99, best.get(0).getScore(), 0.0);
+        assertEquals(0.97, best.get(2).getScore(), 0.0);
+        assertEquals(best, topK.toList());
+        assertTrue(topK.isFull());
+        assertEquals(best.get(2), topK.threshold());
+        assertFalse(topK.offer(candidates.get(0)));
+    }
+
+    private static AttrDef attrDef(String name, AttrType type) {
+        return AttrDef.builder().setId("oe:" + name).setName(Dict.of(name)).setType(type).build();
+    }
+
+    @Test
+    public void testSchemaMatcher() {
+        List<Etype> etypes = new ArrayList();
+        for (int i = 0; i < 200; i++) {
+            etypes.add(Etype.builder()
+                    .setId("oe:noise-" + i)
+                    .putAttrDef(attrDef("field" + i, DataTypes.AT_STRING))
+                    .putAttrDef(attrDef("value" + i, DataTypes.AT_FLOAT))
+                    .build());
+        }
+        Etype person = Etype.builder()
+                .setId("oe:person")
+                .putAttrDef(attrDef("fullName", DataTypes.AT_STRING))
+                .putAttrDef(attrDef("age", DataTypes.AT_INTEGER))
+                .build();
+        etypes.add(100, person);
+
+        List<SourceColumn> columns = SourceColumn.fromData(ImmutableList.of(
+                ImmutableMap.of("full_name", "John", "AGE", 30),
+                ImmutableMap.of("full_name", "Jane", "AGE", 31)));
+        assertEquals(2, columns.size());
+        assertEquals(DataTypes.INTEGER, columns.get(1).getDatatype());
+
+        List<SchemaMapping> mappings = new SchemaMatcher(null, new ForkJoinPool(4), 3, 0.3).match(columns, etypes);
+        assertEquals(3, mappings.size());
+        SchemaMapping best = mappings.get(0);
+        assertEquals(person.getId(), best.getTargetEtype().getId());
+        assertEquals(2, best.getMappings().size());
+        assertEquals(ImmutableList.of("oe:fullName"), best.getMappings().get(0).getTargetPath());
+        assertEquals(1.0, best.getScore(), 0.0001);
+        assertTrue(mappings.get(1).getScore() <= best.getScore());
+
+        assertTrue(new SchemaMatcher(null).match(ImmutableList.<SourceColumn> of(), etypes).isEmpty());
+
+        List<SchemaMapping> mockMappings = new SchemaMatchingService(new MockEkb()).matchSchemas(null, null,
+                ImmutableList.of(ImmutableMap.of("name", "Trento", "latitude", 46.07)));
+        assertTrue(mockMappings.size() <= SchemaMatcher.DEFAULT_TOP_K);
+        assertTrue(new SchemaMatchingService(new MockEkb()).matchSchemas(null, null, null).isEmpty());
+
+        // concept distances not supported by the knowledge service are just not scored
+        MockKnowledgeService noConcepts = new MockKnowledgeService() {
+            @Override
+            public double getConceptsDistance(String sourceUrl, String targetUrl) {
+                throw new UnsupportedFeatureException("Concepts are not supported!");
+            }
+        };
+        Etype conceptual = Etype.builder()
+                .setId("oe:conceptual")
+                .putAttrDef(AttrDef.builder().setId("oe:age").setName(Dict.of("age")).setType(DataTypes.AT_INTEGER)
+                        .setConceptId("oe:concept-age").build())
+                .build();
+        List<SchemaMapping> conceptMappings = new SchemaMatcher(noConcepts).match(
+                ImmutableList.of(SourceColumn.of("age", DataTypes.INTEGER, "oe:concept-years")),
+                ImmutableList.of(conceptual));
+        assertEquals(1, conceptMappings.size());
+        assertEquals(conceptual.getId(), conceptMappings.get(0).getTargetEtype().getId());
+    }
+
+    @Test
+    public void testCompiledMapping() {
+        IEtypeService ets = new MockEkb().getEtypeService();
+        Etype facility = ets.readEtype(MockEtypeService.FACILITY);
+        SchemaMapping mapping = SchemaMapping.of(ImmutableList.of(
+                AttrMapping.of(ImmutableList.of("schema", "opens"),
+                        ImmutableList.of(MockEtypeService.FACILITY_OPENING_HOURS_ATTR,
+                                MockEtypeService.OPENING_TIME_ATTR), 1.0),
+                AttrMapping.of(ImmutableList.of("schema", "closes"),
+                        ImmutableList.of(MockEtypeService.FACILITY_OPENING_HOURS_ATTR,
+                                MockEtypeService.CLOSING_TIME_ATTR), 1.0),
+                AttrMapping.of(ImmutableList.of("schema", "ignored"), ImmutableList.<String> of(), 1.0)),
+                facility, 1.0);
+
+        CompiledMapping compiled = CompiledMapping.of(mapping, ImmutableList.of("ignored", "opens", "closes"), ets);
+        assertEquals(facility.getId(), compiled.getEtypeId());
+
+        Entity entity = compiled.transform(Arrays.asList("x", "9:00", 18));
+        Struct hours = (Struct) entity.attr(MockEtypeService.FACILITY_OPENING_HOURS_ATTR).firstValue().getObj();
+        assertEquals("9:00", hours.attr(MockEtypeService.OPENING_TIME_ATTR).firstValue().getObj());
+        assertEquals("18", hours.attr(MockEtypeService.CLOSING_TIME_ATTR).firstValue().getObj());
+        ValidationContext.of(facility, ets).checkEntity(entity, true);
+
+        assertTrue(compiled.transform(Arrays.asList("x", null, "")).getAttrs().isEmpty());
+
+        try {
+            CompiledMapping.of(mapping, ImmutableList.of("opens"), ets);
+            Assert.fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
+
+    @Test
+    public void testCompiledMappingConversions() {
+        AttrDef day = AttrDef.builder().setId("oe:day").setName(Dict.of("day")).setType(DataTypes.AT_DATE).build();
+        AttrDef title = AttrDef.builder().setId("oe:title").setName(Dict.of("title"))
+                .setType(DataTypes.AT_LOCALIZED_STRING).build();
+        AttrDef text = AttrDef.builder().setId("oe:text").setName(Dict.of("text"))
+                .setType(DataTypes.AT_SEMANTIC_TEXT).build();
+        Etype etype = Etype.builder().setId("oe:conv-et").putAttrDef(day).putAttrDef(title).putAttrDef(text)
+                .build();
+        List<String> header = ImmutableList.of("day", "title", "text");
+
+        ColumnProfiler profiler = new ColumnProfiler(header);
+        List<List<String>> rows = ImmutableList.<List<String>> of(
+                Arrays.asList("2015-12-31", "a", "some text"),
+                Arrays.asList("31/12/2015", "b", "more text"),
+                Arrays.asList("2015-12-31T10:30:15.5+01:00", "c", "even more"));
+        for (List<String> row : rows) {
+            profiler.accept(row);
+        }
+        assertEquals(DataTypes.DATE, profiler.profiles().get(0).getDatatype());
+
+        SchemaMapping mapping = SchemaMapping.of(ImmutableList.of(
+                AttrMapping.of(ImmutableList.of("schema", "day"), ImmutableList.of(day.getId()), 1.0),
+                AttrMapping.of(ImmutableList.of("schema", "title"), ImmutableList.of(title.getId()), 1.0),
+                AttrMapping.of(ImmutableList.of("schema", "text"), ImmutableList.of(text.getId()), 1.0)),
+                etype, 1.0);
+        CompiledMapping compiled = CompiledMapping.of(mapping, header, ImmutableMap.of(etype.getId(), etype));
+
+        Entity e0 = compiled.transform(rows.get(0));
+        assertEquals(new Date(1451520000000L), e0.attr(day.getId()).firstValue().getObj());
+        assertEquals(LocalizedString.of(Locale.ROOT, "a"), e0.attr(title.getId()).firstValue().getObj());
+        SemText semText = (SemText) e0.attr(text.getId()).firstValue().getObj();
+        assertEquals("some text", semText.getText());
+        assertEquals(Locale.ROOT, semText.getLocale());
+        assertEquals(new Date(1451520000000L), compiled.transform(rows.get(1)).attr(day.getId()).firstValue()
+                .getObj());
+        assertEquals(new Date(1451520000000L + (9 * 3600 + 30 * 60 + 15) * 1000L + 500),
+                compiled.transform(rows.get(2)).attr(day.getId()).firstValue().getObj());
+        ValidationContext.of(ImmutableMap.of(etype.getId(), etype)).checkEntity(e0, true);
+
+        try {
+            compiled.transform(Arrays.asList("31/02/2015", "", ""));
+            Assert.fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+
+        SchemaMapping twice = SchemaMapping.of(ImmutableList.of(
+                AttrMapping.of(ImmutableList.of("schema", "title"), ImmutableList.of(title.getId()), 1.0),
+                AttrMapping.of(ImmutableList.of("schema", "text"), ImmutableList.of(title.getId()), 1.0)),
+                etype, 1.0);
+        try {
+            CompiledMapping.of(twice, header, ImmutableMap.of(etype.getId(), etype));
+            Assert.fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+
+        AttrDef count = AttrDef.builder().setId("oe:count").setName(Dict.of("count"))
+                .setType(DataTypes.AT_INTEGER).build();
+        AttrDef total = AttrDef.builder().setId("oe:total").setName(Dict.of("total"))
+                .setType(DataTypes.AT_LONG).build();
+        Etype numbers = Etype.builder().setId("oe:numbers").putAttrDef(count).putAttrDef(total).build();
+        CompiledMapping numbersMapping = CompiledMapping.of(SchemaMapping.of(ImmutableList.of(
+                AttrMapping.of(ImmutableList.of("schema", "count"), ImmutableList.of(count.getId()), 1.0),
+                AttrMapping.of(ImmutableList.of("schema", "total"), ImmutableList.of(total.getId()), 1.0)),
+                numbers, 1.0), ImmutableList.of("count", "total"), ImmutableMap.of(numbers.getId(), numbers));
+        Entity converted = numbersMapping.transform(Arrays.<Object> asList(3.0, 5000000000.0));
+        assertEquals(3, converted.attr(count.getId()).firstValue().getObj());
+        assertEquals(5000000000L, converted.attr(total.getId()).firstValue().getObj());
+        for (List<Object> lossy : ImmutableList.<List<Object>> of(Arrays.<Object> asList(3.7, null),
+                Arrays.<Object> asList(5000000000L, null), Arrays.<Object> asList(null, 2.5),
+                Arrays.<Object> asList(null, 1e20))) {
+            try {
+                numbersMapping.transform(lossy);
+                Assert.fail("Shouldn't arrive here!");
+            } catch (IllegalArgumentException ex) {
+
+            }
+        }
+    }
+
+    @Test
+    public void testColumnProfiler() {
+        ColumnProfiler profiler = new ColumnProfiler(ImmutableList.of("id", "price", "city", "day", "flag"));
+        String[] cities = { "Trento", "Rovereto", "Trento", "Arco" };
+        for (int i = 0; i < 10000; i++) {
+            profiler.accept(Arrays.asList(
+                    Integer.toString(i),
+                    i % 10 == 0 ? "" : (i / 2) + ".5",
+                    cities[i % cities.length],
+                    "2015-12-" + (10 + i % 20),
+                    i % 2 == 0 ? "TRUE" : "false"));
+        }
+        profiler.accept(Arrays.asList("x"));
+        List<ColumnProfile> profiles = profiler.profiles();
+        assertEquals(5, profiles.size());
+        assertEquals(10001, profiler.getRowCount());
+
+        ColumnProfile id = profiles.get(0);
+        assertEquals(DataTypes.INTEGER, id.getDatatype());
+        assertEquals(0, id.getNullCount());
+        assertEquals(10001, id.getDistinctCount(), 10001 * 0.05);
+        assertEquals(ColumnProfiler.DEFAULT_SAMPLE_SIZE, id.getSample().size());
+
+        ColumnProfile price = profiles.get(1);
+        assertEquals(DataTypes.FLOAT, price.getDatatype());
+        assertEquals(1.0, price.getNumericRate(), 0);
+        assertEquals(0.0, price.getIntegerRate(), 0);
+        assertEquals(1001, price.getNullCount());
+        assertEquals(0.1, price.getNullRatio(), 0.001);
+
+        ColumnProfile city = profiles.get(2);
+        assertEquals(DataTypes.STRING, city.getDatatype());
+        assertEquals(3, city.getDistinctCount());
+        assertEquals(ImmutableList.of("Trento", "Arco", "Rovereto"),
+                ImmutableList.copyOf(city.getFrequentValues().keySet()));
+        assertEquals(Long.valueOf(5000), city.getFrequentValues().get("Trento"));
+
+        assertEquals(DataTypes.DATE, profiles.get(3).getDatatype());
+        assertEquals(DataTypes.BOOLEAN, profiles.get(4).getDatatype());
+        assertEquals(SourceColumn.of("flag", DataTypes.BOOLEAN, "").toString(),
+                profiles.get(4).toSourceColumn().toString());
+
+        List<ColumnProfile> mapProfiles = ColumnProfiler.profile(ImmutableList.of(
+                ImmutableMap.of("a", 1L, "b", "31/12/2015"),
+                ImmutableMap.of("b", "")));
+        assertEquals(DataTypes.LONG, mapProfiles.get(0).getDatatype());
+        assertEquals(1, mapProfiles.get(0).getNullCount());
+        assertEquals(DataTypes.DATE, mapProfiles.get(1).getDatatype());
+        assertEquals(0.5, mapProfiles.get(1).getNullRatio(), 0);
+
+        try {
+            profiler.accept(Arrays.asList(1, 2, 3, 4, 5, 6));
+            Assert.fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
+
+    @Test
+    public void testCachingSchemaMatchingService() throws IOException {
+        final MockEkb ekb = new MockEkb();
+        final AtomicInteger calls = new AtomicInteger();
+        ISchemaMatchingService counting = new ISchemaMatchingService() {
+            @Override
+            public List<SchemaMapping> matchSchemas(DcatMetadata dcatMetadata, TraceType schema, Object data) {
+                calls.incrementAndGet();
+                return new SchemaMatchingService(ekb).matchSchemas(dcatMetadata, schema, data);
+            }
+        };
+        File dir = Files.createTempDirectory("schema-mappings").toFile();
+
+        CachingSchemaMatchingService caching = new CachingSchemaMatchingService(counting, ekb.getEtypeService(),
+                dir);
+        TraceType schema = AnyType.of();
+        DcatMetadata dcat = DcatMetadata.builder()
+                .setDataset(DcatDataset.builder()
+                        .setTitle(Dict.of("Municipalities"))
+                        .setModified("2015-06-01")
+                        .build())
+                .setDistribution(DcatDistribution.builder()
+                        .setFormat("CSV")
+                        .setDownloadURL("http://example.org/municipalities-1.csv")
+                        .build())
+                .build();
+        List<SchemaMapping> first = caching.matchSchemas(dcat, schema,
+                ImmutableList.of(ImmutableMap.of("name", "Trento", "latitude", "46.07")));
+        assertEquals(1, calls.get());
+        assertFalse(first.isEmpty());
+
+        // a new upload of the same dataset only changes dates and urls
+        DcatMetadata reuploaded = DcatMetadata.builder()
+                .setDataset(DcatDataset.builder()
+                        .setTitle(Dict.of("Municipalities"))
+                        .setModified("2015-07-01")
+                        .build())
+                .setDistribution(DcatDistribution.builder()
+                        .setFormat("CSV")
+                        .setDownloadURL("http://example.org/municipalities-2.csv")
+                        .build())
+                .build();
+        List<SchemaMapping> second = caching.matchSchemas(reuploaded, schema,
+                ImmutableList.of(ImmutableMap.of("name", "Povo", "latitude", "46.06")));
+        assertEquals(1, calls.get());
+        assertEquals(first, second);
+
+        DcatMetadata other = DcatMetadata.builder()
+                .setDataset(DcatDataset.builder()
+                        .setTitle(Dict.of("Ski lifts"))
+                        .build())
+                .build();
+        caching.matchSchemas(other, schema,
+                ImmutableList.of(ImmutableMap.of("name", "Trento", "latitude", "46.07")));
+        assertEquals(2, calls.get());
+
+        caching.matchSchemas(dcat, schema, ImmutableList.of(ImmutableMap.of("name", "Povo")));
+        assertEquals(3, calls.get());
+
+        // the whole sample is fingerprinted
+        List<Map<String, String>> rows = new ArrayList();
+        for (int i = 0; i < 20; i++) {
+            rows.add(ImmutableMap.of("name", "Trento", "latitude", "46.07"));
+        }
+        assertEquals(first, caching.matchSchemas(dcat, schema, rows));
+        assertEquals(3, calls.get());
+        rows.add(ImmutableMap.of("name", "Povo", "altitude", "400"));
+        caching.matchSchemas(dcat, schema, rows);
+        assertEquals(4, calls.get());
+
+        // a new instance reads the results persisted by the first one
+        CachingSchemaMatchingService restarted = new CachingSchemaMatchingService(counting,
+                ekb.getEtypeService(), dir);
+        assertEquals(first, restarted.matchSchemas(reuploaded, schema,
+                ImmutableList.of(ImmutableMap.of("name", "Trento", "latitude", "1.5"))));
+        assertEquals(4, calls.get());
+
+        // within its time to live the catalog is read again only when invalidated
+        ((MockEtypeService) ekb.getEtypeService()).registerStructType("oetest:et/caching-test", "caching test",
+                "test di caching");
+        restarted.matchSchemas(dcat, schema, ImmutableList.of(ImmutableMap.of("name", "Trento", "latitude", "1.5")));
+        assertEquals(4, calls.get());
+        restarted.invalidateCatalog();
+        restarted.matchSchemas(dcat, schema, ImmutableList.of(ImmutableMap.of("name", "Trento", "latitude", "1.5")));
+        assertEquals(5, calls.get());
+
+        // without time to live the catalog is read at each request
+        CachingSchemaMatchingService uncachedCatalog = new CachingSchemaMatchingService(counting,
+                ekb.getEtypeService(), dir, CachingSchemaMatchingService.DEFAULT_METADATA_KEY,
+                CachingSchemaMatchingService.DEFAULT_MAX_CACHED, 0);
+        uncachedCatalog.matchSchemas(dcat, schema, ImmutableList.of(ImmutableMap.of("name", "Trento")));
+        assertEquals(6, calls.get());
+        uncachedCatalog.matchSchemas(dcat, schema, ImmutableList.of(ImmutableMap.of("name", "Trento")));
+        assertEquals(6, calls.get());
+        ((MockEtypeService) ekb.getEtypeService()).registerStructType("oetest:et/caching-test-2",
+                "caching test 2", "test di caching 2");
+        uncachedCatalog.matchSchemas(dcat, schema, ImmutableList.of(ImmutableMap.of("name", "Trento")));
+        assertEquals(7, calls.get());
+
+        List<Etype> etypes = ekb.getEtypeService().readAllEtypes();
+        assertEquals(CachingSchemaMatchingService.catalogVersion(etypes),
+                CachingSchemaMatchingService.catalogVersion(Lists.reverse(etypes)));
+        assertFalse(CachingSchemaMatchingService.catalogVersion(etypes).equals(
+                CachingSchemaMatchingService.catalogVersion(etypes.subList(1, etypes.size()))));
+
+        restarted.clear();
+        assertEquals(0, dir.listFiles().length);
+        assertTrue(dir.delete());
+    }
+
+    @Test
+    public void testLabelIndex() throws IOException {
+        LabelIndex index = new LabelIndex(new NGramEmbedder());
+        for (Etype etype : new MockEtypeService().readAllEtypes()) {
+            index.addEtype(etype);
+        }
+        for (int i = 0; i < 2000; i++) {
+            index.add(LabelIndex.Kind.ATTR_DEF, "oe:noise-" + i, Dict.of("noise attribute " + i),
+                    Dict.of(Locale.ITALIAN, "rumore " + (i * 7919 % 10007)));
+        }
+        index.addConcept(Concept.builder()
+                .setId("oe:municipality")
+                .setName(Dict.of(Locale.ENGLISH, "municipality").with(Locale.ITALIAN, "comune"))
+                .build());
+        int size = index.size();
+        index.add(LabelIndex.Kind.ATTR_DEF, "oe:noise-0", Dict.of("again"), Dict.of());
+        assertEquals(size, index.size());
+
+        List<LabelIndex.Match> matches = index.search("Comune", 3);
+        assertEquals(3, matches.size());
+        assertEquals("oe:municipality", matches.get(0).getId());
+        assertEquals(LabelIndex.Kind.CONCEPT, matches.get(0).getKind());
+        assertEquals("comune", matches.get(0).getLabel());
+        assertEquals(1.0, matches.get(0).getScore(), 0.0001);
+
+        assertEquals("oe:noise-1234", index.search("noise attribute 1234", 1).get(0).getId());
+
+        List<LabelIndex.Match> attrDefs = index.search("facility latitude", 5, LabelIndex.Kind.ATTR_DEF);
+        assertEquals(MockEtypeService.FACILITY_LATITUDE_ATTR, attrDefs.get(0).getId());
+        for (LabelIndex.Match match : attrDefs) {
+            assertEquals(LabelIndex.Kind.ATTR_DEF, match.getKind());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeTo(out);
+        LabelIndex read = LabelIndex.readFrom(new ByteArrayInputStream(out.toByteArray()), new NGramEmbedder());
+        assertEquals(index.size(), read.size());
+        assertEquals(matches.toString(), read.search("Comune", 3).toString());
+
+        try {
+            LabelIndex.readFrom(new ByteArrayInputStream(out.toByteArray()), new NGramEmbedder(64));
+            Assert.fail("Shouldn't arrive here!");
+        } catch (IOException ex) {
+
+        }
+
+        // a single node ends with its vector, its level count and an empty neighbor count per level
+        NGramEmbedder embedder = new NGramEmbedder();
+        LabelIndex single = new LabelIndex(embedder);
+        single.add(LabelIndex.Kind.ATTR_DEF, "oe:single", Dict.of("single"), Dict.of());
+        ByteArrayOutputStream singleOut = new ByteArrayOutputStream();
+        single.writeTo(singleOut);
+        byte[] bytes = singleOut.toByteArray();
+        int levelsAt = bytes.length - 8;
+        while (ByteBuffer.wrap(bytes, levelsAt, 4).getInt() != (bytes.length - levelsAt) / 4 - 1) {
+            levelsAt -= 4;
+        }
+        int maxLevelAt = levelsAt - 4 * embedder.dimension() - 4;
+        assertEquals(ByteBuffer.wrap(bytes, levelsAt, 4).getInt() - 1, ByteBuffer.wrap(bytes, maxLevelAt, 4)
+                .getInt());
+        for (int[] corruption : new int[][] { { levelsAt, -1 }, { levelsAt, Integer.MAX_VALUE },
+                { maxLevelAt, -5 }, { maxLevelAt, Integer.MAX_VALUE } }) {
+            byte[] corrupted = bytes.clone();
+            ByteBuffer.wrap(corrupted, corruption[0], 4).putInt(corruption[1]);
+            try {
+                LabelIndex.readFrom(new ByteArrayInputStream(corrupted), embedder);
+                Assert.fail("Shouldn't arrive here!");
+            } catch (IOException ex) {
+
+            }
+        }
+    }
+
+    @Test
+    public void testEtypeSignatures() {
+        List<Etype> etypes = new ArrayList();
+        for (int i = 0; i < 100; i++) {
+            Etype.Builder b = Etype.builder().setId("oe:et-" + i).setConceptId("oe:concept-" + (i % 10));
+            for (int j = 0; j < 5; j++) {
+                b.putAttrDef(attrDef("shared" + j, DataTypes.AT_STRING));
+            }
+            b.putAttrDef(attrDef("own" + i, DataTypes.AT_STRING));
+            etypes.add(b.build());
+        }
+        etypes.add(Etype.builder().setId("oe:empty").build());
+        EtypeSignatures signatures = EtypeSignatures.of(etypes);
+
+        assertEquals(101, signatures.size());
+        // 100 own and 5 shared attribute defs and 10 etype concepts
+        assertEquals(115, signatures.dictionarySize());
+        assertEquals(7, signatures.cardinality("oe:et-3"));
+        assertEquals(0, signatures.cardinality("oe:empty"));
+
+        assertEquals(1.0, signatures.jaccard("oe:et-3", "oe:et-3"), 0);
+        assertEquals(5.0 / 9, signatures.jaccard("oe:et-3", "oe:et-4"), 0.0001);
+        assertEquals(6.0 / 8, signatures.jaccard("oe:et-3", "oe:et-13"), 0.0001);
+        assertEquals(0.0, signatures.jaccard("oe:empty", "oe:empty"), 0);
+
+        List<String> columns = ImmutableList.of("oe:shared0", "oe:own3", "oe:unknown");
+        assertEquals(2.0 / 3, signatures.containment(columns, "oe:et-3"), 0.0001);
+        assertEquals(2.0 / 8, signatures.jaccard("oe:et-3", columns), 0.0001);
+
+        assertEquals(ImmutableList.of("oe:et-3"), signatures.covering(ImmutableList.of("oe:shared0", "oe:own3")));
+        assertEquals(100, signatures.covering(ImmutableList.of("oe:shared4", "oe:shared1")).size());
+        assertEquals(ImmutableList.of("oe:et-7", "oe:et-17", "oe:et-27", "oe:et-37", "oe:et-47", "oe:et-57",
+                "oe:et-67", "oe:et-77", "oe:et-87", "oe:et-97"),
+                signatures.covering(ImmutableList.of("oe:concept-7")));
+        assertTrue(signatures.covering(columns).isEmpty());
+
+        List<EtypeSignatures.SimilarPair> pairs = signatures.similarPairs(0.7);
+        // etypes with the same concept
+        assertEquals(10 * 45, pairs.size());
+        assertEquals(6.0 / 8, pairs.get(0).getSimilarity(), 0.0001);
+        assertEquals(100 * 99 / 2, signatures.similarPairs(0.5).size());
+
+        try {
+            signatures.jaccard("oe:et-1", "oe:missing");
+            Assert.fail("Shouldn't arrive here!");
+        } catch (IllegalArgumentException ex) {
+
+        }
+    }
 }